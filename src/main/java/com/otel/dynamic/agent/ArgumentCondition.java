@@ -0,0 +1,570 @@
+package com.otel.dynamic.agent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiled argument predicate for conditional instrumentation: the advice
+ * evaluates a rule's {@code condition} before any span work, and calls for
+ * which it does not hold get no span.
+ *
+ * Grammar (a small subset of Java expression syntax):
+ * <pre>
+ *   expr      := and ('||' and)*
+ *   and       := unary ('&amp;&amp;' unary)*
+ *   unary     := '!' unary | '(' expr ')' | predicate
+ *   predicate := operand (('==' | '!=' | '&gt;' | '&gt;=' | '&lt;' | '&lt;=') operand | 'in' list)?
+ *   operand   := 'args[' index ']' ('.' getter)* | number | 'string' | "string" | true | false | null
+ *   list      := '[' literal (',' literal)* ']'
+ * </pre>
+ * A getter {@code amount} resolves to {@code getAmount()}, {@code isAmount()} or
+ * {@code amount()}; {@code getAmount()} is called as written. A bare operand is
+ * true when it evaluates to {@code Boolean.TRUE}.
+ *
+ * Syntax errors are raised by {@link #compile(String)} at configuration load.
+ * Getters are bound to MethodHandles on first use per receiver class and cached;
+ * evaluation walks preallocated nodes and does not allocate for numbers,
+ * strings, enums and booleans. Any failure at call time evaluates to false.
+ *
+ * Dependency-free: injected into application classloaders with the advice.
+ */
+public final class ArgumentCondition {
+
+    private final String expression;
+    private final Node root;
+
+    private ArgumentCondition(String expression, Node root) {
+        this.expression = expression;
+        this.root = root;
+    }
+
+    /**
+     * Compile an expression.
+     *
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public static ArgumentCondition compile(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("empty condition");
+        }
+        Parser parser = new Parser(expression);
+        Node root = parser.parseExpression();
+        parser.expectEnd();
+        return new ArgumentCondition(expression, root);
+    }
+
+    /**
+     * Evaluate the condition against the intercepted method's arguments.
+     */
+    public boolean matches(Object[] args) {
+        try {
+            return args != null && root.test(args);
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    // ---- evaluation ----
+
+    static final int OR = 0;
+    static final int AND = 1;
+    static final int NOT = 2;
+    static final int EQ = 3;
+    static final int NE = 4;
+    static final int GT = 5;
+    static final int GE = 6;
+    static final int LT = 7;
+    static final int LE = 8;
+    static final int IN = 9;
+    static final int TRUTHY = 10;
+
+    static final class Node {
+        final int kind;
+        final Node left;
+        final Node right;
+        final Operand a;
+        final Operand b;
+        final Set<String> strings;
+        final double[] numbers;
+
+        Node(int kind, Node left, Node right, Operand a, Operand b, Set<String> strings, double[] numbers) {
+            this.kind = kind;
+            this.left = left;
+            this.right = right;
+            this.a = a;
+            this.b = b;
+            this.strings = strings;
+            this.numbers = numbers;
+        }
+
+        boolean test(Object[] args) throws Throwable {
+            switch (kind) {
+                case OR:
+                    return left.test(args) || right.test(args);
+                case AND:
+                    return left.test(args) && right.test(args);
+                case NOT:
+                    return !left.test(args);
+                case EQ:
+                    return equal(args);
+                case NE:
+                    return !equal(args);
+                case GT:
+                    return a.number(args) > b.number(args);
+                case GE:
+                    return a.number(args) >= b.number(args);
+                case LT:
+                    return a.number(args) < b.number(args);
+                case LE:
+                    return a.number(args) <= b.number(args);
+                case IN:
+                    return contained(args);
+                case TRUTHY:
+                    return Boolean.TRUE.equals(a.value(args));
+                default:
+                    return false;
+            }
+        }
+
+        private boolean equal(Object[] args) throws Throwable {
+            if (a.kind == Operand.NUMBER || b.kind == Operand.NUMBER) {
+                return a.number(args) == b.number(args);
+            }
+            if (b.kind == Operand.STRING) {
+                return b.string.equals(asString(a.value(args)));
+            }
+            if (a.kind == Operand.STRING) {
+                return a.string.equals(asString(b.value(args)));
+            }
+            Object left = a.value(args);
+            Object right = b.value(args);
+            return left == null ? right == null : left.equals(right);
+        }
+
+        private boolean contained(Object[] args) throws Throwable {
+            if (numbers != null) {
+                double value = a.number(args);
+                for (double candidate : numbers) {
+                    if (candidate == value) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            String value = asString(a.value(args));
+            return value != null && strings.contains(value);
+        }
+
+        private static String asString(Object value) {
+            if (value == null || value instanceof String) {
+                return (String) value;
+            }
+            if (value instanceof Enum) {
+                return ((Enum<?>) value).name();
+            }
+            return value.toString();
+        }
+    }
+
+    static final class Operand {
+        static final int ARG = 0;
+        static final int NUMBER = 1;
+        static final int STRING = 2;
+        static final int BOOLEAN = 3;
+        static final int NULL = 4;
+
+        final int kind;
+        final int argIndex;
+        final String[] getterNames;
+        final Getter[] getters;
+        final double number;
+        final String string;
+        final Boolean bool;
+
+        Operand(int kind, int argIndex, String[] getterNames, double number, String string, Boolean bool) {
+            this.kind = kind;
+            this.argIndex = argIndex;
+            this.getterNames = getterNames;
+            this.getters = getterNames != null ? new Getter[getterNames.length] : null;
+            this.number = number;
+            this.string = string;
+            this.bool = bool;
+        }
+
+        Object value(Object[] args) throws Throwable {
+            switch (kind) {
+                case ARG:
+                    Object target = argIndex < args.length ? args[argIndex] : null;
+                    for (int i = 0; i < getterNames.length && target != null; i++) {
+                        MethodHandle handle = getter(i, target.getClass()).asObject;
+                        target = handle != null ? (Object) handle.invokeExact(target) : null;
+                    }
+                    return target;
+                case STRING:
+                    return string;
+                case BOOLEAN:
+                    return bool;
+                default:
+                    return null;
+            }
+        }
+
+        double number(Object[] args) throws Throwable {
+            if (kind == NUMBER) {
+                return number;
+            }
+            if (kind != ARG) {
+                return Double.NaN;
+            }
+            Object target = argIndex < args.length ? args[argIndex] : null;
+            int last = getterNames.length - 1;
+            for (int i = 0; i < last && target != null; i++) {
+                MethodHandle handle = getter(i, target.getClass()).asObject;
+                target = handle != null ? (Object) handle.invokeExact(target) : null;
+            }
+            if (target == null) {
+                return Double.NaN;
+            }
+            if (last >= 0) {
+                Getter getter = getter(last, target.getClass());
+                if (getter.asDouble != null) {
+                    // Primitive getter: read without boxing
+                    return (double) getter.asDouble.invokeExact(target);
+                }
+                target = getter.asObject != null ? (Object) getter.asObject.invokeExact(target) : null;
+            }
+            return target instanceof Number ? ((Number) target).doubleValue() : Double.NaN;
+        }
+
+        private Getter getter(int index, Class<?> type) {
+            Getter cached = getters[index];
+            if (cached == null || cached.type != type) {
+                // Monomorphic cache: rebind when the receiver class changes
+                cached = Getter.bind(type, getterNames[index]);
+                getters[index] = cached;
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * A getter bound to one receiver class. Immutable, so it can be published
+     * through a plain array slot.
+     */
+    static final class Getter {
+        private static final MethodType OBJECT_TYPE = MethodType.methodType(Object.class, Object.class);
+        private static final MethodType DOUBLE_TYPE = MethodType.methodType(double.class, Object.class);
+
+        final Class<?> type;
+        final MethodHandle asObject;
+        final MethodHandle asDouble;
+
+        Getter(Class<?> type, MethodHandle asObject, MethodHandle asDouble) {
+            this.type = type;
+            this.asObject = asObject;
+            this.asDouble = asDouble;
+        }
+
+        static Getter bind(Class<?> type, String name) {
+            Method method = find(type, name);
+            if (method == null) {
+                return new Getter(type, null, null);
+            }
+            try {
+                method.setAccessible(true);
+                MethodHandle handle = MethodHandles.lookup().unreflect(method);
+                Class<?> returnType = method.getReturnType();
+                MethodHandle asDouble = returnType.isPrimitive() && returnType != boolean.class
+                        && returnType != char.class && returnType != void.class
+                        ? handle.asType(DOUBLE_TYPE) : null;
+                return new Getter(type, handle.asType(OBJECT_TYPE), asDouble);
+            } catch (Exception | LinkageError e) {
+                return new Getter(type, null, null);
+            }
+        }
+
+        private static Method find(Class<?> type, String name) {
+            String[] candidates;
+            if (name.endsWith("()")) {
+                candidates = new String[] {name.substring(0, name.length() - 2)};
+            } else {
+                String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+                candidates = new String[] {"get" + capitalized, "is" + capitalized, name};
+            }
+            for (String candidate : candidates) {
+                try {
+                    Method method = type.getMethod(candidate);
+                    if (method.getReturnType() != void.class) {
+                        return method;
+                    }
+                } catch (NoSuchMethodException ignored) {
+                    // try next candidate
+                }
+            }
+            return null;
+        }
+    }
+
+    // ---- parsing ----
+
+    static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node parseExpression() {
+            Node node = parseAnd();
+            while (consume("||")) {
+                node = new Node(OR, node, parseAnd(), null, null, null, null);
+            }
+            return node;
+        }
+
+        private Node parseAnd() {
+            Node node = parseUnary();
+            while (consume("&&")) {
+                node = new Node(AND, node, parseUnary(), null, null, null, null);
+            }
+            return node;
+        }
+
+        private Node parseUnary() {
+            skipWhitespace();
+            if (peek('!') && !text.startsWith("!=", pos)) {
+                pos++;
+                return new Node(NOT, parseUnary(), null, null, null, null, null);
+            }
+            if (consume("(")) {
+                Node node = parseExpression();
+                expect(")");
+                return node;
+            }
+            return parsePredicate();
+        }
+
+        private Node parsePredicate() {
+            int start = pos;
+            Operand a = parseOperand();
+            int kind = parseComparison();
+            if (kind < 0) {
+                if (consumeKeyword("in")) {
+                    return parseIn(a);
+                }
+                if (a.kind != Operand.ARG && a.kind != Operand.BOOLEAN) {
+                    throw error("expected a comparison after literal", start);
+                }
+                return new Node(TRUTHY, null, null, a, null, null, null);
+            }
+            int opPos = pos;
+            Operand b = parseOperand();
+            if (kind >= GT && kind <= LE) {
+                if (!numeric(a) || !numeric(b)) {
+                    throw error("relational operators need numeric operands", opPos);
+                }
+            }
+            if (a.kind != Operand.ARG && b.kind != Operand.ARG) {
+                throw error("comparison must reference args", start);
+            }
+            return new Node(kind, null, null, a, b, null, null);
+        }
+
+        private Node parseIn(Operand a) {
+            if (a.kind != Operand.ARG) {
+                throw error("'in' needs an args operand on the left", pos);
+            }
+            expect("[");
+            List<Operand> literals = new ArrayList<>();
+            do {
+                int literalPos = pos;
+                Operand literal = parseOperand();
+                if (literal.kind != Operand.NUMBER && literal.kind != Operand.STRING) {
+                    throw error("list elements must be numbers or strings", literalPos);
+                }
+                if (!literals.isEmpty() && literals.get(0).kind != literal.kind) {
+                    throw error("list elements must all have the same type", literalPos);
+                }
+                literals.add(literal);
+            } while (consume(","));
+            expect("]");
+
+            if (literals.get(0).kind == Operand.NUMBER) {
+                double[] numbers = new double[literals.size()];
+                for (int i = 0; i < numbers.length; i++) {
+                    numbers[i] = literals.get(i).number;
+                }
+                return new Node(IN, null, null, a, null, null, numbers);
+            }
+            Set<String> strings = new HashSet<>();
+            for (Operand literal : literals) {
+                strings.add(literal.string);
+            }
+            return new Node(IN, null, null, a, null, strings, null);
+        }
+
+        private int parseComparison() {
+            if (consume("==")) {
+                return EQ;
+            }
+            if (consume("!=")) {
+                return NE;
+            }
+            if (consume(">=")) {
+                return GE;
+            }
+            if (consume("<=")) {
+                return LE;
+            }
+            if (consume(">")) {
+                return GT;
+            }
+            if (consume("<")) {
+                return LT;
+            }
+            return -1;
+        }
+
+        private Operand parseOperand() {
+            skipWhitespace();
+            int start = pos;
+            if (pos >= text.length()) {
+                throw error("unexpected end of condition", pos);
+            }
+            char c = text.charAt(pos);
+            if (c == '\'' || c == '"') {
+                int end = text.indexOf(c, pos + 1);
+                if (end < 0) {
+                    throw error("unterminated string", start);
+                }
+                pos = end + 1;
+                return new Operand(Operand.STRING, -1, null, 0, text.substring(start + 1, end), null);
+            }
+            if (Character.isDigit(c) || c == '-' || c == '.') {
+                pos++;
+                while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.'
+                        || text.charAt(pos) == '_')) {
+                    pos++;
+                }
+                try {
+                    double value = Double.parseDouble(text.substring(start, pos).replace("_", ""));
+                    return new Operand(Operand.NUMBER, -1, null, value, null, null);
+                } catch (NumberFormatException e) {
+                    throw error("invalid number", start);
+                }
+            }
+            String word = identifier();
+            if ("true".equals(word) || "false".equals(word)) {
+                return new Operand(Operand.BOOLEAN, -1, null, 0, null, Boolean.valueOf(word));
+            }
+            if ("null".equals(word)) {
+                return new Operand(Operand.NULL, -1, null, 0, null, null);
+            }
+            if (!"args".equals(word)) {
+                throw error("expected args[n], a number, a string, true, false or null", start);
+            }
+            expect("[");
+            skipWhitespace();
+            int indexStart = pos;
+            while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                pos++;
+            }
+            if (indexStart == pos) {
+                throw error("expected argument index", indexStart);
+            }
+            int index = Integer.parseInt(text.substring(indexStart, pos));
+            expect("]");
+
+            List<String> getters = new ArrayList<>();
+            while (pos < text.length() && text.charAt(pos) == '.') {
+                pos++;
+                int getterStart = pos;
+                String getter = identifier();
+                if (getter.isEmpty()) {
+                    throw error("expected getter name", getterStart);
+                }
+                if (text.startsWith("()", pos)) {
+                    pos += 2;
+                    getter += "()";
+                }
+                getters.add(getter);
+            }
+            return new Operand(Operand.ARG, index, getters.toArray(new String[0]), 0, null, null);
+        }
+
+        private static boolean numeric(Operand operand) {
+            return operand.kind == Operand.ARG || operand.kind == Operand.NUMBER;
+        }
+
+        private String identifier() {
+            int start = pos;
+            while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+                pos++;
+            }
+            return text.substring(start, pos);
+        }
+
+        private boolean consumeKeyword(String keyword) {
+            skipWhitespace();
+            int end = pos + keyword.length();
+            if (text.startsWith(keyword, pos)
+                    && (end >= text.length() || !Character.isJavaIdentifierPart(text.charAt(end)))) {
+                pos = end;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean consume(String token) {
+            skipWhitespace();
+            if (text.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!consume(token)) {
+                throw error("expected '" + token + "'", pos);
+            }
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("unexpected '" + text.charAt(pos) + "'", pos);
+            }
+        }
+
+        private boolean peek(char c) {
+            return pos < text.length() && text.charAt(pos) == c;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message, int position) {
+            return new IllegalArgumentException(message + " at position " + position);
+        }
+    }
+}
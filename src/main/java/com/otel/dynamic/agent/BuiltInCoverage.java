@@ -0,0 +1,134 @@
+package com.otel.dynamic.agent;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Types and methods that the OTel Java agent's built-in instrumentations already
+ * trace (Spring Data repositories, messaging listeners, {@code @Scheduled} and
+ * {@code @WithSpan} methods). Spring MVC/WebFlux handlers and JAX-RS resources
+ * only get their own span when the agent runs with
+ * {@code otel.instrumentation.common.experimental.controller-telemetry.enabled};
+ * otherwise the server span merely takes their route, so they count as covered
+ * only under that flag.
+ *
+ * The same tables back the match-time check in GlobalTypeInstrumentation
+ * (ByteBuddy descriptions) and the reflective check used when the advice
+ * resolves a method. Dependency-free: injected into application classloaders.
+ */
+public final class BuiltInCoverage {
+
+    /** Every public method of types implementing one of these is covered */
+    public static final Set<String> SUPERTYPES = set(
+            "org.springframework.data.repository.Repository");
+
+    /** Methods carrying one of these annotations are covered when controller spans are on */
+    public static final Set<String> CONTROLLER_ANNOTATIONS = set(
+            "org.springframework.web.bind.annotation.RequestMapping",
+            "org.springframework.web.bind.annotation.GetMapping",
+            "org.springframework.web.bind.annotation.PostMapping",
+            "org.springframework.web.bind.annotation.PutMapping",
+            "org.springframework.web.bind.annotation.DeleteMapping",
+            "org.springframework.web.bind.annotation.PatchMapping",
+            "javax.ws.rs.GET", "javax.ws.rs.POST", "javax.ws.rs.PUT", "javax.ws.rs.DELETE",
+            "javax.ws.rs.PATCH", "javax.ws.rs.HEAD", "javax.ws.rs.OPTIONS",
+            "jakarta.ws.rs.GET", "jakarta.ws.rs.POST", "jakarta.ws.rs.PUT", "jakarta.ws.rs.DELETE",
+            "jakarta.ws.rs.PATCH", "jakarta.ws.rs.HEAD", "jakarta.ws.rs.OPTIONS");
+
+    /** Methods carrying one of these annotations are covered */
+    public static final Set<String> METHOD_ANNOTATIONS = set(
+            "org.springframework.amqp.rabbit.annotation.RabbitListener",
+            "org.springframework.amqp.rabbit.annotation.RabbitHandler",
+            "org.springframework.kafka.annotation.KafkaListener",
+            "org.springframework.jms.annotation.JmsListener",
+            "org.springframework.scheduling.annotation.Scheduled",
+            "io.opentelemetry.instrumentation.annotations.WithSpan",
+            "io.opentelemetry.extension.annotations.WithSpan");
+
+    private static final String CONTROLLER_TELEMETRY =
+            "otel.instrumentation.common.experimental.controller-telemetry.enabled";
+
+    // Read like the agent reads it, from the system property or else the environment
+    private static final boolean controllerSpans = Boolean.parseBoolean(flag(CONTROLLER_TELEMETRY));
+
+    private BuiltInCoverage() {
+    }
+
+    /**
+     * Check whether a method annotation marks a method the agent traces itself.
+     */
+    public static boolean isCoveringAnnotation(String annotationName) {
+        return isCoveringAnnotation(annotationName, controllerSpans);
+    }
+
+    static boolean isCoveringAnnotation(String annotationName, boolean controllerSpans) {
+        return METHOD_ANNOTATIONS.contains(annotationName)
+                || (controllerSpans && CONTROLLER_ANNOTATIONS.contains(annotationName));
+    }
+
+    /**
+     * Check whether a loaded class's method is covered by built-in instrumentation.
+     * Any overload with the given name counts.
+     */
+    public static boolean covers(Class<?> type, String methodName) {
+        return covers(type, methodName, controllerSpans);
+    }
+
+    static boolean covers(Class<?> type, String methodName, boolean controllerSpans) {
+        try {
+            if (implementsAny(type, SUPERTYPES)) {
+                return true;
+            }
+            for (Method method : type.getMethods()) {
+                if (method.getName().equals(methodName) && hasAnnotation(method.getAnnotations(), controllerSpans)) {
+                    return true;
+                }
+            }
+            for (Method method : type.getDeclaredMethods()) {
+                if (method.getName().equals(methodName) && hasAnnotation(method.getAnnotations(), controllerSpans)) {
+                    return true;
+                }
+            }
+        } catch (Throwable ignored) {
+            // Unresolvable annotations or members: treat as not covered
+        }
+        return false;
+    }
+
+    private static boolean hasAnnotation(Annotation[] annotations, boolean controllerSpans) {
+        for (Annotation annotation : annotations) {
+            if (isCoveringAnnotation(annotation.annotationType().getName(), controllerSpans)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean implementsAny(Class<?> type, Set<String> names) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Class<?> iface : current.getInterfaces()) {
+                if (names.contains(iface.getName()) || implementsAny(iface, names)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String flag(String name) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_'));
+        }
+        return value;
+    }
+
+    private static Set<String> set(String... names) {
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(names)));
+    }
+}
@@ -0,0 +1,123 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.config.model.PackageConfig;
+import com.otel.dynamic.util.Logger;
+
+import java.lang.instrument.Instrumentation;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Retransforms loaded classes so that GlobalTypeInstrumentation re-evaluates
+ * them against the current effective configuration.
+ *
+ * Shared by JMX reloads, drill-down activation and any other path that changes
+ * what should be instrumented at runtime.
+ */
+public class ClassRetransformer {
+
+    private ClassRetransformer() {
+    }
+
+    /**
+     * Retransform classes named in the set, plus classes that implement or
+     * extend one of them.
+     *
+     * @param classNames affected class or interface names
+     * @param reason     short description for logging
+     * @return number of classes retransformed
+     */
+    public static int retransformClasses(Set<String> classNames, String reason) {
+        if (classNames.isEmpty()) {
+            return 0;
+        }
+        return retransform(clazz -> classNames.contains(clazz.getName())
+                || isAffectedByHierarchy(clazz, classNames), reason);
+    }
+
+    /**
+     * Retransform all loaded classes that fall inside one of the packages.
+     *
+     * @param packages package scopes (annotation filters are ignored here, the matcher applies them)
+     * @param reason   short description for logging
+     * @return number of classes retransformed
+     */
+    public static int retransformPackages(List<PackageConfig> packages, String reason) {
+        if (packages.isEmpty()) {
+            return 0;
+        }
+        return retransform(clazz -> {
+            for (PackageConfig pkg : packages) {
+                if (pkg.matches(clazz.getName())) {
+                    return true;
+                }
+            }
+            return false;
+        }, reason);
+    }
+
+    /**
+     * Retransform all modifiable loaded classes accepted by the filter.
+     *
+     * @return number of classes retransformed, or -1 if instrumentation is unavailable
+     */
+    public static int retransform(Predicate<Class<?>> filter, String reason) {
+        Instrumentation inst = InstrumentationAccessor.getInstrumentation();
+        if (inst == null) {
+            Logger.warn("Instrumentation instance not available - cannot retransform classes. " +
+                    "Make sure the agent is configured as a javaagent.");
+            return -1;
+        }
+
+        try {
+            Set<Class<?>> classesToRetransform = new HashSet<>();
+            for (Class<?> clazz : inst.getAllLoadedClasses()) {
+                if (inst.isModifiableClass(clazz) && filter.test(clazz)) {
+                    classesToRetransform.add(clazz);
+                }
+            }
+
+            if (classesToRetransform.isEmpty()) {
+                Logger.info("No matching loaded classes found for " + reason);
+                return 0;
+            }
+            Logger.info("Retransforming " + classesToRetransform.size() + " classes (" + reason + ")...");
+            inst.retransformClasses(classesToRetransform.toArray(new Class<?>[0]));
+            Logger.info("Retransformation complete (" + reason + ")");
+            return classesToRetransform.size();
+        } catch (Exception e) {
+            Logger.error("Failed to retransform classes (" + reason + ")", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Check if a class is affected through its hierarchy (interfaces/superclasses).
+     */
+    static boolean isAffectedByHierarchy(Class<?> clazz, Set<String> affectedClassNames) {
+        // Check direct interfaces
+        for (Class<?> iface : clazz.getInterfaces()) {
+            if (affectedClassNames.contains(iface.getName())) {
+                return true;
+            }
+        }
+
+        // Check superclass chain and their interfaces
+        Class<?> current = clazz.getSuperclass();
+        while (current != null && current != Object.class) {
+            if (affectedClassNames.contains(current.getName())) {
+                return true;
+            }
+            for (Class<?> iface : current.getInterfaces()) {
+                if (affectedClassNames.contains(iface.getName())) {
+                    return true;
+                }
+            }
+            current = current.getSuperclass();
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,248 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.config.ConfigurationManager;
+import com.otel.dynamic.config.model.DrillDownConfig;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import com.otel.dynamic.config.model.PackageConfig;
+import com.otel.dynamic.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Activates and reverts SLO-triggered drill-downs.
+ *
+ * The advice counts latency breaches of rules that declare a {@code drillDown}
+ * section (see {@link DynamicCounters}). This controller polls those counters;
+ * once a rule reaches {@code breachCount} breaches within {@code windowSeconds}
+ * it overlays the drill-down packages onto the effective configuration and
+ * retransforms the affected classes. After {@code durationSeconds} the overlay
+ * is removed and the classes are retransformed back to their original bytecode.
+ *
+ * Activation duration and per-trace span budgets are clamped to hard caps.
+ */
+public class DrillDownController {
+
+    static final int MAX_DURATION_SECONDS = 3600;
+    static final int MAX_SPANS_PER_TRACE = 1000;
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private static volatile DrillDownController instance;
+
+    private final ConfigurationManager configManager;
+    private final Map<String, RuleState> states = new ConcurrentHashMap<>();
+    private final Map<String, Activation> activations = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Window bookkeeping for one drill-down rule.
+     */
+    private static class RuleState {
+        long windowStartMillis;
+        long breaches;
+    }
+
+    /**
+     * An active drill-down.
+     */
+    private static class Activation {
+        final String ruleKey;
+        final DrillDownConfig config;
+        final long expiresAtMillis;
+
+        Activation(String ruleKey, DrillDownConfig config, long expiresAtMillis) {
+            this.ruleKey = ruleKey;
+            this.config = config;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    DrillDownController(ConfigurationManager configManager) {
+        this.configManager = configManager;
+    }
+
+    /**
+     * Start the controller (idempotent).
+     */
+    public static synchronized DrillDownController initialize(ConfigurationManager configManager) {
+        if (instance == null) {
+            instance = new DrillDownController(configManager);
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the running controller, or null if not initialized.
+     */
+    public static DrillDownController getInstance() {
+        return instance;
+    }
+
+    private void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "DynamicInstrumentation-DrillDown");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                tick(System.currentTimeMillis());
+            } catch (Exception e) {
+                Logger.error("Drill-down evaluation failed", e);
+            }
+        }, POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Evaluate breach counters, activate triggered drill-downs and revert expired ones.
+     */
+    synchronized void tick(long nowMillis) {
+        boolean changed = false;
+        List<PackageConfig> revertedPackages = new ArrayList<>();
+
+        for (Activation activation : new ArrayList<>(activations.values())) {
+            if (nowMillis >= activation.expiresAtMillis) {
+                activations.remove(activation.ruleKey);
+                revertedPackages.addAll(activation.config.getPackages());
+                Logger.info("Drill-down expired for " + activation.ruleKey);
+                changed = true;
+            }
+        }
+
+        List<PackageConfig> activatedPackages = new ArrayList<>();
+        InstrumentationConfig config = configManager.getConfig();
+        if (config.getInstrumentations() != null) {
+            for (MethodConfig mc : config.getInstrumentations()) {
+                DrillDownConfig drillDown = mc.getDrillDown();
+                if (drillDown == null || drillDown.getLatencyThresholdMs() <= 0 || drillDown.getPackages().isEmpty()) {
+                    continue;
+                }
+                String ruleKey = mc.getClassName() + "#" + mc.getMethodName();
+                long breaches = DynamicCounters.getAndReset(DynamicInstrumentationConfig.breachCounterName(ruleKey));
+                if (activations.containsKey(ruleKey)) {
+                    continue;
+                }
+                if (recordBreaches(ruleKey, drillDown, breaches, nowMillis)) {
+                    int duration = Math.min(Math.max(drillDown.getDurationSeconds(), 1), MAX_DURATION_SECONDS);
+                    activations.put(ruleKey, new Activation(ruleKey, drillDown, nowMillis + duration * 1000L));
+                    states.remove(ruleKey);
+                    activatedPackages.addAll(drillDown.getPackages());
+                    Logger.info("Drill-down activated for " + ruleKey + " (" + breaches + " recent breaches of "
+                            + drillDown.getLatencyThresholdMs() + "ms) for " + duration + "s: "
+                            + drillDown.getPackages());
+                    changed = true;
+                }
+            }
+        }
+
+        if (changed) {
+            apply(activatedPackages, revertedPackages);
+        }
+    }
+
+    /**
+     * Add breaches to the rule's window and report whether the trigger condition is met.
+     */
+    private boolean recordBreaches(String ruleKey, DrillDownConfig drillDown, long breaches, long nowMillis) {
+        RuleState state = states.get(ruleKey);
+        if (state == null) {
+            if (breaches == 0) {
+                return false;
+            }
+            state = new RuleState();
+            state.windowStartMillis = nowMillis;
+            states.put(ruleKey, state);
+        }
+        long windowMillis = Math.max(drillDown.getWindowSeconds(), 1) * 1000L;
+        if (nowMillis - state.windowStartMillis > windowMillis) {
+            state.windowStartMillis = nowMillis;
+            state.breaches = 0;
+        }
+        state.breaches += breaches;
+        return state.breaches >= Math.max(drillDown.getBreachCount(), 1);
+    }
+
+    /**
+     * Publish the new drill-down state and retransform affected classes.
+     *
+     * Ordering matters: scopes are published to the advice before classes gain the
+     * advice, and withdrawn only after classes lost it, so scoped methods never
+     * trace outside of a marked trace.
+     */
+    private void apply(List<PackageConfig> activatedPackages, List<PackageConfig> revertedPackages) {
+        List<PackageConfig> activePackages = new ArrayList<>();
+        Map<String, Integer> budgets = new LinkedHashMap<>();
+        List<String> scopes = new ArrayList<>();
+        for (Activation activation : activations.values()) {
+            activePackages.addAll(activation.config.getPackages());
+            budgets.put(activation.ruleKey,
+                    Math.min(Math.max(activation.config.getMaxSpansPerTrace(), 1), MAX_SPANS_PER_TRACE));
+        }
+        for (PackageConfig pkg : activePackages) {
+            scopes.add(pkg.getPackageName() + ":" + pkg.isRecursive());
+        }
+        // Keep reverted scopes published until their classes have been restored
+        List<String> publishedScopes = new ArrayList<>(scopes);
+        for (PackageConfig pkg : revertedPackages) {
+            publishedScopes.add(pkg.getPackageName() + ":" + pkg.isRecursive());
+        }
+
+        DynamicInstrumentationConfig.setDrillDownState(budgets, publishedScopes);
+        configManager.setDrillDownPackages(activePackages);
+
+        List<PackageConfig> affected = new ArrayList<>(activatedPackages);
+        affected.addAll(revertedPackages);
+        ClassRetransformer.retransformPackages(affected, "drill-down");
+
+        if (!revertedPackages.isEmpty()) {
+            DynamicInstrumentationConfig.setDrillDownState(budgets, scopes);
+        }
+    }
+
+    /**
+     * Describe active drill-downs, for JMX.
+     */
+    public List<String> describeActive() {
+        List<String> result = new ArrayList<>();
+        for (Activation activation : activations.values()) {
+            result.add(activation.ruleKey + " until " + new Date(activation.expiresAtMillis)
+                    + " " + activation.config.getPackages());
+        }
+        return result;
+    }
+
+    /**
+     * Revert every active drill-down immediately.
+     */
+    synchronized void revertAll() {
+        if (activations.isEmpty()) {
+            return;
+        }
+        List<PackageConfig> revertedPackages = new ArrayList<>();
+        for (Activation activation : activations.values()) {
+            revertedPackages.addAll(activation.config.getPackages());
+        }
+        activations.clear();
+        apply(new ArrayList<PackageConfig>(), revertedPackages);
+    }
+
+    /**
+     * Stop the controller and revert every active drill-down.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.scheduler.shutdownNow();
+            instance.revertAll();
+            instance = null;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.otel.dynamic.agent;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM-wide named counters shared between inlined advice and the agent.
+ *
+ * Like {@link DynamicInstrumentationConfig}, this class is injected into every
+ * application classloader, so a plain static map would be private to each copy.
+ * The counters therefore live in a single {@link ConcurrentHashMap} stored in the
+ * system properties table. Only JDK types (String, AtomicLong) are stored so every
+ * classloader can read them; {@link System#getProperty(String)} and
+ * {@code stringPropertyNames()} ignore the non-String entry.
+ */
+public class DynamicCounters {
+
+    private static final String STORE_KEY = "otel.dynamic.counters";
+
+    /** Span events not recorded because their parent span reached its cap */
+    public static final String EVENTS_DROPPED = "events.dropped";
+
+    /** Dynamic spans evicted from the dedicated span processor's full queue */
+    public static final String PROCESSOR_DROPPED = "processor.dropped";
+
+    /** Dynamic spans exported by the dedicated span processor */
+    public static final String PROCESSOR_EXPORTED = "processor.exported";
+
+    /** Dynamic spans whose export by the dedicated span processor failed */
+    public static final String PROCESSOR_EXPORT_FAILED = "processor.exportFailed";
+
+    /** Dynamic spans kept by tail sampling */
+    public static final String TAIL_KEPT = "tail.kept";
+
+    /** Dynamic spans dropped by the tail sampling decision */
+    public static final String TAIL_DROPPED = "tail.dropped";
+
+    /** Dynamic spans dropped by tail sampling to stay under its memory cap */
+    public static final String TAIL_EVICTED = "tail.evicted";
+
+    /** Attribute rules disabled because an extraction exceeded their time budget */
+    public static final String EXTRACTIONS_DISABLED = "extraction.disabled";
+
+    /** Attribute values cut to the maximum attribute length */
+    public static final String EXTRACTIONS_TRUNCATED = "extraction.truncated";
+
+    /** Attribute values skipped because reading them could load a lazy JPA association */
+    public static final String EXTRACTIONS_SKIPPED_LAZY = "extraction.skippedLazy";
+
+    /** Thread stacks taken by the slow-call stack sampler */
+    public static final String STACK_SAMPLES = "stacks.sampled";
+
+    /**
+     * Prefix of the per-method contention counters, named
+     * {@code contention.<className#methodName>.<field>} with the CONTENTION_ fields
+     */
+    public static final String CONTENTION_PREFIX = "contention.";
+    public static final String CONTENTION_CALLS = "calls";
+    public static final String CONTENTION_BLOCKED_COUNT = "blockedCount";
+    public static final String CONTENTION_BLOCKED_MS = "blockedMs";
+    public static final String CONTENTION_WAITED_COUNT = "waitedCount";
+    public static final String CONTENTION_WAITED_MS = "waitedMs";
+
+    /**
+     * Prefix of the per-method virtual thread pinning counters, named
+     * {@code pinning.<className#methodName>.<field>} with the PINNING_ fields
+     */
+    public static final String PINNING_PREFIX = "pinning.";
+    public static final String PINNING_CALLS = "calls";
+    public static final String PINNING_COUNT = "pinnedCount";
+    public static final String PINNING_MS = "pinnedMs";
+
+    /**
+     * Prefix of the per-method GC pause counters, named
+     * {@code gc.<className#methodName>.<field>} with the GC_ fields
+     */
+    public static final String GC_PREFIX = "gc.";
+    public static final String GC_CALLS = "calls";
+    public static final String GC_IMPACTED = "impacted";
+    public static final String GC_PAUSE_MS = "pauseMs";
+
+    private static volatile ConcurrentMap<String, AtomicLong> store;
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentMap<String, AtomicLong> store() {
+        ConcurrentMap<String, AtomicLong> local = store;
+        if (local != null) {
+            return local;
+        }
+        Object existing = System.getProperties().get(STORE_KEY);
+        if (!(existing instanceof ConcurrentMap)) {
+            Object raced = System.getProperties().putIfAbsent(STORE_KEY, new ConcurrentHashMap<String, AtomicLong>());
+            existing = raced instanceof ConcurrentMap ? raced : System.getProperties().get(STORE_KEY);
+        }
+        local = (ConcurrentMap<String, AtomicLong>) existing;
+        store = local;
+        return local;
+    }
+
+    /**
+     * Get (or create) the counter registered under a name.
+     * Callers on hot paths should keep the returned reference.
+     */
+    public static AtomicLong counter(String name) {
+        ConcurrentMap<String, AtomicLong> map = store();
+        AtomicLong counter = map.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = map.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Increment a counter by one.
+     */
+    public static void increment(String name) {
+        counter(name).incrementAndGet();
+    }
+
+    /**
+     * Add a delta to a counter.
+     */
+    public static void add(String name, long delta) {
+        counter(name).addAndGet(delta);
+    }
+
+    /**
+     * Current value of a counter, or 0 if it was never touched.
+     */
+    public static long get(String name) {
+        AtomicLong counter = store().get(name);
+        return counter != null ? counter.get() : 0L;
+    }
+
+    /**
+     * Read a counter and reset it to zero atomically.
+     */
+    public static long getAndReset(String name) {
+        AtomicLong counter = store().get(name);
+        return counter != null ? counter.getAndSet(0L) : 0L;
+    }
+
+    /**
+     * Sorted snapshot of all counters whose name starts with the given prefix.
+     *
+     * @param prefix counter name prefix, or empty string for all counters
+     * @return map of counter name to current value
+     */
+    public static Map<String, Long> snapshot(String prefix) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : store().entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                result.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        return result;
+    }
+}
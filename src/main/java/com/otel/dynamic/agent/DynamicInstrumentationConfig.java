@@ -1,88 +1,810 @@
 package com.otel.dynamic.agent;
 
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Static registry that holds attribute extraction rules for instrumented methods.
  *
- * Uses System properties as the backing store so that data is shared across all
+ * Uses a System property as the backing store so that data is shared across all
  * classloaders in the JVM. This solves the classloader isolation problem where
  * the agent classloader (which populates the config) and the app classloader
  * (where inlined advice runs) would otherwise see different static fields.
  *
- * Serialization format per system property:
+ * The registry is one immutable map of string entries, published under
+ * "otel.dynamic.registry" and replaced as a whole on every change. A
+ * configuration load builds the next map off to the side
+ * ({@link #beginUpdate()} / {@link #publishUpdate()}), so the advice sees the
+ * old or the new rules, never a mix or an empty registry. The identity of the
+ * map is the generation resolution caches are keyed by.
+ *
+ * Serialization format per registry entry:
  *   Key:   "otel.dynamic.rules.{className}#{methodName}"
- *   Value: "argIndex|methodCall|attributeName;argIndex|methodCall|attributeName;..."
+ *   Value: "argIndex|methodCall|attributeName[|type[|budgetMicros]];argIndex|methodCall|attributeName[|type[|budgetMicros]];..."
+ *   (the type is only written when it is not "auto" or a time budget follows)
  *
  * This class is intentionally free of any external dependencies (no Jackson, no
  * ConfigurationManager) because it gets injected into the application classloader
- * as a helper class and is accessed by inlined ByteBuddy advice code.
+ * as a helper class and is accessed by inlined ByteBuddy advice code. The only
+ * exception is the OpenTelemetry API, available wherever the advice runs, used to
+ * pre-build attribute keys and the static span attributes of resolved methods.
  */
 public class DynamicInstrumentationConfig {
 
     private static final String PROP_PREFIX = "otel.dynamic.rules.";
     private static final String RETURN_PROP_PREFIX = "otel.dynamic.return.";
     private static final String CHECKSUM_PREFIX = "otel.dynamic.checksum.";
+    private static final String OPTIONS_PROP_PREFIX = "otel.dynamic.options.";
+    private static final String REGISTRY_KEY = "otel.dynamic.registry";
+    private static final String QUEUE_FLAG_KEY = "otel.dynamic.queue.flag";
+    private static final String DISABLED_RULES_KEY = "otel.dynamic.extraction.disabled";
+    private static final String STARTING_RULE_KEY = "otel.dynamic.sampling.starting";
+    private static final String DRILLDOWN_ACTIVE_PREFIX = "otel.dynamic.drilldown.active.";
+    private static final String DRILLDOWN_SCOPES_KEY = "otel.dynamic.drilldown.scopes";
+    private static final String PACKAGE_OPTIONS_PREFIX = "otel.dynamic.package.options.";
+    private static final String ROUTE_TRACKING_KEY = "otel.dynamic.routes.enabled";
+    private static final String COMPRESSION_TRACKING_KEY = "otel.dynamic.compression.enabled";
+    private static final String OVERLAP_DEFAULT_KEY = "otel.dynamic.overlap.default";
+    private static final String MAX_EVENTS_KEY = "otel.dynamic.events.max";
+    private static final String MAX_SPANS_DEFAULT_KEY = "otel.dynamic.limits.maxSpansPerTrace";
+    private static final String MAX_DEPTH_DEFAULT_KEY = "otel.dynamic.limits.maxDepth";
+    private static final String LIMITS_TRACKING_KEY = "otel.dynamic.limits.enabled";
+    private static final String MAX_ATTRIBUTE_LENGTH_KEY = "otel.dynamic.attributes.maxLength";
+    private static final String QUEUE_TRACKING_KEY = "otel.dynamic.queue.enabled";
+    private static final String CHUNK_TRACKING_KEY = "otel.dynamic.chunk.enabled";
+    private static final String PINNING_TRACKING_KEY = "otel.dynamic.pinning.enabled";
+    private static final String GC_TRACKING_KEY = "otel.dynamic.gc.enabled";
+    private static final String STACKS_TRACKING_KEY = "otel.dynamic.stacks.enabled";
+
+    /** Default cap on span events recorded by event-mode rules on one parent span */
+    public static final int DEFAULT_MAX_EVENTS_PER_SPAN = 128;
+
+    /** Default maximum length of extracted string attribute values */
+    public static final int DEFAULT_MAX_ATTRIBUTE_LENGTH = 1024;
+
+    private static final String[] RULE_PREFIXES = {PROP_PREFIX, RETURN_PROP_PREFIX, CHECKSUM_PREFIX,
+            OPTIONS_PROP_PREFIX, PACKAGE_OPTIONS_PREFIX};
+    private static final String[] GLOBAL_KEYS = {ROUTE_TRACKING_KEY, COMPRESSION_TRACKING_KEY,
+            MAX_SPANS_DEFAULT_KEY, MAX_DEPTH_DEFAULT_KEY, LIMITS_TRACKING_KEY, OVERLAP_DEFAULT_KEY, MAX_EVENTS_KEY,
+            MAX_ATTRIBUTE_LENGTH_KEY, QUEUE_TRACKING_KEY, CHUNK_TRACKING_KEY, PINNING_TRACKING_KEY,
+            GC_TRACKING_KEY, STACKS_TRACKING_KEY};
+
+    // Registry being rebuilt by stagingThread, published by publishUpdate (agent side only)
+    private static Map<String, String> staged;
+    private static Thread stagingThread;
+
+    // Per-classloader cache of resolved methods: runtime class -> method -> resolution
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, ResolvedMethod>> resolvedCache =
+            new ConcurrentHashMap<>();
+    private static volatile Map<String, String> resolvedRegistry;
+
+    // JVM-wide copy of the queue tracking flag, shared like the registry and kept current by publish()
+    private static volatile AtomicBoolean queueFlag;
+
+    // JVM-wide per-thread sampling rule key of the span being started, read by the sampler
+    private static volatile ThreadLocal<String> startingRule;
+
+    // JVM-wide identities of extraction rules disabled for overrunning their time budget
+    private static volatile Set<String> disabledRules;
 
     /**
-     * Simple POJO representing a single attribute extraction rule.
-     * No external dependencies — safe for use in inlined advice.
+     * Settings shared by argument and return value extraction rules: what to
+     * call on the value, the attribute it becomes and the guards limiting the cost
+     * of extracting it.
+     * No external dependencies besides the OTel API — safe for use in inlined advice.
      */
-    public static class AttributeRule {
-        private final int argIndex;
+    public abstract static class ExtractionRule {
+        /** Attribute types: numbers, booleans and enums keep their own type with TYPE_AUTO */
+        public static final int TYPE_AUTO = 0;
+        public static final int TYPE_STRING = 1;
+        public static final int TYPE_LONG = 2;
+        public static final int TYPE_DOUBLE = 3;
+        public static final int TYPE_BOOLEAN = 4;
+
+        private static final String[] TYPE_NAMES = {"auto", "string", "long", "double", "boolean"};
+
         private final String methodCall;
+        private final String[] methodChain;
         private final String attributeName;
+        private final int type;
+        private final AttributeKeys keys;
+        private final long timeBudgetMicros;
+        private final int maxLength;
+        // Registry entry of the rule, shared by its instances of every generation; null if unregistered
+        private String identity;
+        // Set once an extraction overran the time budget. Instances created after a generation
+        // bump start out disabled too; only the next configuration load re-enables the rule
+        private volatile boolean disabled;
 
-        public AttributeRule(int argIndex, String methodCall, String attributeName) {
-            this.argIndex = argIndex;
+        ExtractionRule(String methodCall, String attributeName, int type, long timeBudgetMicros, int maxLength) {
             this.methodCall = methodCall;
+            this.methodChain = methodCall != null && !methodCall.isEmpty() && !"toString".equals(methodCall)
+                    ? methodCall.split("\\.") : null;
             this.attributeName = attributeName;
+            this.type = type;
+            this.keys = AttributeKeys.of(attributeName);
+            this.timeBudgetMicros = timeBudgetMicros > 0 ? timeBudgetMicros : 0L;
+            this.maxLength = maxLength > 0 ? maxLength : 0;
         }
 
-        public int getArgIndex() {
-            return argIndex;
+        /**
+         * Parse a configured type name.
+         *
+         * @return the TYPE_ constant (TYPE_AUTO for null or empty), or -1 if the name is unknown
+         */
+        public static int typeOf(String name) {
+            if (name == null || name.isEmpty()) {
+                return TYPE_AUTO;
+            }
+            for (int i = 0; i < TYPE_NAMES.length; i++) {
+                if (TYPE_NAMES[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        static String typeName(int type) {
+            return TYPE_NAMES[type];
         }
 
         public String getMethodCall() {
             return methodCall;
         }
 
+        /** Getter names of methodCall, or null for the value itself and "toString" */
+        public String[] getMethodChain() {
+            return methodChain;
+        }
+
         public String getAttributeName() {
             return attributeName;
         }
+
+        /** One of the TYPE_ constants */
+        public int getType() {
+            return type;
+        }
+
+        /** Keys for the attribute, created with the rule */
+        public AttributeKeys getKeys() {
+            return keys;
+        }
+
+        /** Longest time one extraction may take before the rule is disabled, 0 if unbounded */
+        public long getTimeBudgetMicros() {
+            return timeBudgetMicros;
+        }
+
+        /** Maximum length of string values, 0 if unlimited */
+        public int getMaxLength() {
+            return maxLength;
+        }
+
+        public boolean isDisabled() {
+            return disabled;
+        }
+
+        /**
+         * Stop extracting this rule until the configuration is reloaded.
+         *
+         * @return true if the rule was enabled before
+         */
+        public boolean disable() {
+            if (disabled) {
+                return false;
+            }
+            disabled = true;
+            if (identity != null) {
+                disabledRules().add(identity);
+            }
+            return true;
+        }
+
+        /**
+         * Tie a rule deserialized from the registry to its entry, taking over the
+         * disabled state of earlier instances.
+         */
+        <R extends ExtractionRule> R identifiedBy(String identity) {
+            this.identity = identity;
+            this.disabled = disabledRules().contains(identity);
+            @SuppressWarnings("unchecked")
+            R rule = (R) this;
+            return rule;
+        }
+    }
+
+    /**
+     * Simple POJO representing a single attribute extraction rule.
+     * No external dependencies — safe for use in inlined advice.
+     */
+    public static class AttributeRule extends ExtractionRule {
+        private final int argIndex;
+
+        public AttributeRule(int argIndex, String methodCall, String attributeName) {
+            this(argIndex, methodCall, attributeName, TYPE_AUTO);
+        }
+
+        public AttributeRule(int argIndex, String methodCall, String attributeName, int type) {
+            this(argIndex, methodCall, attributeName, type, 0L, DEFAULT_MAX_ATTRIBUTE_LENGTH);
+        }
+
+        public AttributeRule(int argIndex, String methodCall, String attributeName, int type,
+                             long timeBudgetMicros, int maxLength) {
+            super(methodCall, attributeName, type, timeBudgetMicros, maxLength);
+            this.argIndex = argIndex;
+        }
+
+        public int getArgIndex() {
+            return argIndex;
+        }
     }
 
     /**
      * Simple POJO representing a return value attribute extraction rule.
      * No external dependencies — safe for use in inlined advice.
      */
-    public static class ReturnValueRule {
-        private final String methodCall;
-        private final String attributeName;
+    public static class ReturnValueRule extends ExtractionRule {
 
         public ReturnValueRule(String methodCall, String attributeName) {
-            this.methodCall = methodCall;
-            this.attributeName = attributeName;
+            this(methodCall, attributeName, TYPE_AUTO);
         }
 
-        public String getMethodCall() {
-            return methodCall;
+        public ReturnValueRule(String methodCall, String attributeName, int type) {
+            this(methodCall, attributeName, type, 0L, DEFAULT_MAX_ATTRIBUTE_LENGTH);
         }
 
-        public String getAttributeName() {
-            return attributeName;
+        public ReturnValueRule(String methodCall, String attributeName, int type,
+                               long timeBudgetMicros, int maxLength) {
+            super(methodCall, attributeName, type, timeBudgetMicros, maxLength);
+        }
+    }
+
+    /**
+     * Pre-built keys of one attribute name, one per value type, so setting an
+     * extracted value does not create a key per span.
+     */
+    public static final class AttributeKeys {
+        private final AttributeKey<String> stringKey;
+        private final AttributeKey<Long> longKey;
+        private final AttributeKey<Double> doubleKey;
+        private final AttributeKey<Boolean> booleanKey;
+
+        private AttributeKeys(String name) {
+            this.stringKey = AttributeKey.stringKey(name);
+            this.longKey = AttributeKey.longKey(name);
+            this.doubleKey = AttributeKey.doubleKey(name);
+            this.booleanKey = AttributeKey.booleanKey(name);
+        }
+
+        public static AttributeKeys of(String name) {
+            return new AttributeKeys(name);
+        }
+
+        public AttributeKey<String> forString() {
+            return stringKey;
+        }
+
+        public AttributeKey<Long> forLong() {
+            return longKey;
+        }
+
+        public AttributeKey<Double> forDouble() {
+            return doubleKey;
+        }
+
+        public AttributeKey<Boolean> forBoolean() {
+            return booleanKey;
+        }
+    }
+
+    /**
+     * Where a consumer method finds the publish timestamp of its message (see
+     * {@link MethodOptions#QUEUE_LAG_ARG}), built once per resolution.
+     */
+    public static class QueueLagRule {
+        private final int argIndex;
+        private final String header;
+        private final String[] methodChain;
+        private final String queue;
+
+        public QueueLagRule(int argIndex, String header, String methodCall, String queue) {
+            this.argIndex = argIndex;
+            this.header = header;
+            this.methodChain = methodCall != null && !methodCall.isEmpty() ? methodCall.split("\\.") : null;
+            this.queue = queue;
+        }
+
+        /** Argument holding the message or timestamp */
+        public int getArgIndex() {
+            return argIndex;
+        }
+
+        /** Message header holding the timestamp, or null */
+        public String getHeader() {
+            return header;
+        }
+
+        /** Getters leading from the argument to the timestamp, or null */
+        public String[] getMethodChain() {
+            return methodChain;
+        }
+
+        /** Queue name for the lag histogram, or null to use the message's consumer queue */
+        public String getQueue() {
+            return queue;
+        }
+    }
+
+    /**
+     * Per-method behavioural options (drill-down thresholds, modes, limits, ...).
+     * Stored as escaped {@code key=value} pairs. No external dependencies.
+     */
+    public static class MethodOptions {
+        public static final String DRILL_DOWN_THRESHOLD_MS = "drillDown.thresholdMs";
+        /** Comma-separated root span names / http.route values the rule is scoped to */
+        public static final String ROUTES = "routes";
+        /** Argument predicate source, compiled by {@link ArgumentCondition} */
+        public static final String CONDITION = "condition";
+        /** Span handling mode: "span" (default), "enrich", "event" or "chunk" */
+        public static final String MODE = "mode";
+        public static final String MODE_SPAN = "span";
+        public static final String MODE_ENRICH = "enrich";
+        public static final String MODE_EVENT = "event";
+        public static final String MODE_CHUNK = "chunk";
+        /** Duration above which a call aggregated into a batch chunk still gets its own span */
+        public static final String OUTLIER_THRESHOLD_MS = "outlierThresholdMs";
+        /** Consecutive sibling calls after which further calls are folded into a summary span */
+        public static final String COMPRESS_AFTER = "compressAfter";
+        /** Message timestamp source of consumer methods reporting queue lag (see {@link QueueLagRule}) */
+        public static final String QUEUE_LAG_ARG = "queueLag.argIndex";
+        public static final String QUEUE_LAG_HEADER = "queueLag.header";
+        public static final String QUEUE_LAG_METHOD = "queueLag.methodCall";
+        public static final String QUEUE_LAG_QUEUE = "queueLag.queue";
+        /** "true" to sample thread CPU time and allocated bytes around each call */
+        public static final String RESOURCE_METRICS = "resourceMetrics";
+        /** "true" to record the thread's blocked and waited time around each call */
+        public static final String CONTENTION_METRICS = "contentionMetrics";
+        /** "true" to attribute virtual thread pinning to the method's spans */
+        public static final String PINNING_METRICS = "pinningMetrics";
+        /** "true" to report GC pauses overlapping each call */
+        public static final String GC_METRICS = "gcMetrics";
+        /** Run time in milliseconds after which the thread of a call is stack sampled */
+        public static final String STACK_SAMPLE_AFTER_MS = "stackSampleAfterMs";
+        /** Per-trace dynamic span budget and nesting depth limit */
+        public static final String MAX_SPANS_PER_TRACE = "maxSpansPerTrace";
+        public static final String MAX_DEPTH = "maxDepth";
+        /** Key of the rule's sampling policy in {@link SamplingRules} */
+        public static final String SAMPLING_RULE = "samplingRule";
+        /** Policy for methods covered by built-in OTel instrumentation */
+        public static final String OVERLAP = "overlap";
+        public static final String OVERLAP_SUPPRESS = "suppress";
+        public static final String OVERLAP_ENRICH = "enrich";
+        public static final String OVERLAP_ALLOW = "allow";
+
+        static final MethodOptions EMPTY = new MethodOptions(Collections.<String, String>emptyMap());
+
+        private final Map<String, String> values;
+
+        public MethodOptions(Map<String, String> values) {
+            this.values = values;
+        }
+
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        public long getLong(String key, long defaultValue) {
+            String value = values.get(key);
+            if (value == null || value.isEmpty()) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        public boolean isEmpty() {
+            return values.isEmpty();
+        }
+
+        public Map<String, String> asMap() {
+            return Collections.unmodifiableMap(values);
+        }
+    }
+
+    /**
+     * A method's options parsed into the values the advice reads, together
+     * with the registry-wide settings of the generation they were resolved in.
+     */
+    static final class MethodSettings {
+        final MethodOptions options;
+        final boolean drillDownScoped;
+        final int drillDownBudget;
+        final long drillDownThresholdNanos;
+        final String[] allowedRoutes;
+        final ArgumentCondition condition;
+        /** MODE_ constant configured by the rule, before the built-in overlap policy */
+        final int mode;
+        final int overlapPolicy;
+        final int compressAfter;
+        final int maxSpansPerTrace;
+        final int maxDepth;
+        final long outlierThresholdNanos;
+        final QueueLagRule queueLag;
+        final boolean resourceMetrics;
+        final boolean contentionMetrics;
+        final boolean pinningMetrics;
+        final boolean gcMetrics;
+        final long stackSampleAfterNanos;
+        final String samplingRule;
+        final int maxEvents;
+        final boolean routeTracking;
+        final boolean compressionTracking;
+        final boolean limitTracking;
+        final boolean queueTracking;
+        final boolean chunkTracking;
+
+        /**
+         * @param ruleKey         "className#methodName" of the rule, for its drill-down budget; may be null
+         * @param drillDownScoped true if the method only matched an active drill-down scope
+         */
+        MethodSettings(Map<String, String> registry, MethodOptions options, String ruleKey,
+                       boolean drillDownScoped) {
+            this.options = options;
+            this.drillDownScoped = drillDownScoped;
+            this.drillDownBudget = ruleKey != null ? intProperty(registry, DRILLDOWN_ACTIVE_PREFIX + ruleKey) : 0;
+            long thresholdMs = options.getLong(MethodOptions.DRILL_DOWN_THRESHOLD_MS, 0L);
+            this.drillDownThresholdNanos = thresholdMs > 0 ? thresholdMs * 1_000_000L : 0L;
+            this.allowedRoutes = parseRoutes(options.get(MethodOptions.ROUTES));
+            this.condition = compileCondition(options.get(MethodOptions.CONDITION));
+            String modeName = options.get(MethodOptions.MODE);
+            this.mode = MethodOptions.MODE_ENRICH.equals(modeName) ? ResolvedMethod.MODE_ENRICH
+                    : MethodOptions.MODE_EVENT.equals(modeName) ? ResolvedMethod.MODE_EVENT
+                    : MethodOptions.MODE_CHUNK.equals(modeName) ? ResolvedMethod.MODE_CHUNK : ResolvedMethod.MODE_SPAN;
+            this.overlapPolicy = overlapPolicy(registry, options, drillDownScoped);
+            this.compressAfter = (int) options.getLong(MethodOptions.COMPRESS_AFTER, -1L);
+            this.maxSpansPerTrace = (int) options.getLong(MethodOptions.MAX_SPANS_PER_TRACE,
+                    intProperty(registry, MAX_SPANS_DEFAULT_KEY));
+            this.maxDepth = (int) options.getLong(MethodOptions.MAX_DEPTH, intProperty(registry, MAX_DEPTH_DEFAULT_KEY));
+            long outlierMs = options.getLong(MethodOptions.OUTLIER_THRESHOLD_MS, 0L);
+            this.outlierThresholdNanos = outlierMs > 0 ? outlierMs * 1_000_000L : 0L;
+            int lagArgIndex = (int) options.getLong(MethodOptions.QUEUE_LAG_ARG, -1L);
+            this.queueLag = lagArgIndex >= 0
+                    ? new QueueLagRule(lagArgIndex, options.get(MethodOptions.QUEUE_LAG_HEADER),
+                            options.get(MethodOptions.QUEUE_LAG_METHOD), options.get(MethodOptions.QUEUE_LAG_QUEUE))
+                    : null;
+            this.resourceMetrics = "true".equals(options.get(MethodOptions.RESOURCE_METRICS));
+            this.contentionMetrics = "true".equals(options.get(MethodOptions.CONTENTION_METRICS));
+            this.pinningMetrics = registry.get(PINNING_TRACKING_KEY) != null
+                    && "true".equals(options.get(MethodOptions.PINNING_METRICS));
+            this.gcMetrics = registry.get(GC_TRACKING_KEY) != null && "true".equals(options.get(MethodOptions.GC_METRICS));
+            long stackSampleAfterMs = options.getLong(MethodOptions.STACK_SAMPLE_AFTER_MS, 0L);
+            this.stackSampleAfterNanos = registry.get(STACKS_TRACKING_KEY) != null && stackSampleAfterMs > 0
+                    ? stackSampleAfterMs * 1_000_000L : 0L;
+            this.samplingRule = options.get(MethodOptions.SAMPLING_RULE);
+            this.maxEvents = maxEventsPerSpan(registry);
+            this.routeTracking = registry.get(ROUTE_TRACKING_KEY) != null;
+            this.compressionTracking = registry.get(COMPRESSION_TRACKING_KEY) != null;
+            this.limitTracking = registry.get(LIMITS_TRACKING_KEY) != null;
+            this.queueTracking = registry.get(QUEUE_TRACKING_KEY) != null;
+            this.chunkTracking = registry.get(CHUNK_TRACKING_KEY) != null;
+        }
+
+        // Package rules always carry their policy (see RuleRegistrar); method rules
+        // default to their own span, drill-down scoped matches to suppression
+        private static int overlapPolicy(Map<String, String> registry, MethodOptions options,
+                                         boolean drillDownScoped) {
+            String policy = options.get(MethodOptions.OVERLAP);
+            if (policy == null) {
+                policy = registry.get(OVERLAP_DEFAULT_KEY);
+            }
+            if (MethodOptions.OVERLAP_ALLOW.equals(policy)) {
+                return ResolvedMethod.OVERLAP_ALLOW;
+            } else if (MethodOptions.OVERLAP_ENRICH.equals(policy)) {
+                return ResolvedMethod.OVERLAP_ENRICH;
+            } else if (MethodOptions.OVERLAP_SUPPRESS.equals(policy)) {
+                return ResolvedMethod.OVERLAP_SUPPRESS;
+            }
+            return drillDownScoped ? ResolvedMethod.OVERLAP_SUPPRESS : ResolvedMethod.OVERLAP_ALLOW;
+        }
+    }
+
+    /**
+     * Everything the advice needs to know about one runtime class+method, resolved
+     * once per classloader and configuration generation.
+     *
+     * Resolution walks the class hierarchy (exact class, interfaces, superclasses)
+     * for rules, return rules and options, so steady-state advice calls only pay
+     * two map lookups plus the generation check.
+     */
+    public static class ResolvedMethod {
+        /** Start a child span (default) */
+        public static final int MODE_SPAN = 0;
+        /** Add attributes to Span.current() without starting a span */
+        public static final int MODE_ENRICH = 1;
+        /** Do nothing: covered by built-in instrumentation */
+        public static final int MODE_SUPPRESS = 2;
+        /** Record the invocation as a span event on Span.current() */
+        public static final int MODE_EVENT = 3;
+        /** Set by the advice for calls folded into a repeated-call summary span */
+        public static final int MODE_COMPRESSED = 4;
+        /** Aggregate calls inside a Spring Batch chunk into one summary span per chunk */
+        public static final int MODE_CHUNK = 5;
+        /** Set by the advice for calls aggregated into a batch chunk summary span */
+        public static final int MODE_AGGREGATED = 6;
+
+        public static final int OVERLAP_SUPPRESS = 0;
+        public static final int OVERLAP_ENRICH = 1;
+        public static final int OVERLAP_ALLOW = 2;
+
+        private static final AttributeKey<String> CODE_NAMESPACE = AttributeKey.stringKey("code.namespace");
+        private static final AttributeKey<String> CODE_FUNCTION = AttributeKey.stringKey("code.function");
+        private static final AttributeKey<String> CODE_INSTRUMENTED_INTERFACE =
+                AttributeKey.stringKey("code.instrumented.interface");
+
+        private final Map<String, String> generation;
+        private final String spanName;
+        private final Attributes spanAttributes;
+        private final List<AttributeRule> rules;
+        private final List<ReturnValueRule> returnRules;
+        private final MethodSettings settings;
+        private final String ruleKey;
+        private final String instrumentedInterface;
+        private final String breachCounterKey;
+        private final int mode;
+        private final String contentionKey;
+        private final String pinningKey;
+        private final String gcKey;
+
+        ResolvedMethod(Map<String, String> generation, String className, String methodName,
+                       List<AttributeRule> rules, List<ReturnValueRule> returnRules, String ruleKey,
+                       String instrumentedInterface, boolean builtInCovered, MethodSettings settings) {
+            this.generation = generation;
+            this.rules = rules;
+            this.returnRules = returnRules;
+            this.settings = settings;
+            this.ruleKey = ruleKey;
+            this.instrumentedInterface = instrumentedInterface;
+            this.breachCounterKey = settings.drillDownThresholdNanos > 0 ? breachCounterName(ruleKey) : null;
+            String methodKey = className + "#" + methodName;
+            this.contentionKey = settings.contentionMetrics ? methodKey : null;
+            this.pinningKey = settings.pinningMetrics ? methodKey : null;
+            this.gcKey = settings.gcMetrics ? methodKey : null;
+            int lastDot = className.lastIndexOf('.');
+            this.spanName = (lastDot >= 0 ? className.substring(lastDot + 1) : className) + "." + methodName;
+            AttributesBuilder attributes = Attributes.builder()
+                    .put(CODE_NAMESPACE, className)
+                    .put(CODE_FUNCTION, methodName);
+            if (instrumentedInterface != null) {
+                attributes.put(CODE_INSTRUMENTED_INTERFACE, instrumentedInterface);
+            }
+            this.spanAttributes = attributes.build();
+            int configuredMode = settings.mode;
+            if (configuredMode == MODE_SPAN && builtInCovered && settings.overlapPolicy != OVERLAP_ALLOW) {
+                configuredMode = settings.overlapPolicy == OVERLAP_ENRICH ? MODE_ENRICH : MODE_SUPPRESS;
+            }
+            this.mode = configuredMode;
+        }
+
+        /** Argument attribute rules, or null if none configured */
+        public List<AttributeRule> getRules() {
+            return rules;
+        }
+
+        /** Return value attribute rules, or null if none configured */
+        public List<ReturnValueRule> getReturnRules() {
+            return returnRules;
+        }
+
+        /** Options for this method, never null */
+        public MethodOptions getOptions() {
+            return settings.options;
+        }
+
+        /** "className#methodName" of the configured rule this method resolved to, or null */
+        public String getRuleKey() {
+            return ruleKey;
+        }
+
+        /** Interface through which this method is instrumented, or null */
+        public String getInstrumentedInterface() {
+            return instrumentedInterface;
+        }
+
+        /** True if this method is only instrumented because of an active drill-down scope */
+        public boolean isDrillDownScoped() {
+            return settings.drillDownScoped;
+        }
+
+        /** Per-trace span budget when this method's drill-down is active, 0 otherwise */
+        public int getDrillDownBudget() {
+            return settings.drillDownBudget;
+        }
+
+        /** Latency threshold that counts as an SLO breach, 0 if not configured */
+        public long getDrillDownThresholdNanos() {
+            return settings.drillDownThresholdNanos;
+        }
+
+        /** Counter name for SLO breaches, or null if no threshold configured */
+        public String getBreachCounterKey() {
+            return breachCounterKey;
+        }
+
+        /** Root span names / http.route values this method is scoped to, or null if unscoped */
+        public String[] getAllowedRoutes() {
+            return settings.allowedRoutes;
+        }
+
+        /** True if any rule is route-scoped, so the route marker must be carried through the trace */
+        public boolean isRouteTracking() {
+            return settings.routeTracking;
+        }
+
+        /** Argument predicate that must hold for a span to be created, or null */
+        public ArgumentCondition getCondition() {
+            return settings.condition;
+        }
+
+        /** One of the MODE_ constants, after applying the built-in overlap policy */
+        public int getMode() {
+            return mode;
+        }
+
+        /** One of the OVERLAP_ constants, applied to duplicates detected at runtime */
+        public int getOverlapPolicy() {
+            return settings.overlapPolicy;
+        }
+
+        /** Maximum span events event-mode rules record on one parent span */
+        public int getMaxEvents() {
+            return settings.maxEvents;
+        }
+
+        /** Consecutive sibling calls that still get their own span, -1 if never compressed */
+        public int getCompressAfter() {
+            return settings.compressAfter;
+        }
+
+        /** True if any rule compresses repeated calls, so every call must update the run tracking */
+        public boolean isCompressionTracking() {
+            return settings.compressionTracking;
+        }
+
+        /** Dynamic spans a trace may hold for this method to still create one, 0 if unlimited */
+        public int getMaxSpansPerTrace() {
+            return settings.maxSpansPerTrace;
+        }
+
+        /** Deepest dynamic span nesting at which this method still creates a span, 0 if unlimited */
+        public int getMaxDepth() {
+            return settings.maxDepth;
+        }
+
+        /** True if any span budget or depth limit is configured, so every span must be counted */
+        public boolean isLimitTracking() {
+            return settings.limitTracking;
+        }
+
+        /** True if executor submissions are timestamped, so spans report their task's queue time */
+        public boolean isQueueTracking() {
+            return settings.queueTracking;
+        }
+
+        /** Chunk-mode calls slower than this still get their own span, 0 if only failures do */
+        public long getOutlierThresholdNanos() {
+            return settings.outlierThresholdNanos;
+        }
+
+        /** True if any rule aggregates batch chunks, so calls nested in an aggregated call are skipped */
+        public boolean isChunkTracking() {
+            return settings.chunkTracking;
+        }
+
+        /** Message timestamp source for {@code messaging.queue_lag_ms}, or null */
+        public QueueLagRule getQueueLag() {
+            return settings.queueLag;
+        }
+
+        /** True if calls report the CPU time and allocated bytes of their thread */
+        public boolean isResourceMetrics() {
+            return settings.resourceMetrics;
+        }
+
+        /**
+         * "className#methodName" the blocked and waited time of calls is aggregated
+         * under, or null if the method does not record contention
+         */
+        public String getContentionKey() {
+            return contentionKey;
+        }
+
+        /**
+         * "className#methodName" virtual thread pinning during calls is
+         * aggregated under, or null if the method does not record pinning or
+         * the JVM cannot report it
+         */
+        public String getPinningKey() {
+            return pinningKey;
+        }
+
+        /**
+         * "className#methodName" GC pauses during calls are aggregated under, or
+         * null if the method does not record them or no collector reports pauses
+         */
+        public String getGcKey() {
+            return gcKey;
+        }
+
+        /**
+         * Run time after which the thread of a call is stack sampled, or 0 if
+         * calls are not sampled
+         */
+        public long getStackSampleAfterNanos() {
+            return settings.stackSampleAfterNanos;
+        }
+
+        /** Key of the rule's sampling policy, null if none */
+        public String getSamplingRule() {
+            return settings.samplingRule;
+        }
+
+        /**
+         * Start a span of the method. The sampling rule key reaches the sampler
+         * through {@link #getStartingRule()} while the span starts, so it is
+         * neither exported nor a metric attribute.
+         */
+        public Span startSpan(SpanBuilder builder) {
+            if (settings.samplingRule == null) {
+                return builder.startSpan();
+            }
+            ThreadLocal<String> rule = startingRule();
+            rule.set(settings.samplingRule);
+            try {
+                return builder.startSpan();
+            } finally {
+                rule.set(null);
+            }
+        }
+
+        /** Span name: simple class name and method name */
+        public String getSpanName() {
+            return spanName;
+        }
+
+        /**
+         * Attributes every span of the method starts with: code.namespace,
+         * code.function and code.instrumented.interface.
+         */
+        public Attributes getSpanAttributes() {
+            return spanAttributes;
         }
     }
 
     /**
      * Register attribute extraction rules for a specific class+method pair.
-     * Serializes the rules into a system property for cross-classloader access.
+     * Serializes the rules into the registry for cross-classloader access.
      * Also stores a checksum for change detection during hot-reload.
      *
      * @param className  fully qualified class name (dot-separated)
@@ -102,35 +824,43 @@ public class DynamicInstrumentationConfig {
                   .append(r.getMethodCall() != null ? r.getMethodCall() : "")
                   .append('|')
                   .append(r.getAttributeName());
+                appendSettings(sb, r);
             }
-            System.setProperty(PROP_PREFIX + className + "#" + methodName, sb.toString());
             // Store checksum for change detection
-            storeChecksum(className, methodName, computeChecksum(rules));
+            write(entry(PROP_PREFIX + className + "#" + methodName, sb.toString(),
+                    CHECKSUM_PREFIX + className + "#" + methodName, computeChecksum(rules)));
         }
     }
 
     /**
      * Look up attribute extraction rules for a given class+method.
-     * Deserializes from the system property on each call.
+     * Deserializes from the registry on each call.
      *
      * @param className  fully qualified class name (dot-separated)
      * @param methodName method name
      * @return list of rules, or null if none configured
      */
     public static List<AttributeRule> getRules(String className, String methodName) {
-        String value = System.getProperty(PROP_PREFIX + className + "#" + methodName);
+        return getRules(view(), className, methodName);
+    }
+
+    private static List<AttributeRule> getRules(Map<String, String> registry, String className, String methodName) {
+        String value = registry.get(PROP_PREFIX + className + "#" + methodName);
         if (value == null || value.isEmpty()) {
             return null;
         }
         List<AttributeRule> rules = new ArrayList<>();
+        int maxLength = maxAttributeLength(registry);
         String[] entries = value.split(";");
         for (String entry : entries) {
             String[] parts = entry.split("\\|", -1);
-            if (parts.length == 3) {
+            if (parts.length >= 3 && parts.length <= 5) {
                 int argIndex = Integer.parseInt(parts[0]);
                 String methodCall = parts[1].isEmpty() ? null : parts[1];
                 String attributeName = parts[2];
-                rules.add(new AttributeRule(argIndex, methodCall, attributeName));
+                rules.add(new AttributeRule(argIndex, methodCall, attributeName, parseType(parts, 3),
+                        parseBudget(parts, 4), maxLength).<AttributeRule>identifiedBy(
+                        PROP_PREFIX + className + "#" + methodName + "|" + entry));
             }
         }
         return rules.isEmpty() ? null : rules;
@@ -138,12 +868,12 @@ public class DynamicInstrumentationConfig {
 
     /**
      * Register return value attribute extraction rules for a specific class+method pair.
-     * Serializes the rules into a system property for cross-classloader access.
+     * Serializes the rules into the registry for cross-classloader access.
      * Also stores a checksum for change detection during hot-reload.
      *
      * Serialization format:
      *   Key:   "otel.dynamic.return.{className}#{methodName}"
-     *   Value: "methodCall|attributeName;methodCall|attributeName;..."
+     *   Value: "methodCall|attributeName[|type[|budgetMicros]];methodCall|attributeName[|type[|budgetMicros]];..."
      *
      * @param className  fully qualified class name (dot-separated)
      * @param methodName method name
@@ -160,37 +890,48 @@ public class DynamicInstrumentationConfig {
                 sb.append(r.getMethodCall() != null ? r.getMethodCall() : "")
                   .append('|')
                   .append(r.getAttributeName());
+                appendSettings(sb, r);
             }
-            System.setProperty(RETURN_PROP_PREFIX + className + "#" + methodName, sb.toString());
             // Combine checksums for both regular and return rules
-            String existingChecksum = getChecksum(className, methodName);
-            String returnChecksum = computeReturnChecksum(rules);
-            String combinedChecksum = existingChecksum.isEmpty() ? returnChecksum : existingChecksum + ":" + returnChecksum;
-            storeChecksum(className, methodName, combinedChecksum);
+            synchronized (DynamicInstrumentationConfig.class) {
+                String existingChecksum = getChecksum(className, methodName);
+                String returnChecksum = computeReturnChecksum(rules);
+                String combinedChecksum = existingChecksum.isEmpty() ? returnChecksum : existingChecksum + ":" + returnChecksum;
+                write(entry(RETURN_PROP_PREFIX + className + "#" + methodName, sb.toString(),
+                        CHECKSUM_PREFIX + className + "#" + methodName, combinedChecksum));
+            }
         }
     }
 
     /**
      * Look up return value extraction rules for a given class+method.
-     * Deserializes from the system property on each call.
+     * Deserializes from the registry on each call.
      *
      * @param className  fully qualified class name (dot-separated)
      * @param methodName method name
      * @return list of rules, or null if none configured
      */
     public static List<ReturnValueRule> getReturnRules(String className, String methodName) {
-        String value = System.getProperty(RETURN_PROP_PREFIX + className + "#" + methodName);
+        return getReturnRules(view(), className, methodName);
+    }
+
+    private static List<ReturnValueRule> getReturnRules(Map<String, String> registry, String className,
+                                                        String methodName) {
+        String value = registry.get(RETURN_PROP_PREFIX + className + "#" + methodName);
         if (value == null || value.isEmpty()) {
             return null;
         }
         List<ReturnValueRule> rules = new ArrayList<>();
+        int maxLength = maxAttributeLength(registry);
         String[] entries = value.split(";");
         for (String entry : entries) {
             String[] parts = entry.split("\\|", -1);
-            if (parts.length == 2) {
+            if (parts.length >= 2 && parts.length <= 4) {
                 String methodCall = parts[0].isEmpty() ? null : parts[0];
                 String attributeName = parts[1];
-                rules.add(new ReturnValueRule(methodCall, attributeName));
+                rules.add(new ReturnValueRule(methodCall, attributeName, parseType(parts, 2),
+                        parseBudget(parts, 3), maxLength).<ReturnValueRule>identifiedBy(
+                        RETURN_PROP_PREFIX + className + "#" + methodName + "|" + entry));
             }
         }
         return rules.isEmpty() ? null : rules;
@@ -345,18 +1086,679 @@ public class DynamicInstrumentationConfig {
     }
 
     /**
-     * Clear all registered rules (useful for hot-reload).
+     * Register behavioural options for a specific class+method pair.
+     * Options take part in the checksum so that adding or changing them is
+     * picked up by incremental retransformation.
+     *
+     * Serialization format:
+     *   Key:   "otel.dynamic.options.{className}#{methodName}"
+     *   Value: "key=value;key=value;..." with '%' and ';' percent-escaped
+     *
+     * @param className  fully qualified class name (dot-separated)
+     * @param methodName method name
+     * @param options    option values; null or empty registers nothing
+     */
+    public static void registerOptions(String className, String methodName, Map<String, String> options) {
+        if (options == null || options.isEmpty()) {
+            return;
+        }
+        String serialized = serializeOptions(options);
+        Map<String, String> changes = entry(OPTIONS_PROP_PREFIX + className + "#" + methodName, serialized);
+        if (options.containsKey(MethodOptions.ROUTES)) {
+            changes.put(ROUTE_TRACKING_KEY, "true");
+        }
+        if (options.containsKey(MethodOptions.COMPRESS_AFTER)) {
+            changes.put(COMPRESSION_TRACKING_KEY, "true");
+        }
+        if (MethodOptions.MODE_CHUNK.equals(options.get(MethodOptions.MODE))) {
+            changes.put(CHUNK_TRACKING_KEY, "true");
+        }
+        if (options.containsKey(MethodOptions.MAX_SPANS_PER_TRACE) || options.containsKey(MethodOptions.MAX_DEPTH)) {
+            changes.put(LIMITS_TRACKING_KEY, "true");
+        }
+        synchronized (DynamicInstrumentationConfig.class) {
+            String existingChecksum = getChecksum(className, methodName);
+            String optionsChecksum = md5(serialized);
+            changes.put(CHECKSUM_PREFIX + className + "#" + methodName,
+                    existingChecksum.isEmpty() ? optionsChecksum : existingChecksum + ":" + optionsChecksum);
+            write(changes);
+        }
+    }
+
+    /**
+     * Look up the options registered for a given class+method.
+     *
+     * @param className  fully qualified class name (dot-separated)
+     * @param methodName method name
+     * @return options, or null if none registered
+     */
+    public static MethodOptions getOptions(String className, String methodName) {
+        return getOptions(view(), className, methodName);
+    }
+
+    private static MethodOptions getOptions(Map<String, String> registry, String className, String methodName) {
+        String value = registry.get(OPTIONS_PROP_PREFIX + className + "#" + methodName);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return deserializeOptions(value);
+    }
+
+    /**
+     * Register options for every method of a package rule. Used for options
+     * that do not change bytecode (such as route scopes), so no checksum is stored.
+     *
+     * Serialization format:
+     *   Key:   "otel.dynamic.package.options.{packageName}:{recursive}"
+     *   Value: same as {@link #registerOptions}
+     *
+     * @param packageName package name
+     * @param recursive   whether sub-packages are included
+     * @param options     option values; null or empty registers nothing
+     */
+    public static void registerPackageOptions(String packageName, boolean recursive, Map<String, String> options) {
+        if (options == null || options.isEmpty()) {
+            return;
+        }
+        Map<String, String> changes = entry(PACKAGE_OPTIONS_PREFIX + packageName + ":" + recursive,
+                serializeOptions(options));
+        if (options.containsKey(MethodOptions.ROUTES)) {
+            changes.put(ROUTE_TRACKING_KEY, "true");
+        }
+        if (options.containsKey(MethodOptions.MAX_SPANS_PER_TRACE) || options.containsKey(MethodOptions.MAX_DEPTH)) {
+            changes.put(LIMITS_TRACKING_KEY, "true");
+        }
+        write(changes);
+    }
+
+    /**
+     * Look up the options of the most specific package rule covering a class.
+     *
+     * @param className fully qualified class name (dot-separated)
+     * @return options, or null if none registered
+     */
+    public static MethodOptions getPackageOptions(String className) {
+        return getPackageOptions(view(), className);
+    }
+
+    private static MethodOptions getPackageOptions(Map<String, String> registry, String className) {
+        int end = className.lastIndexOf('.');
+        boolean direct = true;
+        while (end > 0) {
+            String packageName = className.substring(0, end);
+            String value = registry.get(PACKAGE_OPTIONS_PREFIX + packageName + ":true");
+            if (value == null && direct) {
+                value = registry.get(PACKAGE_OPTIONS_PREFIX + packageName + ":false");
+            }
+            if (value != null) {
+                return deserializeOptions(value);
+            }
+            direct = false;
+            end = packageName.lastIndexOf('.');
+        }
+        return null;
+    }
+
+    /**
+     * Set the global built-in overlap policy ("suppress", "enrich" or "allow"),
+     * or null to use the per-rule-type defaults.
+     */
+    public static void setDefaultOverlap(String policy) {
+        write(entry(OVERLAP_DEFAULT_KEY, policy == null || policy.isEmpty() ? null : policy));
+    }
+
+    /**
+     * Set the cap on span events recorded on one parent span by event-mode rules,
+     * or null for {@link #DEFAULT_MAX_EVENTS_PER_SPAN}.
+     */
+    public static void setMaxEventsPerSpan(Integer maxEvents) {
+        write(entry(MAX_EVENTS_KEY, maxEvents != null ? maxEvents.toString() : null));
+    }
+
+    /**
+     * Set the maximum length of extracted string attribute values, or null for
+     * {@link #DEFAULT_MAX_ATTRIBUTE_LENGTH}. 0 means unlimited.
+     */
+    public static void setMaxAttributeLength(Integer maxLength) {
+        write(entry(MAX_ATTRIBUTE_LENGTH_KEY, maxLength != null ? maxLength.toString() : null));
+    }
+
+    /**
+     * Enable or disable timestamping of executor submissions for queue time
+     * measurement.
+     */
+    public static void setQueueTracking(boolean enabled) {
+        write(flag(QUEUE_TRACKING_KEY, enabled));
+    }
+
+    /**
+     * True if executor submissions are timestamped. Read on every submission by
+     * the executor advice, which has no resolved method to cache it in, so it
+     * reads a flag updated when the registry is published rather than the registry.
+     */
+    public static boolean isQueueTracking() {
+        return queueFlag().get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> disabledRules() {
+        Set<String> local = disabledRules;
+        if (local != null) {
+            return local;
+        }
+        Object existing = System.getProperties().get(DISABLED_RULES_KEY);
+        if (!(existing instanceof Set)) {
+            Object raced = System.getProperties().putIfAbsent(DISABLED_RULES_KEY,
+                    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+            existing = raced instanceof Set ? raced : System.getProperties().get(DISABLED_RULES_KEY);
+        }
+        local = (Set<String>) existing;
+        disabledRules = local;
+        return local;
+    }
+
+    /**
+     * Sampling rule key of the span {@link ResolvedMethod#startSpan} is starting
+     * on this thread, or null. Read by the sampler, which runs on the thread
+     * that starts the span.
+     */
+    public static String getStartingRule() {
+        return startingRule().get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ThreadLocal<String> startingRule() {
+        ThreadLocal<String> local = startingRule;
+        if (local != null) {
+            return local;
+        }
+        Object existing = System.getProperties().get(STARTING_RULE_KEY);
+        if (!(existing instanceof ThreadLocal)) {
+            Object raced = System.getProperties().putIfAbsent(STARTING_RULE_KEY, new ThreadLocal<String>());
+            existing = raced instanceof ThreadLocal ? raced : System.getProperties().get(STARTING_RULE_KEY);
+        }
+        local = (ThreadLocal<String>) existing;
+        startingRule = local;
+        return local;
+    }
+
+    private static AtomicBoolean queueFlag() {
+        AtomicBoolean local = queueFlag;
+        if (local != null) {
+            return local;
+        }
+        Object existing = System.getProperties().get(QUEUE_FLAG_KEY);
+        if (!(existing instanceof AtomicBoolean)) {
+            Object raced = System.getProperties().putIfAbsent(QUEUE_FLAG_KEY,
+                    new AtomicBoolean(registry().get(QUEUE_TRACKING_KEY) != null));
+            existing = raced instanceof AtomicBoolean ? raced : System.getProperties().get(QUEUE_FLAG_KEY);
+        }
+        local = (AtomicBoolean) existing;
+        queueFlag = local;
+        return local;
+    }
+
+    /**
+     * Enable or disable the registration of dynamic spans running on virtual
+     * threads, for pinning attribution. Only enabled while the pinning monitor
+     * is running.
+     */
+    public static void setPinningTracking(boolean enabled) {
+        write(flag(PINNING_TRACKING_KEY, enabled));
+    }
+
+    /**
+     * Enable or disable GC pause attribution. Only enabled while the GC pause
+     * monitor is subscribed.
+     */
+    public static void setGcTracking(boolean enabled) {
+        write(flag(GC_TRACKING_KEY, enabled));
+    }
+
+    /**
+     * Enable or disable the registration of calls for stack sampling. Only
+     * enabled while the stack sampler is running.
+     */
+    public static void setStackTracking(boolean enabled) {
+        write(flag(STACKS_TRACKING_KEY, enabled));
+    }
+
+    /**
+     * True if any rule aggregates calls per batch chunk. Read at every chunk
+     * start by the chunk advice, which has no resolved method to cache it in.
+     */
+    public static boolean isChunkTracking() {
+        return registry().get(CHUNK_TRACKING_KEY) != null;
+    }
+
+    /**
+     * Set the global per-trace span budget and nesting depth limit, which apply
+     * to rules without their own. null or 0 means unlimited.
+     */
+    public static void setDefaultLimits(Integer maxSpansPerTrace, Integer maxDepth) {
+        Map<String, String> changes = entry(MAX_SPANS_DEFAULT_KEY, positive(maxSpansPerTrace),
+                MAX_DEPTH_DEFAULT_KEY, positive(maxDepth));
+        if (changes.get(MAX_SPANS_DEFAULT_KEY) != null || changes.get(MAX_DEPTH_DEFAULT_KEY) != null) {
+            changes.put(LIMITS_TRACKING_KEY, "true");
+        }
+        write(changes);
+    }
+
+    private static String positive(Integer value) {
+        return value != null && value > 0 ? value.toString() : null;
+    }
+
+    /**
+     * Resolve rules, return rules and options for a runtime class+method,
+     * using a per-classloader cache invalidated whenever the registry changes.
+     *
+     * @param runtimeClassName the actual class name at runtime (dot-separated)
+     * @param methodName       method name
+     * @return the resolution, never null
+     */
+    public static ResolvedMethod resolve(String runtimeClassName, String methodName) {
+        Map<String, String> registry = registry();
+        if (registry != resolvedRegistry) {
+            resolvedCache.clear();
+            resolvedRegistry = registry;
+        }
+        ConcurrentHashMap<String, ResolvedMethod> methods = resolvedCache.get(runtimeClassName);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<>();
+            ConcurrentHashMap<String, ResolvedMethod> raced = resolvedCache.putIfAbsent(runtimeClassName, methods);
+            if (raced != null) {
+                methods = raced;
+            }
+        }
+        ResolvedMethod resolved = methods.get(methodName);
+        if (resolved == null || resolved.generation != registry) {
+            resolved = resolveUncached(registry, runtimeClassName, methodName);
+            methods.put(methodName, resolved);
+        }
+        return resolved;
+    }
+
+    private static ResolvedMethod resolveUncached(Map<String, String> registry, String runtimeClassName,
+                                                  String methodName) {
+        // Candidate classes in lookup order: exact class, its interfaces,
+        // then each superclass followed by that superclass's interfaces
+        List<String> candidates = new ArrayList<>();
+        Set<String> interfaceNames = new HashSet<>();
+        candidates.add(runtimeClassName);
+        Class<?> runtimeClass = null;
+        try {
+            runtimeClass = Class.forName(runtimeClassName, false,
+                    Thread.currentThread().getContextClassLoader());
+            for (Class<?> iface : runtimeClass.getInterfaces()) {
+                candidates.add(iface.getName());
+                interfaceNames.add(iface.getName());
+            }
+            Class<?> superClass = runtimeClass.getSuperclass();
+            while (superClass != null && superClass != Object.class) {
+                candidates.add(superClass.getName());
+                for (Class<?> iface : superClass.getInterfaces()) {
+                    candidates.add(iface.getName());
+                    interfaceNames.add(iface.getName());
+                }
+                superClass = superClass.getSuperclass();
+            }
+        } catch (ClassNotFoundException | LinkageError ignored) {
+            // Only the exact class name can be checked
+        }
+
+        List<AttributeRule> rules = null;
+        String rulesSource = null;
+        List<ReturnValueRule> returnRules = null;
+        MethodOptions options = null;
+        String optionsSource = null;
+        for (String candidate : candidates) {
+            if (rules == null) {
+                rules = getRules(registry, candidate, methodName);
+                rulesSource = rules != null ? candidate : null;
+            }
+            if (returnRules == null) {
+                returnRules = getReturnRules(registry, candidate, methodName);
+            }
+            if (options == null) {
+                options = getOptions(registry, candidate, methodName);
+                optionsSource = options != null ? candidate : null;
+            }
+        }
+
+        String instrumentedInterface = null;
+        if (rulesSource != null) {
+            instrumentedInterface = interfaceNames.contains(rulesSource) ? rulesSource : null;
+        } else if (runtimeClass != null) {
+            // No explicit rules — this is likely a package-level instrumented method.
+            // Check if the method is declared by an interface this class implements.
+            for (Class<?> iface : runtimeClass.getInterfaces()) {
+                try {
+                    iface.getMethod(methodName, (Class<?>[]) null);
+                    instrumentedInterface = iface.getName();
+                    break;
+                } catch (NoSuchMethodException ignored) {
+                    // method not declared by this interface, try next
+                }
+            }
+        }
+
+        String ruleSourceClass = optionsSource != null ? optionsSource : rulesSource;
+        String ruleKey = ruleSourceClass != null ? ruleSourceClass + "#" + methodName : null;
+        boolean explicit = rules != null || returnRules != null || options != null;
+        boolean drillDownScoped = !explicit && isInDrillDownScope(registry, runtimeClassName);
+
+        if (options == null) {
+            // Package-level options (e.g. route scopes) apply to methods without their own
+            options = getPackageOptions(registry, runtimeClassName);
+        }
+
+        MethodSettings settings = new MethodSettings(registry, options != null ? options : MethodOptions.EMPTY,
+                ruleKey, drillDownScoped);
+        boolean builtInCovered = settings.overlapPolicy != ResolvedMethod.OVERLAP_ALLOW && runtimeClass != null
+                && BuiltInCoverage.covers(runtimeClass, methodName);
+
+        return new ResolvedMethod(registry, runtimeClassName, methodName, rules, returnRules, ruleKey,
+                instrumentedInterface, builtInCovered, settings);
+    }
+
+    /**
+     * Publish the active drill-downs for the advice.
+     *
+     * @param activeBudgets rule key ("className#methodName") -> per-trace span budget
+     * @param scopes        package scopes as "packageName:recursive" entries
+     */
+    public static void setDrillDownState(Map<String, Integer> activeBudgets, List<String> scopes) {
+        Map<String, String> changes = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : activeBudgets.entrySet()) {
+            changes.put(DRILLDOWN_ACTIVE_PREFIX + entry.getKey(), Integer.toString(entry.getValue()));
+        }
+        if (scopes == null || scopes.isEmpty()) {
+            changes.put(DRILLDOWN_SCOPES_KEY, null);
+        } else {
+            StringBuilder sb = new StringBuilder();
+            for (String scope : scopes) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(scope);
+            }
+            changes.put(DRILLDOWN_SCOPES_KEY, sb.toString());
+        }
+        write(changes, DRILLDOWN_ACTIVE_PREFIX);
+    }
+
+    /**
+     * Check whether a class falls inside one of the active drill-down scopes.
+     */
+    static boolean isInDrillDownScope(String className) {
+        return isInDrillDownScope(view(), className);
+    }
+
+    private static boolean isInDrillDownScope(Map<String, String> registry, String className) {
+        String scopes = registry.get(DRILLDOWN_SCOPES_KEY);
+        if (scopes == null || scopes.isEmpty()) {
+            return false;
+        }
+        for (String scope : scopes.split(",")) {
+            int colon = scope.lastIndexOf(':');
+            String packageName = colon > 0 ? scope.substring(0, colon) : scope;
+            boolean recursive = colon > 0 && Boolean.parseBoolean(scope.substring(colon + 1));
+            if (className.startsWith(packageName + ".")
+                    && (recursive || className.indexOf('.', packageName.length() + 1) < 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counter name used to report SLO breaches of a drill-down rule.
+     */
+    public static String breachCounterName(String ruleKey) {
+        return "drilldown.breach." + ruleKey;
+    }
+
+    /**
+     * Invalidate all per-classloader resolution caches.
+     */
+    public static void bumpGeneration() {
+        write(Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Clear all registered rules (useful for hot-reload). Active drill-downs
+     * are kept.
      */
     public static void clear() {
-        List<String> toRemove = new ArrayList<>();
-        for (String key : System.getProperties().stringPropertyNames()) {
-            if (key.startsWith(PROP_PREFIX) || key.startsWith(RETURN_PROP_PREFIX) || key.startsWith(CHECKSUM_PREFIX)) {
-                toRemove.add(key);
+        write(clearedGlobals(), RULE_PREFIXES);
+    }
+
+    /**
+     * Start rebuilding the registry on the current thread, e.g. for a
+     * configuration load. Until {@link #publishUpdate()}, writes of this thread
+     * go to a cleared copy (as by {@link #clear()}) and the advice keeps
+     * reading the current registry; writes of other threads (drill-downs) are
+     * applied to both.
+     *
+     * @throws IllegalStateException if another thread is rebuilding it
+     */
+    public static synchronized void beginUpdate() {
+        if (staged != null) {
+            throw new IllegalStateException("Registry update already in progress on " + stagingThread.getName());
+        }
+        staged = new HashMap<>(registry());
+        stagingThread = Thread.currentThread();
+        apply(staged, clearedGlobals(), RULE_PREFIXES);
+    }
+
+    /**
+     * Replace the registry with the one built since {@link #beginUpdate()}.
+     * Extraction rules disabled for overrunning their time budget are enabled
+     * again; other registry writes keep them disabled.
+     */
+    public static synchronized void publishUpdate() {
+        if (staged == null || stagingThread != Thread.currentThread()) {
+            throw new IllegalStateException("No registry update in progress on this thread");
+        }
+        disabledRules().clear();
+        publish(staged);
+        abortUpdate();
+    }
+
+    /**
+     * Drop the registry built since {@link #beginUpdate()}, keeping the
+     * current one (idempotent).
+     */
+    public static synchronized void abortUpdate() {
+        if (stagingThread == Thread.currentThread()) {
+            staged = null;
+            stagingThread = null;
+        }
+    }
+
+    private static Map<String, String> clearedGlobals() {
+        Map<String, String> changes = new HashMap<>();
+        for (String key : GLOBAL_KEYS) {
+            changes.put(key, null);
+        }
+        return changes;
+    }
+
+    /**
+     * The published registry, read by the advice. Never null.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> registry() {
+        Object value = System.getProperties().get(REGISTRY_KEY);
+        return value instanceof Map ? (Map<String, String>) value : Collections.<String, String>emptyMap();
+    }
+
+    /**
+     * The registry as seen by the current thread: the one it is rebuilding, if
+     * any, else the published one.
+     */
+    private static synchronized Map<String, String> view() {
+        return stagingThread == Thread.currentThread() ? staged : registry();
+    }
+
+    /**
+     * Apply changes to the registry: to the copy being rebuilt if the current
+     * thread rebuilds it, else by publishing a new map.
+     *
+     * @param changes         entries to set; null values remove the key
+     * @param clearedPrefixes prefixes of keys removed first
+     */
+    private static synchronized void write(Map<String, String> changes, String... clearedPrefixes) {
+        if (stagingThread == Thread.currentThread()) {
+            apply(staged, changes, clearedPrefixes);
+            return;
+        }
+        Map<String, String> next = new HashMap<>(registry());
+        apply(next, changes, clearedPrefixes);
+        publish(next);
+        if (staged != null) {
+            apply(staged, changes, clearedPrefixes);
+        }
+    }
+
+    private static void apply(Map<String, String> registry, Map<String, String> changes, String[] clearedPrefixes) {
+        if (clearedPrefixes.length > 0) {
+            for (Iterator<String> keys = registry.keySet().iterator(); keys.hasNext(); ) {
+                String key = keys.next();
+                for (String prefix : clearedPrefixes) {
+                    if (key.startsWith(prefix)) {
+                        keys.remove();
+                        break;
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                registry.remove(change.getKey());
+            } else {
+                registry.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    private static void publish(Map<String, String> registry) {
+        // A new map every time: its identity is the generation
+        System.getProperties().put(REGISTRY_KEY, Collections.unmodifiableMap(new HashMap<>(registry)));
+        queueFlag().set(registry.get(QUEUE_TRACKING_KEY) != null);
+    }
+
+    private static Map<String, String> entry(String... keysAndValues) {
+        Map<String, String> changes = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            changes.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return changes;
+    }
+
+    private static Map<String, String> flag(String key, boolean enabled) {
+        return entry(key, enabled ? "true" : null);
+    }
+
+    private static int intProperty(Map<String, String> registry, String key) {
+        String value = registry.get(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException ignored) {
+                // treat as unset
+            }
+        }
+        return 0;
+    }
+
+    private static int maxEventsPerSpan(Map<String, String> registry) {
+        String value = registry.get(MAX_EVENTS_KEY);
+        if (value != null) {
+            try {
+                int maxEvents = Integer.parseInt(value);
+                if (maxEvents >= 0) {
+                    return maxEvents;
+                }
+            } catch (NumberFormatException ignored) {
+                // fall back to the default
             }
         }
-        for (String key : toRemove) {
-            System.clearProperty(key);
+        return DEFAULT_MAX_EVENTS_PER_SPAN;
+    }
+
+    private static int maxAttributeLength(Map<String, String> registry) {
+        String value = registry.get(MAX_ATTRIBUTE_LENGTH_KEY);
+        if (value != null) {
+            try {
+                int maxLength = Integer.parseInt(value);
+                if (maxLength >= 0) {
+                    return maxLength;
+                }
+            } catch (NumberFormatException ignored) {
+                // fall back to the default
+            }
+        }
+        return DEFAULT_MAX_ATTRIBUTE_LENGTH;
+    }
+
+    private static String serializeOptions(Map<String, String> options) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : options.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(escape(entry.getKey())).append('=').append(escape(entry.getValue()));
+        }
+        return sb.toString();
+    }
+
+    private static MethodOptions deserializeOptions(String value) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String entry : value.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq > 0) {
+                values.put(unescape(entry.substring(0, eq)), unescape(entry.substring(eq + 1)));
+            }
+        }
+        return values.isEmpty() ? null : new MethodOptions(values);
+    }
+
+    private static ArgumentCondition compileCondition(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return ArgumentCondition.compile(value);
+        } catch (IllegalArgumentException e) {
+            // Validated at configuration load; fail closed if this copy disagrees
+            return ArgumentCondition.compile("false");
+        }
+    }
+
+    private static String[] parseRoutes(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        List<String> routes = new ArrayList<>();
+        for (String route : value.split(",")) {
+            String trimmed = route.trim();
+            if (!trimmed.isEmpty()) {
+                routes.add(trimmed);
+            }
         }
+        return routes.isEmpty() ? null : routes.toArray(new String[0]);
+    }
+
+    private static String escape(String value) {
+        return value.replace("%", "%25").replace(";", "%3B");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("%3B", ";").replace("%25", "%");
     }
 
     /**
@@ -376,8 +1778,9 @@ public class DynamicInstrumentationConfig {
               .append('|')
               .append(r.getMethodCall() != null ? r.getMethodCall() : "")
               .append('|')
-              .append(r.getAttributeName())
-              .append(';');
+              .append(r.getAttributeName());
+            appendSettings(sb, r);
+            sb.append(';');
         }
         return md5(sb.toString());
     }
@@ -397,12 +1800,45 @@ public class DynamicInstrumentationConfig {
         for (ReturnValueRule r : rules) {
             sb.append(r.getMethodCall() != null ? r.getMethodCall() : "")
               .append('|')
-              .append(r.getAttributeName())
-              .append(';');
+              .append(r.getAttributeName());
+            appendSettings(sb, r);
+            sb.append(';');
         }
         return md5(sb.toString());
     }
 
+    /**
+     * Append a non-default attribute type and time budget, keeping the format (and
+     * checksums) of rules without them unchanged.
+     */
+    private static void appendSettings(StringBuilder sb, ExtractionRule rule) {
+        if (rule.getType() != ExtractionRule.TYPE_AUTO || rule.getTimeBudgetMicros() > 0) {
+            sb.append('|').append(ExtractionRule.typeName(rule.getType()));
+        }
+        if (rule.getTimeBudgetMicros() > 0) {
+            sb.append('|').append(rule.getTimeBudgetMicros());
+        }
+    }
+
+    private static long parseBudget(String[] parts, int index) {
+        if (parts.length <= index) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(parts[index]);
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    private static int parseType(String[] parts, int index) {
+        if (parts.length <= index) {
+            return AttributeRule.TYPE_AUTO;
+        }
+        int type = AttributeRule.typeOf(parts[index]);
+        return type >= 0 ? type : AttributeRule.TYPE_AUTO;
+    }
+
     /**
      * Compute MD5 hash of a string.
      */
@@ -421,18 +1857,12 @@ public class DynamicInstrumentationConfig {
         }
     }
 
-    /**
-     * Store checksum for a class#method pair.
-     */
-    private static void storeChecksum(String className, String methodName, String checksum) {
-        System.setProperty(CHECKSUM_PREFIX + className + "#" + methodName, checksum);
-    }
-
     /**
      * Get checksum for a class#method pair.
      */
     public static String getChecksum(String className, String methodName) {
-        return System.getProperty(CHECKSUM_PREFIX + className + "#" + methodName, "");
+        String checksum = view().get(CHECKSUM_PREFIX + className + "#" + methodName);
+        return checksum != null ? checksum : "";
     }
 
     /**
@@ -443,10 +1873,9 @@ public class DynamicInstrumentationConfig {
      */
     public static Map<String, String> getAllChecksums() {
         Map<String, String> checksums = new HashMap<>();
-        for (String key : System.getProperties().stringPropertyNames()) {
-            if (key.startsWith(CHECKSUM_PREFIX)) {
-                String classMethod = key.substring(CHECKSUM_PREFIX.length());
-                checksums.put(classMethod, System.getProperty(key, ""));
+        for (Map.Entry<String, String> entry : view().entrySet()) {
+            if (entry.getKey().startsWith(CHECKSUM_PREFIX)) {
+                checksums.put(entry.getKey().substring(CHECKSUM_PREFIX.length()), entry.getValue());
             }
         }
         return checksums;
@@ -0,0 +1,142 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.util.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Feeds {@link GcPauses} from the GC notifications of every
+ * {@link GarbageCollectorMXBean}, while any rule has {@code gcMetrics}.
+ *
+ * Started and stopped by RuleRegistrar on every configuration load. The
+ * notification content is read as open data, so {@code com.sun.management} is
+ * not needed at compile time. Collections of concurrent collectors (CMS, G1's
+ * concurrent cycle, ZGC and Shenandoah cycles) do not stop application threads
+ * and are ignored; their pause beans are kept. Every notification, pause or
+ * not, advances its collector's notified count and counts the deferred calls
+ * that were waiting for it.
+ */
+public final class GcPauseMonitor {
+
+    static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+    private static final NotificationListener LISTENER = GcPauseMonitor::handle;
+    private static final List<NotificationEmitter> emitters = new ArrayList<>();
+    private static final RuntimeMXBean RUNTIME = ManagementFactory.getRuntimeMXBean();
+
+    // Maps GC timestamps (milliseconds since the JVM start time) to GcPauses' clock
+    private static volatile long clockOffset;
+
+    private GcPauseMonitor() {
+    }
+
+    /**
+     * Subscribe to GC notifications (idempotent).
+     *
+     * @return true if at least one collector reports its pauses
+     */
+    public static synchronized boolean start() {
+        if (!emitters.isEmpty()) {
+            return true;
+        }
+        // GC times count from the JVM start time (not uptime, which counts from an
+        // earlier point); map them through the wall clock once, so later wall clock
+        // changes do not move pauses
+        clockOffset = GcPauses.nowMillis() - System.currentTimeMillis() + RUNTIME.getStartTime();
+        try {
+            List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+            for (int i = 0; i < collectors.size(); i++) {
+                GarbageCollectorMXBean gc = collectors.get(i);
+                if (gc instanceof NotificationEmitter) {
+                    NotificationEmitter emitter = (NotificationEmitter) gc;
+                    // The handback is the collector's index for GcPauses.notified
+                    emitter.addNotificationListener(LISTENER,
+                            notification -> GC_NOTIFICATION.equals(notification.getType()), i);
+                    emitters.add(emitter);
+                    GcPauses.notified(i, gc.getCollectionCount());
+                } else {
+                    // Never notified, so never waited for
+                    GcPauses.notified(i, Long.MAX_VALUE);
+                }
+            }
+        } catch (RuntimeException e) {
+            Logger.warn("Could not subscribe to GC notifications: " + e.getMessage());
+            stop();
+            return false;
+        }
+        if (emitters.isEmpty()) {
+            Logger.warn("No garbage collector sends notifications; gcMetrics records nothing");
+            return false;
+        }
+        GcPauses.setMonitored(true);
+        Logger.info("Tracking GC pauses of " + emitters.size() + " collectors for gcMetrics rules");
+        return true;
+    }
+
+    /**
+     * Unsubscribe from GC notifications (idempotent). Pauses already in the
+     * ring stay until overwritten.
+     */
+    public static synchronized void stop() {
+        if (emitters.isEmpty()) {
+            return;
+        }
+        GcPauses.setMonitored(false);
+        GcPauses.resolveDeferred(GcPauses.nowMillis());
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(LISTENER);
+            } catch (ListenerNotFoundException | RuntimeException ignored) {
+                // Already gone
+            }
+        }
+        emitters.clear();
+        Logger.info("Stopped tracking GC pauses");
+    }
+
+    private static void handle(Notification notification, Object handback) {
+        if (!(notification.getUserData() instanceof CompositeData)) {
+            return;
+        }
+        try {
+            CompositeData data = (CompositeData) notification.getUserData();
+            CompositeData info = (CompositeData) data.get("gcInfo");
+            boolean pause = isPause((String) data.get("gcName"), (String) data.get("gcAction"));
+            long offset = clockOffset;
+            synchronized (GcPauseMonitor.class) {
+                if (pause) {
+                    GcPauses.add((Long) info.get("startTime") + offset, (Long) info.get("endTime") + offset);
+                }
+                // After the pause, so a call that sees the count caught up also sees the pause
+                if (handback instanceof Integer) {
+                    GcPauses.notified((Integer) handback, (Long) info.get("id"));
+                }
+                GcPauses.resolveDeferred(GcPauses.nowMillis());
+            }
+        } catch (RuntimeException e) {
+            Logger.debug("Could not read GC notification: " + e);
+        }
+    }
+
+    /**
+     * True for collections that stop application threads, going by collector
+     * name and action.
+     */
+    static boolean isPause(String gcName, String gcAction) {
+        String name = gcName != null ? gcName.toLowerCase(Locale.ROOT) : "";
+        String action = gcAction != null ? gcAction.toLowerCase(Locale.ROOT) : "";
+        // "ConcurrentMarkSweep", "G1 Concurrent GC", "ZGC Cycles", "Shenandoah Cycles"
+        return !name.contains("concurrent") && !name.contains("cycles")
+                && !action.contains("concurrent") && !action.contains("cycle");
+    }
+}
@@ -0,0 +1,293 @@
+package com.otel.dynamic.agent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * JVM-wide ring of recent stop-the-world GC pauses, for rules with
+ * {@code gcMetrics}.
+ *
+ * {@link GcPauseMonitor} adds a pause for every GC notification; the advice
+ * asks at the end of a call how much of the call's interval was paused. Calls
+ * that overlap at least {@link #MIN_IMPACT_MS} of pauses get {@code gc.pause_ms}
+ * and {@code gc.pause_count} span attributes and count as GC-impacted in the
+ * method's DynamicCounters, which JMX reports as {@code MethodGcImpact}.
+ *
+ * Times are milliseconds on the {@link System#nanoTime()} clock, so wall clock
+ * changes do not move calls; the monitor converts GC timestamps to it with an
+ * offset taken once when it starts. Like {@link DynamicCounters}, the ring lives
+ * in the system properties table as a single {@link AtomicLongArray}: slot 0 is
+ * the number of pauses ever added, slot 1 the latest end of any of them, then
+ * {@link #CAPACITY} start/end pairs. Readers take no lock: the writer marks a
+ * pair's end before rewriting it, and a pair whose start is after its end is a
+ * torn read and skipped. A call with nothing paused since it started costs two
+ * array reads; otherwise the whole ring is scanned, since pauses of different
+ * collectors are not necessarily added in the order they ended.
+ *
+ * Notifications arrive asynchronously, shortly after the collection, so a short
+ * call can return before its pause is in the ring. The monitor therefore also
+ * stores, for each of the first {@value #MAX_COLLECTORS} collectors, the
+ * collection count of its latest notification. A call that returns while a
+ * collector's {@code getCollectionCount()} is ahead of that is deferred: its
+ * span gets the pauses known so far, and its counters are updated by the monitor
+ * once the notifications are in (or after {@value #MAX_DEFER_MS} ms), from a
+ * bounded JVM-wide queue.
+ */
+public final class GcPauses {
+
+    private static final String STORE_KEY = "otel.dynamic.gc.pauses";
+    private static final String DEFERRED_KEY = "otel.dynamic.gc.deferred";
+
+    static final int CAPACITY = 256;
+    static final int MAX_COLLECTORS = 4;
+    static final long MAX_DEFER_MS = 1000L;
+    private static final int DEFERRED_CAPACITY = 1024;
+
+    /** Pauses shorter than this in total do not mark a call as GC-impacted */
+    static final long MIN_IMPACT_MS = 1L;
+
+    private static final int SEQUENCE = 0;
+    private static final int LATEST_END = 1;
+    private static final int MONITORED = 2;
+    private static final int NOTIFIED = 3;
+    private static final int PAIRS = NOTIFIED + MAX_COLLECTORS;
+
+    // End of a pair being rewritten; nanoTime milliseconds may be 0 or negative
+    private static final long WRITING = Long.MIN_VALUE;
+
+    private static final AttributeKey<Long> PAUSE_MS = AttributeKey.longKey("gc.pause_ms");
+    private static final AttributeKey<Long> PAUSE_COUNT = AttributeKey.longKey("gc.pause_count");
+
+    private static final int CALLS = 0;
+    private static final int IMPACTED = 1;
+    private static final int PAUSE_MS_TOTAL = 2;
+
+    // Counters of each method, by GC key
+    private static final ConcurrentHashMap<String, AtomicLong[]> COUNTERS = new ConcurrentHashMap<>();
+
+    private static volatile AtomicLongArray store;
+    private static volatile ArrayBlockingQueue<Object[]> deferred;
+    private static volatile List<GarbageCollectorMXBean> collectors;
+
+    private GcPauses() {
+    }
+
+    /** Now, on the clock of the pause timestamps */
+    public static long nowMillis() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    /**
+     * Add a pause. Only called by the monitor, which serializes its calls.
+     */
+    static void add(long startMillis, long endMillis) {
+        AtomicLongArray ring = store();
+        long sequence = ring.get(SEQUENCE);
+        int start = PAIRS + 2 * (int) (sequence % CAPACITY);
+        long end = Math.max(endMillis, startMillis);
+        ring.set(start + 1, WRITING);
+        ring.set(start, startMillis);
+        ring.set(start + 1, end);
+        if (sequence == 0L || end > ring.get(LATEST_END)) {
+            ring.set(LATEST_END, end);
+        }
+        ring.set(SEQUENCE, sequence + 1);
+    }
+
+    /**
+     * Mark whether the monitor is receiving notifications; calls are only
+     * deferred while it is.
+     */
+    static void setMonitored(boolean monitored) {
+        store().set(MONITORED, monitored ? 1L : 0L);
+    }
+
+    /**
+     * Record the collection count of a collector's latest notification. Only
+     * called by the monitor, after adding the collection's pause.
+     *
+     * @param collector index in {@link ManagementFactory#getGarbageCollectorMXBeans()}
+     */
+    static void notified(int collector, long collections) {
+        if (collector < MAX_COLLECTORS) {
+            store().set(NOTIFIED + collector, collections);
+        }
+    }
+
+    /**
+     * True if a collector has finished a collection whose notification has not
+     * been handled yet.
+     */
+    static boolean isPending() {
+        AtomicLongArray ring = store();
+        if (ring.get(MONITORED) == 0L) {
+            return false;
+        }
+        List<GarbageCollectorMXBean> beans = collectors();
+        for (int i = 0; i < beans.size(); i++) {
+            if (beans.get(i).getCollectionCount() > ring.get(NOTIFIED + i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count the deferred calls whose pauses are all in, or that waited longer
+     * than {@link #MAX_DEFER_MS}. Only called by the monitor.
+     */
+    static void resolveDeferred(long nowMillis) {
+        ArrayBlockingQueue<Object[]> queue = deferred();
+        boolean pending = isPending();
+        Object[] call;
+        while ((call = queue.peek()) != null) {
+            long endMillis = (Long) call[2];
+            if (pending && nowMillis - endMillis < MAX_DEFER_MS) {
+                return;
+            }
+            queue.poll();
+            long[] overlap = overlap((Long) call[1], endMillis);
+            if (overlap[0] >= MIN_IMPACT_MS) {
+                impact(countersOf((String) call[0]), overlap[0]);
+            }
+        }
+    }
+
+    /**
+     * Paused time and pause count within an interval.
+     *
+     * @return {paused milliseconds, pauses}
+     */
+    static long[] overlap(long fromMillis, long toMillis) {
+        AtomicLongArray ring = store();
+        long sequence = ring.get(SEQUENCE);
+        long paused = 0L;
+        long pauses = 0L;
+        for (long i = sequence - 1; i >= 0 && i >= sequence - CAPACITY; i--) {
+            int start = PAIRS + 2 * (int) (i % CAPACITY);
+            long end = ring.get(start + 1);
+            if (end == WRITING) {
+                continue;
+            }
+            long begin = ring.get(start);
+            if (begin > end) {
+                // Overwritten while read
+                continue;
+            }
+            if (end >= fromMillis && begin <= toMillis) {
+                paused += Math.min(end, toMillis) - Math.max(begin, fromMillis);
+                pauses++;
+            }
+        }
+        return new long[]{paused, pauses};
+    }
+
+    /**
+     * Report the pauses since a call started on its span and in the method's
+     * counters.
+     *
+     * @param startMillis {@link #nowMillis()} when the call started
+     */
+    public static void record(Span span, String gcKey, long startMillis) {
+        AtomicLong[] counters = countersOf(gcKey);
+        counters[CALLS].incrementAndGet();
+        // Checked first: pauses of notified collections are in the ring by then
+        boolean pending = isPending();
+        long endMillis = nowMillis();
+        AtomicLongArray ring = store();
+        long[] overlap = ring.get(SEQUENCE) == 0L || ring.get(LATEST_END) < startMillis
+                ? null : overlap(startMillis, endMillis);
+        if (overlap != null && overlap[0] >= MIN_IMPACT_MS) {
+            span.setAttribute(PAUSE_MS, overlap[0]);
+            span.setAttribute(PAUSE_COUNT, overlap[1]);
+        }
+        if (pending) {
+            // Counted by the monitor; a call that does not fit the queue is not
+            deferred().offer(new Object[]{gcKey, startMillis, endMillis});
+        } else if (overlap != null && overlap[0] >= MIN_IMPACT_MS) {
+            impact(counters, overlap[0]);
+        }
+    }
+
+    private static void impact(AtomicLong[] counters, long pausedMillis) {
+        counters[IMPACTED].incrementAndGet();
+        counters[PAUSE_MS_TOTAL].addAndGet(pausedMillis);
+    }
+
+    /** Forget all pauses and deferred calls; used by tests */
+    static void clear() {
+        AtomicLongArray ring = store();
+        for (int i = ring.length() - 1; i >= 0; i--) {
+            ring.set(i, 0L);
+        }
+        deferred().clear();
+    }
+
+    private static AtomicLong[] countersOf(String key) {
+        AtomicLong[] counters = COUNTERS.get(key);
+        if (counters == null) {
+            String prefix = DynamicCounters.GC_PREFIX + key + ".";
+            counters = new AtomicLong[]{
+                    DynamicCounters.counter(prefix + DynamicCounters.GC_CALLS),
+                    DynamicCounters.counter(prefix + DynamicCounters.GC_IMPACTED),
+                    DynamicCounters.counter(prefix + DynamicCounters.GC_PAUSE_MS)};
+            AtomicLong[] raced = COUNTERS.putIfAbsent(key, counters);
+            if (raced != null) {
+                counters = raced;
+            }
+        }
+        return counters;
+    }
+
+    private static List<GarbageCollectorMXBean> collectors() {
+        List<GarbageCollectorMXBean> local = collectors;
+        if (local == null) {
+            local = ManagementFactory.getGarbageCollectorMXBeans();
+            if (local.size() > MAX_COLLECTORS) {
+                local = local.subList(0, MAX_COLLECTORS);
+            }
+            collectors = local;
+        }
+        return local;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayBlockingQueue<Object[]> deferred() {
+        ArrayBlockingQueue<Object[]> local = deferred;
+        if (local != null) {
+            return local;
+        }
+        Object existing = System.getProperties().get(DEFERRED_KEY);
+        if (!(existing instanceof ArrayBlockingQueue)) {
+            Object raced = System.getProperties().putIfAbsent(DEFERRED_KEY,
+                    new ArrayBlockingQueue<Object[]>(DEFERRED_CAPACITY));
+            existing = raced instanceof ArrayBlockingQueue ? raced : System.getProperties().get(DEFERRED_KEY);
+        }
+        local = (ArrayBlockingQueue<Object[]>) existing;
+        deferred = local;
+        return local;
+    }
+
+    private static AtomicLongArray store() {
+        AtomicLongArray local = store;
+        if (local != null) {
+            return local;
+        }
+        Object existing = System.getProperties().get(STORE_KEY);
+        if (!(existing instanceof AtomicLongArray)) {
+            Object raced = System.getProperties().putIfAbsent(STORE_KEY, new AtomicLongArray(PAIRS + 2 * CAPACITY));
+            existing = raced instanceof AtomicLongArray ? raced : System.getProperties().get(STORE_KEY);
+        }
+        local = (AtomicLongArray) existing;
+        store = local;
+        return local;
+    }
+}
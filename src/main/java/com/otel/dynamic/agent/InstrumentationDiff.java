@@ -95,6 +95,20 @@ public class InstrumentationDiff {
         return affected;
     }
 
+    /**
+     * @return class names (without method) of all affected entries
+     */
+    public Set<String> getAffectedClassNames() {
+        Set<String> classNames = new HashSet<>();
+        for (String classMethod : getAffected()) {
+            int hashIndex = classMethod.indexOf('#');
+            if (hashIndex > 0) {
+                classNames.add(classMethod.substring(0, hashIndex));
+            }
+        }
+        return classNames;
+    }
+
     /**
      * @return true if there are any changes that require retransformation
      */
@@ -0,0 +1,281 @@
+package com.otel.dynamic.agent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * JVM-wide registry of the dynamic spans running on virtual threads, for rules
+ * with {@code pinningMetrics}.
+ *
+ * The advice registers a frame when such a call starts on a virtual thread and
+ * marks it ended when the call returns. {@link PinningMonitor} receives JFR
+ * {@code jdk.VirtualThreadPinned} events about a second later and attributes
+ * each one to the innermost frame of the event's thread whose time window
+ * overlaps the pin: the span gets a {@code virtual_thread.pinned} event and
+ * running {@code thread.pinned_count} / {@code thread.pinned_ms} attributes
+ * while it is still recording, and the method's DynamicCounters always count
+ * it. Ended frames are kept for {@link #RETENTION_MILLIS} so late events still
+ * reach the counters.
+ *
+ * Like {@link DynamicCounters}, the registry is written by advice in every
+ * application classloader and read by the agent, so it lives in the system
+ * properties table and holds only JDK types: thread id -> a fixed ring of
+ * frames, each frame an {@code Object[]} of span, method key and an
+ * {@code AtomicLongArray} of start, end, pin count and pinned nanos. A ring is
+ * only written by its own thread, so registration takes no lock; a call that
+ * finds all slots of its thread active is not registered.
+ */
+public final class PinnedSpans {
+
+    private static final String STORE_KEY = "otel.dynamic.pinning.frames";
+
+    /** How long ended frames stay matchable by late JFR events */
+    static final long RETENTION_MILLIS = 5000L;
+
+    static final int SLOTS_PER_THREAD = 32;
+
+    private static final int SPAN = 0;
+    private static final int KEY = 1;
+    private static final int STATE = 2;
+
+    private static final int START = 0;
+    private static final int END = 1;
+    private static final int COUNT = 2;
+    private static final int NANOS = 3;
+
+    private static final String PINNED_EVENT = "virtual_thread.pinned";
+    private static final AttributeKey<Long> PINNED_COUNT = AttributeKey.longKey("thread.pinned_count");
+    private static final AttributeKey<Long> PINNED_MS = AttributeKey.longKey("thread.pinned_ms");
+    private static final AttributeKey<Long> DURATION_MS = AttributeKey.longKey("duration_ms");
+
+    // Thread.isVirtual(), absent before Java 19
+    private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+    // Call counters of each method, by pinning key
+    private static final ConcurrentHashMap<String, AtomicLong> CALLS = new ConcurrentHashMap<>();
+
+    private static volatile ConcurrentMap<Long, AtomicReferenceArray<Object[]>> store;
+
+    private PinnedSpans() {
+    }
+
+    /**
+     * Register a call starting on the current thread.
+     *
+     * @return the frame to pass to {@link #exit(Object[])}, or null if the
+     *         current thread is not virtual
+     */
+    public static Object[] enter(Span span, String pinningKey) {
+        Thread thread = Thread.currentThread();
+        if (!isVirtual(thread)) {
+            return null;
+        }
+        return enter(span, pinningKey, thread.getId(), System.currentTimeMillis());
+    }
+
+    static Object[] enter(Span span, String pinningKey, long threadId, long nowMillis) {
+        callsOf(pinningKey).incrementAndGet();
+        ConcurrentMap<Long, AtomicReferenceArray<Object[]>> threads = store();
+        Long id = threadId;
+        AtomicReferenceArray<Object[]> ring = threads.get(id);
+        if (ring == null) {
+            ring = new AtomicReferenceArray<>(SLOTS_PER_THREAD);
+            AtomicReferenceArray<Object[]> raced = threads.putIfAbsent(id, ring);
+            if (raced != null) {
+                ring = raced;
+            }
+        }
+        int slot = freeSlot(ring);
+        if (slot < 0) {
+            return null;
+        }
+        AtomicLongArray state = new AtomicLongArray(4);
+        state.set(START, nowMillis);
+        Object[] frame = {span, pinningKey, state};
+        ring.set(slot, frame);
+        if (threads.get(id) != ring) {
+            // Expired between lookup and write
+            threads.putIfAbsent(id, ring);
+        }
+        return frame;
+    }
+
+    /**
+     * Mark a registered call as returned.
+     */
+    public static void exit(Object[] frame) {
+        exit(frame, System.currentTimeMillis());
+    }
+
+    static void exit(Object[] frame, long nowMillis) {
+        if (frame != null) {
+            // 0 means running, so never store it as an end
+            ((AtomicLongArray) frame[STATE]).set(END, Math.max(nowMillis, 1L));
+        }
+    }
+
+    /**
+     * Attribute a pin of a virtual thread to the innermost call running on it
+     * during the pin.
+     *
+     * @return true if a registered call overlapped the pin
+     */
+    public static boolean pinned(long threadId, long startMillis, long durationNanos) {
+        AtomicReferenceArray<Object[]> ring = store().get(threadId);
+        if (ring == null) {
+            return false;
+        }
+        long endMillis = startMillis + TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        Object[] innermost = null;
+        long innermostStart = Long.MIN_VALUE;
+        for (int i = 0; i < ring.length(); i++) {
+            Object[] frame = ring.get(i);
+            if (frame == null) {
+                continue;
+            }
+            AtomicLongArray state = (AtomicLongArray) frame[STATE];
+            long start = state.get(START);
+            long end = state.get(END);
+            if (start <= endMillis && (end == 0L || end >= startMillis) && start >= innermostStart) {
+                innermost = frame;
+                innermostStart = start;
+            }
+        }
+        if (innermost == null) {
+            return false;
+        }
+
+        AtomicLongArray state = (AtomicLongArray) innermost[STATE];
+        long count = state.incrementAndGet(COUNT);
+        long nanos = state.addAndGet(NANOS, durationNanos);
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        String prefix = DynamicCounters.PINNING_PREFIX + innermost[KEY] + ".";
+        DynamicCounters.increment(prefix + DynamicCounters.PINNING_COUNT);
+        DynamicCounters.add(prefix + DynamicCounters.PINNING_MS, durationMs);
+
+        Object span = innermost[SPAN];
+        if (span instanceof Span && ((Span) span).isRecording()) {
+            Span recording = (Span) span;
+            recording.addEvent(PINNED_EVENT, Attributes.of(DURATION_MS, durationMs),
+                    startMillis, TimeUnit.MILLISECONDS);
+            recording.setAttribute(PINNED_COUNT, count);
+            recording.setAttribute(PINNED_MS, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+        return true;
+    }
+
+    /**
+     * Drop the threads whose calls all ended more than {@link #RETENTION_MILLIS}
+     * ago. Called periodically by the monitor.
+     */
+    public static void expire(long nowMillis) {
+        Iterator<Map.Entry<Long, AtomicReferenceArray<Object[]>>> it = store().entrySet().iterator();
+        while (it.hasNext()) {
+            AtomicReferenceArray<Object[]> ring = it.next().getValue();
+            boolean stale = true;
+            for (int i = 0; i < ring.length() && stale; i++) {
+                Object[] frame = ring.get(i);
+                if (frame != null) {
+                    long end = ((AtomicLongArray) frame[STATE]).get(END);
+                    stale = end != 0L && nowMillis - end > RETENTION_MILLIS;
+                }
+            }
+            if (stale) {
+                it.remove();
+            }
+        }
+    }
+
+    /** Number of threads with registered calls */
+    static int threadCount() {
+        return store().size();
+    }
+
+    /** Clear the registry; used when pinning tracking stops */
+    public static void clear() {
+        store().clear();
+    }
+
+    /**
+     * An empty slot, or else the one whose call ended first; -1 if every call
+     * in the ring is still running.
+     */
+    private static int freeSlot(AtomicReferenceArray<Object[]> ring) {
+        int oldest = -1;
+        long oldestEnd = Long.MAX_VALUE;
+        for (int i = 0; i < ring.length(); i++) {
+            Object[] frame = ring.get(i);
+            if (frame == null) {
+                return i;
+            }
+            long end = ((AtomicLongArray) frame[STATE]).get(END);
+            if (end != 0L && end < oldestEnd) {
+                oldest = i;
+                oldestEnd = end;
+            }
+        }
+        return oldest;
+    }
+
+    private static AtomicLong callsOf(String key) {
+        AtomicLong calls = CALLS.get(key);
+        if (calls == null) {
+            calls = DynamicCounters.counter(DynamicCounters.PINNING_PREFIX + key + "." + DynamicCounters.PINNING_CALLS);
+            AtomicLong raced = CALLS.putIfAbsent(key, calls);
+            if (raced != null) {
+                calls = raced;
+            }
+        }
+        return calls;
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    private static MethodHandle isVirtualHandle() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+                    MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentMap<Long, AtomicReferenceArray<Object[]>> store() {
+        ConcurrentMap<Long, AtomicReferenceArray<Object[]>> local = store;
+        if (local != null) {
+            return local;
+        }
+        Object existing = System.getProperties().get(STORE_KEY);
+        if (!(existing instanceof ConcurrentMap)) {
+            Object raced = System.getProperties().putIfAbsent(STORE_KEY,
+                    new ConcurrentHashMap<Long, AtomicReferenceArray<Object[]>>());
+            existing = raced instanceof ConcurrentMap ? raced : System.getProperties().get(STORE_KEY);
+        }
+        local = (ConcurrentMap<Long, AtomicReferenceArray<Object[]>>) existing;
+        store = local;
+        return local;
+    }
+}
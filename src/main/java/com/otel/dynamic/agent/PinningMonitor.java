@@ -0,0 +1,162 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.util.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Streams JFR {@code jdk.VirtualThreadPinned} events and hands them to
+ * {@link PinnedSpans}, while any rule has {@code pinningMetrics}.
+ *
+ * Started and stopped by RuleRegistrar on every configuration load. Pinning is
+ * only reported as a JFR event from Java 21, so on older JVMs the monitor never
+ * starts, pinning tracking stays off and the advice registers nothing. JFR is
+ * used through reflection so the agent still loads on Java 8.
+ *
+ * Events are recorded for pins of at least {@link #THRESHOLD_MS} (the JFR
+ * default) without stack traces, on the stream's own daemon thread.
+ */
+public final class PinningMonitor {
+
+    static final String EVENT = "jdk.VirtualThreadPinned";
+    static final long THRESHOLD_MS = 20L;
+
+    private static Object stream;
+    private static MethodHandle close;
+
+    private PinningMonitor() {
+    }
+
+    /**
+     * Start streaming pinning events (idempotent).
+     *
+     * @return true if the monitor is running
+     */
+    public static synchronized boolean start() {
+        if (stream != null) {
+            return true;
+        }
+        int version = featureVersion(System.getProperty("java.specification.version"));
+        if (version < 21) {
+            Logger.info("pinningMetrics needs Java 21+ (running " + version + "); virtual thread pinning is not recorded");
+            return false;
+        }
+        Object created = null;
+        try {
+            Class<?> streamType = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Class<?> settingsType = Class.forName("jdk.jfr.EventSettings");
+            created = streamType.getConstructor().newInstance();
+            Object settings = streamType.getMethod("enable", String.class).invoke(created, EVENT);
+            settingsType.getMethod("withThreshold", Duration.class).invoke(settings, Duration.ofMillis(THRESHOLD_MS));
+            settingsType.getMethod("withoutStackTrace").invoke(settings);
+
+            EventReader reader = new EventReader();
+            Consumer<Object> onEvent = reader::accept;
+            Runnable onFlush = () -> PinnedSpans.expire(System.currentTimeMillis());
+            streamType.getMethod("onEvent", String.class, Consumer.class).invoke(created, EVENT, onEvent);
+            streamType.getMethod("onFlush", Runnable.class).invoke(created, onFlush);
+            close = MethodHandles.publicLookup().findVirtual(streamType, "close", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            streamType.getMethod("startAsync").invoke(created);
+            stream = created;
+            Logger.info("Streaming " + EVENT + " events for pinningMetrics rules");
+            return true;
+        } catch (Throwable e) {
+            Logger.warn("Could not stream " + EVENT + " events: " + e);
+            if (created != null && close != null) {
+                closeQuietly(created);
+            }
+            close = null;
+            return false;
+        }
+    }
+
+    /**
+     * Stop streaming and forget the registered calls (idempotent).
+     */
+    public static synchronized void stop() {
+        if (stream == null) {
+            return;
+        }
+        closeQuietly(stream);
+        stream = null;
+        close = null;
+        PinnedSpans.clear();
+        Logger.info("Stopped streaming " + EVENT + " events");
+    }
+
+    /** True while events are streamed */
+    public static synchronized boolean isRunning() {
+        return stream != null;
+    }
+
+    /**
+     * Feature release of a {@code java.specification.version} value
+     * ("1.8" is 8); 0 if unknown.
+     */
+    static int featureVersion(String specificationVersion) {
+        if (specificationVersion == null) {
+            return 0;
+        }
+        String version = specificationVersion.startsWith("1.")
+                ? specificationVersion.substring(2) : specificationVersion;
+        int dot = version.indexOf('.');
+        try {
+            return Integer.parseInt(dot >= 0 ? version.substring(0, dot) : version);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void closeQuietly(Object recordingStream) {
+        try {
+            close.invokeExact(recordingStream);
+        } catch (Throwable e) {
+            Logger.warn("Could not close the " + EVENT + " stream: " + e);
+        }
+    }
+
+    /**
+     * Reads thread, start and duration of RecordedEvents.
+     */
+    private static final class EventReader {
+        private final MethodHandle getThread;
+        private final MethodHandle getJavaThreadId;
+        private final MethodHandle getStartTime;
+        private final MethodHandle getDuration;
+
+        EventReader() throws ReflectiveOperationException {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> eventType = Class.forName("jdk.jfr.consumer.RecordedEvent");
+            Class<?> threadType = Class.forName("jdk.jfr.consumer.RecordedThread");
+            getThread = lookup.findVirtual(eventType, "getThread", MethodType.methodType(threadType))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            getJavaThreadId = lookup.findVirtual(threadType, "getJavaThreadId", MethodType.methodType(long.class))
+                    .asType(MethodType.methodType(long.class, Object.class));
+            getStartTime = lookup.findVirtual(eventType, "getStartTime", MethodType.methodType(Instant.class))
+                    .asType(MethodType.methodType(Instant.class, Object.class));
+            getDuration = lookup.findVirtual(eventType, "getDuration", MethodType.methodType(Duration.class))
+                    .asType(MethodType.methodType(Duration.class, Object.class));
+        }
+
+        void accept(Object event) {
+            try {
+                Object thread = (Object) getThread.invokeExact(event);
+                if (thread == null) {
+                    return;
+                }
+                long threadId = (long) getJavaThreadId.invokeExact(thread);
+                Instant start = (Instant) getStartTime.invokeExact(event);
+                Duration duration = (Duration) getDuration.invokeExact(event);
+                PinnedSpans.pinned(threadId, start.toEpochMilli(), duration.toNanos());
+            } catch (Throwable e) {
+                Logger.debug("Could not read " + EVENT + " event: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.config.ConfigurationManager;
+import com.otel.dynamic.config.model.MethodConfig;
+import com.otel.dynamic.config.model.PackageConfig;
+import com.otel.dynamic.util.Logger;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes time-boxed rules ({@code expiresAt}/{@code ttl}) once they expire.
+ *
+ * The JSON file stays the source of truth; ConfigurationManager derives the
+ * effective configuration without expired rules. On expiry this scheduler
+ * re-populates the advice registry, computes the checksum diff and retransforms
+ * the affected classes back to their original bytecode. Expiry events are
+ * logged and kept for JMX.
+ */
+public class RuleExpiryScheduler {
+
+    private static final long POLL_INTERVAL_MS = 1000;
+    private static final int MAX_EVENTS = 100;
+
+    private static volatile RuleExpiryScheduler instance;
+
+    private final ConfigurationManager configManager;
+    private final Deque<String> events = new ArrayDeque<>();
+    private ScheduledExecutorService scheduler;
+
+    RuleExpiryScheduler(ConfigurationManager configManager) {
+        this.configManager = configManager;
+    }
+
+    /**
+     * Start the scheduler (idempotent).
+     */
+    public static synchronized RuleExpiryScheduler initialize(ConfigurationManager configManager) {
+        if (instance == null) {
+            instance = new RuleExpiryScheduler(configManager);
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the running scheduler, or null if not initialized.
+     */
+    public static RuleExpiryScheduler getInstance() {
+        return instance;
+    }
+
+    private void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "DynamicInstrumentation-RuleExpiry");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                check(System.currentTimeMillis());
+            } catch (Exception e) {
+                Logger.error("Rule expiry evaluation failed", e);
+            }
+        }, POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drop rules that expired by {@code nowMillis} and un-instrument their classes.
+     *
+     * @return number of rules that expired
+     */
+    synchronized int check(long nowMillis) {
+        ConfigurationManager.ExpiredRules expired = configManager.refreshExpiry(nowMillis);
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        String when = Instant.ofEpochMilli(nowMillis).toString();
+        for (MethodConfig mc : expired.getMethods()) {
+            recordEvent(when + " method " + mc.getClassName() + "#" + mc.getMethodName());
+        }
+        for (PackageConfig pkg : expired.getPackages()) {
+            recordEvent(when + " package " + pkg.getPackageName());
+        }
+
+        // Rebuild the advice registry from the effective config and diff it
+        InstrumentationDiff diff = RuleRegistrar.repopulate(configManager.getConfig());
+
+        // Rules without attributes carry no checksum, so add expired classes explicitly
+        Set<String> classNames = new HashSet<>(diff.getAffectedClassNames());
+        for (MethodConfig mc : expired.getMethods()) {
+            classNames.add(mc.getClassName());
+        }
+        ClassRetransformer.retransformClasses(classNames, "rule expiry");
+        ClassRetransformer.retransformPackages(expired.getPackages(), "rule expiry");
+
+        return expired.getMethods().size() + expired.getPackages().size();
+    }
+
+    private void recordEvent(String event) {
+        Logger.info("Rule expired: " + event);
+        synchronized (events) {
+            if (events.size() >= MAX_EVENTS) {
+                events.removeFirst();
+            }
+            events.addLast(event);
+        }
+    }
+
+    /**
+     * Most recent expiry events, oldest first.
+     */
+    public List<String> getEvents() {
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+
+    /**
+     * Stop the scheduler.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.scheduler.shutdownNow();
+            instance = null;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.config.ConfigurationManager;
+import com.otel.dynamic.config.model.AttributeDefinition;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import com.otel.dynamic.config.model.PackageConfig;
+import com.otel.dynamic.config.model.QueueLagConfig;
+import com.otel.dynamic.config.model.ReturnValueAttribute;
+import com.otel.dynamic.util.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the Jackson configuration model into the dependency-free
+ * {@link DynamicInstrumentationConfig} registry read by the inlined advice.
+ *
+ * Used at startup by ConfigDrivenInstrumentationModule, on JMX reloads and
+ * when time-boxed rules expire.
+ */
+public class RuleRegistrar {
+
+    // Serializes rebuilds, which run on the startup, JMX and rule expiry threads
+    private static final Object LOCK = new Object();
+
+    // Thread contention monitoring was off until contentionMetrics rules turned it on (guarded by LOCK)
+    private static boolean contentionMonitoringEnabled;
+
+    private RuleRegistrar() {
+    }
+
+    /**
+     * Replace the registry with the rules of the configuration. The new
+     * registry is built off to the side and swapped in together with the
+     * sampling policies, so the advice never sees an empty or half-built one.
+     *
+     * @param config the effective configuration
+     * @return number of method rules registered
+     */
+    public static int populate(InstrumentationConfig config) {
+        synchronized (LOCK) {
+            SamplingRules.Builder sampling = SamplingRules.builder();
+            DynamicInstrumentationConfig.beginUpdate();
+            try {
+                int count = register(config, sampling);
+                DynamicInstrumentationConfig.publishUpdate();
+                SamplingRules.install(sampling.build());
+                return count;
+            } finally {
+                DynamicInstrumentationConfig.abortUpdate();
+            }
+        }
+    }
+
+    /**
+     * {@link #populate} and compare the rule checksums before and after, as one
+     * step, so a concurrent reload cannot change the registry in between.
+     *
+     * @param config the effective configuration
+     * @return the rules added, changed and removed
+     */
+    public static InstrumentationDiff repopulate(InstrumentationConfig config) {
+        synchronized (LOCK) {
+            Map<String, String> oldChecksums = DynamicInstrumentationConfig.getAllChecksums();
+            populate(config);
+            return InstrumentationDiff.compute(oldChecksums, DynamicInstrumentationConfig.getAllChecksums());
+        }
+    }
+
+    private static int register(InstrumentationConfig config, SamplingRules.Builder sampling) {
+        int count = 0;
+        if (config == null || config.getInstrumentations() == null) {
+            PinningMonitor.stop();
+            GcPauseMonitor.stop();
+            StackSampler.stop();
+            restoreContentionMonitoring();
+            return count;
+        }
+        DynamicInstrumentationConfig.setDefaultOverlap(config.getOverlap());
+        DynamicInstrumentationConfig.setMaxEventsPerSpan(config.getMaxEventsPerSpan());
+        DynamicInstrumentationConfig.setMaxAttributeLength(config.getMaxAttributeLength());
+        DynamicInstrumentationConfig.setQueueTracking(Boolean.TRUE.equals(config.getMeasureQueueTime()));
+        DynamicInstrumentationConfig.setDefaultLimits(config.getMaxSpansPerTrace(), config.getMaxDepth());
+        boolean contentionRules = false;
+        boolean pinningRules = false;
+        boolean gcRules = false;
+        boolean stackRules = false;
+        for (MethodConfig mc : config.getInstrumentations()) {
+            count++;
+            contentionRules |= Boolean.TRUE.equals(mc.getContentionMetrics());
+            pinningRules |= Boolean.TRUE.equals(mc.getPinningMetrics());
+            gcRules |= Boolean.TRUE.equals(mc.getGcMetrics());
+            stackRules |= mc.getStackSampleAfterMs() != null && mc.getStackSampleAfterMs() > 0;
+
+            // Convert AttributeDefinitions to simple AttributeRules (no Jackson dependency)
+            List<DynamicInstrumentationConfig.AttributeRule> rules = new ArrayList<>();
+            // The length cap is global, applied when the advice reads the rules
+            int maxLength = DynamicInstrumentationConfig.DEFAULT_MAX_ATTRIBUTE_LENGTH;
+            if (mc.getAttributes() != null) {
+                for (AttributeDefinition attr : mc.getAttributes()) {
+                    rules.add(new DynamicInstrumentationConfig.AttributeRule(
+                            attr.getArgIndex(), attr.getMethodCall(), attr.getAttributeName(), typeOf(attr.getType()),
+                            budgetOf(attr.getTimeBudgetMicros()), maxLength));
+                }
+            }
+            DynamicInstrumentationConfig.register(mc.getClassName(), mc.getMethodName(), rules);
+
+            // Register return value attribute extraction rules
+            if (mc.getReturnValueAttributes() != null && !mc.getReturnValueAttributes().isEmpty()) {
+                List<DynamicInstrumentationConfig.ReturnValueRule> returnRules = new ArrayList<>();
+                for (ReturnValueAttribute attr : mc.getReturnValueAttributes()) {
+                    returnRules.add(new DynamicInstrumentationConfig.ReturnValueRule(
+                            attr.getMethodCall(), attr.getAttributeName(), typeOf(attr.getType()),
+                            budgetOf(attr.getTimeBudgetMicros()), maxLength));
+                }
+                DynamicInstrumentationConfig.registerReturn(mc.getClassName(), mc.getMethodName(), returnRules);
+            }
+
+            Map<String, String> options = toOptions(mc);
+            String ruleKey = mc.getClassName() + "#" + mc.getMethodName();
+            if (sampling.add(ruleKey, mc.getClassName(), mc.getMethodName(), mc.getSampleRate(),
+                    mc.getMaxSpansPerSecond())) {
+                options.put(DynamicInstrumentationConfig.MethodOptions.SAMPLING_RULE, ruleKey);
+            }
+            DynamicInstrumentationConfig.registerOptions(mc.getClassName(), mc.getMethodName(), options);
+        }
+        if (config.getPackages() != null) {
+            for (PackageConfig pkg : config.getPackages()) {
+                Map<String, String> options = toOptions(pkg, config.getOverlap());
+                if (sampling.add(pkg.getPackageName(), null, null, pkg.getSampleRate(), pkg.getMaxSpansPerSecond())) {
+                    options.put(DynamicInstrumentationConfig.MethodOptions.SAMPLING_RULE, pkg.getPackageName());
+                }
+                DynamicInstrumentationConfig.registerPackageOptions(pkg.getPackageName(), pkg.isRecursive(), options);
+            }
+        }
+        if (contentionRules) {
+            enableContentionMonitoring();
+        } else {
+            restoreContentionMonitoring();
+        }
+        // Calls are only registered while JFR can report their pins (Java 21+)
+        if (pinningRules) {
+            DynamicInstrumentationConfig.setPinningTracking(PinningMonitor.start());
+        } else {
+            PinningMonitor.stop();
+        }
+        if (gcRules) {
+            DynamicInstrumentationConfig.setGcTracking(GcPauseMonitor.start());
+        } else {
+            GcPauseMonitor.stop();
+        }
+        if (stackRules) {
+            DynamicInstrumentationConfig.setStackTracking(StackSampler.start(config.getStackSampleIntervalMs()));
+        } else {
+            StackSampler.stop();
+        }
+        return count;
+    }
+
+    /**
+     * Collect the per-method options the advice needs at runtime.
+     */
+    static Map<String, String> toOptions(MethodConfig mc) {
+        Map<String, String> options = new LinkedHashMap<>();
+        if (mc.getDrillDown() != null && mc.getDrillDown().getLatencyThresholdMs() > 0) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.DRILL_DOWN_THRESHOLD_MS,
+                    Long.toString(mc.getDrillDown().getLatencyThresholdMs()));
+        }
+        putRoutes(options, mc.getRoutes());
+        if (mc.getCondition() != null && !mc.getCondition().trim().isEmpty()) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.CONDITION, mc.getCondition().trim());
+        }
+        if (mc.getMode() != null && !mc.getMode().isEmpty()
+                && !DynamicInstrumentationConfig.MethodOptions.MODE_SPAN.equals(mc.getMode())) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.MODE, mc.getMode());
+        }
+        if (mc.getOverlap() != null && !mc.getOverlap().isEmpty()) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.OVERLAP, mc.getOverlap());
+        }
+        if (mc.getCompressAfter() != null && mc.getCompressAfter() >= 0) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.COMPRESS_AFTER, mc.getCompressAfter().toString());
+        }
+        if (mc.getOutlierThresholdMs() != null && mc.getOutlierThresholdMs() > 0) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.OUTLIER_THRESHOLD_MS,
+                    mc.getOutlierThresholdMs().toString());
+        }
+        putLimits(options, mc.getMaxSpansPerTrace(), mc.getMaxDepth());
+        if (Boolean.TRUE.equals(mc.getResourceMetrics())) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.RESOURCE_METRICS, "true");
+        }
+        if (Boolean.TRUE.equals(mc.getContentionMetrics())) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.CONTENTION_METRICS, "true");
+        }
+        if (Boolean.TRUE.equals(mc.getPinningMetrics())) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.PINNING_METRICS, "true");
+        }
+        if (Boolean.TRUE.equals(mc.getGcMetrics())) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.GC_METRICS, "true");
+        }
+        if (mc.getStackSampleAfterMs() != null && mc.getStackSampleAfterMs() > 0) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.STACK_SAMPLE_AFTER_MS,
+                    mc.getStackSampleAfterMs().toString());
+        }
+        if (mc.getQueueLag() != null) {
+            QueueLagConfig queueLag = mc.getQueueLag();
+            options.put(DynamicInstrumentationConfig.MethodOptions.QUEUE_LAG_ARG,
+                    Integer.toString(queueLag.getArgIndex()));
+            putIfSet(options, DynamicInstrumentationConfig.MethodOptions.QUEUE_LAG_HEADER, queueLag.getHeader());
+            putIfSet(options, DynamicInstrumentationConfig.MethodOptions.QUEUE_LAG_METHOD, queueLag.getMethodCall());
+            putIfSet(options, DynamicInstrumentationConfig.MethodOptions.QUEUE_LAG_QUEUE, queueLag.getQueue());
+        }
+        return options;
+    }
+
+    private static void putIfSet(Map<String, String> options, String key, String value) {
+        if (value != null && !value.trim().isEmpty()) {
+            options.put(key, value.trim());
+        }
+    }
+
+    /**
+     * Collect the options that apply to every method of a package rule.
+     * The overlap policy is always set, so package matches are told apart from
+     * method rules (which default to their own span) at resolve time.
+     */
+    static Map<String, String> toOptions(PackageConfig pkg, String globalOverlap) {
+        Map<String, String> options = new LinkedHashMap<>();
+        putRoutes(options, pkg.getRoutes());
+        String overlap = ConfigurationManager.getOverlapPolicy(pkg, globalOverlap);
+        options.put(DynamicInstrumentationConfig.MethodOptions.OVERLAP, overlap);
+        putLimits(options, pkg.getMaxSpansPerTrace(), pkg.getMaxDepth());
+        return options;
+    }
+
+    private static int typeOf(String type) {
+        // Unknown types disable the rule during validation; auto is the fallback
+        return Math.max(DynamicInstrumentationConfig.AttributeRule.TYPE_AUTO,
+                DynamicInstrumentationConfig.AttributeRule.typeOf(type));
+    }
+
+    /**
+     * Turn on thread contention monitoring, so blocked and waited times are
+     * measured.
+     */
+    private static void enableContentionMonitoring() {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!threads.isThreadContentionMonitoringSupported()) {
+                Logger.warn("Thread contention monitoring is not supported; only blocked and waited counts are recorded");
+            } else if (!threads.isThreadContentionMonitoringEnabled()) {
+                threads.setThreadContentionMonitoringEnabled(true);
+                contentionMonitoringEnabled = true;
+                Logger.info("Enabled thread contention monitoring for contentionMetrics rules");
+            }
+        } catch (RuntimeException e) {
+            Logger.warn("Could not enable thread contention monitoring: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Turn thread contention monitoring off again once no rule needs it, if the
+     * rules turned it on. A setting made by someone else is left alone.
+     */
+    private static void restoreContentionMonitoring() {
+        if (!contentionMonitoringEnabled) {
+            return;
+        }
+        contentionMonitoringEnabled = false;
+        try {
+            ManagementFactory.getThreadMXBean().setThreadContentionMonitoringEnabled(false);
+            Logger.info("Disabled thread contention monitoring: no contentionMetrics rule left");
+        } catch (RuntimeException e) {
+            Logger.warn("Could not disable thread contention monitoring: " + e.getMessage());
+        }
+    }
+
+    private static long budgetOf(Long timeBudgetMicros) {
+        return timeBudgetMicros != null && timeBudgetMicros > 0 ? timeBudgetMicros : 0L;
+    }
+
+    private static void putLimits(Map<String, String> options, Integer maxSpansPerTrace, Integer maxDepth) {
+        // 0 is kept: it lifts a global limit for this rule
+        if (maxSpansPerTrace != null && maxSpansPerTrace >= 0) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.MAX_SPANS_PER_TRACE, maxSpansPerTrace.toString());
+        }
+        if (maxDepth != null && maxDepth >= 0) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.MAX_DEPTH, maxDepth.toString());
+        }
+    }
+
+    private static void putRoutes(Map<String, String> options, List<String> routes) {
+        if (routes == null || routes.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String route : routes) {
+            if (route == null || route.trim().isEmpty()) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(route.trim());
+        }
+        if (sb.length() > 0) {
+            options.put(DynamicInstrumentationConfig.MethodOptions.ROUTES, sb.toString());
+        }
+    }
+}
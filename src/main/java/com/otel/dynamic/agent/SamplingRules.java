@@ -0,0 +1,192 @@
+package com.otel.dynamic.agent;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-rule sampling policies ({@code sampleRate}, {@code maxSpansPerSecond}) of
+ * the current configuration, read by the SDK sampler.
+ *
+ * RuleRegistrar builds a new immutable table on every configuration load and
+ * installs it with a single volatile write, so a sampler never sees a mix of two
+ * configurations. Policies are found by the rule key the advice hands to the
+ * sampler while a span starts ({@code class#method} for method rules, the
+ * package name for package rules, so keys stay valid across reloads), or, for
+ * spans started elsewhere, by their {@code code.namespace}/{@code code.function}
+ * attributes (two hash lookups).
+ *
+ * Not injected into application classloaders: the registrar and the sampler both
+ * live in the extension classloader.
+ */
+public final class SamplingRules {
+
+    private static final SamplingRules EMPTY = new SamplingRules(Collections.<String, Policy>emptyMap(),
+            Collections.<String, Map<String, Policy>>emptyMap());
+
+    private static volatile SamplingRules current = EMPTY;
+
+    private final Map<String, Policy> byRule;
+    private final Map<String, Map<String, Policy>> byMethod;
+
+    private SamplingRules(Map<String, Policy> byRule, Map<String, Map<String, Policy>> byMethod) {
+        this.byRule = byRule;
+        this.byMethod = byMethod;
+    }
+
+    /** The policies of the configuration currently applied */
+    public static SamplingRules current() {
+        return current;
+    }
+
+    /**
+     * Replace the policies, e.g. after a configuration reload.
+     */
+    public static void install(SamplingRules rules) {
+        current = rules != null ? rules : EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** True if no rule configures sampling */
+    public boolean isEmpty() {
+        return byRule.isEmpty();
+    }
+
+    /**
+     * Policy registered under a rule key, or null if there is none (e.g. a rule
+     * removed by a reload).
+     */
+    public Policy byRule(String ruleKey) {
+        return byRule.get(ruleKey);
+    }
+
+    /**
+     * Policy of the method rule for a class and method, or null.
+     */
+    public Policy byMethod(String className, String methodName) {
+        Map<String, Policy> methods = byMethod.get(className);
+        return methods != null && methodName != null ? methods.get(methodName) : null;
+    }
+
+    /**
+     * Upper bound for {@link #isWithinRatio(String, long)} at a sampling ratio.
+     */
+    public static long ratioBound(double ratio) {
+        if (!(ratio > 0.0)) {
+            return 0L;
+        }
+        return ratio >= 1.0 ? Long.MAX_VALUE : (long) (ratio * Long.MAX_VALUE);
+    }
+
+    /**
+     * Same decision as the SDK's TraceIdRatioBased sampler: the last 16 hex digits
+     * of the trace ID as a long, compared against the ratio's bound. Services
+     * using the same ratio therefore agree on the same traces.
+     */
+    public static boolean isWithinRatio(String traceId, long bound) {
+        if (bound == Long.MAX_VALUE) {
+            return true;
+        }
+        if (bound == 0L || traceId.length() != 32) {
+            return false;
+        }
+        long random = 0;
+        for (int i = 16; i < 32; i++) {
+            random = (random << 4) | Character.digit(traceId.charAt(i), 16);
+        }
+        return Math.abs(random) < bound;
+    }
+
+    /**
+     * Sampling settings of one rule, with its rate limiter state.
+     */
+    public static final class Policy {
+        private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final long ratioBound;
+        private final long intervalNanos;
+        // Theoretical arrival time of the next span (generic cell rate algorithm)
+        private final AtomicLong nextArrival;
+
+        Policy(Double sampleRate, Integer maxSpansPerSecond) {
+            this.ratioBound = sampleRate != null ? ratioBound(sampleRate) : Long.MAX_VALUE;
+            this.intervalNanos = maxSpansPerSecond != null && maxSpansPerSecond > 0
+                    ? Math.max(1L, BURST_NANOS / maxSpansPerSecond) : 0L;
+            this.nextArrival = new AtomicLong(System.nanoTime());
+        }
+
+        /**
+         * Decide whether a span of the rule is created in the given trace.
+         * Rate-limit capacity is only taken by spans passing the probability.
+         */
+        public boolean sample(String traceId) {
+            return isWithinRatio(traceId, ratioBound) && tryAcquire(System.nanoTime());
+        }
+
+        boolean tryAcquire(long nowNanos) {
+            if (intervalNanos == 0L) {
+                return true;
+            }
+            while (true) {
+                long arrival = nextArrival.get();
+                long base = arrival - nowNanos > 0 ? arrival : nowNanos;
+                long next = base + intervalNanos;
+                // Allows up to one second worth of spans in a burst
+                if (next - nowNanos > BURST_NANOS) {
+                    return false;
+                }
+                if (nextArrival.compareAndSet(arrival, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the policies of one configuration.
+     */
+    public static final class Builder {
+        private final Map<String, Policy> byRule = new HashMap<>();
+        private final Map<String, Map<String, Policy>> byMethod = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Register a rule's sampling settings.
+         *
+         * @param ruleKey    key the advice passes to the sampler
+         * @param className  class of a method rule, or null for a package rule
+         * @param methodName method of a method rule, or null for a package rule
+         * @return true if the rule samples, in which case the advice must pass its key
+         */
+        public boolean add(String ruleKey, String className, String methodName, Double sampleRate,
+                           Integer maxSpansPerSecond) {
+            boolean sampled = sampleRate != null && sampleRate >= 0.0 && sampleRate <= 1.0;
+            boolean limited = maxSpansPerSecond != null && maxSpansPerSecond > 0;
+            if (!sampled && !limited) {
+                return false;
+            }
+            Policy policy = new Policy(sampled ? sampleRate : null, limited ? maxSpansPerSecond : null);
+            byRule.put(ruleKey, policy);
+            if (className != null && methodName != null) {
+                Map<String, Policy> methods = byMethod.get(className);
+                if (methods == null) {
+                    methods = new HashMap<>();
+                    byMethod.put(className, methods);
+                }
+                methods.put(methodName, policy);
+            }
+            return true;
+        }
+
+        public SamplingRules build() {
+            return byRule.isEmpty() ? EMPTY : new SamplingRules(byRule, byMethod);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.otel.dynamic.agent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * JVM-wide registry of running calls of rules with {@code stackSampleAfterMs},
+ * whose threads {@link StackSampler} samples once a call runs longer than its
+ * threshold.
+ *
+ * The advice registers a frame when such a call starts and removes it when the
+ * call returns; a call that collected samples then gets a {@code stack.samples}
+ * span event with the sample count and a hot-frame summary: the most frequent
+ * stacks, each reduced to its top frame and the first application frame below
+ * it, with their counts.
+ *
+ * Sampling is bounded: at most {@link #MAX_SAMPLES_PER_CALL} samples per call
+ * and {@link #MAX_STACKS_PER_CALL} distinct stacks (the rest count as
+ * "other"), and the sampler walks at most a fixed number of threads per sweep.
+ *
+ * Like {@link DynamicCounters}, the registry is written by advice in every
+ * application classloader and read by the agent, so it lives in the system
+ * properties table and holds only JDK types: thread -> a fixed ring of frames,
+ * each frame an {@code Object[]} of an {@code AtomicLongArray} of start,
+ * threshold and samples, and the map of stack counts, which the sampler
+ * creates on the first sample. A ring is only written by its own thread, so
+ * registration takes no lock and allocates only the frame; a call that finds
+ * all slots of its thread taken is not sampled. Rings stay allocated while
+ * their thread lives; the sampler drops the rings of ended threads on each
+ * sweep, so the advice never walks the registry.
+ */
+public final class SlowSpans {
+
+    private static final String STORE_KEY = "otel.dynamic.stacks.active";
+
+    static final int SLOTS_PER_THREAD = 8;
+    static final int MAX_SAMPLES_PER_CALL = 100;
+    static final int MAX_STACKS_PER_CALL = 32;
+    static final int SUMMARY_STACKS = 5;
+    static final String OTHER = "other";
+
+    private static final int STATE = 0;
+    private static final int STACKS = 1;
+
+    private static final int START = 0;
+    private static final int AFTER = 1;
+    private static final int SAMPLES = 2;
+
+    private static final String SAMPLES_EVENT = "stack.samples";
+    private static final AttributeKey<Long> SAMPLE_COUNT = AttributeKey.longKey("stack.sample_count");
+    private static final AttributeKey<String> HOT_FRAMES = AttributeKey.stringKey("stack.hot_frames");
+
+    private static volatile ConcurrentMap<Thread, AtomicReferenceArray<Object[]>> store;
+
+    private SlowSpans() {
+    }
+
+    /**
+     * Register a call starting on the current thread.
+     *
+     * @param afterNanos how long the call runs before its thread is sampled
+     * @return the frame to pass to {@link #exit(Object[], Span)}, or null if
+     *         the thread has no free slot
+     */
+    public static Object[] enter(long afterNanos) {
+        Thread thread = Thread.currentThread();
+        ConcurrentMap<Thread, AtomicReferenceArray<Object[]>> threads = store();
+        AtomicReferenceArray<Object[]> ring = threads.get(thread);
+        if (ring == null) {
+            ring = new AtomicReferenceArray<>(SLOTS_PER_THREAD);
+            threads.put(thread, ring);
+        }
+        for (int i = 0; i < ring.length(); i++) {
+            if (ring.get(i) == null) {
+                AtomicLongArray state = new AtomicLongArray(3);
+                state.set(START, System.nanoTime());
+                state.set(AFTER, afterNanos);
+                Object[] frame = {state, null};
+                ring.set(i, frame);
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove a returned call, on the thread that registered it, and report its
+     * samples on the span.
+     */
+    @SuppressWarnings("unchecked")
+    public static void exit(Object[] frame, Span span) {
+        AtomicReferenceArray<Object[]> ring = store().get(Thread.currentThread());
+        if (ring != null) {
+            for (int i = 0; i < ring.length(); i++) {
+                if (ring.get(i) == frame) {
+                    ring.set(i, null);
+                    break;
+                }
+            }
+        }
+
+        // Reading the count makes the sampler's map visible
+        long samples = ((AtomicLongArray) frame[STATE]).get(SAMPLES);
+        if (samples > 0 && span.isRecording()) {
+            span.addEvent(SAMPLES_EVENT, Attributes.of(
+                    SAMPLE_COUNT, samples,
+                    HOT_FRAMES, summary((Map<String, AtomicLong>) frame[STACKS])));
+        }
+    }
+
+    /**
+     * Sample the threads with calls past their threshold, up to a budget.
+     * Only called by the sampler thread.
+     *
+     * @param maxThreads stack walks allowed in this sweep
+     * @param rotation   sweep number, so threads beyond the budget take turns
+     * @return threads sampled
+     */
+    static int sample(long nowNanos, int maxThreads, long rotation) {
+        ConcurrentMap<Thread, AtomicReferenceArray<Object[]>> threads = store();
+        removeEnded(threads);
+        List<Map.Entry<Thread, AtomicReferenceArray<Object[]>>> due = new ArrayList<>();
+        for (Map.Entry<Thread, AtomicReferenceArray<Object[]>> entry : threads.entrySet()) {
+            AtomicReferenceArray<Object[]> ring = entry.getValue();
+            for (int i = 0; i < ring.length(); i++) {
+                if (isDue(ring.get(i), nowNanos)) {
+                    due.add(entry);
+                    break;
+                }
+            }
+        }
+        int count = Math.min(due.size(), maxThreads);
+        int offset = due.size() > maxThreads ? (int) (rotation % due.size()) : 0;
+        for (int n = 0; n < count; n++) {
+            Map.Entry<Thread, AtomicReferenceArray<Object[]>> entry = due.get((offset + n) % due.size());
+            Thread thread = entry.getKey();
+            AtomicReferenceArray<Object[]> ring = entry.getValue();
+            String stack = stackKey(thread.getStackTrace());
+            DynamicCounters.increment(DynamicCounters.STACK_SAMPLES);
+            if (stack == null) {
+                continue;
+            }
+            for (int i = 0; i < ring.length(); i++) {
+                Object[] frame = ring.get(i);
+                if (isDue(frame, nowNanos)) {
+                    addSample(frame, stack);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void removeEnded(ConcurrentMap<Thread, AtomicReferenceArray<Object[]>> threads) {
+        for (Map.Entry<Thread, AtomicReferenceArray<Object[]>> entry : threads.entrySet()) {
+            if (!entry.getKey().isAlive()) {
+                threads.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static boolean isDue(Object[] frame, long nowNanos) {
+        if (frame == null) {
+            return false;
+        }
+        AtomicLongArray state = (AtomicLongArray) frame[STATE];
+        return nowNanos - state.get(START) >= state.get(AFTER) && state.get(SAMPLES) < MAX_SAMPLES_PER_CALL;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addSample(Object[] frame, String stack) {
+        Map<String, AtomicLong> stacks = (Map<String, AtomicLong>) frame[STACKS];
+        if (stacks == null) {
+            // Only the sampler thread creates the map; a returning call may read it
+            stacks = new ConcurrentHashMap<>();
+            frame[STACKS] = stacks;
+        }
+        AtomicLong count = stacks.get(stack);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = stacks.putIfAbsent(stacks.size() < MAX_STACKS_PER_CALL ? stack : OTHER, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        ((AtomicLongArray) frame[STATE]).incrementAndGet(SAMPLES);
+    }
+
+    /**
+     * Top frame of a stack, followed by the first application frame below it
+     * when the top is in the JDK; null for an empty stack.
+     */
+    static String stackKey(StackTraceElement[] stack) {
+        if (stack == null || stack.length == 0) {
+            return null;
+        }
+        String top = format(stack[0]);
+        for (int i = 0; i < stack.length; i++) {
+            if (!isJdk(stack[i].getClassName())) {
+                return i == 0 ? top : top + " in " + format(stack[i]);
+            }
+        }
+        return top;
+    }
+
+    /** Like StackTraceElement.toString, without the module and classloader prefixes of Java 9+ */
+    private static String format(StackTraceElement frame) {
+        String location;
+        if (frame.isNativeMethod()) {
+            location = "Native Method";
+        } else if (frame.getFileName() == null) {
+            location = "Unknown Source";
+        } else if (frame.getLineNumber() >= 0) {
+            location = frame.getFileName() + ":" + frame.getLineNumber();
+        } else {
+            location = frame.getFileName();
+        }
+        return frame.getClassName() + "." + frame.getMethodName() + "(" + location + ")";
+    }
+
+    private static boolean isJdk(String className) {
+        return className.startsWith("java.") || className.startsWith("javax.") || className.startsWith("jdk.")
+                || className.startsWith("sun.") || className.startsWith("com.sun.");
+    }
+
+    /**
+     * The most frequent stacks, one "{count}x {stack}" line each.
+     */
+    static String summary(Map<String, AtomicLong> stacks) {
+        List<Map.Entry<String, AtomicLong>> entries = new ArrayList<>(stacks.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().get(), a.getValue().get()));
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < entries.size() && i < SUMMARY_STACKS; i++) {
+            if (i > 0) {
+                summary.append('\n');
+            }
+            summary.append(entries.get(i).getValue().get()).append("x ").append(entries.get(i).getKey());
+        }
+        return summary.toString();
+    }
+
+    /** Whether a thread still has a ring */
+    static boolean isRegistered(Thread thread) {
+        return store().containsKey(thread);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentMap<Thread, AtomicReferenceArray<Object[]>> store() {
+        ConcurrentMap<Thread, AtomicReferenceArray<Object[]>> local = store;
+        if (local != null) {
+            return local;
+        }
+        Object existing = System.getProperties().get(STORE_KEY);
+        if (!(existing instanceof ConcurrentMap)) {
+            Object raced = System.getProperties().putIfAbsent(STORE_KEY,
+                    new ConcurrentHashMap<Thread, AtomicReferenceArray<Object[]>>());
+            existing = raced instanceof ConcurrentMap ? raced : System.getProperties().get(STORE_KEY);
+        }
+        local = (ConcurrentMap<Thread, AtomicReferenceArray<Object[]>>) existing;
+        store = local;
+        return local;
+    }
+}
@@ -0,0 +1,76 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.util.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watchdog that samples the stacks of threads running a call past its
+ * {@code stackSampleAfterMs}, while any rule has one.
+ *
+ * Started and stopped by RuleRegistrar on every configuration load. Every
+ * {@code stackSampleIntervalMs} (top-level setting, default
+ * {@link #DEFAULT_INTERVAL_MS}) one daemon thread walks the stacks of at most
+ * {@link #MAX_THREADS_PER_SWEEP} threads from {@link SlowSpans}; when more are
+ * due, they take turns across sweeps.
+ */
+public final class StackSampler {
+
+    static final long DEFAULT_INTERVAL_MS = 100L;
+    static final long MIN_INTERVAL_MS = 10L;
+    static final int MAX_THREADS_PER_SWEEP = 16;
+
+    private static ScheduledExecutorService scheduler;
+    private static long intervalMs;
+    private static long sweeps;
+
+    private StackSampler() {
+    }
+
+    /**
+     * Start sampling, or restart it with a new interval.
+     *
+     * @param configuredIntervalMs {@code stackSampleIntervalMs}, or null for the default
+     * @return true if the sampler is running
+     */
+    public static synchronized boolean start(Integer configuredIntervalMs) {
+        long interval = configuredIntervalMs != null && configuredIntervalMs >= MIN_INTERVAL_MS
+                ? configuredIntervalMs : DEFAULT_INTERVAL_MS;
+        if (scheduler != null) {
+            if (interval == intervalMs) {
+                return true;
+            }
+            stop();
+        }
+        intervalMs = interval;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "DynamicInstrumentation-StackSampler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                SlowSpans.sample(System.nanoTime(), MAX_THREADS_PER_SWEEP, sweeps++);
+            } catch (Exception e) {
+                Logger.error("Stack sampling failed", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        Logger.info("Sampling stacks of slow calls every " + interval + " ms");
+        return true;
+    }
+
+    /**
+     * Stop sampling (idempotent). Calls already registered keep the samples
+     * they have.
+     */
+    public static synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        Logger.info("Stopped sampling stacks of slow calls");
+    }
+}
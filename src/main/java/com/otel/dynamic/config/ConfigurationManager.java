@@ -2,14 +2,24 @@ package com.otel.dynamic.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.otel.dynamic.agent.ArgumentCondition;
+import com.otel.dynamic.config.model.AttributeDefinition;
 import com.otel.dynamic.config.model.InstrumentationConfig;
 import com.otel.dynamic.config.model.MethodConfig;
+import com.otel.dynamic.config.model.PackageConfig;
+import com.otel.dynamic.config.model.QueueLagConfig;
+import com.otel.dynamic.config.model.ReturnValueAttribute;
 import com.otel.dynamic.util.Logger;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -25,12 +35,37 @@ public class ConfigurationManager {
     private static final String DEFAULT_CONFIG_PATH = "/opt/otel/config/instrumentation.json";
     private static final String ENV_CONFIG_PATH = "INSTRUMENTATION_CONFIG_PATH";
 
+    private static final List<String> VALID_MODES = java.util.Arrays.asList("span", "enrich", "event", "chunk");
+
+    private static final List<String> VALID_TYPES =
+            java.util.Arrays.asList("auto", "string", "long", "double", "boolean");
+
+    public static final String OVERLAP_SUPPRESS = "suppress";
+    private static final List<String> VALID_OVERLAPS = java.util.Arrays.asList(OVERLAP_SUPPRESS, "enrich", "allow");
+
     private static volatile ConfigurationManager instance;
 
     private final ObjectMapper objectMapper;
     private final AtomicReference<ConfigSnapshot> currentConfig;
     private final String configFilePath;
 
+    // Packages temporarily activated by SLO-triggered drill-downs (not part of the file config)
+    private final AtomicReference<List<PackageConfig>> drillDownPackages;
+
+    // Configuration as read from the file, before expired rules are removed
+    private volatile InstrumentationConfig fileConfig;
+
+    // When each ttl-bearing rule was first loaded, keyed by rule identity + ttl
+    private final Map<String, Long> ruleFirstSeen;
+
+    // Expiry of each time-boxed rule of the file configuration, parsed once per load
+    private volatile Map<Object, Long> ruleExpiry;
+
+    // Validation errors of the file configuration and the rules they disable
+    private volatile List<String> validationErrors;
+    private volatile java.util.Set<MethodConfig> invalidMethods;
+    private volatile java.util.Set<PackageConfig> invalidPackages;
+
     // Configuration change listeners
     private final java.util.List<ConfigurationChangeListener> listeners;
 
@@ -42,6 +77,13 @@ public class ConfigurationManager {
         // Ignore unknown properties for forward compatibility
         this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         this.currentConfig = new AtomicReference<>();
+        this.drillDownPackages = new AtomicReference<>(Collections.<PackageConfig>emptyList());
+        this.fileConfig = new InstrumentationConfig();
+        this.ruleFirstSeen = new ConcurrentHashMap<>();
+        this.ruleExpiry = Collections.emptyMap();
+        this.validationErrors = Collections.emptyList();
+        this.invalidMethods = Collections.emptySet();
+        this.invalidPackages = Collections.emptySet();
         this.configFilePath = configFilePath != null ? configFilePath : getConfigPathFromEnv();
         this.listeners = new java.util.concurrent.CopyOnWriteArrayList<>();
 
@@ -134,22 +176,489 @@ public class ConfigurationManager {
     }
 
     /**
-     * Update the current configuration atomically and notify listeners
+     * Update the current configuration atomically and notify listeners.
+     * Listeners receive the effective configuration (expired and invalid rules removed).
      */
     private void updateConfig(InstrumentationConfig newConfig) {
-        ConfigSnapshot newSnapshot = new ConfigSnapshot(newConfig);
-        currentConfig.set(newSnapshot);
+        long now = System.currentTimeMillis();
+        InstrumentationConfig effective;
+        synchronized (currentConfig) {
+            fileConfig = newConfig;
+            validateAndRecord(newConfig);
+            trackFirstSeen(newConfig, now);
+            ruleExpiry = parseExpiries(newConfig);
+            effective = withoutExpiredRules(newConfig, now);
+            currentConfig.set(new ConfigSnapshot(effective, drillDownPackages.get()));
+        }
 
         // Notify listeners of configuration change
         for (ConfigurationChangeListener listener : listeners) {
             try {
-                listener.onConfigurationChanged(newConfig);
+                listener.onConfigurationChanged(effective);
             } catch (Exception e) {
                 Logger.error("Error notifying configuration listener", e);
             }
         }
     }
 
+    /**
+     * Re-evaluate rule expiry against the file configuration.
+     * If rules expired since the last evaluation, the effective configuration
+     * is replaced (listeners are not notified; the file did not change).
+     *
+     * @param nowMillis current time in epoch milliseconds
+     * @return rules that expired since the last evaluation, empty if none
+     */
+    public ExpiredRules refreshExpiry(long nowMillis) {
+        synchronized (currentConfig) {
+            ConfigSnapshot snapshot = currentConfig.get();
+            InstrumentationConfig previous = snapshot != null ? snapshot.getConfig() : new InstrumentationConfig();
+            InstrumentationConfig effective = withoutExpiredRules(fileConfig, nowMillis);
+
+            List<MethodConfig> expiredMethods = new ArrayList<>(previous.getInstrumentations());
+            expiredMethods.removeAll(effective.getInstrumentations());
+            List<PackageConfig> expiredPackages = new ArrayList<>(previous.getPackages());
+            expiredPackages.removeAll(effective.getPackages());
+
+            ExpiredRules expired = new ExpiredRules(expiredMethods, expiredPackages);
+            if (!expired.isEmpty()) {
+                currentConfig.set(new ConfigSnapshot(effective, drillDownPackages.get()));
+            }
+            return expired;
+        }
+    }
+
+    /**
+     * Earliest upcoming expiry among rules still in effect.
+     *
+     * @return epoch milliseconds, or -1 if no effective rule expires
+     */
+    public long getNextExpiryMillis() {
+        InstrumentationConfig effective = getConfig();
+        long next = -1;
+        for (MethodConfig mc : effective.getInstrumentations()) {
+            next = earliest(next, expiryMillis(mc));
+        }
+        for (PackageConfig pkg : effective.getPackages()) {
+            next = earliest(next, expiryMillis(pkg));
+        }
+        return next;
+    }
+
+    /**
+     * Validate a configuration without applying it.
+     * Modes are checked and conditions compiled here, so errors never surface at call time.
+     *
+     * @return one message per problem, empty if the configuration is valid
+     */
+    public static List<String> validate(InstrumentationConfig config) {
+        List<String> errors = new ArrayList<>();
+        if (config == null) {
+            return errors;
+        }
+        if (config.getInstrumentations() != null) {
+            for (MethodConfig mc : config.getInstrumentations()) {
+                String error = ruleError(mc);
+                if (error != null) {
+                    errors.add(error);
+                }
+            }
+        }
+        if (config.getPackages() != null) {
+            for (PackageConfig pkg : config.getPackages()) {
+                String error = expiryError(packageKey(pkg), pkg.getExpiresAt(), pkg.getTtl());
+                if (error != null) {
+                    errors.add(error);
+                }
+            }
+        }
+        errors.addAll(settingErrors(config));
+        return errors;
+    }
+
+    /**
+     * Invalid package or global settings (overlap policies, event caps) fall back
+     * to their defaults; they are reported but do not disable anything.
+     */
+    private static List<String> settingErrors(InstrumentationConfig config) {
+        List<String> errors = new ArrayList<>();
+        if (config.getOverlap() != null && !VALID_OVERLAPS.contains(config.getOverlap())) {
+            errors.add("overlap: unknown policy '" + config.getOverlap() + "' (expected one of " + VALID_OVERLAPS + ")");
+        }
+        if (config.getMaxEventsPerSpan() != null && config.getMaxEventsPerSpan() < 0) {
+            errors.add("maxEventsPerSpan: must not be negative (" + config.getMaxEventsPerSpan() + ")");
+        }
+        if (config.getMaxAttributeLength() != null && config.getMaxAttributeLength() < 0) {
+            errors.add("maxAttributeLength: must not be negative (" + config.getMaxAttributeLength() + ")");
+        }
+        if (config.getStackSampleIntervalMs() != null && config.getStackSampleIntervalMs() < 10) {
+            errors.add("stackSampleIntervalMs: must be at least 10 (" + config.getStackSampleIntervalMs() + ")");
+        }
+        String limitError = limitError(config.getMaxSpansPerTrace(), config.getMaxDepth());
+        if (limitError != null) {
+            errors.add(limitError);
+        }
+        if (config.getPackages() != null) {
+            for (PackageConfig pkg : config.getPackages()) {
+                String packageLimitError = limitError(pkg.getMaxSpansPerTrace(), pkg.getMaxDepth());
+                if (packageLimitError != null) {
+                    errors.add(packageKey(pkg) + ": " + packageLimitError);
+                }
+                String packageSamplingError = samplingError(pkg.getSampleRate(), pkg.getMaxSpansPerSecond());
+                if (packageSamplingError != null) {
+                    errors.add(packageKey(pkg) + ": " + packageSamplingError);
+                }
+                if (pkg.getOverlap() != null && !VALID_OVERLAPS.contains(pkg.getOverlap())) {
+                    errors.add(packageKey(pkg) + ": unknown overlap policy '" + pkg.getOverlap()
+                            + "' (expected one of " + VALID_OVERLAPS + ")");
+                }
+            }
+        }
+        return errors;
+    }
+
+    private static String limitError(Integer maxSpansPerTrace, Integer maxDepth) {
+        if (maxSpansPerTrace != null && maxSpansPerTrace < 0) {
+            return "maxSpansPerTrace must not be negative (" + maxSpansPerTrace + ")";
+        }
+        if (maxDepth != null && maxDepth < 0) {
+            return "maxDepth must not be negative (" + maxDepth + ")";
+        }
+        return null;
+    }
+
+    private static String samplingError(Double sampleRate, Integer maxSpansPerSecond) {
+        if (sampleRate != null && (sampleRate.isNaN() || sampleRate < 0.0 || sampleRate > 1.0)) {
+            return "sampleRate must be between 0.0 and 1.0 (" + sampleRate + ")";
+        }
+        if (maxSpansPerSecond != null && maxSpansPerSecond < 0) {
+            return "maxSpansPerSecond must not be negative (" + maxSpansPerSecond + ")";
+        }
+        return null;
+    }
+
+    /**
+     * Get the overlap policy applied to a package's methods that built-in
+     * instrumentation already covers: the package's own, else the global one,
+     * else "suppress".
+     */
+    public String getOverlapPolicy(PackageConfig pkg) {
+        return getOverlapPolicy(pkg, getConfig().getOverlap());
+    }
+
+    public static String getOverlapPolicy(PackageConfig pkg, String globalOverlap) {
+        if (pkg.getOverlap() != null && VALID_OVERLAPS.contains(pkg.getOverlap())) {
+            return pkg.getOverlap();
+        }
+        return globalOverlap != null && VALID_OVERLAPS.contains(globalOverlap) ? globalOverlap : OVERLAP_SUPPRESS;
+    }
+
+    /**
+     * Validate the configuration file on disk without applying it.
+     *
+     * @return one message per problem, empty if the file is valid
+     */
+    public List<String> validateConfigurationFile() {
+        File configFile = new File(configFilePath);
+        if (!configFile.exists()) {
+            return Collections.singletonList("Configuration file not found: " + configFilePath);
+        }
+        try {
+            return validate(objectMapper.readValue(configFile, InstrumentationConfig.class));
+        } catch (IOException e) {
+            return Collections.singletonList("Failed to parse " + configFilePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the validation errors of the loaded configuration.
+     * Rules with errors are left out of the effective configuration.
+     */
+    public List<String> getValidationErrors() {
+        return validationErrors;
+    }
+
+    private void validateAndRecord(InstrumentationConfig config) {
+        List<String> errors = new ArrayList<>();
+        java.util.Set<MethodConfig> invalid = new java.util.HashSet<>();
+        if (config.getInstrumentations() != null) {
+            for (MethodConfig mc : config.getInstrumentations()) {
+                String error = ruleError(mc);
+                if (error != null) {
+                    errors.add(error);
+                    invalid.add(mc);
+                    Logger.warn("Disabling rule: " + error);
+                }
+            }
+        }
+        java.util.Set<PackageConfig> invalidPkgs = new java.util.HashSet<>();
+        if (config.getPackages() != null) {
+            for (PackageConfig pkg : config.getPackages()) {
+                String error = expiryError(packageKey(pkg), pkg.getExpiresAt(), pkg.getTtl());
+                if (error != null) {
+                    errors.add(error);
+                    invalidPkgs.add(pkg);
+                    Logger.warn("Disabling rule: " + error);
+                }
+            }
+        }
+        for (String error : settingErrors(config)) {
+            errors.add(error);
+            Logger.warn("Using default setting: " + error);
+        }
+        validationErrors = Collections.unmodifiableList(errors);
+        invalidMethods = invalid;
+        invalidPackages = invalidPkgs;
+    }
+
+    /**
+     * A rule whose expiry cannot be parsed is disabled rather than left running
+     * without the time box it was written with.
+     */
+    private static String expiryError(String ruleKey, String expiresAt, String ttl) {
+        if (expiresAt != null && !expiresAt.isEmpty()) {
+            try {
+                Instant.parse(expiresAt);
+            } catch (Exception e) {
+                return ruleKey + ": invalid expiresAt '" + expiresAt
+                        + "' (expected ISO-8601 instant, e.g. 2026-11-01T00:00:00Z)";
+            }
+        }
+        if (ttl != null && !ttl.isEmpty()) {
+            try {
+                Duration.parse(ttl);
+            } catch (Exception e) {
+                return ruleKey + ": invalid ttl '" + ttl + "' (expected ISO-8601 duration, e.g. PT4H)";
+            }
+        }
+        return null;
+    }
+
+    private static String ruleError(MethodConfig mc) {
+        if (mc.getMode() != null && !VALID_MODES.contains(mc.getMode())) {
+            return methodKey(mc) + ": unknown mode '" + mc.getMode() + "' (expected one of " + VALID_MODES + ")";
+        }
+        if (mc.getCompressAfter() != null && mc.getCompressAfter() < 0) {
+            return methodKey(mc) + ": compressAfter must not be negative (" + mc.getCompressAfter() + ")";
+        }
+        if (mc.getOutlierThresholdMs() != null && mc.getOutlierThresholdMs() < 0) {
+            return methodKey(mc) + ": outlierThresholdMs must not be negative (" + mc.getOutlierThresholdMs() + ")";
+        }
+        if (mc.getStackSampleAfterMs() != null && mc.getStackSampleAfterMs() < 0) {
+            return methodKey(mc) + ": stackSampleAfterMs must not be negative (" + mc.getStackSampleAfterMs() + ")";
+        }
+        String limitError = limitError(mc.getMaxSpansPerTrace(), mc.getMaxDepth());
+        if (limitError != null) {
+            return methodKey(mc) + ": " + limitError;
+        }
+        String expiryError = expiryError(methodKey(mc), mc.getExpiresAt(), mc.getTtl());
+        if (expiryError != null) {
+            return expiryError;
+        }
+        QueueLagConfig queueLag = mc.getQueueLag();
+        if (queueLag != null && queueLag.getArgIndex() < 0) {
+            return methodKey(mc) + ": queueLag argIndex must not be negative (" + queueLag.getArgIndex() + ")";
+        }
+        if (queueLag != null && queueLag.getHeader() != null && queueLag.getMethodCall() != null) {
+            return methodKey(mc) + ": queueLag takes either a header or a methodCall, not both";
+        }
+        String samplingError = samplingError(mc.getSampleRate(), mc.getMaxSpansPerSecond());
+        if (samplingError != null) {
+            return methodKey(mc) + ": " + samplingError;
+        }
+        if (mc.getAttributes() != null) {
+            for (AttributeDefinition attr : mc.getAttributes()) {
+                if (attr.getType() != null && !VALID_TYPES.contains(attr.getType())) {
+                    return methodKey(mc) + ": unknown type '" + attr.getType() + "' for attribute '"
+                            + attr.getAttributeName() + "' (expected one of " + VALID_TYPES + ")";
+                }
+                if (attr.getTimeBudgetMicros() != null && attr.getTimeBudgetMicros() <= 0) {
+                    return methodKey(mc) + ": timeBudgetMicros of attribute '" + attr.getAttributeName()
+                            + "' must be positive (" + attr.getTimeBudgetMicros() + ")";
+                }
+            }
+        }
+        if (mc.getReturnValueAttributes() != null) {
+            for (ReturnValueAttribute attr : mc.getReturnValueAttributes()) {
+                if (attr.getType() != null && !VALID_TYPES.contains(attr.getType())) {
+                    return methodKey(mc) + ": unknown type '" + attr.getType() + "' for return value attribute '"
+                            + attr.getAttributeName() + "' (expected one of " + VALID_TYPES + ")";
+                }
+                if (attr.getTimeBudgetMicros() != null && attr.getTimeBudgetMicros() <= 0) {
+                    return methodKey(mc) + ": timeBudgetMicros of return value attribute '" + attr.getAttributeName()
+                            + "' must be positive (" + attr.getTimeBudgetMicros() + ")";
+                }
+            }
+        }
+        if (mc.getOverlap() != null && !VALID_OVERLAPS.contains(mc.getOverlap())) {
+            return methodKey(mc) + ": unknown overlap policy '" + mc.getOverlap()
+                    + "' (expected one of " + VALID_OVERLAPS + ")";
+        }
+        if (mc.getCondition() == null || mc.getCondition().trim().isEmpty()) {
+            return null;
+        }
+        try {
+            ArgumentCondition.compile(mc.getCondition());
+            return null;
+        } catch (IllegalArgumentException e) {
+            return methodKey(mc) + ": invalid condition '" + mc.getCondition() + "': " + e.getMessage();
+        }
+    }
+
+    /**
+     * Get the configuration exactly as read from the file, including expired rules
+     */
+    public InstrumentationConfig getFileConfig() {
+        return fileConfig;
+    }
+
+    private static long earliest(long current, long candidate) {
+        if (candidate < 0) {
+            return current;
+        }
+        return current < 0 ? candidate : Math.min(current, candidate);
+    }
+
+    /**
+     * Record first-load time of ttl-bearing rules; forget rules no longer in the file
+     * so that removing and re-adding a rule restarts its ttl.
+     */
+    private void trackFirstSeen(InstrumentationConfig config, long now) {
+        java.util.Set<String> present = new java.util.HashSet<>();
+        if (config.getInstrumentations() != null) {
+            for (MethodConfig mc : config.getInstrumentations()) {
+                if (mc.getTtl() != null) {
+                    String key = methodKey(mc) + "|" + mc.getTtl();
+                    present.add(key);
+                    ruleFirstSeen.putIfAbsent(key, now);
+                }
+            }
+        }
+        if (config.getPackages() != null) {
+            for (PackageConfig pkg : config.getPackages()) {
+                if (pkg.getTtl() != null) {
+                    String key = packageKey(pkg) + "|" + pkg.getTtl();
+                    present.add(key);
+                    ruleFirstSeen.putIfAbsent(key, now);
+                }
+            }
+        }
+        ruleFirstSeen.keySet().retainAll(present);
+    }
+
+    /**
+     * Derive the effective configuration: the file configuration minus expired
+     * rules and rules that failed validation.
+     */
+    private InstrumentationConfig withoutExpiredRules(InstrumentationConfig config, long now) {
+        List<MethodConfig> methods = new ArrayList<>();
+        boolean dropped = false;
+        if (config.getInstrumentations() != null) {
+            for (MethodConfig mc : config.getInstrumentations()) {
+                long expiry = expiryMillis(mc);
+                if ((expiry >= 0 && expiry <= now) || invalidMethods.contains(mc)) {
+                    dropped = true;
+                } else {
+                    methods.add(mc);
+                }
+            }
+        }
+        List<PackageConfig> packages = new ArrayList<>();
+        if (config.getPackages() != null) {
+            for (PackageConfig pkg : config.getPackages()) {
+                long expiry = expiryMillis(pkg);
+                if ((expiry >= 0 && expiry <= now) || invalidPackages.contains(pkg)) {
+                    dropped = true;
+                } else {
+                    packages.add(pkg);
+                }
+            }
+        }
+        return dropped ? config.copyWith(methods, packages) : config;
+    }
+
+    /**
+     * Get when a rule of the loaded file configuration expires.
+     *
+     * @return epoch milliseconds, or -1 if the rule never expires
+     */
+    private long expiryMillis(Object rule) {
+        Long expiry = ruleExpiry.get(rule);
+        return expiry != null ? expiry : -1;
+    }
+
+    /**
+     * Compute when each time-boxed rule expires: the earlier of expiresAt and
+     * first-load + ttl. Rules that failed validation are skipped; they are
+     * never part of the effective configuration.
+     */
+    private Map<Object, Long> parseExpiries(InstrumentationConfig config) {
+        Map<Object, Long> expiries = new java.util.IdentityHashMap<>();
+        if (config.getInstrumentations() != null) {
+            for (MethodConfig mc : config.getInstrumentations()) {
+                if (!invalidMethods.contains(mc)) {
+                    putExpiry(expiries, mc, methodKey(mc), mc.getExpiresAt(), mc.getTtl());
+                }
+            }
+        }
+        if (config.getPackages() != null) {
+            for (PackageConfig pkg : config.getPackages()) {
+                if (!invalidPackages.contains(pkg)) {
+                    putExpiry(expiries, pkg, packageKey(pkg), pkg.getExpiresAt(), pkg.getTtl());
+                }
+            }
+        }
+        return expiries;
+    }
+
+    private void putExpiry(Map<Object, Long> expiries, Object rule, String ruleKey, String expiresAt, String ttl) {
+        long expiry = -1;
+        if (expiresAt != null && !expiresAt.isEmpty()) {
+            expiry = Instant.parse(expiresAt).toEpochMilli();
+        }
+        if (ttl != null && !ttl.isEmpty()) {
+            Long firstSeen = ruleFirstSeen.get(ruleKey + "|" + ttl);
+            if (firstSeen != null) {
+                expiry = earliest(expiry, firstSeen + Duration.parse(ttl).toMillis());
+            }
+        }
+        if (expiry >= 0) {
+            expiries.put(rule, expiry);
+        }
+    }
+
+    private static String methodKey(MethodConfig mc) {
+        return mc.getClassName() + "#" + mc.getMethodName();
+    }
+
+    private static String packageKey(PackageConfig pkg) {
+        return "package:" + pkg.getPackageName();
+    }
+
+    /**
+     * Replace the set of packages activated by drill-downs.
+     * The file configuration is untouched and listeners are not notified;
+     * callers are responsible for retransforming the affected classes.
+     */
+    public void setDrillDownPackages(List<PackageConfig> packages) {
+        List<PackageConfig> copy = packages != null && !packages.isEmpty()
+                ? Collections.unmodifiableList(new ArrayList<>(packages))
+                : Collections.<PackageConfig>emptyList();
+        synchronized (currentConfig) {
+            drillDownPackages.set(copy);
+            ConfigSnapshot snapshot = currentConfig.get();
+            InstrumentationConfig config = snapshot != null ? snapshot.getConfig() : new InstrumentationConfig();
+            currentConfig.set(new ConfigSnapshot(config, copy));
+        }
+    }
+
+    /**
+     * Get the packages currently activated by drill-downs
+     */
+    public List<PackageConfig> getDrillDownPackages() {
+        return drillDownPackages.get();
+    }
+
     /**
      * Get the current configuration snapshot
      */
@@ -158,7 +667,7 @@ public class ConfigurationManager {
     }
 
     /**
-     * Get the instrumentation config (for backward compatibility)
+     * Get the effective instrumentation config (expired rules removed)
      */
     public InstrumentationConfig getConfig() {
         ConfigSnapshot snapshot = currentConfig.get();
@@ -227,8 +736,8 @@ public class ConfigurationManager {
         }
 
         // Check package match (without annotation filtering - use isClassInPackage for annotation-aware check)
-        if (snapshot.getConfig().getPackages() != null) {
-            for (com.otel.dynamic.config.model.PackageConfig pkg : snapshot.getConfig().getPackages()) {
+        if (snapshot.getPackages() != null) {
+            for (com.otel.dynamic.config.model.PackageConfig pkg : snapshot.getPackages()) {
                 if (className.startsWith(pkg.getPackageName() + ".")) {
                     // If recursive, it matches
                     if (pkg.isRecursive()) return true;
@@ -259,8 +768,8 @@ public class ConfigurationManager {
         ConfigSnapshot snapshot = currentConfig.get();
         if (snapshot == null) return null;
 
-        if (snapshot.getConfig().getPackages() != null) {
-            for (com.otel.dynamic.config.model.PackageConfig pkg : snapshot.getConfig().getPackages()) {
+        if (snapshot.getPackages() != null) {
+            for (com.otel.dynamic.config.model.PackageConfig pkg : snapshot.getPackages()) {
                 if (className.startsWith(pkg.getPackageName() + ".")) {
                     String remainder = className.substring(pkg.getPackageName().length() + 1);
                     boolean matches = pkg.isRecursive() || !remainder.contains(".");
@@ -286,8 +795,8 @@ public class ConfigurationManager {
         }
 
         // Check package config (implies all public/protected/package-private methods)
-        if (snapshot.getConfig().getPackages() != null) {
-            for (com.otel.dynamic.config.model.PackageConfig pkg : snapshot.getConfig().getPackages()) {
+        if (snapshot.getPackages() != null) {
+            for (com.otel.dynamic.config.model.PackageConfig pkg : snapshot.getPackages()) {
                 if (className.startsWith(pkg.getPackageName() + ".")) {
                     boolean match;
                     if (pkg.isRecursive()) {
@@ -397,12 +906,27 @@ public class ConfigurationManager {
         private final InstrumentationConfig config;
         private final Map<String, MethodConfig> methodConfigMap;
         private final java.util.Set<String> configuredClasses;
+        private final List<PackageConfig> packages;
 
         public ConfigSnapshot(InstrumentationConfig config) {
+            this(config, Collections.<PackageConfig>emptyList());
+        }
+
+        public ConfigSnapshot(InstrumentationConfig config, List<PackageConfig> extraPackages) {
             this.config = config;
             this.methodConfigMap = new ConcurrentHashMap<>();
             this.configuredClasses = ConcurrentHashMap.newKeySet();
 
+            // Effective packages: file configuration followed by drill-down overlays
+            List<PackageConfig> effective = new ArrayList<>();
+            if (config != null && config.getPackages() != null) {
+                effective.addAll(config.getPackages());
+            }
+            if (extraPackages != null) {
+                effective.addAll(extraPackages);
+            }
+            this.packages = Collections.unmodifiableList(effective);
+
             // Build lookup map for fast access
             if (config != null && config.getInstrumentations() != null) {
                 for (MethodConfig methodConfig : config.getInstrumentations()) {
@@ -421,6 +945,13 @@ public class ConfigurationManager {
             return config;
         }
 
+        /**
+         * Packages in effect, including any drill-down overlays
+         */
+        public List<PackageConfig> getPackages() {
+            return packages;
+        }
+
         public MethodConfig getConfigFor(String className, String methodName) {
             String key = buildKey(className, methodName);
             return methodConfigMap.get(key);
@@ -431,6 +962,31 @@ public class ConfigurationManager {
         }
     }
 
+    /**
+     * Rules removed from the effective configuration by an expiry evaluation
+     */
+    public static class ExpiredRules {
+        private final List<MethodConfig> methods;
+        private final List<PackageConfig> packages;
+
+        public ExpiredRules(List<MethodConfig> methods, List<PackageConfig> packages) {
+            this.methods = methods;
+            this.packages = packages;
+        }
+
+        public List<MethodConfig> getMethods() {
+            return methods;
+        }
+
+        public List<PackageConfig> getPackages() {
+            return packages;
+        }
+
+        public boolean isEmpty() {
+            return methods.isEmpty() && packages.isEmpty();
+        }
+    }
+
     /**
      * Interface for configuration change listeners
      */
@@ -7,6 +7,10 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  *
  * Specifies which argument to extract from (argIndex), which method to call
  * on that argument (methodCall), and what to name the resulting attribute (attributeName).
+ * The optional type ("auto", "string", "long", "double" or "boolean") selects the
+ * attribute type; by default numbers, booleans and enums keep their own type.
+ * The optional timeBudgetMicros disables the attribute (until the next reload)
+ * after an extraction that took longer.
  */
 public class AttributeDefinition {
 
@@ -19,6 +23,12 @@ public class AttributeDefinition {
     @JsonProperty("attributeName")
     private String attributeName;
 
+    @JsonProperty("type")
+    private String type;
+
+    @JsonProperty("timeBudgetMicros")
+    private Long timeBudgetMicros;
+
     /**
      * Default constructor for JSON deserialization
      */
@@ -60,12 +70,30 @@ public class AttributeDefinition {
         this.attributeName = attributeName;
     }
 
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public Long getTimeBudgetMicros() {
+        return timeBudgetMicros;
+    }
+
+    public void setTimeBudgetMicros(Long timeBudgetMicros) {
+        this.timeBudgetMicros = timeBudgetMicros;
+    }
+
     @Override
     public String toString() {
         return "AttributeDefinition{" +
                 "argIndex=" + argIndex +
                 ", methodCall='" + methodCall + '\'' +
                 ", attributeName='" + attributeName + '\'' +
+                ", type='" + type + '\'' +
+                ", timeBudgetMicros=" + timeBudgetMicros +
                 '}';
     }
 
@@ -78,6 +106,8 @@ public class AttributeDefinition {
 
         if (argIndex != that.argIndex) return false;
         if (methodCall != null ? !methodCall.equals(that.methodCall) : that.methodCall != null) return false;
+        if (type != null ? !type.equals(that.type) : that.type != null) return false;
+        if (timeBudgetMicros != null ? !timeBudgetMicros.equals(that.timeBudgetMicros) : that.timeBudgetMicros != null) return false;
         return attributeName != null ? attributeName.equals(that.attributeName) : that.attributeName == null;
     }
 
@@ -86,6 +116,8 @@ public class AttributeDefinition {
         int result = argIndex;
         result = 31 * result + (methodCall != null ? methodCall.hashCode() : 0);
         result = 31 * result + (attributeName != null ? attributeName.hashCode() : 0);
+        result = 31 * result + (type != null ? type.hashCode() : 0);
+        result = 31 * result + (timeBudgetMicros != null ? timeBudgetMicros.hashCode() : 0);
         return result;
     }
 }
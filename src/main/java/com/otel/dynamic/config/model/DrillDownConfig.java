@@ -0,0 +1,140 @@
+package com.otel.dynamic.config.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * SLO-triggered drill-down configuration for a method rule.
+ *
+ * When the parent method exceeds {@code latencyThresholdMs} at least
+ * {@code breachCount} times within {@code windowSeconds}, the configured
+ * {@code packages} are temporarily instrumented for {@code durationSeconds}.
+ * Spans for those packages are only created inside traces that pass through
+ * the parent method, and never more than {@code maxSpansPerTrace} per trace.
+ */
+public class DrillDownConfig {
+
+    @JsonProperty("latencyThresholdMs")
+    private long latencyThresholdMs;
+
+    @JsonProperty("breachCount")
+    private int breachCount = 3;
+
+    @JsonProperty("windowSeconds")
+    private int windowSeconds = 60;
+
+    @JsonProperty("durationSeconds")
+    private int durationSeconds = 300;
+
+    @JsonProperty("maxSpansPerTrace")
+    private int maxSpansPerTrace = 200;
+
+    @JsonProperty("packages")
+    private List<PackageConfig> packages;
+
+    /**
+     * Default constructor for JSON deserialization
+     */
+    public DrillDownConfig() {
+        this.packages = new ArrayList<>();
+    }
+
+    /**
+     * Constructor with the required fields
+     */
+    public DrillDownConfig(long latencyThresholdMs, List<PackageConfig> packages) {
+        this.latencyThresholdMs = latencyThresholdMs;
+        this.packages = packages != null ? packages : new ArrayList<>();
+    }
+
+    // Getters and Setters
+
+    public long getLatencyThresholdMs() {
+        return latencyThresholdMs;
+    }
+
+    public void setLatencyThresholdMs(long latencyThresholdMs) {
+        this.latencyThresholdMs = latencyThresholdMs;
+    }
+
+    public int getBreachCount() {
+        return breachCount;
+    }
+
+    public void setBreachCount(int breachCount) {
+        this.breachCount = breachCount;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(int durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    public int getMaxSpansPerTrace() {
+        return maxSpansPerTrace;
+    }
+
+    public void setMaxSpansPerTrace(int maxSpansPerTrace) {
+        this.maxSpansPerTrace = maxSpansPerTrace;
+    }
+
+    public List<PackageConfig> getPackages() {
+        return packages;
+    }
+
+    public void setPackages(List<PackageConfig> packages) {
+        this.packages = packages != null ? packages : new ArrayList<>();
+    }
+
+    @Override
+    public String toString() {
+        return "DrillDownConfig{" +
+                "latencyThresholdMs=" + latencyThresholdMs +
+                ", breachCount=" + breachCount +
+                ", windowSeconds=" + windowSeconds +
+                ", durationSeconds=" + durationSeconds +
+                ", maxSpansPerTrace=" + maxSpansPerTrace +
+                ", packages=" + packages +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DrillDownConfig that = (DrillDownConfig) o;
+
+        if (latencyThresholdMs != that.latencyThresholdMs) return false;
+        if (breachCount != that.breachCount) return false;
+        if (windowSeconds != that.windowSeconds) return false;
+        if (durationSeconds != that.durationSeconds) return false;
+        if (maxSpansPerTrace != that.maxSpansPerTrace) return false;
+        return Objects.equals(packages, that.packages);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (latencyThresholdMs ^ (latencyThresholdMs >>> 32));
+        result = 31 * result + breachCount;
+        result = 31 * result + windowSeconds;
+        result = 31 * result + durationSeconds;
+        result = 31 * result + maxSpansPerTrace;
+        result = 31 * result + (packages != null ? packages.hashCode() : 0);
+        return result;
+    }
+}
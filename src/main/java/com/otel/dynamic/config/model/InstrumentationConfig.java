@@ -23,6 +23,45 @@ public class InstrumentationConfig {
      */
     private Boolean concreteOnly;
 
+    /**
+     * Global policy for methods already covered by built-in OTel instrumentation:
+     * "suppress", "enrich" or "allow". Can be overridden per rule.
+     * null = "suppress" for package rules, "allow" for method rules
+     */
+    private String overlap;
+
+    /**
+     * Cap on span events recorded on one parent span by rules in "event" mode.
+     * Further invocations are only counted. null = 128
+     */
+    private Integer maxEventsPerSpan;
+
+    /**
+     * Maximum length of extracted string attribute values; longer values are
+     * truncated. 0 = unlimited, null = 1024
+     */
+    private Integer maxAttributeLength;
+
+    /**
+     * Timestamp tasks submitted to application executors, so dynamic spans
+     * running in them report their queue time. null = false
+     */
+    private Boolean measureQueueTime;
+
+    /**
+     * Interval in milliseconds at which threads of calls past their rule's
+     * {@code stackSampleAfterMs} are stack sampled. null = 100, minimum 10
+     */
+    private Integer stackSampleIntervalMs;
+
+    /**
+     * Default per-trace budget of dynamic spans and their maximum nesting depth.
+     * Can be overridden per rule. null = unlimited
+     */
+    private Integer maxSpansPerTrace;
+
+    private Integer maxDepth;
+
     /**
      * Default constructor for JSON deserialization
      */
@@ -75,6 +114,80 @@ public class InstrumentationConfig {
         this.concreteOnly = concreteOnly;
     }
 
+    public String getOverlap() {
+        return overlap;
+    }
+
+    public void setOverlap(String overlap) {
+        this.overlap = overlap;
+    }
+
+    public Integer getMaxEventsPerSpan() {
+        return maxEventsPerSpan;
+    }
+
+    public void setMaxEventsPerSpan(Integer maxEventsPerSpan) {
+        this.maxEventsPerSpan = maxEventsPerSpan;
+    }
+
+    public Integer getMaxAttributeLength() {
+        return maxAttributeLength;
+    }
+
+    public void setMaxAttributeLength(Integer maxAttributeLength) {
+        this.maxAttributeLength = maxAttributeLength;
+    }
+
+    public Boolean getMeasureQueueTime() {
+        return measureQueueTime;
+    }
+
+    public void setMeasureQueueTime(Boolean measureQueueTime) {
+        this.measureQueueTime = measureQueueTime;
+    }
+
+    public Integer getStackSampleIntervalMs() {
+        return stackSampleIntervalMs;
+    }
+
+    public void setStackSampleIntervalMs(Integer stackSampleIntervalMs) {
+        this.stackSampleIntervalMs = stackSampleIntervalMs;
+    }
+
+    public Integer getMaxSpansPerTrace() {
+        return maxSpansPerTrace;
+    }
+
+    public void setMaxSpansPerTrace(Integer maxSpansPerTrace) {
+        this.maxSpansPerTrace = maxSpansPerTrace;
+    }
+
+    public Integer getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(Integer maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Create a copy carrying the same global settings but different rule lists.
+     * Used to derive the effective configuration (e.g. without expired rules).
+     */
+    public InstrumentationConfig copyWith(List<MethodConfig> instrumentations, List<PackageConfig> packages) {
+        InstrumentationConfig copy = new InstrumentationConfig(instrumentations);
+        copy.setPackages(packages);
+        copy.setConcreteOnly(concreteOnly);
+        copy.setOverlap(overlap);
+        copy.setMaxEventsPerSpan(maxEventsPerSpan);
+        copy.setMaxAttributeLength(maxAttributeLength);
+        copy.setMeasureQueueTime(measureQueueTime);
+        copy.setStackSampleIntervalMs(stackSampleIntervalMs);
+        copy.setMaxSpansPerTrace(maxSpansPerTrace);
+        copy.setMaxDepth(maxDepth);
+        return copy;
+    }
+
     /**
      * Check if this configuration is empty (no instrumentations defined)
      */
@@ -27,6 +27,125 @@ public class MethodConfig {
      */
     private Boolean concreteOnly;
 
+    /**
+     * Optional SLO-triggered drill-down: temporarily instruments deeper packages
+     * underneath this method when its latency threshold is breached repeatedly.
+     */
+    private DrillDownConfig drillDown;
+
+    /**
+     * Optional absolute expiry as an ISO-8601 instant (e.g. "2026-11-01T00:00:00Z").
+     * Expired rules are dropped from the effective configuration.
+     */
+    private String expiresAt;
+
+    /**
+     * Optional time-to-live as an ISO-8601 duration (e.g. "PT4H"), counted from
+     * the moment the rule was first loaded.
+     */
+    private String ttl;
+
+    /**
+     * Optional route scope: root span names (e.g. "POST /orders") or
+     * {@code http.route} values (e.g. "/orders") under which this rule fires.
+     * Empty = fire on every invocation.
+     */
+    private List<String> routes;
+
+    /**
+     * Optional argument predicate, e.g. {@code args[0].amount > 10000}.
+     * Compiled at configuration load; spans are only created when it holds.
+     */
+    private String condition;
+
+    /**
+     * How invocations are recorded: "span" (default) starts a child span,
+     * "enrich" adds the extracted attributes to the current span instead,
+     * "event" records a span event on the current span, "chunk" aggregates
+     * the calls of each Spring Batch chunk into one summary span.
+     */
+    private String mode;
+
+    /**
+     * What to do when the method is already covered by built-in OTel
+     * instrumentation: "suppress", "enrich" or "allow".
+     * null = use global configuration, then "allow"
+     */
+    private String overlap;
+
+    /**
+     * Number of consecutive calls under the same parent that get their own span;
+     * further calls are folded into one summary span. null = never compress
+     */
+    private Integer compressAfter;
+
+    /**
+     * In chunk mode, calls taking longer than this still get their own span.
+     * null = only failed calls do
+     */
+    private Long outlierThresholdMs;
+
+    /**
+     * Optional message timestamp source: reports how long a consumed message
+     * waited in the broker as {@code messaging.queue_lag_ms}.
+     */
+    private QueueLagConfig queueLag;
+
+    /**
+     * When true, spans carry the CPU time and heap allocations of the calling
+     * thread during the call. null = off
+     */
+    private Boolean resourceMetrics;
+
+    /**
+     * When true, spans carry the time the calling thread spent blocked on
+     * monitors and waiting during the call, aggregated per method in JMX. null = off
+     */
+    private Boolean contentionMetrics;
+
+    /**
+     * When true, spans running on virtual threads carry the time the thread was
+     * pinned to its carrier, as reported by JFR on Java 21+. null = off
+     */
+    private Boolean pinningMetrics;
+
+    /**
+     * When true, spans carry the stop-the-world GC pause time that overlapped
+     * the call, aggregated per method in JMX. null = off
+     */
+    private Boolean gcMetrics;
+
+    /**
+     * Calls running longer than this many milliseconds have their thread's stack
+     * sampled until they return; the hot frames are recorded as a span event.
+     * null or 0 = off
+     */
+    private Long stackSampleAfterMs;
+
+    /**
+     * Maximum dynamic spans in a trace when this rule's span would be created.
+     * null = global configuration, then unlimited
+     */
+    private Integer maxSpansPerTrace;
+
+    /**
+     * Maximum nesting depth of dynamic spans at which this rule still creates a span.
+     * null = global configuration, then unlimited
+     */
+    private Integer maxDepth;
+
+    /**
+     * Probability (0.0 to 1.0) that a call of this rule is traced, decided per trace.
+     * null = parent-based default of the agent's sampler
+     */
+    private Double sampleRate;
+
+    /**
+     * Maximum spans per second this rule may create across the JVM.
+     * null or 0 = unlimited
+     */
+    private Integer maxSpansPerSecond;
+
     /**
      * Default constructor for JSON deserialization
      */
@@ -108,6 +227,158 @@ public class MethodConfig {
         this.concreteOnly = concreteOnly;
     }
 
+    public DrillDownConfig getDrillDown() {
+        return drillDown;
+    }
+
+    public void setDrillDown(DrillDownConfig drillDown) {
+        this.drillDown = drillDown;
+    }
+
+    public String getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(String expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public String getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(String ttl) {
+        this.ttl = ttl;
+    }
+
+    public List<String> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(List<String> routes) {
+        this.routes = routes;
+    }
+
+    public String getCondition() {
+        return condition;
+    }
+
+    public void setCondition(String condition) {
+        this.condition = condition;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public String getOverlap() {
+        return overlap;
+    }
+
+    public void setOverlap(String overlap) {
+        this.overlap = overlap;
+    }
+
+    public Integer getCompressAfter() {
+        return compressAfter;
+    }
+
+    public void setCompressAfter(Integer compressAfter) {
+        this.compressAfter = compressAfter;
+    }
+
+    public Long getOutlierThresholdMs() {
+        return outlierThresholdMs;
+    }
+
+    public void setOutlierThresholdMs(Long outlierThresholdMs) {
+        this.outlierThresholdMs = outlierThresholdMs;
+    }
+
+    public QueueLagConfig getQueueLag() {
+        return queueLag;
+    }
+
+    public void setQueueLag(QueueLagConfig queueLag) {
+        this.queueLag = queueLag;
+    }
+
+    public Boolean getResourceMetrics() {
+        return resourceMetrics;
+    }
+
+    public void setResourceMetrics(Boolean resourceMetrics) {
+        this.resourceMetrics = resourceMetrics;
+    }
+
+    public Boolean getContentionMetrics() {
+        return contentionMetrics;
+    }
+
+    public void setContentionMetrics(Boolean contentionMetrics) {
+        this.contentionMetrics = contentionMetrics;
+    }
+
+    public Boolean getPinningMetrics() {
+        return pinningMetrics;
+    }
+
+    public void setPinningMetrics(Boolean pinningMetrics) {
+        this.pinningMetrics = pinningMetrics;
+    }
+
+    public Boolean getGcMetrics() {
+        return gcMetrics;
+    }
+
+    public void setGcMetrics(Boolean gcMetrics) {
+        this.gcMetrics = gcMetrics;
+    }
+
+    public Long getStackSampleAfterMs() {
+        return stackSampleAfterMs;
+    }
+
+    public void setStackSampleAfterMs(Long stackSampleAfterMs) {
+        this.stackSampleAfterMs = stackSampleAfterMs;
+    }
+
+    public Integer getMaxSpansPerTrace() {
+        return maxSpansPerTrace;
+    }
+
+    public void setMaxSpansPerTrace(Integer maxSpansPerTrace) {
+        this.maxSpansPerTrace = maxSpansPerTrace;
+    }
+
+    public Integer getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(Integer maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public Double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(Double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public Integer getMaxSpansPerSecond() {
+        return maxSpansPerSecond;
+    }
+
+    public void setMaxSpansPerSecond(Integer maxSpansPerSecond) {
+        this.maxSpansPerSecond = maxSpansPerSecond;
+    }
+
     /**
      * Add an attribute definition to this method config
      */
@@ -136,6 +407,25 @@ public class MethodConfig {
                 ", attributes=" + attributes +
                 ", returnValueAttributes=" + returnValueAttributes +
                 ", concreteOnly=" + concreteOnly +
+                ", drillDown=" + drillDown +
+                ", expiresAt='" + expiresAt + '\'' +
+                ", ttl='" + ttl + '\'' +
+                ", routes=" + routes +
+                ", condition='" + condition + '\'' +
+                ", mode='" + mode + '\'' +
+                ", overlap='" + overlap + '\'' +
+                ", compressAfter=" + compressAfter +
+                ", outlierThresholdMs=" + outlierThresholdMs +
+                ", queueLag=" + queueLag +
+                ", resourceMetrics=" + resourceMetrics +
+                ", contentionMetrics=" + contentionMetrics +
+                ", pinningMetrics=" + pinningMetrics +
+                ", gcMetrics=" + gcMetrics +
+                ", stackSampleAfterMs=" + stackSampleAfterMs +
+                ", maxSpansPerTrace=" + maxSpansPerTrace +
+                ", maxDepth=" + maxDepth +
+                ", sampleRate=" + sampleRate +
+                ", maxSpansPerSecond=" + maxSpansPerSecond +
                 '}';
     }
 
@@ -150,7 +440,26 @@ public class MethodConfig {
         if (!Objects.equals(methodName, that.methodName)) return false;
         if (!Objects.equals(attributes, that.attributes)) return false;
         if (!Objects.equals(returnValueAttributes, that.returnValueAttributes)) return false;
-        return Objects.equals(concreteOnly, that.concreteOnly);
+        if (!Objects.equals(concreteOnly, that.concreteOnly)) return false;
+        if (!Objects.equals(drillDown, that.drillDown)) return false;
+        if (!Objects.equals(expiresAt, that.expiresAt)) return false;
+        if (!Objects.equals(ttl, that.ttl)) return false;
+        if (!Objects.equals(routes, that.routes)) return false;
+        if (!Objects.equals(condition, that.condition)) return false;
+        if (!Objects.equals(mode, that.mode)) return false;
+        if (!Objects.equals(overlap, that.overlap)) return false;
+        if (!Objects.equals(compressAfter, that.compressAfter)) return false;
+        if (!Objects.equals(outlierThresholdMs, that.outlierThresholdMs)) return false;
+        if (!Objects.equals(queueLag, that.queueLag)) return false;
+        if (!Objects.equals(resourceMetrics, that.resourceMetrics)) return false;
+        if (!Objects.equals(contentionMetrics, that.contentionMetrics)) return false;
+        if (!Objects.equals(pinningMetrics, that.pinningMetrics)) return false;
+        if (!Objects.equals(gcMetrics, that.gcMetrics)) return false;
+        if (!Objects.equals(stackSampleAfterMs, that.stackSampleAfterMs)) return false;
+        if (!Objects.equals(maxSpansPerTrace, that.maxSpansPerTrace)) return false;
+        if (!Objects.equals(maxDepth, that.maxDepth)) return false;
+        if (!Objects.equals(sampleRate, that.sampleRate)) return false;
+        return Objects.equals(maxSpansPerSecond, that.maxSpansPerSecond);
     }
 
     @Override
@@ -160,6 +469,25 @@ public class MethodConfig {
         result = 31 * result + (attributes != null ? attributes.hashCode() : 0);
         result = 31 * result + (returnValueAttributes != null ? returnValueAttributes.hashCode() : 0);
         result = 31 * result + (concreteOnly != null ? concreteOnly.hashCode() : 0);
+        result = 31 * result + (drillDown != null ? drillDown.hashCode() : 0);
+        result = 31 * result + (expiresAt != null ? expiresAt.hashCode() : 0);
+        result = 31 * result + (ttl != null ? ttl.hashCode() : 0);
+        result = 31 * result + (routes != null ? routes.hashCode() : 0);
+        result = 31 * result + (condition != null ? condition.hashCode() : 0);
+        result = 31 * result + (mode != null ? mode.hashCode() : 0);
+        result = 31 * result + (overlap != null ? overlap.hashCode() : 0);
+        result = 31 * result + (compressAfter != null ? compressAfter.hashCode() : 0);
+        result = 31 * result + (outlierThresholdMs != null ? outlierThresholdMs.hashCode() : 0);
+        result = 31 * result + (queueLag != null ? queueLag.hashCode() : 0);
+        result = 31 * result + (resourceMetrics != null ? resourceMetrics.hashCode() : 0);
+        result = 31 * result + (contentionMetrics != null ? contentionMetrics.hashCode() : 0);
+        result = 31 * result + (pinningMetrics != null ? pinningMetrics.hashCode() : 0);
+        result = 31 * result + (gcMetrics != null ? gcMetrics.hashCode() : 0);
+        result = 31 * result + (stackSampleAfterMs != null ? stackSampleAfterMs.hashCode() : 0);
+        result = 31 * result + (maxSpansPerTrace != null ? maxSpansPerTrace.hashCode() : 0);
+        result = 31 * result + (maxDepth != null ? maxDepth.hashCode() : 0);
+        result = 31 * result + (sampleRate != null ? sampleRate.hashCode() : 0);
+        result = 31 * result + (maxSpansPerSecond != null ? maxSpansPerSecond.hashCode() : 0);
         return result;
     }
 }
@@ -25,6 +25,52 @@ public class PackageConfig {
     @JsonProperty("annotations")
     private List<String> annotations;
 
+    /**
+     * Optional absolute expiry as an ISO-8601 instant
+     */
+    @JsonProperty("expiresAt")
+    private String expiresAt;
+
+    /**
+     * Optional time-to-live as an ISO-8601 duration, counted from first load
+     */
+    @JsonProperty("ttl")
+    private String ttl;
+
+    /**
+     * Optional route scope: root span names or {@code http.route} values
+     * under which methods of this package are traced
+     */
+    @JsonProperty("routes")
+    private List<String> routes;
+
+    /**
+     * What to do with methods already covered by built-in OTel instrumentation:
+     * "suppress", "enrich" or "allow" (null = global configuration, then "suppress")
+     */
+    @JsonProperty("overlap")
+    private String overlap;
+
+    /**
+     * Per-trace span budget and nesting limit for methods of this package
+     * (null = global configuration, then unlimited)
+     */
+    @JsonProperty("maxSpansPerTrace")
+    private Integer maxSpansPerTrace;
+
+    @JsonProperty("maxDepth")
+    private Integer maxDepth;
+
+    /**
+     * Per-rule sampling for methods of this package: probability per trace and
+     * spans per second across the JVM (null = the agent's sampler decides)
+     */
+    @JsonProperty("sampleRate")
+    private Double sampleRate;
+
+    @JsonProperty("maxSpansPerSecond")
+    private Integer maxSpansPerSecond;
+
     /**
      * Default constructor for JSON deserialization
      */
@@ -65,12 +111,95 @@ public class PackageConfig {
         this.annotations = annotations != null ? annotations : new ArrayList<>();
     }
 
+    public String getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(String expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public String getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(String ttl) {
+        this.ttl = ttl;
+    }
+
+    public List<String> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(List<String> routes) {
+        this.routes = routes;
+    }
+
+    public String getOverlap() {
+        return overlap;
+    }
+
+    public void setOverlap(String overlap) {
+        this.overlap = overlap;
+    }
+
+    public Integer getMaxSpansPerTrace() {
+        return maxSpansPerTrace;
+    }
+
+    public void setMaxSpansPerTrace(Integer maxSpansPerTrace) {
+        this.maxSpansPerTrace = maxSpansPerTrace;
+    }
+
+    public Integer getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(Integer maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public Double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(Double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public Integer getMaxSpansPerSecond() {
+        return maxSpansPerSecond;
+    }
+
+    public void setMaxSpansPerSecond(Integer maxSpansPerSecond) {
+        this.maxSpansPerSecond = maxSpansPerSecond;
+    }
+
+    /**
+     * Check if a class falls inside this package, honouring {@code recursive}.
+     * Annotation filtering is not applied here.
+     */
+    public boolean matches(String className) {
+        if (packageName == null || className == null || !className.startsWith(packageName + ".")) {
+            return false;
+        }
+        return recursive || className.indexOf('.', packageName.length() + 1) < 0;
+    }
+
     @Override
     public String toString() {
         return "PackageConfig{" +
                 "packageName='" + packageName + '\'' +
                 ", recursive=" + recursive +
                 ", annotations=" + annotations +
+                ", expiresAt='" + expiresAt + '\'' +
+                ", ttl='" + ttl + '\'' +
+                ", routes=" + routes +
+                ", overlap='" + overlap + '\'' +
+                ", maxSpansPerTrace=" + maxSpansPerTrace +
+                ", maxDepth=" + maxDepth +
+                ", sampleRate=" + sampleRate +
+                ", maxSpansPerSecond=" + maxSpansPerSecond +
                 '}';
     }
 
@@ -0,0 +1,103 @@
+package com.otel.dynamic.config.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * Where a message consumer rule finds the time a message was published, to
+ * report how long it waited in the broker.
+ *
+ * The timestamp is read from argument {@code argIndex}: from its header
+ * {@code header} when set (the argument being a Spring AMQP or Spring messaging
+ * Message, a RabbitMQ Delivery or a Map of headers), otherwise through the
+ * getter chain {@code methodCall}, otherwise the argument is the timestamp
+ * itself. {@code queue} names the queue in the lag histogram; by default the
+ * consumer queue of the message is used.
+ */
+public class QueueLagConfig {
+
+    @JsonProperty("argIndex")
+    private int argIndex;
+
+    @JsonProperty("header")
+    private String header;
+
+    @JsonProperty("methodCall")
+    private String methodCall;
+
+    @JsonProperty("queue")
+    private String queue;
+
+    /**
+     * Default constructor for JSON deserialization
+     */
+    public QueueLagConfig() {
+    }
+
+    // Getters and Setters
+
+    public int getArgIndex() {
+        return argIndex;
+    }
+
+    public void setArgIndex(int argIndex) {
+        this.argIndex = argIndex;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public void setHeader(String header) {
+        this.header = header;
+    }
+
+    public String getMethodCall() {
+        return methodCall;
+    }
+
+    public void setMethodCall(String methodCall) {
+        this.methodCall = methodCall;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public void setQueue(String queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueLagConfig{" +
+                "argIndex=" + argIndex +
+                ", header='" + header + '\'' +
+                ", methodCall='" + methodCall + '\'' +
+                ", queue='" + queue + '\'' +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        QueueLagConfig that = (QueueLagConfig) o;
+
+        if (argIndex != that.argIndex) return false;
+        if (!Objects.equals(header, that.header)) return false;
+        if (!Objects.equals(methodCall, that.methodCall)) return false;
+        return Objects.equals(queue, that.queue);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = argIndex;
+        result = 31 * result + (header != null ? header.hashCode() : 0);
+        result = 31 * result + (methodCall != null ? methodCall.hashCode() : 0);
+        result = 31 * result + (queue != null ? queue.hashCode() : 0);
+        return result;
+    }
+}
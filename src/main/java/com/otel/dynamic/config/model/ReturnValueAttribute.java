@@ -8,7 +8,8 @@ import java.util.Objects;
  * Configuration for extracting attributes from a method's return value.
  *
  * Used to capture data from the object returned by an instrumented method
- * and add it as span attributes.
+ * and add it as span attributes. The optional type and time budget work as in
+ * {@link AttributeDefinition}.
  */
 public class ReturnValueAttribute {
 
@@ -18,6 +19,12 @@ public class ReturnValueAttribute {
     @JsonProperty("attributeName")
     private String attributeName;
 
+    @JsonProperty("type")
+    private String type;
+
+    @JsonProperty("timeBudgetMicros")
+    private Long timeBudgetMicros;
+
     /**
      * Default constructor for JSON deserialization
      */
@@ -53,11 +60,29 @@ public class ReturnValueAttribute {
         this.attributeName = attributeName;
     }
 
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public Long getTimeBudgetMicros() {
+        return timeBudgetMicros;
+    }
+
+    public void setTimeBudgetMicros(Long timeBudgetMicros) {
+        this.timeBudgetMicros = timeBudgetMicros;
+    }
+
     @Override
     public String toString() {
         return "ReturnValueAttribute{" +
                 "methodCall='" + methodCall + '\'' +
                 ", attributeName='" + attributeName + '\'' +
+                ", type='" + type + '\'' +
+                ", timeBudgetMicros=" + timeBudgetMicros +
                 '}';
     }
 
@@ -69,6 +94,8 @@ public class ReturnValueAttribute {
         ReturnValueAttribute that = (ReturnValueAttribute) o;
 
         if (!Objects.equals(methodCall, that.methodCall)) return false;
+        if (!Objects.equals(type, that.type)) return false;
+        if (!Objects.equals(timeBudgetMicros, that.timeBudgetMicros)) return false;
         return Objects.equals(attributeName, that.attributeName);
     }
 
@@ -76,6 +103,8 @@ public class ReturnValueAttribute {
     public int hashCode() {
         int result = methodCall != null ? methodCall.hashCode() : 0;
         result = 31 * result + (attributeName != null ? attributeName.hashCode() : 0);
+        result = 31 * result + (type != null ? type.hashCode() : 0);
+        result = 31 * result + (timeBudgetMicros != null ? timeBudgetMicros.hashCode() : 0);
         return result;
     }
 }
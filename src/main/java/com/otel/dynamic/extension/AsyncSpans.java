@@ -0,0 +1,95 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+
+import java.util.List;
+
+/**
+ * Ends the spans of methods whose result completes after they return.
+ *
+ * DynamicAdvice passes the declared return type, a constant ByteBuddy resolves
+ * when the method is transformed, so synchronous methods pay one string switch.
+ * Reactive publishers are handled by ReactiveSpans, futures and completion
+ * stages by FutureSpans; both finish the span here, applying the return value
+ * rules to the produced value and reporting drill-down breaches against the
+ * true duration.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+public final class AsyncSpans {
+
+    static final int SYNC = 0;
+    static final int REACTIVE = 1;
+    static final int FUTURE = 2;
+
+    private AsyncSpans() {
+    }
+
+    /**
+     * Hand the span over to the result if it completes later.
+     *
+     * @param startNanos call start for the drill-down breach check, or 0
+     * @return the value to return instead (possibly the same one) if the span
+     *         now ends on completion, or null if the caller ends it
+     */
+    public static Object trace(String returnType, Object returnValue, Span span,
+                               DynamicInstrumentationConfig.ResolvedMethod resolved, long startNanos) {
+        switch (kindOf(returnType)) {
+            case REACTIVE:
+                return ReactiveSpans.trace(returnValue, span, resolved, startNanos);
+            case FUTURE:
+                return FutureSpans.trace(returnValue, span, resolved, startNanos);
+            default:
+                return null;
+        }
+    }
+
+    static int kindOf(String returnType) {
+        switch (returnType) {
+            case "reactor.core.publisher.Mono":
+            case "reactor.core.publisher.Flux":
+            case "reactor.core.CorePublisher":
+            case "org.reactivestreams.Publisher":
+                return REACTIVE;
+            case "java.util.concurrent.CompletableFuture":
+            case "java.util.concurrent.CompletionStage":
+            case "java.util.concurrent.Future":
+            case "org.springframework.util.concurrent.ListenableFuture":
+            case "com.google.common.util.concurrent.ListenableFuture":
+            case "com.google.common.util.concurrent.FluentFuture":
+                return FUTURE;
+            default:
+                return SYNC;
+        }
+    }
+
+    /**
+     * Apply the return value rules to the value the result produced.
+     */
+    static void extract(Span span, DynamicInstrumentationConfig.ResolvedMethod resolved, Object value) {
+        List<DynamicInstrumentationConfig.ReturnValueRule> returnRules = resolved.getReturnRules();
+        if (returnRules != null && value != null && span.isRecording()) {
+            for (DynamicInstrumentationConfig.ReturnValueRule rule : returnRules) {
+                AttributeExtractor.extract(span, rule, value);
+            }
+        }
+    }
+
+    /**
+     * End the span once its result completed, failed or was cancelled.
+     */
+    static void end(Span span, DynamicInstrumentationConfig.ResolvedMethod resolved, long startNanos,
+                    Throwable error) {
+        if (startNanos != 0L && System.nanoTime() - startNanos > resolved.getDrillDownThresholdNanos()) {
+            DynamicCounters.increment(resolved.getBreachCounterKey());
+        }
+        if (error != null) {
+            span.setStatus(StatusCode.ERROR, error.getMessage());
+            span.recordException(error);
+        }
+        span.end();
+    }
+}
@@ -0,0 +1,472 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import com.otel.dynamic.agent.DynamicInstrumentationConfig.ExtractionRule;
+import io.opentelemetry.api.trace.Span;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts argument and return value attributes for DynamicAdvice, keeping
+ * their type.
+ *
+ * With the default type ("auto"), primitives and boxed integers become long
+ * attributes, floating point values double attributes, booleans boolean
+ * attributes and enums their {@code name()}; anything else is converted with
+ * {@code toString()}. An explicit {@code methodCall} of "toString" or the type
+ * "string" keeps the previous string behaviour; "long", "double" and "boolean"
+ * convert (or parse) the value and skip it if it does not fit.
+ *
+ * Getters, single or chained, are invoked through method handles cached per
+ * runtime class and method name. Handles of getters returning primitives are
+ * adapted to return long, double or boolean, so their values are never boxed.
+ *
+ * Values are set with the rule's pre-built keys (see AttributeKeys), so no
+ * attribute key is created per span.
+ *
+ * Extraction never loads lazy JPA state: uninitialized Hibernate proxies and
+ * uninitialized Hibernate or EclipseLink collections are skipped rather than
+ * read, and entities and proxies are not converted with an implicit
+ * {@code toString()}, which commonly walks lazy associations (an explicit
+ * "toString" methodCall still is). The checks look for the providers' types by
+ * name, so neither provider is a dependency. String values are cut to the
+ * rule's maximum length, and a rule whose extraction takes longer than its time
+ * budget is disabled until the configuration is reloaded; each case is counted
+ * in {@link DynamicCounters}.
+ *
+ * Extraction failures are skipped silently, so they never break the application.
+ * Injected as a helper class into application classloaders.
+ */
+public final class AttributeExtractor {
+
+    private static final ClassValue<ConcurrentHashMap<String, Accessor>> ACCESSORS = new Accessors();
+    private static final ClassValue<String[]> ENUM_NAMES = new EnumNames();
+    private static final ClassValue<LazyType> LAZY_TYPES = new LazyTypes();
+
+    private static final AtomicLong DISABLED = DynamicCounters.counter(DynamicCounters.EXTRACTIONS_DISABLED);
+    private static final AtomicLong TRUNCATED = DynamicCounters.counter(DynamicCounters.EXTRACTIONS_TRUNCATED);
+    private static final AtomicLong SKIPPED_LAZY = DynamicCounters.counter(DynamicCounters.EXTRACTIONS_SKIPPED_LAZY);
+
+    private AttributeExtractor() {
+    }
+
+    /**
+     * Extract a value from an argument or return value and set it on the span.
+     * Does nothing once the rule is disabled.
+     */
+    public static void extract(Span span, ExtractionRule rule, Object target) {
+        if (rule.isDisabled()) {
+            return;
+        }
+        long budgetMicros = rule.getTimeBudgetMicros();
+        long start = budgetMicros > 0 ? System.nanoTime() : 0L;
+        try {
+            extractValue(span, rule, target);
+        } catch (Throwable ignored) {
+            // Silently skip attribute extraction failures to avoid breaking the application
+        }
+        if (budgetMicros > 0 && System.nanoTime() - start > TimeUnit.MICROSECONDS.toNanos(budgetMicros)
+                && rule.disable()) {
+            DISABLED.incrementAndGet();
+        }
+    }
+
+    private static void extractValue(Span span, ExtractionRule rule, Object target) throws Throwable {
+        if (isUnloaded(target)) {
+            return;
+        }
+        String[] chain = rule.getMethodChain();
+        if (chain == null) {
+            if ("toString".equals(rule.getMethodCall())) {
+                int type = rule.getType();
+                setString(span, rule, type == ExtractionRule.TYPE_AUTO ? ExtractionRule.TYPE_STRING : type,
+                        target.toString());
+            } else {
+                setValue(span, rule, rule.getType(), target);
+            }
+            return;
+        }
+        Object value = target;
+        int last = chain.length - 1;
+        for (int i = 0; i < last; i++) {
+            value = accessor(value.getClass(), chain[i]).get(value);
+            if (value == null || isUnloaded(value)) {
+                return;
+            }
+        }
+        accessor(value.getClass(), chain[last]).apply(span, rule, value);
+    }
+
+    /**
+     * Value at the end of a getter chain, through the same cached getters; null
+     * if a getter is missing or returns null, or a value on the way is unloaded.
+     */
+    static Object read(Object target, String[] chain) throws Throwable {
+        Object value = target;
+        for (String getter : chain) {
+            if (value == null || isUnloaded(value)) {
+                return null;
+            }
+            value = accessor(value.getClass(), getter).get(value);
+        }
+        return value;
+    }
+
+    private static Accessor accessor(Class<?> type, String methodName) {
+        ConcurrentHashMap<String, Accessor> accessors = ACCESSORS.get(type);
+        Accessor accessor = accessors.get(methodName);
+        if (accessor == null) {
+            accessor = Accessor.create(type, methodName);
+            accessors.put(methodName, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * True (and counted) if reading the value could initialize a lazy association.
+     */
+    private static boolean isUnloaded(Object value) {
+        if (LAZY_TYPES.get(value.getClass()).isUnloaded(value)) {
+            SKIPPED_LAZY.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    static void setValue(Span span, ExtractionRule rule, int type, Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            setLong(span, rule, type, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            setDouble(span, rule, type, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            setBoolean(span, rule, type, (Boolean) value);
+        } else if (value instanceof Enum && type == ExtractionRule.TYPE_AUTO) {
+            Enum<?> constant = (Enum<?>) value;
+            span.setAttribute(rule.getKeys().forString(),
+                    ENUM_NAMES.get(constant.getDeclaringClass())[constant.ordinal()]);
+        } else if (value instanceof Number && type == ExtractionRule.TYPE_LONG) {
+            span.setAttribute(rule.getKeys().forLong(), ((Number) value).longValue());
+        } else if (value instanceof Number && type == ExtractionRule.TYPE_DOUBLE) {
+            span.setAttribute(rule.getKeys().forDouble(), ((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            setString(span, rule, type, (String) value);
+        } else if (LAZY_TYPES.get(value.getClass()).isEntity()) {
+            // Entity toString() implementations commonly walk lazy associations
+            SKIPPED_LAZY.incrementAndGet();
+        } else if (!isUnloaded(value)) {
+            setString(span, rule, type, value.toString());
+        }
+    }
+
+    private static void setString(Span span, ExtractionRule rule, int type, String value) {
+        switch (type) {
+            case ExtractionRule.TYPE_LONG:
+                try {
+                    span.setAttribute(rule.getKeys().forLong(), Long.parseLong(value.trim()));
+                } catch (NumberFormatException ignored) {
+                    // Not a number: skipped
+                }
+                break;
+            case ExtractionRule.TYPE_DOUBLE:
+                try {
+                    span.setAttribute(rule.getKeys().forDouble(), Double.parseDouble(value.trim()));
+                } catch (NumberFormatException ignored) {
+                    // Not a number: skipped
+                }
+                break;
+            case ExtractionRule.TYPE_BOOLEAN:
+                if ("true".equalsIgnoreCase(value.trim())) {
+                    span.setAttribute(rule.getKeys().forBoolean(), true);
+                } else if ("false".equalsIgnoreCase(value.trim())) {
+                    span.setAttribute(rule.getKeys().forBoolean(), false);
+                }
+                break;
+            default:
+                int maxLength = rule.getMaxLength();
+                if (maxLength > 0 && value.length() > maxLength) {
+                    value = value.substring(0, maxLength);
+                    TRUNCATED.incrementAndGet();
+                }
+                span.setAttribute(rule.getKeys().forString(), value);
+        }
+    }
+
+    private static void setLong(Span span, ExtractionRule rule, int type, long value) {
+        switch (type) {
+            case ExtractionRule.TYPE_STRING:
+                span.setAttribute(rule.getKeys().forString(), Long.toString(value));
+                break;
+            case ExtractionRule.TYPE_DOUBLE:
+                span.setAttribute(rule.getKeys().forDouble(), (double) value);
+                break;
+            case ExtractionRule.TYPE_BOOLEAN:
+                span.setAttribute(rule.getKeys().forBoolean(), value != 0L);
+                break;
+            default:
+                span.setAttribute(rule.getKeys().forLong(), value);
+        }
+    }
+
+    private static void setDouble(Span span, ExtractionRule rule, int type, double value) {
+        switch (type) {
+            case ExtractionRule.TYPE_STRING:
+                span.setAttribute(rule.getKeys().forString(), Double.toString(value));
+                break;
+            case ExtractionRule.TYPE_LONG:
+                span.setAttribute(rule.getKeys().forLong(), (long) value);
+                break;
+            case ExtractionRule.TYPE_BOOLEAN:
+                span.setAttribute(rule.getKeys().forBoolean(), value != 0.0);
+                break;
+            default:
+                span.setAttribute(rule.getKeys().forDouble(), value);
+        }
+    }
+
+    private static void setBoolean(Span span, ExtractionRule rule, int type, boolean value) {
+        switch (type) {
+            case ExtractionRule.TYPE_STRING:
+                span.setAttribute(rule.getKeys().forString(), Boolean.toString(value));
+                break;
+            case ExtractionRule.TYPE_LONG:
+                span.setAttribute(rule.getKeys().forLong(), value ? 1L : 0L);
+                break;
+            case ExtractionRule.TYPE_DOUBLE:
+                span.setAttribute(rule.getKeys().forDouble(), value ? 1.0 : 0.0);
+                break;
+            default:
+                span.setAttribute(rule.getKeys().forBoolean(), value);
+        }
+    }
+
+    /**
+     * Getters of each class, by method name.
+     */
+    static final class Accessors extends ClassValue<ConcurrentHashMap<String, Accessor>> {
+        @Override
+        protected ConcurrentHashMap<String, Accessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Constant names of each enum class, by ordinal.
+     */
+    static final class EnumNames extends ClassValue<String[]> {
+        @Override
+        protected String[] computeValue(Class<?> type) {
+            Object[] constants = type.getEnumConstants();
+            String[] names = new String[constants != null ? constants.length : 0];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = ((Enum<?>) constants[i]).name();
+            }
+            return names;
+        }
+    }
+
+    /**
+     * Lazy loading role of each class: Hibernate proxy, persistent collection,
+     * JPA entity or none.
+     */
+    static final class LazyTypes extends ClassValue<LazyType> {
+        private static final String HIBERNATE_PROXY = "org.hibernate.proxy.HibernateProxy";
+        private static final String[] HIBERNATE_COLLECTIONS = {
+                "org.hibernate.collection.spi.PersistentCollection",
+                "org.hibernate.collection.PersistentCollection"};
+        private static final String ECLIPSELINK_CONTAINER = "org.eclipse.persistence.indirection.IndirectContainer";
+        private static final String[] ENTITY_ANNOTATIONS = {"javax.persistence.Entity", "jakarta.persistence.Entity"};
+
+        @Override
+        protected LazyType computeValue(Class<?> type) {
+            if (type.isPrimitive() || type.isArray() || type.getName().startsWith("java.")) {
+                return LazyType.NONE;
+            }
+            try {
+                Class<?> proxy = findInterface(type, HIBERNATE_PROXY);
+                if (proxy != null) {
+                    Method initializer = proxy.getMethod("getHibernateLazyInitializer");
+                    return new LazyType(LazyType.PROXY, initializer,
+                            initializer.getReturnType().getMethod("isUninitialized"));
+                }
+                for (String name : HIBERNATE_COLLECTIONS) {
+                    Class<?> collection = findInterface(type, name);
+                    if (collection != null) {
+                        return new LazyType(LazyType.COLLECTION, collection.getMethod("wasInitialized"), null);
+                    }
+                }
+                Class<?> container = findInterface(type, ECLIPSELINK_CONTAINER);
+                if (container != null) {
+                    return new LazyType(LazyType.COLLECTION, container.getMethod("isInstantiated"), null);
+                }
+                for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (Annotation annotation : c.getDeclaredAnnotations()) {
+                        String name = annotation.annotationType().getName();
+                        if (ENTITY_ANNOTATIONS[0].equals(name) || ENTITY_ANNOTATIONS[1].equals(name)) {
+                            return LazyType.ENTITY_TYPE;
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                // Unexpected provider API: its values are never read
+                return LazyType.UNREADABLE_TYPE;
+            }
+            return LazyType.NONE;
+        }
+
+        private static Class<?> findInterface(Class<?> type, String name) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                if (c.getName().equals(name)) {
+                    return c;
+                }
+                for (Class<?> i : c.getInterfaces()) {
+                    Class<?> found = findInterface(i, name);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * How to tell whether a value of one class is loaded, without loading it.
+     */
+    static final class LazyType {
+        static final int PLAIN = 0;
+        static final int PROXY = 1;
+        static final int COLLECTION = 2;
+        static final int ENTITY = 3;
+        static final int UNREADABLE = 4;
+
+        static final LazyType NONE = new LazyType(PLAIN, null, null);
+        static final LazyType ENTITY_TYPE = new LazyType(ENTITY, null, null);
+        static final LazyType UNREADABLE_TYPE = new LazyType(UNREADABLE, null, null);
+
+        private final int kind;
+        // Proxy: getHibernateLazyInitializer(); collection: wasInitialized() or isInstantiated()
+        private final Method state;
+        // Proxy: LazyInitializer.isUninitialized()
+        private final Method uninitialized;
+
+        LazyType(int kind, Method state, Method uninitialized) {
+            this.kind = kind;
+            this.state = state;
+            this.uninitialized = uninitialized;
+        }
+
+        /** Entities and proxies, whose toString() may load associations */
+        boolean isEntity() {
+            return kind == ENTITY || kind == PROXY;
+        }
+
+        boolean isUnloaded(Object value) {
+            try {
+                switch (kind) {
+                    case PROXY:
+                        return (Boolean) uninitialized.invoke(state.invoke(value));
+                    case COLLECTION:
+                        return !(Boolean) state.invoke(value);
+                    case UNREADABLE:
+                        return true;
+                    default:
+                        return false;
+                }
+            } catch (Throwable e) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * A no-argument getter of one class, adapted to its return kind.
+     */
+    static final class Accessor {
+        static final int MISSING = 0;
+        static final int LONG = 1;
+        static final int DOUBLE = 2;
+        static final int BOOLEAN = 3;
+        static final int OBJECT = 4;
+
+        private static final Accessor NONE = new Accessor(MISSING, null, null);
+
+        private final int kind;
+        private final MethodHandle handle;
+        // Returns Object, for intermediate getters of a chain
+        private final MethodHandle boxed;
+
+        Accessor(int kind, MethodHandle handle, MethodHandle boxed) {
+            this.kind = kind;
+            this.handle = handle;
+            this.boxed = boxed;
+        }
+
+        static Accessor create(Class<?> type, String methodName) {
+            try {
+                Method method = type.getMethod(methodName);
+                MethodHandle handle;
+                try {
+                    handle = MethodHandles.publicLookup().unreflect(method);
+                } catch (IllegalAccessException e) {
+                    // Public method of a non-public class
+                    method.setAccessible(true);
+                    handle = MethodHandles.publicLookup().unreflect(method);
+                }
+                Class<?> returnType = method.getReturnType();
+                if (returnType == void.class) {
+                    return NONE;
+                }
+                MethodHandle boxed = handle.asType(MethodType.methodType(Object.class, Object.class));
+                if (returnType == long.class || returnType == int.class
+                        || returnType == short.class || returnType == byte.class) {
+                    return new Accessor(LONG, handle.asType(MethodType.methodType(long.class, Object.class)), boxed);
+                }
+                if (returnType == double.class || returnType == float.class) {
+                    return new Accessor(DOUBLE, handle.asType(MethodType.methodType(double.class, Object.class)), boxed);
+                }
+                if (returnType == boolean.class) {
+                    return new Accessor(BOOLEAN, handle.asType(MethodType.methodType(boolean.class, Object.class)), boxed);
+                }
+                return new Accessor(OBJECT, boxed, boxed);
+            } catch (Exception e) {
+                // Missing or inaccessible getter: remembered, so the lookup is not repeated
+                return NONE;
+            }
+        }
+
+        /** Value of an intermediate getter, or null if the getter is missing */
+        Object get(Object target) throws Throwable {
+            return kind == MISSING ? null : (Object) boxed.invokeExact(target);
+        }
+
+        void apply(Span span, ExtractionRule rule, Object target) throws Throwable {
+            int type = rule.getType();
+            switch (kind) {
+                case LONG:
+                    setLong(span, rule, type, (long) handle.invokeExact(target));
+                    break;
+                case DOUBLE:
+                    setDouble(span, rule, type, (double) handle.invokeExact(target));
+                    break;
+                case BOOLEAN:
+                    setBoolean(span, rule, type, (boolean) handle.invokeExact(target));
+                    break;
+                case OBJECT:
+                    Object value = (Object) handle.invokeExact(target);
+                    if (value != null) {
+                        setValue(span, rule, type, value);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
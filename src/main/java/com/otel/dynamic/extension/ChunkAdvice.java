@@ -0,0 +1,23 @@
+package com.otel.dynamic.extension;
+
+import net.bytebuddy.asm.Advice;
+
+/**
+ * ByteBuddy advice marking the execution of one Spring Batch chunk, so that
+ * chunk-mode rules aggregate the calls made inside it (see ChunkAggregation).
+ * Does nothing unless a rule uses {@code mode: "chunk"}.
+ */
+public class ChunkAdvice {
+
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static boolean onEnter() {
+        return ChunkAggregation.begin();
+    }
+
+    @Advice.OnMethodExit(onThrowable = Throwable.class, suppress = Throwable.class)
+    public static void onExit(@Advice.Enter boolean opened, @Advice.Thrown Throwable throwable) {
+        if (opened) {
+            ChunkAggregation.end(throwable);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk-level aggregation for rules with {@code mode: "chunk"}.
+ *
+ * ChunkAdvice marks the chunks of Spring Batch chunk-oriented steps on the
+ * thread running them. Calls of chunk-mode methods inside a chunk get no span
+ * of their own: their duration goes into a fixed-size DurationHistogram, and
+ * each method gets one summary span per chunk, started at its first call and
+ * ended with the chunk, carrying the item, filtered and failed counts and the
+ * min/avg/max/p99 call duration. Only failed calls, and calls slower than the
+ * rule's {@code outlierThresholdMs}, are recorded as individual spans under the
+ * summary, after the fact. Outside a chunk, chunk-mode methods get regular spans.
+ *
+ * State is per thread and reused from chunk to chunk, for up to {@value #SLOTS}
+ * chunk-mode methods per chunk (further methods get regular spans), so
+ * aggregating a call allocates nothing. Dynamic calls nested inside an
+ * aggregated call are not traced: their time is part of the aggregate.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+public final class ChunkAggregation {
+
+    private static final int SLOTS = 4;
+
+    private static final AttributeKey<Long> ITEMS = AttributeKey.longKey("chunk.items");
+    private static final AttributeKey<Long> FILTERED = AttributeKey.longKey("chunk.filtered");
+    private static final AttributeKey<Long> FAILED = AttributeKey.longKey("chunk.failed");
+    private static final AttributeKey<Long> OUTLIERS = AttributeKey.longKey("chunk.outliers");
+    private static final AttributeKey<Double> MIN_MS = AttributeKey.doubleKey("chunk.item.duration.min_ms");
+    private static final AttributeKey<Double> AVG_MS = AttributeKey.doubleKey("chunk.item.duration.avg_ms");
+    private static final AttributeKey<Double> MAX_MS = AttributeKey.doubleKey("chunk.item.duration.max_ms");
+    private static final AttributeKey<Double> P99_MS = AttributeKey.doubleKey("chunk.item.duration.p99_ms");
+    private static final AttributeKey<Boolean> OUTLIER = AttributeKey.booleanKey("chunk.item.outlier");
+
+    private static final ThreadLocal<ChunkAggregation> threadState = new ThreadLocal<>();
+
+    private final Slot[] slots = new Slot[SLOTS];
+    private boolean open;
+    private long epochOffsetNanos;
+    // Slot of the aggregated call currently executing on this thread, if any
+    private Slot active;
+    private long activeStartNanos;
+    private Object[] activeArgs;
+
+    private ChunkAggregation() {
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Open a chunk on this thread.
+     *
+     * @return true if a chunk was opened, in which case {@link #end(Throwable)}
+     *         must be called when it completes; false if no rule aggregates
+     *         chunks or a chunk is already open
+     */
+    public static boolean begin() {
+        if (!DynamicInstrumentationConfig.isChunkTracking()) {
+            return false;
+        }
+        ChunkAggregation state = threadState.get();
+        if (state == null) {
+            state = new ChunkAggregation();
+            threadState.set(state);
+        }
+        if (state.open) {
+            return false;
+        }
+        state.open = true;
+        state.epochOffsetNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Close the chunk of this thread and end its summary spans.
+     *
+     * @param error what the chunk failed with, or null
+     */
+    public static void end(Throwable error) {
+        ChunkAggregation state = threadState.get();
+        if (state == null) {
+            return;
+        }
+        state.open = false;
+        state.active = null;
+        state.activeArgs = null;
+        for (Slot slot : state.slots) {
+            slot.flush(error);
+        }
+    }
+
+    /**
+     * True while an aggregated call executes on this thread.
+     */
+    public static boolean isAggregating() {
+        ChunkAggregation state = threadState.get();
+        return state != null && state.active != null;
+    }
+
+    /**
+     * Aggregate a call into the open chunk of this thread.
+     *
+     * @return true if the call is aggregated, in which case
+     *         {@link #exit(String, Object, Throwable)} must be called when it
+     *         returns; false if no chunk is open or all slots are taken
+     */
+    public static boolean enter(Context parentContext, DynamicInstrumentationConfig.ResolvedMethod method,
+                                Object[] args) {
+        ChunkAggregation state = threadState.get();
+        if (state == null || !state.open) {
+            return false;
+        }
+        Slot slot = state.slotFor(method);
+        if (slot == null) {
+            return false;
+        }
+        if (slot.summary == null) {
+            slot.summary = method.startSpan(GlobalOpenTelemetry.getTracer("dynamic-instrumentation", "1.0.0")
+                    .spanBuilder(method.getSpanName())
+                    .setParent(parentContext)
+                    .setSpanKind(SpanKind.INTERNAL)
+                    .setAllAttributes(method.getSpanAttributes()));
+            slot.summaryContext = parentContext.with(slot.summary);
+        }
+        state.active = slot;
+        state.activeArgs = args;
+        state.activeStartNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Record the aggregated call that is returning, and give it its own span if
+     * it failed or was an outlier.
+     *
+     * @param returnType declared return type; a null result of a non-void method
+     *                   counts as a filtered item
+     * @return its duration in nanoseconds
+     */
+    public static long exit(String returnType, Object returnValue, Throwable error) {
+        ChunkAggregation state = threadState.get();
+        Slot slot = state.active;
+        Object[] args = state.activeArgs;
+        state.active = null;
+        state.activeArgs = null;
+        long endNanos = System.nanoTime();
+        long duration = endNanos - state.activeStartNanos;
+        slot.durations.record(duration);
+        if (error != null) {
+            slot.failed++;
+        } else if (returnValue == null && !"void".equals(returnType)) {
+            slot.filtered++;
+        }
+        long outlierNanos = slot.method.getOutlierThresholdNanos();
+        boolean outlier = outlierNanos > 0 && duration > outlierNanos;
+        if (outlier) {
+            slot.outliers++;
+        }
+        if ((error != null || outlier) && slot.summary.isRecording()) {
+            state.itemSpan(slot, args, returnValue, error, outlier, endNanos);
+        }
+        return duration;
+    }
+
+    private void itemSpan(Slot slot, Object[] args, Object returnValue, Throwable error, boolean outlier,
+                          long endNanos) {
+        DynamicInstrumentationConfig.ResolvedMethod method = slot.method;
+        Span item = method.startSpan(GlobalOpenTelemetry.getTracer("dynamic-instrumentation", "1.0.0")
+                .spanBuilder(method.getSpanName())
+                .setParent(slot.summaryContext)
+                .setSpanKind(SpanKind.INTERNAL)
+                .setAllAttributes(method.getSpanAttributes())
+                .setStartTimestamp(epochOffsetNanos + activeStartNanos, TimeUnit.NANOSECONDS));
+        List<DynamicInstrumentationConfig.AttributeRule> rules = method.getRules();
+        if (rules != null && args != null && item.isRecording()) {
+            for (DynamicInstrumentationConfig.AttributeRule rule : rules) {
+                int idx = rule.getArgIndex();
+                if (idx >= 0 && idx < args.length && args[idx] != null) {
+                    AttributeExtractor.extract(item, rule, args[idx]);
+                }
+            }
+        }
+        List<DynamicInstrumentationConfig.ReturnValueRule> returnRules = method.getReturnRules();
+        if (returnRules != null && returnValue != null && item.isRecording()) {
+            for (DynamicInstrumentationConfig.ReturnValueRule rule : returnRules) {
+                AttributeExtractor.extract(item, rule, returnValue);
+            }
+        }
+        if (outlier) {
+            item.setAttribute(OUTLIER, true);
+        }
+        if (error != null) {
+            item.setStatus(StatusCode.ERROR, error.getMessage());
+            item.recordException(error);
+        }
+        item.end(epochOffsetNanos + endNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Slot slotFor(DynamicInstrumentationConfig.ResolvedMethod method) {
+        Slot free = null;
+        for (Slot slot : slots) {
+            if (slot.method == method) {
+                return slot;
+            }
+            if (free == null && slot.method == null) {
+                free = slot;
+            }
+        }
+        if (free != null) {
+            free.method = method;
+        }
+        return free;
+    }
+
+    static final class Slot {
+        DynamicInstrumentationConfig.ResolvedMethod method;
+        Span summary;
+        Context summaryContext;
+        long filtered;
+        long failed;
+        long outliers;
+        final DurationHistogram durations = new DurationHistogram();
+
+        /**
+         * End the summary span of this chunk, if any, and free the slot.
+         */
+        void flush(Throwable error) {
+            if (summary != null) {
+                long items = durations.getCount();
+                summary.setAttribute(ITEMS, items);
+                summary.setAttribute(FILTERED, filtered);
+                summary.setAttribute(FAILED, failed);
+                summary.setAttribute(OUTLIERS, outliers);
+                if (items > 0) {
+                    summary.setAttribute(MIN_MS, durations.getMin() / 1_000_000.0);
+                    summary.setAttribute(AVG_MS, durations.getTotal() / (double) items / 1_000_000.0);
+                    summary.setAttribute(MAX_MS, durations.getMax() / 1_000_000.0);
+                    summary.setAttribute(P99_MS, durations.valueAt(0.99) / 1_000_000.0);
+                }
+                if (error != null) {
+                    summary.setStatus(StatusCode.ERROR, error.getMessage());
+                    summary.recordException(error);
+                }
+                summary.end();
+            }
+            method = null;
+            summary = null;
+            summaryContext = null;
+            filtered = 0;
+            failed = 0;
+            outliers = 0;
+            durations.reset();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.javaagent.extension.instrumentation.TypeInstrumentation;
+import io.opentelemetry.javaagent.extension.instrumentation.TypeTransformer;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.matcher.ElementMatchers;
+
+/**
+ * Applies ChunkAdvice to Spring Batch's {@code ChunkOrientedTasklet.execute},
+ * which reads, processes and writes one chunk per call, on one thread.
+ */
+public class ChunkTypeInstrumentation implements TypeInstrumentation {
+
+    static final String CHUNK_TASKLET = "org.springframework.batch.core.step.item.ChunkOrientedTasklet";
+
+    @Override
+    public ElementMatcher<TypeDescription> typeMatcher() {
+        return ElementMatchers.named(CHUNK_TASKLET);
+    }
+
+    @Override
+    public void transform(TypeTransformer typeTransformer) {
+        typeTransformer.applyAdviceToMethod(
+                ElementMatchers.named("execute").and(ElementMatchers.takesArguments(2)),
+                ChunkAdvice.class.getName());
+    }
+}
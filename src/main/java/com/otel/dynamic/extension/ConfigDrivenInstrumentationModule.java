@@ -1,13 +1,12 @@
 package com.otel.dynamic.extension;
 
 import com.google.auto.service.AutoService;
+import com.otel.dynamic.agent.DrillDownController;
+import com.otel.dynamic.agent.RuleExpiryScheduler;
+import com.otel.dynamic.agent.RuleRegistrar;
 import com.otel.dynamic.config.ConfigurationManager;
-import com.otel.dynamic.config.model.AttributeDefinition;
-import com.otel.dynamic.config.model.MethodConfig;
-import com.otel.dynamic.config.model.ReturnValueAttribute;
 import com.otel.dynamic.jmx.ConfigManager;
 import com.otel.dynamic.util.Logger;
-import com.otel.dynamic.agent.DynamicInstrumentationConfig;
 import io.opentelemetry.javaagent.extension.instrumentation.InstrumentationModule;
 import io.opentelemetry.javaagent.extension.instrumentation.TypeInstrumentation;
 
@@ -57,33 +56,13 @@ public class ConfigDrivenInstrumentationModule extends InstrumentationModule {
 
         // Populate the DynamicInstrumentationConfig registry so the inlined advice
         // can access attribute extraction rules without needing ConfigurationManager/Jackson
-        int configuredClasses = 0;
-        if (configManager.getConfig() != null && configManager.getConfig().getInstrumentations() != null) {
-            DynamicInstrumentationConfig.clear();
-            for (MethodConfig mc : configManager.getConfig().getInstrumentations()) {
-                configuredClasses++;
-
-                // Convert AttributeDefinitions to simple AttributeRules (no Jackson dependency)
-                List<DynamicInstrumentationConfig.AttributeRule> rules = new ArrayList<>();
-                if (mc.getAttributes() != null) {
-                    for (AttributeDefinition attr : mc.getAttributes()) {
-                        rules.add(new DynamicInstrumentationConfig.AttributeRule(
-                                attr.getArgIndex(), attr.getMethodCall(), attr.getAttributeName()));
-                    }
-                }
-                DynamicInstrumentationConfig.register(mc.getClassName(), mc.getMethodName(), rules);
-
-                // Register return value attribute extraction rules
-                if (mc.getReturnValueAttributes() != null && !mc.getReturnValueAttributes().isEmpty()) {
-                    List<DynamicInstrumentationConfig.ReturnValueRule> returnRules = new ArrayList<>();
-                    for (ReturnValueAttribute attr : mc.getReturnValueAttributes()) {
-                        returnRules.add(new DynamicInstrumentationConfig.ReturnValueRule(
-                                attr.getMethodCall(), attr.getAttributeName()));
-                    }
-                    DynamicInstrumentationConfig.registerReturn(mc.getClassName(), mc.getMethodName(), returnRules);
-                }
-            }
-        }
+        int configuredClasses = RuleRegistrar.populate(configManager.getConfig());
+
+        // Watch SLO breaches of drill-down rules
+        DrillDownController.initialize(configManager);
+
+        // Drop time-boxed rules once they expire
+        RuleExpiryScheduler.initialize(configManager);
 
         Logger.info("Dynamic instrumentation: " + configuredClasses + " method rules configured");
 
@@ -99,6 +78,16 @@ public class ConfigDrivenInstrumentationModule extends InstrumentationModule {
         instrumentations.add(new GlobalTypeInstrumentation());
         Logger.info("  Registered GlobalTypeInstrumentation (handles all matching)");
 
+        // Submission timestamps for queue time. Rewriting every application executor
+        // is only worth it when queue time is measured, so this follows the startup configuration.
+        if (Boolean.TRUE.equals(configManager.getConfig().getMeasureQueueTime())) {
+            instrumentations.add(new ExecutorTypeInstrumentation());
+            Logger.info("  Registered ExecutorTypeInstrumentation (measureQueueTime)");
+        }
+
+        // Spring Batch chunk boundaries for chunk-mode rules (inactive unless a rule uses them)
+        instrumentations.add(new ChunkTypeInstrumentation());
+
         Logger.info("Total TypeInstrumentation instances: " + instrumentations.size());
         return instrumentations;
     }
@@ -111,14 +100,72 @@ public class ConfigDrivenInstrumentationModule extends InstrumentationModule {
     @Override
     public List<String> getAdditionalHelperClassNames() {
         // These classes will be injected into the application classloader
-        // so that inlined advice code can resolve them at runtime.
+        // so that inlined advice code can resolve them at runtime. Nested classes
+        // must be listed too; they are not private, so javac generates no
+        // synthetic accessor classes ("Outer$1") that would also need injecting.
         return Arrays.asList(
                 "com.otel.dynamic.extension.DynamicAdvice",
+                "com.otel.dynamic.extension.ExecutorAdvice",
+                "com.otel.dynamic.extension.ChunkAdvice",
                 "com.otel.dynamic.agent.DynamicInstrumentationConfig",
+                "com.otel.dynamic.agent.DynamicInstrumentationConfig$ExtractionRule",
                 "com.otel.dynamic.agent.DynamicInstrumentationConfig$AttributeRule",
+                "com.otel.dynamic.agent.DynamicInstrumentationConfig$AttributeKeys",
                 "com.otel.dynamic.agent.DynamicInstrumentationConfig$RuleMatch",
                 "com.otel.dynamic.agent.DynamicInstrumentationConfig$ReturnValueRule",
-                "com.otel.dynamic.util.ReflectionHelper"
+                "com.otel.dynamic.agent.DynamicInstrumentationConfig$MethodOptions",
+                "com.otel.dynamic.agent.DynamicInstrumentationConfig$MethodSettings",
+                "com.otel.dynamic.agent.DynamicInstrumentationConfig$ResolvedMethod",
+                "com.otel.dynamic.agent.DynamicInstrumentationConfig$QueueLagRule",
+                "com.otel.dynamic.agent.DynamicCounters",
+                "com.otel.dynamic.agent.PinnedSpans",
+                "com.otel.dynamic.agent.GcPauses",
+                "com.otel.dynamic.agent.SlowSpans",
+                "com.otel.dynamic.agent.BuiltInCoverage",
+                "com.otel.dynamic.agent.ArgumentCondition",
+                "com.otel.dynamic.agent.ArgumentCondition$Node",
+                "com.otel.dynamic.agent.ArgumentCondition$Operand",
+                "com.otel.dynamic.agent.ArgumentCondition$Getter",
+                "com.otel.dynamic.agent.ArgumentCondition$Parser",
+                "com.otel.dynamic.extension.DrillDownContext",
+                "com.otel.dynamic.extension.RouteContext",
+                "com.otel.dynamic.extension.ReadableSpans",
+                "com.otel.dynamic.extension.SpanOverlap",
+                "com.otel.dynamic.extension.EventSpan",
+                "com.otel.dynamic.extension.EventSpan$Budget",
+                "com.otel.dynamic.extension.RepeatedCalls",
+                "com.otel.dynamic.extension.RepeatedCalls$Run",
+                "com.otel.dynamic.extension.TraceBudget",
+                "com.otel.dynamic.extension.TraceBudget$Frame",
+                "com.otel.dynamic.extension.AttributeExtractor",
+                "com.otel.dynamic.extension.AttributeExtractor$Accessors",
+                "com.otel.dynamic.extension.AttributeExtractor$EnumNames",
+                "com.otel.dynamic.extension.AttributeExtractor$Accessor",
+                "com.otel.dynamic.extension.AttributeExtractor$LazyTypes",
+                "com.otel.dynamic.extension.AttributeExtractor$LazyType",
+                "com.otel.dynamic.extension.AsyncSpans",
+                "com.otel.dynamic.extension.ReactiveSpans",
+                "com.otel.dynamic.extension.ReactiveSpans$Operators",
+                "com.otel.dynamic.extension.ReactiveSpans$OperatorLookup",
+                "com.otel.dynamic.extension.ReactiveSpans$Callback",
+                "com.otel.dynamic.extension.FutureSpans",
+                "com.otel.dynamic.extension.FutureSpans$Listener",
+                "com.otel.dynamic.extension.FutureSpans$ListenerLookup",
+                "com.otel.dynamic.extension.FutureSpans$Callback",
+                "com.otel.dynamic.extension.QueueTime",
+                "com.otel.dynamic.extension.QueueTime$Submission",
+                "com.otel.dynamic.extension.QueueTime$NamePrefixLookup",
+                "com.otel.dynamic.extension.ChunkAggregation",
+                "com.otel.dynamic.extension.ChunkAggregation$Slot",
+                "com.otel.dynamic.extension.DurationHistogram",
+                "com.otel.dynamic.extension.QueueLag",
+                "com.otel.dynamic.extension.QueueLag$MessageShape",
+                "com.otel.dynamic.extension.QueueLag$MessageShapes",
+                "com.otel.dynamic.extension.ThreadResources",
+                "com.otel.dynamic.extension.ThreadContention",
+                "com.otel.dynamic.util.ReflectionHelper",
+                "com.otel.dynamic.util.ReflectionHelper$MethodKey",
+                "com.otel.dynamic.util.Logger"
         );
     }
 }
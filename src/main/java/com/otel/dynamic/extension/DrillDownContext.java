@@ -0,0 +1,59 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextKey;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-trace marker for SLO-triggered drill-downs.
+ *
+ * When a drill-down is active, the advice on the parent method stores a span
+ * budget in the context. Methods that are only instrumented because of the
+ * drill-down scope create a span only while such a budget is present and not
+ * yet exhausted, so deeper spans stay confined to traces rooted in the parent.
+ *
+ * Injected as a helper class; the key is therefore per application classloader,
+ * which is fine because a drill-down scope is evaluated in the same deployment
+ * as its parent method.
+ */
+public final class DrillDownContext {
+
+    private static final ContextKey<AtomicInteger> BUDGET_KEY =
+            ContextKey.named("otel-dynamic-drilldown-budget");
+
+    private DrillDownContext() {
+    }
+
+    /**
+     * Attach a fresh span budget to the context, unless an enclosing
+     * drill-down parent already attached one for this trace.
+     */
+    public static Context mark(Context context, int maxSpans) {
+        if (context.get(BUDGET_KEY) != null) {
+            return context;
+        }
+        return context.with(BUDGET_KEY, new AtomicInteger(maxSpans));
+    }
+
+    /**
+     * Consume one span from the current trace's drill-down budget.
+     *
+     * @return true if the caller may create a span
+     */
+    public static boolean tryAcquire() {
+        AtomicInteger budget = Context.current().get(BUDGET_KEY);
+        return budget != null && budget.getAndDecrement() > 0;
+    }
+
+    /**
+     * Return a span acquired with {@link #tryAcquire()} that was not created
+     * after all, e.g. because a per-trace limit refused it.
+     */
+    public static void release() {
+        AtomicInteger budget = Context.current().get(BUDGET_KEY);
+        if (budget != null) {
+            budget.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.otel.dynamic.extension;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size log-linear histogram of durations in nanoseconds.
+ *
+ * Values below {@value #LINEAR} are counted exactly; larger values fall into
+ * one of {@value #SUB_BUCKETS} sub-buckets per power of two, which bounds the
+ * relative error of percentiles to 1/{@value #SUB_BUCKETS}. All buckets are
+ * allocated up front, so recording never allocates; resetting only clears the
+ * range of buckets that was used.
+ *
+ * Not thread-safe: owned by one thread (see ChunkAggregation).
+ */
+final class DurationHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+    private static final int BUCKETS = LINEAR + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private int lowestIndex = BUCKETS;
+    private int highestIndex = -1;
+    private long count;
+    private long total;
+    private long min;
+    private long max;
+
+    void record(long nanos) {
+        long value = Math.max(0L, nanos);
+        int index = indexOf(value);
+        counts[index]++;
+        if (index < lowestIndex) {
+            lowestIndex = index;
+        }
+        if (index > highestIndex) {
+            highestIndex = index;
+        }
+        if (count == 0 || value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        count++;
+        total += value;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getMin() {
+        return min;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * Approximate value below which the given fraction of recorded values lies:
+     * the upper bound of its bucket, capped at the maximum; 0 if empty.
+     *
+     * @param fraction between 0.0 and 1.0, e.g. 0.99
+     */
+    long valueAt(double fraction) {
+        if (count == 0) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = lowestIndex; i <= highestIndex; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    void reset() {
+        if (highestIndex >= 0) {
+            Arrays.fill(counts, lowestIndex, highestIndex + 1, 0L);
+        }
+        lowestIndex = BUCKETS;
+        highestIndex = -1;
+        count = 0;
+        total = 0;
+        min = 0;
+        max = 0;
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exponent = (index - LINEAR) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (index - LINEAR) % SUB_BUCKETS;
+        long next = (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+        return next < 0 ? Long.MAX_VALUE : next - 1;
+    }
+}
@@ -5,13 +5,17 @@ import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.SpanKind;
 import io.opentelemetry.api.trace.StatusCode;
 import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
 import io.opentelemetry.context.Scope;
 import net.bytebuddy.asm.Advice;
 import net.bytebuddy.implementation.bytecode.assign.Assigner;
+import com.otel.dynamic.agent.DynamicCounters;
 import com.otel.dynamic.agent.DynamicInstrumentationConfig;
-import com.otel.dynamic.util.ReflectionHelper;
+import com.otel.dynamic.agent.GcPauses;
+import com.otel.dynamic.agent.PinnedSpans;
+import com.otel.dynamic.agent.SlowSpans;
 
-import java.lang.reflect.Method;
+import java.lang.management.ThreadInfo;
 import java.util.List;
 
 /**
@@ -28,8 +32,23 @@ import java.util.List;
  * @Advice.Origin Method to avoid expensive Class.getMethod() calls,
  * as recommended by OTel instrumentation docs.
  *
- * Custom attribute extraction: Looks up attribute rules from DynamicInstrumentationConfig
- * and uses reflection to invoke the configured methods on method arguments.
+ * On entry the method is resolved once per classloader and configuration
+ * generation (see DynamicInstrumentationConfig.ResolvedMethod), then the call
+ * is skipped when a gate refuses it, in this order: built-in overlap
+ * suppression, an enclosing repeated-call summary (RepeatedCalls) or batch chunk
+ * aggregate (ChunkAggregation), the rule's condition (ArgumentCondition), its
+ * routes (RouteContext), a duplicate span of another instrumentation
+ * (SpanOverlap), the drill-down scope (DrillDownContext) and the trace's span
+ * limits (TraceBudget). The survivors enrich Span.current(), buffer an event
+ * (EventSpan) or start a span through the tracer, whose sampler is RuleSampler;
+ * argument attributes are extracted by AttributeExtractor for recording spans
+ * only. The per-call measurements then start: QueueLag (reported at once),
+ * ThreadResources, ThreadContention, PinnedSpans, GcPauses and SlowSpans.
+ *
+ * On exit the measurements are reported, then the span is handed to AsyncSpans
+ * when the method returns a publisher or future; otherwise drill-down breaches
+ * are counted, return value attributes extracted and the span ended. Each
+ * helper documents what its feature records.
  */
 public class DynamicAdvice {
 
@@ -39,143 +58,306 @@ public class DynamicAdvice {
             @Advice.Origin("#m") String methodName,
             @Advice.AllArguments Object[] args,
             @Advice.Local("otelSpan") Span span,
-            @Advice.Local("returnRules") List<DynamicInstrumentationConfig.ReturnValueRule> returnRules) {
+            @Advice.Local("resolved") DynamicInstrumentationConfig.ResolvedMethod resolved,
+            @Advice.Local("startNanos") long startNanos,
+            @Advice.Local("mode") int mode,
+            @Advice.Local("budgetFrame") TraceBudget.Frame budgetFrame,
+            @Advice.Local("cpuStart") long cpuStart,
+            @Advice.Local("allocatedStart") long allocatedStart,
+            @Advice.Local("contentionStart") ThreadInfo contentionStart,
+            @Advice.Local("pinFrame") Object[] pinFrame,
+            @Advice.Local("gcStart") long gcStart,
+            @Advice.Local("slowFrame") Object[] slowFrame) {
 
         // #t returns internal name with slashes (e.g. com/sample/app/Foo), convert to dots
         String dotClassName = className.replace('/', '.');
 
-        // Get tracer from the OTel Java Agent's GlobalOpenTelemetry
-        Tracer tracer = GlobalOpenTelemetry.getTracer("dynamic-instrumentation", "1.0.0");
-
-        // Build span name (extract simple class name)
-        int lastDot = dotClassName.lastIndexOf('.');
-        String simpleClassName = lastDot >= 0 ? dotClassName.substring(lastDot + 1) : dotClassName;
-        String spanName = simpleClassName + "." + methodName;
-
-        // Create and start span
-        span = tracer.spanBuilder(spanName)
-                .setSpanKind(SpanKind.INTERNAL)
-                .setAttribute("code.namespace", dotClassName)
-                .setAttribute("code.function", methodName)
-                .startSpan();
-
-        // Detect if this method was instrumented via an interface and set attribute
-        // Uses findRulesForHierarchy for rule-based matches, and falls back to
-        // checking declared methods on interfaces for package-level instrumentation
-        DynamicInstrumentationConfig.RuleMatch ruleMatch =
-                DynamicInstrumentationConfig.findRulesForHierarchy(dotClassName, methodName);
-        List<DynamicInstrumentationConfig.AttributeRule> rules =
-                ruleMatch != null ? ruleMatch.getRules() : null;
-        if (ruleMatch != null && ruleMatch.isFromInterface()) {
-            span.setAttribute("code.instrumented.interface", ruleMatch.getSourceClassName());
-        } else if (ruleMatch == null) {
-            // No explicit rules — this is likely a package-level instrumented method.
-            // Check if the method is declared by an interface this class implements.
-            try {
-                Class<?> runtimeClass = Class.forName(dotClassName, false,
-                        Thread.currentThread().getContextClassLoader());
-                for (Class<?> iface : runtimeClass.getInterfaces()) {
-                    try {
-                        iface.getMethod(methodName, (Class<?>[]) null);
-                        span.setAttribute("code.instrumented.interface", iface.getName());
-                        break;
-                    } catch (NoSuchMethodException ignored) {
-                        // method not declared by this interface, try next
-                    }
+        // Rules, return rules, options and interface detection are resolved once
+        // per classloader and configuration generation
+        resolved = DynamicInstrumentationConfig.resolve(dotClassName, methodName);
+
+        // Covered by built-in OTel instrumentation and suppressed by the overlap policy
+        mode = resolved.getMode();
+        if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_SUPPRESS) {
+            return null;
+        }
+
+        // Calls nested in a call folded into a repeated-call summary are part of it
+        if (resolved.isCompressionTracking() && RepeatedCalls.isCompressing()) {
+            return null;
+        }
+
+        // Calls nested in a call aggregated into a batch chunk summary are part of it
+        if (resolved.isChunkTracking() && ChunkAggregation.isAggregating()) {
+            return null;
+        }
+
+        // Conditional rules: evaluate the compiled argument predicate before any span work
+        if (resolved.getCondition() != null && !resolved.getCondition().matches(args)) {
+            return null;
+        }
+
+        // Route-scoped rules only fire under their allowed root span names / http.route values
+        Context parentContext = Context.current();
+        RouteContext route = null;
+        if (resolved.isRouteTracking()) {
+            route = RouteContext.get(parentContext);
+            if (resolved.getAllowedRoutes() != null && !route.matches(resolved.getAllowedRoutes())) {
+                return null;
+            }
+        }
+
+        // Chunk mode: aggregate into the summary of the open batch chunk, if any
+        if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_CHUNK) {
+            if (ChunkAggregation.enter(parentContext, resolved, args)) {
+                mode = DynamicInstrumentationConfig.ResolvedMethod.MODE_AGGREGATED;
+                return null;
+            }
+            mode = DynamicInstrumentationConfig.ResolvedMethod.MODE_SPAN;
+        }
+
+        // Another instrumentation just started a span for this very method
+        if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_SPAN
+                && resolved.getOverlapPolicy() != DynamicInstrumentationConfig.ResolvedMethod.OVERLAP_ALLOW
+                && SpanOverlap.isDuplicate(parentContext, dotClassName, resolved.getInstrumentedInterface(), methodName)) {
+            if (resolved.getOverlapPolicy() == DynamicInstrumentationConfig.ResolvedMethod.OVERLAP_SUPPRESS) {
+                return null;
+            }
+            mode = DynamicInstrumentationConfig.ResolvedMethod.MODE_ENRICH;
+        }
+
+        // Repeated-call compression: fold consecutive sibling calls beyond the threshold
+        if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_SPAN && resolved.isCompressionTracking()
+                && RepeatedCalls.enter(parentContext, resolved)) {
+            mode = DynamicInstrumentationConfig.ResolvedMethod.MODE_COMPRESSED;
+            return null;
+        }
+
+        // Drill-down scoped methods only trace under an active parent, within its budget
+        if (resolved.isDrillDownScoped() && !DrillDownContext.tryAcquire()) {
+            return null;
+        }
+
+        // Per-trace span budget and nesting depth limits
+        if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_SPAN && resolved.isLimitTracking()) {
+            budgetFrame = TraceBudget.enter(parentContext, resolved.getMaxSpansPerTrace(), resolved.getMaxDepth());
+            if (budgetFrame == null) {
+                if (resolved.isDrillDownScoped()) {
+                    // Refused spans do not use up the drill-down budget
+                    DrillDownContext.release();
                 }
-            } catch (Exception ignored) {
-                // skip
+                return null;
             }
         }
 
-        // Store return value rules for use in onExit
-        returnRules = DynamicInstrumentationConfig.getReturnRulesForHierarchy(dotClassName, methodName);
+        if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_ENRICH) {
+            // Decorate the enclosing span; nothing to do if there is none being recorded
+            span = Span.fromContext(parentContext);
+            if (!span.isRecording()) {
+                span = null;
+                return null;
+            }
+        } else {
+            // Span name and static attributes are built once per resolution
+            String spanName = resolved.getSpanName();
+
+            if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_EVENT) {
+                // Buffer into an event on the enclosing span, within its per-parent cap
+                span = EventSpan.start(Span.fromContext(parentContext), spanName, resolved.getMaxEvents());
+                if (span == null) {
+                    return null;
+                }
+            } else {
+                // Get tracer from the OTel Java Agent's GlobalOpenTelemetry
+                Tracer tracer = GlobalOpenTelemetry.getTracer("dynamic-instrumentation", "1.0.0");
+
+                // Create and start span; code.namespace, code.function and the interface the
+                // method was instrumented through are set on the builder in one call, and the
+                // sampling rule key is handed over while it starts, so the sampler sees them
+                span = resolved.startSpan(tracer.spanBuilder(spanName)
+                        .setParent(parentContext)
+                        .setSpanKind(SpanKind.INTERNAL)
+                        .setAllAttributes(resolved.getSpanAttributes()));
+
+                // First dynamic span of an executor task: report how long the task was queued
+                if (resolved.isQueueTracking()) {
+                    QueueTime.onSpanStart(parentContext, span);
+                }
+            }
+        }
 
-        if (rules != null && args != null) {
+        // Spans dropped by the sampler are non-recording: nothing to extract for them
+        List<DynamicInstrumentationConfig.AttributeRule> rules = resolved.getRules();
+        if (rules != null && args != null && span.isRecording()) {
             for (DynamicInstrumentationConfig.AttributeRule rule : rules) {
-                try {
-                    int idx = rule.getArgIndex();
-                    if (idx >= 0 && idx < args.length && args[idx] != null) {
-                        Object arg = args[idx];
-                        String methodCallName = rule.getMethodCall();
-                        String value;
-
-                        // No methodCall or "toString" -> use the argument value directly
-                        if (methodCallName == null || methodCallName.isEmpty() || "toString".equals(methodCallName)) {
-                            value = arg.toString();
-                        } else if (methodCallName.contains(".")) {
-                            // Chained method call: use ReflectionHelper for traversal
-                            value = ReflectionHelper.invokeMethodChain(arg, methodCallName)
-                                    .map(Object::toString)
-                                    .orElse(null);
-                        } else {
-                            // Single method call (existing logic)
-                            Method m = arg.getClass().getMethod(methodCallName);
-                            Object result = m.invoke(arg);
-                            value = result != null ? result.toString() : null;
-                        }
-
-                        if (value != null) {
-                            span.setAttribute(rule.getAttributeName(), value);
-                        }
-                    }
-                } catch (Exception ignored) {
-                    // Silently skip attribute extraction failures to avoid breaking the application
+                int idx = rule.getArgIndex();
+                if (idx >= 0 && idx < args.length && args[idx] != null) {
+                    AttributeExtractor.extract(span, rule, args[idx]);
                 }
             }
         }
 
-        return span.makeCurrent();
+        // The samplers below also run for spans dropped by the sampler: besides span
+        // attributes, they feed per-method histograms and DynamicCounters, which count
+        // every call so that sampling does not skew them
+
+        // Consumer methods: how long the received message waited in the broker
+        if (resolved.getQueueLag() != null) {
+            QueueLag.record(span, resolved.getQueueLag(), args, resolved.getSpanName());
+        }
+
+        if (resolved.getDrillDownThresholdNanos() > 0) {
+            startNanos = System.nanoTime();
+        }
+
+        // Thread CPU time and allocations, sampled last so extraction is not counted
+        if (resolved.isResourceMetrics()) {
+            cpuStart = ThreadResources.cpuNanos();
+            allocatedStart = ThreadResources.allocatedBytes();
+        }
+        if (resolved.getContentionKey() != null) {
+            contentionStart = ThreadContention.sample();
+        }
+        if (resolved.getPinningKey() != null) {
+            pinFrame = PinnedSpans.enter(span, resolved.getPinningKey());
+        }
+        if (resolved.getGcKey() != null) {
+            gcStart = GcPauses.nowMillis();
+        }
+        // Stack samples only go into a span event, so dropped spans are not sampled
+        if (resolved.getStackSampleAfterNanos() > 0 && span.isRecording()) {
+            slowFrame = SlowSpans.enter(resolved.getStackSampleAfterNanos());
+        }
+
+        if (mode != DynamicInstrumentationConfig.ResolvedMethod.MODE_SPAN) {
+            // No new span, so no scope to open
+            return null;
+        }
+
+        // A span a rule's sampling policy dropped under a sampled parent stays out of the
+        // context: nested spans and outgoing calls would otherwise inherit "unsampled"
+        // and cut the rest of the trace, here and downstream
+        boolean dropped = !span.isRecording() && Span.fromContext(parentContext).getSpanContext().isSampled();
+        Context context = dropped ? parentContext : parentContext.with(span);
+        if (!dropped
+                && resolved.getOverlapPolicy() != DynamicInstrumentationConfig.ResolvedMethod.OVERLAP_ALLOW) {
+            // Lets nested rules tell this span from a foreign one with a single lookup
+            context = SpanOverlap.markOwn(context, span);
+        }
+        if (route != null) {
+            context = RouteContext.store(context, route);
+        }
+        if (budgetFrame != null) {
+            context = TraceBudget.store(context, budgetFrame, span);
+        }
+        if (resolved.getDrillDownBudget() > 0) {
+            // Drill-down active for this rule: let scoped methods trace within this trace
+            context = DrillDownContext.mark(context, resolved.getDrillDownBudget());
+        }
+        if (context == parentContext) {
+            // Nothing to make current
+            return null;
+        }
+        return context.makeCurrent();
     }
 
     @Advice.OnMethodExit(onThrowable = Throwable.class, suppress = Throwable.class)
     public static void onExit(
+            @Advice.Origin("#r") String returnType,
             @Advice.Return(typing = Assigner.Typing.DYNAMIC, readOnly = false) Object returnValue,
             @Advice.Local("otelSpan") Span span,
-            @Advice.Local("returnRules") List<DynamicInstrumentationConfig.ReturnValueRule> returnRules,
+            @Advice.Local("resolved") DynamicInstrumentationConfig.ResolvedMethod resolved,
+            @Advice.Local("startNanos") long startNanos,
+            @Advice.Local("mode") int mode,
+            @Advice.Local("budgetFrame") TraceBudget.Frame budgetFrame,
+            @Advice.Local("cpuStart") long cpuStart,
+            @Advice.Local("allocatedStart") long allocatedStart,
+            @Advice.Local("contentionStart") ThreadInfo contentionStart,
+            @Advice.Local("pinFrame") Object[] pinFrame,
+            @Advice.Local("gcStart") long gcStart,
+            @Advice.Local("slowFrame") Object[] slowFrame,
             @Advice.Enter Scope scope,
             @Advice.Thrown Throwable throwable) {
 
+        if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_COMPRESSED
+                || mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_AGGREGATED) {
+            long elapsedNanos = mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_AGGREGATED
+                    ? ChunkAggregation.exit(returnType, returnValue, throwable)
+                    : RepeatedCalls.exit(throwable != null);
+            if (resolved.getDrillDownThresholdNanos() > 0 && elapsedNanos > resolved.getDrillDownThresholdNanos()) {
+                DynamicCounters.increment(resolved.getBreachCounterKey());
+            }
+            return;
+        }
+
         if (scope != null) {
             scope.close();
         }
 
         if (span != null) {
-            // Extract return value attributes
-            if (returnRules != null && returnValue != null) {
-                for (DynamicInstrumentationConfig.ReturnValueRule rule : returnRules) {
-                    try {
-                        String methodCallName = rule.getMethodCall();
-                        String value;
-
-                        if (methodCallName == null || methodCallName.isEmpty() || "toString".equals(methodCallName)) {
-                            value = returnValue.toString();
-                        } else if (methodCallName.contains(".")) {
-                            // Chained method call
-                            value = ReflectionHelper.invokeMethodChain(returnValue, methodCallName)
-                                    .map(Object::toString)
-                                    .orElse(null);
-                        } else {
-                            // Single method call
-                            Method m = returnValue.getClass().getMethod(methodCallName);
-                            Object result = m.invoke(returnValue);
-                            value = result != null ? result.toString() : null;
-                        }
-
-                        if (value != null) {
-                            span.setAttribute(rule.getAttributeName(), value);
-                        }
-                    } catch (Exception ignored) {
-                        // Silently skip attribute extraction failures
+            if (slowFrame != null) {
+                SlowSpans.exit(slowFrame, span);
+            }
+
+            // Before a deferred span can end on another thread
+            if (resolved.isResourceMetrics()) {
+                ThreadResources.record(span, resolved, cpuStart, allocatedStart);
+            }
+            if (resolved.getContentionKey() != null) {
+                ThreadContention.record(span, resolved, contentionStart);
+            }
+            if (pinFrame != null) {
+                PinnedSpans.exit(pinFrame);
+            }
+            if (resolved.getGcKey() != null) {
+                GcPauses.record(span, resolved.getGcKey(), gcStart);
+            }
+
+            // Publishers and futures: the span ends when the result completes
+            boolean deferred = false;
+            if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_SPAN && throwable == null
+                    && returnValue != null) {
+                Object result = AsyncSpans.trace(returnType, returnValue, span, resolved, startNanos);
+                if (result != null) {
+                    returnValue = result;
+                    deferred = true;
+                }
+            }
+
+            if (!deferred) {
+                // Report SLO breaches for drill-down rules
+                if (startNanos != 0L && System.nanoTime() - startNanos > resolved.getDrillDownThresholdNanos()) {
+                    DynamicCounters.increment(resolved.getBreachCounterKey());
+                }
+
+                // Extract return value attributes
+                List<DynamicInstrumentationConfig.ReturnValueRule> returnRules = resolved.getReturnRules();
+                if (returnRules != null && returnValue != null && span.isRecording()) {
+                    for (DynamicInstrumentationConfig.ReturnValueRule rule : returnRules) {
+                        AttributeExtractor.extract(span, rule, returnValue);
                     }
                 }
             }
 
+            // Enriched spans belong to another instrumentation, which ends them
+            if (mode == DynamicInstrumentationConfig.ResolvedMethod.MODE_ENRICH) {
+                return;
+            }
+
             if (throwable != null) {
                 span.setStatus(StatusCode.ERROR, throwable.getMessage());
                 span.recordException(throwable);
             }
-            span.end();
+            if (resolved.isCompressionTracking()) {
+                // Summaries of loops directly under this span end with it
+                RepeatedCalls.flush(span);
+            }
+            if (budgetFrame != null) {
+                TraceBudget.exit(budgetFrame);
+            }
+            if (!deferred) {
+                span.end();
+            }
         }
     }
 }
@@ -0,0 +1,249 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import com.otel.dynamic.util.Logger;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Batching span processor for spans of the {@value #TRACER_NAME} tracer only.
+ *
+ * Dynamic spans are kept out of the agent's own BatchSpanProcessor queue (see
+ * DynamicSpanProcessorCustomizer) and go through this processor's bounded queue
+ * instead, so a bursty rule cannot crowd out server or database spans. When the
+ * queue is full the oldest queued span is dropped, keeping the most recent
+ * activity. Batches are exported by a daemon thread through the same exporters
+ * the agent uses. Because the agent's processor closes those exporters when it
+ * shuts down, DynamicSpanProcessorCustomizer flushes and stops this processor
+ * first; {@link #forceFlush()} and {@link #shutdown()} return once the worker's
+ * current batch and everything queued before the call have been exported.
+ *
+ * With a {@link TailSampler}, ended dynamic spans are buffered per trace and
+ * queued only once their trace is kept; the processor then also counts dynamic
+ * spans as they start and watches every other span's end for local roots.
+ *
+ * Counts are published through DynamicCounters and read by the ConfigManager MBean.
+ */
+public final class DynamicSpanProcessor implements SpanProcessor {
+
+    /** Instrumentation scope of the spans created by DynamicAdvice */
+    public static final String TRACER_NAME = "dynamic-instrumentation";
+
+    private final ArrayBlockingQueue<SpanData> queue;
+    private final int maxExportBatchSize;
+    private final long scheduleDelayNanos;
+    private final long exportTimeoutMillis;
+    private final List<SpanExporter> exporters;
+    private final TailSampler tailSampler;
+    private final AtomicLong dropped = DynamicCounters.counter(DynamicCounters.PROCESSOR_DROPPED);
+    private final AtomicLong exported = DynamicCounters.counter(DynamicCounters.PROCESSOR_EXPORTED);
+    private final AtomicLong failed = DynamicCounters.counter(DynamicCounters.PROCESSOR_EXPORT_FAILED);
+    private final Object exportLock = new Object();
+    // Wakes the worker for a full batch, a flush or shutdown
+    private final ArrayBlockingQueue<Boolean> signal = new ArrayBlockingQueue<>(1);
+    private final AtomicReference<CompletableResultCode> flushRequest = new AtomicReference<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * @param exporters   exporters to export batches through; may still be filled after construction
+     * @param tailSampler tail sampling stage, or null to queue every sampled dynamic span
+     */
+    public DynamicSpanProcessor(List<SpanExporter> exporters, int maxQueueSize, int maxExportBatchSize,
+                                long scheduleDelayMillis, long exportTimeoutMillis, TailSampler tailSampler) {
+        this.exporters = exporters;
+        this.tailSampler = tailSampler;
+        this.queue = new ArrayBlockingQueue<>(maxQueueSize);
+        this.maxExportBatchSize = maxExportBatchSize;
+        this.scheduleDelayNanos = TimeUnit.MILLISECONDS.toNanos(scheduleDelayMillis);
+        this.exportTimeoutMillis = exportTimeoutMillis;
+        this.worker = new Thread(this::run, "otel-dynamic-span-processor");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Check whether a span was created by the dynamic advice.
+     */
+    public static boolean isDynamic(ReadableSpan span) {
+        return TRACER_NAME.equals(span.getInstrumentationScopeInfo().getName());
+    }
+
+    /** Spans currently waiting for export */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /** The tail sampling stage, or null if tail sampling is off */
+    public TailSampler getTailSampler() {
+        return tailSampler;
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+        if (running && isDynamic(span) && span.getSpanContext().isSampled()) {
+            tailSampler.onStart(span);
+        }
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return tailSampler != null;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        if (!running) {
+            return;
+        }
+        boolean dynamic = isDynamic(span) && span.getSpanContext().isSampled();
+        if (tailSampler == null) {
+            if (dynamic) {
+                enqueue(span.toSpanData());
+            }
+            return;
+        }
+        if (dynamic) {
+            enqueueAll(tailSampler.add(span.toSpanData()));
+        }
+        if (TailSampler.isLocalRoot(span)) {
+            enqueueAll(tailSampler.onRootEnd(span));
+        }
+    }
+
+    private void enqueueAll(List<SpanData> spans) {
+        for (int i = 0; i < spans.size(); i++) {
+            enqueue(spans.get(i));
+        }
+    }
+
+    private void enqueue(SpanData span) {
+        while (!queue.offer(span)) {
+            // Drop oldest: recent spans are more useful than a stale backlog
+            if (queue.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+        if (queue.size() >= maxExportBatchSize) {
+            signal.offer(Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    /**
+     * Export the buffered and queued spans. The worker exports them after the
+     * batch it may be exporting, so the result completes once both are out.
+     */
+    @Override
+    public CompletableResultCode forceFlush() {
+        if (!running) {
+            return CompletableResultCode.ofSuccess();
+        }
+        if (tailSampler != null) {
+            enqueueAll(tailSampler.drain());
+        }
+        CompletableResultCode result = flushRequest.updateAndGet(
+                pending -> pending != null ? pending : new CompletableResultCode());
+        signal.offer(Boolean.TRUE);
+        return result;
+    }
+
+    /**
+     * Stop the worker and export what is left. Returns after the export, so it
+     * must run before the exporters are shut down.
+     */
+    @Override
+    public CompletableResultCode shutdown() {
+        if (!running) {
+            return CompletableResultCode.ofSuccess();
+        }
+        running = false;
+        signal.offer(Boolean.TRUE);
+        try {
+            // Lets a batch being exported finish
+            worker.join(exportTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (tailSampler != null) {
+            enqueueAll(tailSampler.drain());
+        }
+        exportAll(new ArrayList<>(maxExportBatchSize));
+        CompletableResultCode pending = flushRequest.getAndSet(null);
+        if (pending != null) {
+            pending.succeed();
+        }
+        // Exporters are shared with the agent's processors, which shut them down
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private void run() {
+        List<SpanData> batch = new ArrayList<>(maxExportBatchSize);
+        long deadline = System.nanoTime() + scheduleDelayNanos;
+        while (running) {
+            try {
+                if (tailSampler != null) {
+                    enqueueAll(tailSampler.expire(System.nanoTime()));
+                }
+                CompletableResultCode flush = flushRequest.getAndSet(null);
+                if (flush != null) {
+                    exportAll(batch);
+                    flush.succeed();
+                } else if (queue.size() >= maxExportBatchSize || System.nanoTime() - deadline >= 0) {
+                    queue.drainTo(batch, maxExportBatchSize);
+                    export(batch);
+                    deadline = System.nanoTime() + scheduleDelayNanos;
+                } else {
+                    signal.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                Logger.error("Dynamic span export failed", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void exportAll(List<SpanData> batch) {
+        while (queue.drainTo(batch, maxExportBatchSize) > 0) {
+            export(batch);
+            batch.clear();
+        }
+    }
+
+    private void export(List<SpanData> batch) {
+        if (batch.isEmpty() || exporters.isEmpty()) {
+            // No exporter configured (otel.traces.exporter=none): nothing to send to
+            return;
+        }
+        // The batch is reused by the caller, the exporters get their own copy
+        List<SpanData> data = new ArrayList<>(batch);
+        synchronized (exportLock) {
+            boolean success = true;
+            for (SpanExporter exporter : exporters) {
+                CompletableResultCode result = exporter.export(data).join(exportTimeoutMillis, TimeUnit.MILLISECONDS);
+                success &= result.isSuccess();
+            }
+            (success ? exported : failed).addAndGet(data.size());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.otel.dynamic.extension;
+
+import com.google.auto.service.AutoService;
+import com.otel.dynamic.util.Logger;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.autoconfigure.spi.AutoConfigurationCustomizer;
+import io.opentelemetry.sdk.autoconfigure.spi.AutoConfigurationCustomizerProvider;
+import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Isolates dynamic spans from the agent's export pipeline.
+ *
+ * Registered through the agent's SDK autoconfiguration SPI. The span processors
+ * the agent builds for its exporters (normally one BatchSpanProcessor) are
+ * wrapped so that they skip spans of the dynamic-instrumentation tracer; those
+ * spans go to a {@link DynamicSpanProcessor} with its own bounded queue, which
+ * exports through the same exporters. The wrappers flush and shut down the
+ * dedicated processor before their delegate, which closes those exporters.
+ *
+ * Settings (system properties or environment variables, like other agent settings):
+ * <ul>
+ *   <li>{@code otel.dynamic.span.processor.enabled} (default true)</li>
+ *   <li>{@code otel.dynamic.bsp.max.queue.size} (default 2048)</li>
+ *   <li>{@code otel.dynamic.bsp.max.export.batch.size} (default 512)</li>
+ *   <li>{@code otel.dynamic.bsp.schedule.delay} (default 5s)</li>
+ *   <li>{@code otel.dynamic.bsp.export.timeout} (default 30s)</li>
+ *   <li>{@code otel.dynamic.tail.sampling.enabled} (default false), see {@link TailSampler}</li>
+ *   <li>{@code otel.dynamic.tail.latency.threshold} (default 1s)</li>
+ *   <li>{@code otel.dynamic.tail.baseline.ratio} (default 0.01)</li>
+ *   <li>{@code otel.dynamic.tail.max.buffer.bytes} (default 16777216)</li>
+ *   <li>{@code otel.dynamic.tail.decision.wait} (default 30s)</li>
+ * </ul>
+ */
+@AutoService(AutoConfigurationCustomizerProvider.class)
+public class DynamicSpanProcessorCustomizer implements AutoConfigurationCustomizerProvider {
+
+    private static final String ENABLED = "otel.dynamic.span.processor.enabled";
+
+    // Exporters configured for the agent, shared with the dedicated processor
+    private static final List<SpanExporter> exporters = new CopyOnWriteArrayList<>();
+
+    private static volatile DynamicSpanProcessor processor;
+
+    /**
+     * The processor registered with the agent, or null if disabled or not yet configured.
+     */
+    public static DynamicSpanProcessor getProcessor() {
+        return processor;
+    }
+
+    @Override
+    public void customize(AutoConfigurationCustomizer autoConfiguration) {
+        // The hooks do not depend on the order autoconfiguration applies them in:
+        // exporters are collected into a list the processor reads at export time
+        autoConfiguration.addTracerProviderCustomizer((builder, config) -> {
+            if (!config.getBoolean(ENABLED, true)) {
+                return builder;
+            }
+            processor = create(config);
+            Logger.info("Dynamic spans use a dedicated span processor");
+            return builder.addSpanProcessor(processor);
+        });
+        autoConfiguration.addSpanExporterCustomizer((exporter, config) -> {
+            exporters.add(exporter);
+            return exporter;
+        });
+        autoConfiguration.addSpanProcessorCustomizer((delegate, config) ->
+                config.getBoolean(ENABLED, true)
+                        ? new BuiltInOnly(delegate, DynamicSpanProcessorCustomizer::getProcessor) : delegate);
+    }
+
+    private static DynamicSpanProcessor create(ConfigProperties config) {
+        return new DynamicSpanProcessor(exporters,
+                config.getInt("otel.dynamic.bsp.max.queue.size", 2048),
+                config.getInt("otel.dynamic.bsp.max.export.batch.size", 512),
+                config.getDuration("otel.dynamic.bsp.schedule.delay", Duration.ofSeconds(5)).toMillis(),
+                config.getDuration("otel.dynamic.bsp.export.timeout", Duration.ofSeconds(30)).toMillis(),
+                createTailSampler(config));
+    }
+
+    private static TailSampler createTailSampler(ConfigProperties config) {
+        if (!config.getBoolean("otel.dynamic.tail.sampling.enabled", false)) {
+            return null;
+        }
+        Logger.info("Tail sampling of dynamic spans is enabled");
+        return new TailSampler(
+                config.getDuration("otel.dynamic.tail.latency.threshold", Duration.ofSeconds(1)).toNanos(),
+                config.getDouble("otel.dynamic.tail.baseline.ratio", 0.01),
+                config.getLong("otel.dynamic.tail.max.buffer.bytes", 16L * 1024 * 1024),
+                config.getDuration("otel.dynamic.tail.decision.wait", Duration.ofSeconds(30)).toNanos());
+    }
+
+    /**
+     * Passes every span but the dynamic ones to an agent-configured processor.
+     */
+    static final class BuiltInOnly implements SpanProcessor {
+        private final SpanProcessor delegate;
+        // The dedicated processor, which may be created after this wrapper
+        private final Supplier<DynamicSpanProcessor> dynamic;
+
+        BuiltInOnly(SpanProcessor delegate, Supplier<DynamicSpanProcessor> dynamic) {
+            this.delegate = delegate;
+            this.dynamic = dynamic;
+        }
+
+        @Override
+        public void onStart(Context parentContext, ReadWriteSpan span) {
+            if (!DynamicSpanProcessor.isDynamic(span)) {
+                delegate.onStart(parentContext, span);
+            }
+        }
+
+        @Override
+        public boolean isStartRequired() {
+            return delegate.isStartRequired();
+        }
+
+        @Override
+        public void onEnd(ReadableSpan span) {
+            if (!DynamicSpanProcessor.isDynamic(span)) {
+                delegate.onEnd(span);
+            }
+        }
+
+        @Override
+        public boolean isEndRequired() {
+            return delegate.isEndRequired();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            DynamicSpanProcessor processor = dynamic.get();
+            if (processor != null) {
+                // Exports what is left while the delegate's exporters are still open
+                processor.shutdown();
+            }
+            return delegate.shutdown();
+        }
+
+        @Override
+        public CompletableResultCode forceFlush() {
+            DynamicSpanProcessor processor = dynamic.get();
+            if (processor == null) {
+                return delegate.forceFlush();
+            }
+            return CompletableResultCode.ofAll(Arrays.asList(processor.forceFlush(), delegate.forceFlush()));
+        }
+    }
+}
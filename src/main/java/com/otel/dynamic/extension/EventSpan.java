@@ -0,0 +1,154 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.StatusCode;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in span for rules in {@code mode: "event"}.
+ *
+ * The advice treats it like the span it would otherwise have started: extracted
+ * attributes, status and exceptions are buffered, and {@link #end()} records a
+ * single span event on the parent span carrying them together with
+ * {@code duration_ns} and {@code outcome} ("ok" or "error").
+ *
+ * Events per parent span are capped. Invocations beyond the cap are counted in
+ * the parent's {@code otel.dynamic.events.dropped} attribute and the JVM-wide
+ * {@link DynamicCounters#EVENTS_DROPPED} counter. The count is kept per thread
+ * for the parent most recently seen on it, identified by its span context so
+ * that an ended parent is not kept alive, and no shared state is touched on the
+ * hot path.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+public final class EventSpan implements Span {
+
+    private static final AttributeKey<Long> DURATION_NS = AttributeKey.longKey("duration_ns");
+    private static final AttributeKey<String> OUTCOME = AttributeKey.stringKey("outcome");
+    private static final AttributeKey<String> EXCEPTION_TYPE = AttributeKey.stringKey("exception.type");
+    private static final AttributeKey<Long> DROPPED_EVENTS = AttributeKey.longKey("otel.dynamic.events.dropped");
+
+    private static final AtomicLong droppedTotal = DynamicCounters.counter(DynamicCounters.EVENTS_DROPPED);
+
+    // Events recorded on the last parent seen on this thread
+    private static final ThreadLocal<Budget> budgets = new ThreadLocal<>();
+
+    private final Span parent;
+    private final long startNanos;
+    private String name;
+    private AttributesBuilder attributes;
+    private boolean failed;
+    private String exceptionType;
+
+    private EventSpan(Span parent, String name) {
+        this.parent = parent;
+        this.name = name;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Start recording an invocation as an event on the parent span.
+     *
+     * @return the stand-in span, or null if the parent is not recording or its cap is reached
+     */
+    public static Span start(Span parent, String name, int maxEvents) {
+        if (!parent.isRecording()) {
+            return null;
+        }
+        Budget budget = budgets.get();
+        if (budget == null) {
+            budget = new Budget();
+            budgets.set(budget);
+        }
+        SpanContext parentContext = parent.getSpanContext();
+        if (budget.parent != parentContext && !parentContext.equals(budget.parent)) {
+            budget.parent = parentContext;
+            budget.recorded = 0;
+            budget.dropped = 0;
+        }
+        if (budget.recorded >= maxEvents) {
+            budget.dropped++;
+            parent.setAttribute(DROPPED_EVENTS, budget.dropped);
+            droppedTotal.incrementAndGet();
+            return null;
+        }
+        budget.recorded++;
+        return new EventSpan(parent, name);
+    }
+
+    @Override
+    public <T> Span setAttribute(AttributeKey<T> key, T value) {
+        if (attributes == null) {
+            attributes = Attributes.builder();
+        }
+        attributes.put(key, value);
+        return this;
+    }
+
+    @Override
+    public Span addEvent(String name, Attributes attributes) {
+        return this;
+    }
+
+    @Override
+    public Span addEvent(String name, Attributes attributes, long timestamp, TimeUnit unit) {
+        return this;
+    }
+
+    @Override
+    public Span setStatus(StatusCode statusCode, String description) {
+        failed = statusCode == StatusCode.ERROR;
+        return this;
+    }
+
+    @Override
+    public Span recordException(Throwable exception, Attributes additionalAttributes) {
+        exceptionType = exception.getClass().getName();
+        return this;
+    }
+
+    @Override
+    public Span updateName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    @Override
+    public void end() {
+        AttributesBuilder event = attributes != null ? attributes : Attributes.builder();
+        event.put(DURATION_NS, System.nanoTime() - startNanos);
+        event.put(OUTCOME, failed || exceptionType != null ? "error" : "ok");
+        if (exceptionType != null) {
+            event.put(EXCEPTION_TYPE, exceptionType);
+        }
+        parent.addEvent(name, event.build());
+    }
+
+    @Override
+    public void end(long timestamp, TimeUnit unit) {
+        end();
+    }
+
+    @Override
+    public SpanContext getSpanContext() {
+        return parent.getSpanContext();
+    }
+
+    @Override
+    public boolean isRecording() {
+        return true;
+    }
+
+    static final class Budget {
+        SpanContext parent;
+        int recorded;
+        long dropped;
+    }
+}
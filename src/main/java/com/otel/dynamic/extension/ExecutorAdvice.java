@@ -0,0 +1,26 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.context.Scope;
+import net.bytebuddy.asm.Advice;
+
+/**
+ * ByteBuddy advice timestamping task submissions to application executors.
+ *
+ * While the submitting method runs, a QueueTime submission is current, so the
+ * context the OTel agent propagates to the task carries the submit time. Does
+ * nothing unless {@code measureQueueTime} is enabled.
+ */
+public class ExecutorAdvice {
+
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static Scope onEnter(@Advice.This Object executor) {
+        return QueueTime.submit(executor);
+    }
+
+    @Advice.OnMethodExit(onThrowable = Throwable.class, suppress = Throwable.class)
+    public static void onExit(@Advice.Enter Scope scope) {
+        if (scope != null) {
+            scope.close();
+        }
+    }
+}
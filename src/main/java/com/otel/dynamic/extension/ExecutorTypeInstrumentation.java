@@ -0,0 +1,39 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.javaagent.extension.instrumentation.TypeInstrumentation;
+import io.opentelemetry.javaagent.extension.instrumentation.TypeTransformer;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.matcher.ElementMatchers;
+
+/**
+ * Applies ExecutorAdvice to the task submission methods of executors defined
+ * by the application or its frameworks (e.g. Spring's ThreadPoolTaskExecutor).
+ *
+ * JDK executors are left alone: they are loaded by the bootstrap classloader,
+ * where the helper classes are not available. Framework executors delegating
+ * to them are covered. Only registered when {@code measureQueueTime} is on at startup.
+ */
+public class ExecutorTypeInstrumentation implements TypeInstrumentation {
+
+    @Override
+    public ElementMatcher<TypeDescription> typeMatcher() {
+        return ElementMatchers.<TypeDescription>not(ElementMatchers.isInterface())
+                .and(ElementMatchers.not(ElementMatchers.nameStartsWith("java.")))
+                .and(ElementMatchers.not(ElementMatchers.nameStartsWith("jdk.")))
+                .and(ElementMatchers.not(ElementMatchers.nameStartsWith("sun.")))
+                .and(ElementMatchers.not(ElementMatchers.nameStartsWith("io.opentelemetry.")))
+                .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.otel.dynamic.")))
+                .and(ElementMatchers.hasSuperType(ElementMatchers.named("java.util.concurrent.Executor")));
+    }
+
+    @Override
+    public void transform(TypeTransformer typeTransformer) {
+        typeTransformer.applyAdviceToMethod(
+                ElementMatchers.isPublic()
+                        .and(ElementMatchers.not(ElementMatchers.isAbstract()))
+                        .and(ElementMatchers.takesArguments(1))
+                        .and(ElementMatchers.namedOneOf("execute", "submit", "submitListenable", "submitCompletable")),
+                ExecutorAdvice.class.getName());
+    }
+}
@@ -0,0 +1,203 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/**
+ * Ends the span of a method returning a {@code CompletionStage} (e.g. the
+ * {@code CompletableFuture} of an {@code @Async} method) or a Spring or Guava
+ * {@code ListenableFuture} when the result completes, so the span covers the
+ * work instead of its submission.
+ *
+ * One callback object per call is registered on the returned value; the value
+ * itself is returned unchanged. Completion stages use {@code whenComplete},
+ * Guava futures {@code addListener} with the callback as its own direct
+ * executor, and Spring futures their {@code completable()} view. Neither
+ * library is a dependency: their methods are found by name and cached as method
+ * handles per class. Futures without a completion callback (a plain
+ * {@code Future}) end the span on return, as before.
+ *
+ * Exceptional completion sets the span status and records the cause;
+ * cancellation sets {@code async.cancelled}. Return value rules are applied to
+ * the completed value.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+public final class FutureSpans {
+
+    private static final AttributeKey<Boolean> CANCELLED = AttributeKey.booleanKey("async.cancelled");
+
+    private static final ClassValue<Listener> LISTENERS = new ListenerLookup();
+
+    private FutureSpans() {
+    }
+
+    /**
+     * Register the span's completion callback on a returned future.
+     *
+     * @return the future, or null if it has no completion callback (the caller
+     *         then ends the span itself)
+     */
+    static Object trace(Object future, Span span, DynamicInstrumentationConfig.ResolvedMethod resolved,
+                        long startNanos) {
+        try {
+            Callback callback = new Callback(span, resolved, startNanos, future);
+            if (future instanceof CompletionStage) {
+                ((CompletionStage<?>) future).whenComplete(callback);
+                return future;
+            }
+            Listener listener = LISTENERS.get(future.getClass());
+            if (listener == null) {
+                return null;
+            }
+            listener.register(future, callback);
+            return future;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * How to be called back by one future class.
+     */
+    static final class Listener {
+        // Guava: addListener(Runnable, Executor)
+        private final MethodHandle addListener;
+        // Spring: completable()
+        private final MethodHandle completable;
+
+        Listener(MethodHandle addListener, MethodHandle completable) {
+            this.addListener = addListener;
+            this.completable = completable;
+        }
+
+        void register(Object future, Callback callback) throws Throwable {
+            if (addListener != null) {
+                addListener.invokeExact(future, (Runnable) callback, (Executor) callback);
+            } else {
+                CompletionStage<?> stage = (CompletionStage<?>) (Object) completable.invokeExact(future);
+                stage.whenComplete(callback);
+            }
+        }
+    }
+
+    /**
+     * Finds the listener method of Guava and Spring futures; null for other classes.
+     */
+    static final class ListenerLookup extends ClassValue<Listener> {
+        @Override
+        protected Listener computeValue(Class<?> type) {
+            try {
+                Class<?> guava = findInterface(type, "com.google.common.util.concurrent.ListenableFuture");
+                if (guava != null) {
+                    Method method = guava.getMethod("addListener", Runnable.class, Executor.class);
+                    return new Listener(MethodHandles.publicLookup().unreflect(method).asType(
+                            MethodType.methodType(void.class, Object.class, Runnable.class, Executor.class)), null);
+                }
+                Class<?> spring = findInterface(type, "org.springframework.util.concurrent.ListenableFuture");
+                if (spring != null) {
+                    Method method = spring.getMethod("completable");
+                    return new Listener(null, MethodHandles.publicLookup().unreflect(method).asType(
+                            MethodType.methodType(Object.class, Object.class)));
+                }
+            } catch (Throwable e) {
+                // Unexpected library version: the span ends on return
+            }
+            return null;
+        }
+
+        private static Class<?> findInterface(Class<?> type, String name) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                if (c.getName().equals(name)) {
+                    return c;
+                }
+                for (Class<?> i : c.getInterfaces()) {
+                    Class<?> found = findInterface(i, name);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Completion callback of one traced call: a whenComplete action, or a Guava
+     * listener together with the direct executor running it.
+     */
+    static final class Callback implements BiConsumer<Object, Throwable>, Runnable, Executor {
+        private final Span span;
+        private final DynamicInstrumentationConfig.ResolvedMethod resolved;
+        private final long startNanos;
+        private final Object future;
+
+        Callback(Span span, DynamicInstrumentationConfig.ResolvedMethod resolved, long startNanos, Object future) {
+            this.span = span;
+            this.resolved = resolved;
+            this.startNanos = startNanos;
+            this.future = future;
+        }
+
+        /** whenComplete */
+        @Override
+        public void accept(Object value, Throwable error) {
+            try {
+                if (error instanceof CompletionException && error.getCause() != null) {
+                    error = error.getCause();
+                }
+                complete(value, error);
+            } catch (Throwable ignored) {
+                // Never break the completion chain
+            }
+        }
+
+        /** Guava listener, run once the future is done */
+        @Override
+        public void run() {
+            Object value = null;
+            Throwable error = null;
+            try {
+                value = ((Future<?>) future).get();
+            } catch (ExecutionException e) {
+                error = e.getCause() != null ? e.getCause() : e;
+            } catch (Throwable e) {
+                error = e;
+            }
+            try {
+                complete(value, error);
+            } catch (Throwable ignored) {
+                // Never break the listener chain
+            }
+        }
+
+        /** Direct executor for the Guava listener */
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        private void complete(Object value, Throwable error) {
+            if (error instanceof CancellationException) {
+                span.setAttribute(CANCELLED, true);
+                error = null;
+            } else if (error == null) {
+                AsyncSpans.extract(span, resolved, value);
+            }
+            AsyncSpans.end(span, resolved, startNanos, error);
+        }
+    }
+}
@@ -2,10 +2,12 @@ package com.otel.dynamic.extension;
 
 import java.util.List;
 
+import com.otel.dynamic.agent.BuiltInCoverage;
 import com.otel.dynamic.config.ConfigurationManager;
 import com.otel.dynamic.config.model.PackageConfig;
 import io.opentelemetry.javaagent.extension.instrumentation.TypeInstrumentation;
 import io.opentelemetry.javaagent.extension.instrumentation.TypeTransformer;
+import net.bytebuddy.description.annotation.AnnotationDescription;
 import net.bytebuddy.description.method.MethodDescription;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.matcher.ElementMatcher;
@@ -21,6 +23,9 @@ import net.bytebuddy.matcher.ElementMatchers;
  * IMPORTANT: This instrumentation checks configuration at match time, enabling
  * hot-reload functionality. When retransformClasses() is called after a config
  * change, this matcher will re-evaluate against the updated configuration.
+ *
+ * Package matches skip methods that built-in OTel instrumentation already traces
+ * (see BuiltInCoverage) unless the package's overlap policy keeps them.
  */
 public class GlobalTypeInstrumentation implements TypeInstrumentation {
 
@@ -171,17 +176,19 @@ public class GlobalTypeInstrumentation implements TypeInstrumentation {
                     if (pkgConfig != null) {
                         List<String> annotations = pkgConfig.getAnnotations();
                         // If no annotations filter, or if class has required annotation, match
-                        if (annotations == null || annotations.isEmpty()) {
-                            return true;
-                        }
+                        boolean annotated = annotations == null || annotations.isEmpty();
                         // Check annotation - must have at least one
-                        for (String annotation : annotations) {
-                            if (hasAnnotation(declaringType, annotation)) {
-                                return true;
-                            }
+                        for (int i = 0; !annotated && i < annotations.size(); i++) {
+                            annotated = hasAnnotation(declaringType, annotations.get(i));
                         }
                         // Class is in package but doesn't have required annotation
-                        return false;
+                        if (!annotated) {
+                            return false;
+                        }
+                        // Leave methods traced by built-in instrumentation alone
+                        return !(ConfigurationManager.OVERLAP_SUPPRESS.equals(
+                                        ConfigurationManager.getInstance().getOverlapPolicy(pkgConfig))
+                                && isBuiltInCovered(target, declaringType));
                     }
 
                     // 3. Check hierarchy for interface-based configuration
@@ -250,6 +257,27 @@ public class GlobalTypeInstrumentation implements TypeInstrumentation {
                         return false;
                     }
                 }
+
+                /**
+                 * Check the method and its declaring type against the built-in coverage tables.
+                 */
+                private boolean isBuiltInCovered(MethodDescription method, TypeDescription declaringType) {
+                    try {
+                        for (AnnotationDescription annotation : method.getDeclaredAnnotations()) {
+                            if (BuiltInCoverage.isCoveringAnnotation(annotation.getAnnotationType().getName())) {
+                                return true;
+                            }
+                        }
+                        for (String supertype : BuiltInCoverage.SUPERTYPES) {
+                            if (ElementMatchers.hasSuperType(ElementMatchers.named(supertype)).matches(declaringType)) {
+                                return true;
+                            }
+                        }
+                    } catch (Exception e) {
+                        // Ignore resolution errors
+                    }
+                    return false;
+                }
             },
             DynamicAdvice.class.getName()
         );
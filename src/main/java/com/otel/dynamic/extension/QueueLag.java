@@ -0,0 +1,236 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.trace.Span;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Broker wait time of consumed messages, for rules with {@code queueLag}.
+ *
+ * When the consumer method starts, the publish timestamp is read from the
+ * configured argument (a message header, a getter chain, or the argument
+ * itself) and the time since then is set as {@code messaging.queue_lag_ms} and
+ * recorded in the {@value #HISTOGRAM_NAME} histogram by
+ * {@code messaging.destination.name}.
+ *
+ * Messages are read through their public accessors, found once per class, so
+ * Spring AMQP ({@code getMessageProperties()}), Spring messaging
+ * ({@code getHeaders()}) and RabbitMQ client ({@code getProperties()})
+ * messages, as well as plain header maps, work without depending on them. The
+ * {@code timestamp} header falls back to the message's AMQP timestamp property.
+ * Timestamps may be epoch milliseconds (number or string), Date, Instant,
+ * LocalDateTime (in the JVM's zone) or any other instant-bearing temporal.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+public final class QueueLag {
+
+    static final String HISTOGRAM_NAME = "messaging.queue.lag";
+
+    private static final String TIMESTAMP_HEADER = "timestamp";
+    private static final String CONSUMER_QUEUE_HEADER = "amqp_consumerQueue";
+
+    private static final AttributeKey<Long> QUEUE_LAG_MS = AttributeKey.longKey("messaging.queue_lag_ms");
+    private static final AttributeKey<String> DESTINATION = AttributeKey.stringKey("messaging.destination.name");
+
+    private static final ClassValue<MessageShape> SHAPES = new MessageShapes();
+    private static final ConcurrentHashMap<String, Attributes> QUEUE_ATTRIBUTES = new ConcurrentHashMap<>();
+    private static volatile LongHistogram histogram;
+
+    private QueueLag() {
+    }
+
+    /**
+     * Report the queue lag of the message a consumer call received.
+     *
+     * @param spanName fallback queue name when neither the rule nor the message names one
+     */
+    public static void record(Span span, DynamicInstrumentationConfig.QueueLagRule rule, Object[] args,
+                              String spanName) {
+        int idx = rule.getArgIndex();
+        if (args == null || idx >= args.length || args[idx] == null) {
+            return;
+        }
+        try {
+            Object message = args[idx];
+            long publishedMillis = epochMillis(timestampOf(rule, message));
+            if (publishedMillis <= 0) {
+                return;
+            }
+            long lagMs = Math.max(0L, System.currentTimeMillis() - publishedMillis);
+            span.setAttribute(QUEUE_LAG_MS, lagMs);
+            String queue = rule.getQueue() != null ? rule.getQueue() : queueOf(message);
+            histogram().record(lagMs, attributesOf(queue != null ? queue : spanName));
+        } catch (Throwable ignored) {
+            // Never break message consumption
+        }
+    }
+
+    static Object timestampOf(DynamicInstrumentationConfig.QueueLagRule rule, Object message) throws Throwable {
+        if (rule.getHeader() != null) {
+            return header(message, rule.getHeader());
+        }
+        if (rule.getMethodChain() != null) {
+            return AttributeExtractor.read(message, rule.getMethodChain());
+        }
+        return message;
+    }
+
+    /**
+     * Value of a message header, or null.
+     */
+    static Object header(Object message, String name) throws Throwable {
+        Object properties = propertiesOf(message);
+        Map<?, ?> headers = headersOf(properties);
+        Object value = headers != null ? headers.get(name) : null;
+        if (value == null && TIMESTAMP_HEADER.equals(name)) {
+            MethodHandle timestamp = SHAPES.get(properties.getClass()).timestamp;
+            value = timestamp != null ? (Object) timestamp.invokeExact(properties) : null;
+        }
+        return value;
+    }
+
+    /**
+     * Queue the message was consumed from, or null if the message does not say.
+     */
+    static String queueOf(Object message) throws Throwable {
+        Object properties = propertiesOf(message);
+        MethodHandle consumerQueue = SHAPES.get(properties.getClass()).consumerQueue;
+        Object queue = consumerQueue != null ? (Object) consumerQueue.invokeExact(properties) : null;
+        if (queue == null) {
+            Map<?, ?> headers = headersOf(properties);
+            queue = headers != null ? headers.get(CONSUMER_QUEUE_HEADER) : null;
+        }
+        return queue instanceof String && !((String) queue).isEmpty() ? (String) queue : null;
+    }
+
+    /**
+     * Publish time in epoch milliseconds, or -1 if the value is not a timestamp.
+     */
+    static long epochMillis(Object value) {
+        if (value instanceof Long || value instanceof Integer) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if (value instanceof Instant) {
+            return ((Instant) value).toEpochMilli();
+        }
+        if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        if (value instanceof TemporalAccessor) {
+            try {
+                return Instant.from((TemporalAccessor) value).toEpochMilli();
+            } catch (RuntimeException e) {
+                return -1L;
+            }
+        }
+        if (value instanceof String) {
+            String text = ((String) value).trim();
+            try {
+                return Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                try {
+                    return Instant.parse(text).toEpochMilli();
+                } catch (RuntimeException notAnInstant) {
+                    return -1L;
+                }
+            }
+        }
+        return -1L;
+    }
+
+    private static Object propertiesOf(Object message) throws Throwable {
+        MethodHandle properties = SHAPES.get(message.getClass()).properties;
+        Object value = properties != null ? (Object) properties.invokeExact(message) : null;
+        return value != null ? value : message;
+    }
+
+    private static Map<?, ?> headersOf(Object properties) throws Throwable {
+        if (properties instanceof Map) {
+            return (Map<?, ?>) properties;
+        }
+        MethodHandle headers = SHAPES.get(properties.getClass()).headers;
+        Object value = headers != null ? (Object) headers.invokeExact(properties) : null;
+        return value instanceof Map ? (Map<?, ?>) value : null;
+    }
+
+    private static Attributes attributesOf(String queue) {
+        Attributes attributes = QUEUE_ATTRIBUTES.get(queue);
+        if (attributes == null) {
+            attributes = Attributes.of(DESTINATION, queue);
+            QUEUE_ATTRIBUTES.putIfAbsent(queue, attributes);
+        }
+        return attributes;
+    }
+
+    private static LongHistogram histogram() {
+        LongHistogram local = histogram;
+        if (local == null) {
+            local = GlobalOpenTelemetry.getMeter("dynamic-instrumentation")
+                    .histogramBuilder(HISTOGRAM_NAME)
+                    .setDescription("Time consumed messages waited in the broker before processing started")
+                    .setUnit("ms")
+                    .ofLongs()
+                    .build();
+            histogram = local;
+        }
+        return local;
+    }
+
+    /**
+     * Public accessors of one message or message properties class; null where
+     * the class has none.
+     */
+    static final class MessageShape {
+        final MethodHandle properties;
+        final MethodHandle headers;
+        final MethodHandle timestamp;
+        final MethodHandle consumerQueue;
+
+        MessageShape(MethodHandle properties, MethodHandle headers, MethodHandle timestamp,
+                     MethodHandle consumerQueue) {
+            this.properties = properties;
+            this.headers = headers;
+            this.timestamp = timestamp;
+            this.consumerQueue = consumerQueue;
+        }
+    }
+
+    static final class MessageShapes extends ClassValue<MessageShape> {
+        @Override
+        protected MessageShape computeValue(Class<?> type) {
+            MethodHandle properties = getter(type, "getMessageProperties");
+            if (properties == null) {
+                properties = getter(type, "getProperties");
+            }
+            return new MessageShape(properties, getter(type, "getHeaders"), getter(type, "getTimestamp"),
+                    getter(type, "getConsumerQueue"));
+        }
+
+        private static MethodHandle getter(Class<?> type, String name) {
+            try {
+                return MethodHandles.publicLookup().unreflect(type.getMethod(name))
+                        .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+    }
+}
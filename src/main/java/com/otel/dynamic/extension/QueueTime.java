@@ -0,0 +1,151 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextKey;
+import io.opentelemetry.context.Scope;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Queue time of tasks submitted to application executors.
+ *
+ * When {@code measureQueueTime} is on, ExecutorAdvice stores a Submission
+ * (executor name and submit timestamp) in the context while a task is handed to
+ * an executor, so the OTel agent's executor instrumentation carries it to the
+ * worker thread with the rest of the context. The first dynamic span started
+ * in the task claims it, sets {@code queue.wait_ms} (submission to span start,
+ * which is the task start when the span is the task's entry point, e.g. an
+ * {@code @Async} method) and records the wait in the
+ * {@value #HISTOGRAM_NAME} histogram by {@code executor.name}.
+ *
+ * Executors are named by their thread name prefix when they have one (Spring's
+ * ThreadPoolTaskExecutor), otherwise by their class.
+ *
+ * Injected as a helper class; the key is therefore per application classloader.
+ */
+public final class QueueTime {
+
+    static final String HISTOGRAM_NAME = "executor.queue.wait_time";
+
+    private static final ContextKey<Submission> KEY = ContextKey.named("otel-dynamic-queue-submission");
+    private static final AttributeKey<Double> QUEUE_WAIT_MS = AttributeKey.doubleKey("queue.wait_ms");
+    private static final AttributeKey<String> EXECUTOR_NAME = AttributeKey.stringKey("executor.name");
+
+    private static final ClassValue<MethodHandle> NAME_PREFIX = new NamePrefixLookup();
+    private static final ConcurrentHashMap<String, Attributes> EXECUTOR_ATTRIBUTES = new ConcurrentHashMap<>();
+    private static volatile DoubleHistogram histogram;
+
+    private QueueTime() {
+    }
+
+    /**
+     * Make a timestamped submission current while a task is handed to an executor.
+     *
+     * @return the scope to close when the submitting method returns, or null if
+     *         queue time is not measured
+     */
+    public static Scope submit(Object executor) {
+        if (!DynamicInstrumentationConfig.isQueueTracking()) {
+            return null;
+        }
+        Submission submission = new Submission(executor, System.nanoTime());
+        return Context.current().with(KEY, submission).makeCurrent();
+    }
+
+    /**
+     * Report the queue time of the task running the span, if the span is the
+     * first dynamic span started in it.
+     */
+    public static void onSpanStart(Context parentContext, Span span) {
+        Submission submission = parentContext.get(KEY);
+        if (submission == null || !submission.claim()) {
+            return;
+        }
+        double waitMs = (System.nanoTime() - submission.submitNanos) / 1_000_000.0;
+        span.setAttribute(QUEUE_WAIT_MS, waitMs);
+        histogram().record(waitMs, attributesOf(nameOf(submission.executor)));
+    }
+
+    static String nameOf(Object executor) {
+        MethodHandle prefix = NAME_PREFIX.get(executor.getClass());
+        if (prefix != null) {
+            try {
+                String name = (String) prefix.invokeExact(executor);
+                if (name != null && !name.isEmpty()) {
+                    return name.endsWith("-") ? name.substring(0, name.length() - 1) : name;
+                }
+            } catch (Throwable ignored) {
+                // Fall back to the class name
+            }
+        }
+        return executor.getClass().getName();
+    }
+
+    private static Attributes attributesOf(String executorName) {
+        Attributes attributes = EXECUTOR_ATTRIBUTES.get(executorName);
+        if (attributes == null) {
+            attributes = Attributes.of(EXECUTOR_NAME, executorName);
+            EXECUTOR_ATTRIBUTES.putIfAbsent(executorName, attributes);
+        }
+        return attributes;
+    }
+
+    private static DoubleHistogram histogram() {
+        DoubleHistogram local = histogram;
+        if (local == null) {
+            local = GlobalOpenTelemetry.getMeter("dynamic-instrumentation")
+                    .histogramBuilder(HISTOGRAM_NAME)
+                    .setDescription("Time tasks waited in an executor queue before their first dynamic span")
+                    .setUnit("ms")
+                    .build();
+            histogram = local;
+        }
+        return local;
+    }
+
+    /**
+     * One task handed to an executor; claimed by the first dynamic span of the task.
+     */
+    static final class Submission {
+        private static final AtomicIntegerFieldUpdater<Submission> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(Submission.class, "claimed");
+
+        private final Object executor;
+        private final long submitNanos;
+        private volatile int claimed;
+
+        Submission(Object executor, long submitNanos) {
+            this.executor = executor;
+            this.submitNanos = submitNanos;
+        }
+
+        boolean claim() {
+            return claimed == 0 && CLAIMED.compareAndSet(this, 0, 1);
+        }
+    }
+
+    /**
+     * Public {@code getThreadNamePrefix()} of an executor class, or null.
+     */
+    static final class NamePrefixLookup extends ClassValue<MethodHandle> {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                return MethodHandles.publicLookup().unreflect(type.getMethod("getThreadNamePrefix"))
+                        .asType(MethodType.methodType(String.class, Object.class));
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+    }
+}
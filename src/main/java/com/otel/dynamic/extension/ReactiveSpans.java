@@ -0,0 +1,246 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the span of a method returning a Reactor {@code Mono} or {@code Flux}
+ * open until the publisher terminates, instead of ending it when the method
+ * returns the (not yet subscribed) publisher.
+ *
+ * Used through AsyncSpans for methods declared to return a publisher type.
+ * The returned publisher is decorated with Reactor's own
+ * {@code doOnSubscribe}, {@code doOnEach} and {@code doOnCancel} operators, all
+ * sharing one callback object per call; nothing blocks and Reactor is not a
+ * dependency (the operators are found by name and invoked through method
+ * handles cached per publisher class).
+ *
+ * The span ends on the first terminal signal or cancellation, with
+ * {@code reactive.first_signal_ms} (subscription to first signal),
+ * {@code reactive.elements} for a Flux and {@code reactive.cancelled} on
+ * cancellation. Errors set the span status and are recorded as exceptions.
+ * Return value rules are applied to the first emitted element. Later
+ * subscriptions to the same publisher are not traced, and a publisher that is
+ * never subscribed leaves its span unended, so it is not exported.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+public final class ReactiveSpans {
+
+    private static final AttributeKey<Double> FIRST_SIGNAL_MS = AttributeKey.doubleKey("reactive.first_signal_ms");
+    private static final AttributeKey<Long> ELEMENTS = AttributeKey.longKey("reactive.elements");
+    private static final AttributeKey<Boolean> CANCELLED = AttributeKey.booleanKey("reactive.cancelled");
+
+    private static final ClassValue<Operators> OPERATORS = new OperatorLookup();
+
+    private ReactiveSpans() {
+    }
+
+    /**
+     * Decorate a returned publisher so that it ends the span.
+     *
+     * @param startNanos call start for the drill-down breach check, or 0
+     * @return the publisher to return instead, or null if it is not a Mono or
+     *         Flux (the caller then ends the span itself)
+     */
+    static Object trace(Object publisher, Span span,
+                               DynamicInstrumentationConfig.ResolvedMethod resolved, long startNanos) {
+        Operators operators = OPERATORS.get(publisher.getClass());
+        if (operators == null) {
+            return null;
+        }
+        try {
+            return operators.decorate(publisher, new Callback(span, resolved, startNanos, operators));
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Operators of one publisher class and accessors of its signal type.
+     */
+    static final class Operators {
+        private final MethodHandle doOnSubscribe;
+        private final MethodHandle doOnEach;
+        private final MethodHandle doOnCancel;
+        private final Class<?> signalType;
+        private final MethodHandle isOnNext;
+        private final MethodHandle isOnError;
+        private final MethodHandle isOnComplete;
+        private final MethodHandle get;
+        private final MethodHandle getThrowable;
+        private final boolean multiValued;
+
+        Operators(Method doOnSubscribe, Method doOnEach, Method doOnCancel, Class<?> signalType,
+                          boolean multiValued) throws ReflectiveOperationException {
+            this.doOnSubscribe = handle(doOnSubscribe, Object.class, Object.class, Object.class);
+            this.doOnEach = handle(doOnEach, Object.class, Object.class, Object.class);
+            this.doOnCancel = handle(doOnCancel, Object.class, Object.class, Object.class);
+            this.signalType = signalType;
+            this.isOnNext = handle(signalType.getMethod("isOnNext"), boolean.class, Object.class);
+            this.isOnError = handle(signalType.getMethod("isOnError"), boolean.class, Object.class);
+            this.isOnComplete = handle(signalType.getMethod("isOnComplete"), boolean.class, Object.class);
+            this.get = handle(signalType.getMethod("get"), Object.class, Object.class);
+            this.getThrowable = handle(signalType.getMethod("getThrowable"), Object.class, Object.class);
+            this.multiValued = multiValued;
+        }
+
+        private static MethodHandle handle(Method method, Class<?> returnType, Class<?>... parameterTypes)
+                throws IllegalAccessException {
+            return MethodHandles.publicLookup().unreflect(method)
+                    .asType(MethodType.methodType(returnType, parameterTypes));
+        }
+
+        Object decorate(Object publisher, Callback callback) throws Throwable {
+            Object decorated = (Object) doOnSubscribe.invokeExact(publisher, (Object) callback);
+            decorated = (Object) doOnEach.invokeExact(decorated, (Object) callback);
+            return (Object) doOnCancel.invokeExact(decorated, (Object) callback);
+        }
+    }
+
+    /**
+     * Finds the operators on the public publisher type (Mono or Flux) a runtime
+     * class extends; null for classes without them.
+     */
+    static final class OperatorLookup extends ClassValue<Operators> {
+        @Override
+        protected Operators computeValue(Class<?> type) {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                if (!Modifier.isPublic(c.getModifiers())) {
+                    continue;
+                }
+                try {
+                    Method doOnEach = c.getMethod("doOnEach", Consumer.class);
+                    if (doOnEach.getDeclaringClass() != c) {
+                        continue;
+                    }
+                    Class<?> signalType = consumedType(doOnEach.getGenericParameterTypes()[0]);
+                    if (signalType == null) {
+                        return null;
+                    }
+                    return new Operators(c.getMethod("doOnSubscribe", Consumer.class), doOnEach,
+                            c.getMethod("doOnCancel", Runnable.class), signalType,
+                            c.getName().endsWith("Flux"));
+                } catch (NoSuchMethodException e) {
+                    // Not the publisher type: keep looking up the hierarchy
+                } catch (Throwable e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        /** Signal type of {@code Consumer<? super Signal<T>>} */
+        private static Class<?> consumedType(Type consumer) {
+            if (!(consumer instanceof ParameterizedType)) {
+                return null;
+            }
+            Type argument = ((ParameterizedType) consumer).getActualTypeArguments()[0];
+            if (argument instanceof WildcardType) {
+                Type[] lower = ((WildcardType) argument).getLowerBounds();
+                argument = lower.length > 0 ? lower[0] : null;
+            }
+            if (argument instanceof ParameterizedType) {
+                argument = ((ParameterizedType) argument).getRawType();
+            }
+            return argument instanceof Class ? (Class<?>) argument : null;
+        }
+    }
+
+    /**
+     * Subscription, signal and cancellation callback of one traced call.
+     */
+    static final class Callback implements Consumer<Object>, Runnable {
+        private static final AtomicIntegerFieldUpdater<Callback> ENDED =
+                AtomicIntegerFieldUpdater.newUpdater(Callback.class, "ended");
+
+        private final Span span;
+        private final DynamicInstrumentationConfig.ResolvedMethod resolved;
+        private final long startNanos;
+        private final Operators operators;
+        private volatile long subscribeNanos;
+        private volatile int ended;
+        // Signals of one subscription are serialized
+        private long elements;
+        private boolean signalled;
+
+        Callback(Span span, DynamicInstrumentationConfig.ResolvedMethod resolved, long startNanos,
+                 Operators operators) {
+            this.span = span;
+            this.resolved = resolved;
+            this.startNanos = startNanos;
+            this.operators = operators;
+        }
+
+        /** doOnSubscribe (with the subscription) and doOnEach (with a signal) */
+        @Override
+        public void accept(Object value) {
+            if (ended != 0) {
+                return;
+            }
+            try {
+                if (!operators.signalType.isInstance(value)) {
+                    if (subscribeNanos == 0L) {
+                        subscribeNanos = System.nanoTime();
+                    }
+                    return;
+                }
+                if ((boolean) operators.isOnNext.invokeExact(value)) {
+                    firstSignal();
+                    if (elements++ == 0) {
+                        AsyncSpans.extract(span, resolved, (Object) operators.get.invokeExact(value));
+                    }
+                } else if ((boolean) operators.isOnError.invokeExact(value)) {
+                    firstSignal();
+                    end((Throwable) (Object) operators.getThrowable.invokeExact(value), false);
+                } else if ((boolean) operators.isOnComplete.invokeExact(value)) {
+                    firstSignal();
+                    end(null, false);
+                }
+            } catch (Throwable ignored) {
+                // Never break the reactive chain
+            }
+        }
+
+        /** doOnCancel */
+        @Override
+        public void run() {
+            end(null, true);
+        }
+
+        private void firstSignal() {
+            if (!signalled) {
+                signalled = true;
+                long subscribed = subscribeNanos;
+                if (subscribed != 0L) {
+                    span.setAttribute(FIRST_SIGNAL_MS, (System.nanoTime() - subscribed) / 1_000_000.0);
+                }
+            }
+        }
+
+        void end(Throwable error, boolean cancelled) {
+            if (!ENDED.compareAndSet(this, 0, 1)) {
+                return;
+            }
+            if (operators.multiValued) {
+                span.setAttribute(ELEMENTS, elements);
+            }
+            if (cancelled) {
+                span.setAttribute(CANCELLED, true);
+            }
+            AsyncSpans.end(span, resolved, startNanos, error);
+        }
+    }
+}
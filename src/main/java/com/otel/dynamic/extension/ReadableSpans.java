@@ -0,0 +1,98 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflective access to span names and attributes.
+ *
+ * The OpenTelemetry API does not expose them, so they are read through the
+ * SDK's {@code ReadableSpan} interface, which the agent's spans implement.
+ * Spans that do not implement it (non-recording or propagated spans) yield null.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+final class ReadableSpans {
+
+    private static final String READABLE_SPAN = "io.opentelemetry.sdk.trace.ReadableSpan";
+
+    // Span class -> {getName, getAttribute}, or empty array if not a ReadableSpan
+    private static final ConcurrentHashMap<Class<?>, Method[]> accessors = new ConcurrentHashMap<>();
+
+    private ReadableSpans() {
+    }
+
+    /**
+     * Span name, or null if unavailable.
+     */
+    static String getName(Span span) {
+        Method[] methods = accessorsFor(span);
+        if (methods.length == 0) {
+            return null;
+        }
+        try {
+            Object name = methods[0].invoke(span);
+            return name != null ? name.toString() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * String attribute value, or null if unset or unavailable.
+     */
+    static String getAttribute(Span span, AttributeKey<String> key) {
+        Method[] methods = accessorsFor(span);
+        if (methods.length == 0) {
+            return null;
+        }
+        try {
+            Object value = methods[1].invoke(span, key);
+            return value != null ? value.toString() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Method[] accessorsFor(Span span) {
+        Method[] methods = accessors.get(span.getClass());
+        if (methods == null) {
+            methods = findAccessors(span.getClass());
+            accessors.put(span.getClass(), methods);
+        }
+        return methods;
+    }
+
+    private static Method[] findAccessors(Class<?> spanClass) {
+        Class<?> readable = findInterface(spanClass);
+        if (readable != null) {
+            try {
+                return new Method[] {
+                        readable.getMethod("getName"),
+                        readable.getMethod("getAttribute", AttributeKey.class)
+                };
+            } catch (NoSuchMethodException ignored) {
+                // Incompatible SDK version
+            }
+        }
+        return new Method[0];
+    }
+
+    private static Class<?> findInterface(Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Class<?> iface : current.getInterfaces()) {
+                if (READABLE_SPAN.equals(iface.getName())) {
+                    return iface;
+                }
+                Class<?> inherited = findInterface(iface);
+                if (inherited != null) {
+                    return inherited;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,257 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repeated-call compression for rules with {@code compressAfter}.
+ *
+ * Tracks, per thread, the run of consecutive calls to the same method under the
+ * same parent span. The first {@code compressAfter} calls of a run get their own
+ * span; later calls only update the run's count, total, min and max duration and
+ * error count. When the run ends, a single summary span covering the folded
+ * calls is emitted under the original parent.
+ *
+ * A run ends when a sibling call to another method starts under the same parent,
+ * when its parent (a dynamic span) ends on this thread, or, for foreign parents,
+ * at the next call or dynamic span exit on this thread once the parent is no
+ * longer recording. Runs are also summarized once their first call is older than
+ * {@value #MAX_RUN_SECONDS} seconds, so a long loop yields several summaries.
+ * Each thread keeps runs for up to {@value #SLOTS} parents, so nested loops are
+ * tracked independently; no state is shared between threads, hence no locks.
+ *
+ * Runs hold their parent weakly and keep only its span context for the summary,
+ * and the thread's state is dropped once no run is open, so pooled threads do
+ * not retain ended spans or their contexts.
+ *
+ * Dynamic calls nested inside a folded call are not traced: their time is part
+ * of the summary.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+public final class RepeatedCalls {
+
+    private static final int SLOTS = 4;
+    private static final int MAX_RUN_SECONDS = 10;
+    private static final long MAX_RUN_NANOS = TimeUnit.SECONDS.toNanos(MAX_RUN_SECONDS);
+
+    private static final AttributeKey<Long> COUNT = AttributeKey.longKey("compressed.count");
+    private static final AttributeKey<Long> TOTAL_NS = AttributeKey.longKey("compressed.duration.total_ns");
+    private static final AttributeKey<Long> MIN_NS = AttributeKey.longKey("compressed.duration.min_ns");
+    private static final AttributeKey<Long> MAX_NS = AttributeKey.longKey("compressed.duration.max_ns");
+    private static final AttributeKey<Long> ERRORS = AttributeKey.longKey("compressed.errors");
+
+    private static final ThreadLocal<RepeatedCalls> threadState = new ThreadLocal<>();
+
+    private final Run[] runs = new Run[SLOTS];
+    private int nextEviction;
+    // Run of the folded call currently executing on this thread, if any
+    private Run active;
+    private long activeStartNanos;
+
+    private RepeatedCalls() {
+        for (int i = 0; i < SLOTS; i++) {
+            runs[i] = new Run();
+        }
+    }
+
+    /**
+     * True while a folded call executes on this thread.
+     */
+    public static boolean isCompressing() {
+        RepeatedCalls state = threadState.get();
+        return state != null && state.active != null;
+    }
+
+    /**
+     * True if this thread keeps repeated-call state.
+     */
+    static boolean hasThreadState() {
+        return threadState.get() != null;
+    }
+
+    /**
+     * Count a call in the run of its parent.
+     *
+     * @return true if the call is folded into the run's summary, in which case
+     *         {@link #exit(boolean)} must be called when it returns
+     */
+    public static boolean enter(Context parentContext, DynamicInstrumentationConfig.ResolvedMethod method) {
+        RepeatedCalls state = threadState.get();
+        if (state == null) {
+            state = new RepeatedCalls();
+            threadState.set(state);
+        }
+        long now = System.nanoTime();
+        Run run = state.runFor(parentContext, now);
+        if (run.method != method || now - run.startedNanos > MAX_RUN_NANOS) {
+            run.flush();
+            run.method = method;
+            run.startedNanos = now;
+        }
+        run.calls++;
+        int threshold = method.getCompressAfter();
+        if (threshold < 0 || run.calls <= threshold) {
+            return false;
+        }
+        state.active = run;
+        state.activeStartNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Record the folded call that is returning.
+     *
+     * @return its duration in nanoseconds
+     */
+    public static long exit(boolean failed) {
+        RepeatedCalls state = threadState.get();
+        Run run = state.active;
+        state.active = null;
+        long endNanos = System.nanoTime();
+        run.record(state.activeStartNanos, endNanos, failed);
+        return endNanos - state.activeStartNanos;
+    }
+
+    /**
+     * Emit the summaries of runs whose parent is the given span, which is ending,
+     * and of runs whose foreign parent has ended.
+     */
+    public static void flush(Span parent) {
+        RepeatedCalls state = threadState.get();
+        if (state == null) {
+            return;
+        }
+        boolean open = state.active != null;
+        for (Run run : state.runs) {
+            Span runParent = run.parent();
+            if (runParent == parent || run.isOrphaned(runParent)) {
+                run.flush();
+                run.clear();
+            } else if (run.parentSpanContext != null) {
+                open = true;
+            }
+        }
+        if (!open) {
+            threadState.remove();
+        }
+    }
+
+    private Run runFor(Context parentContext, long now) {
+        Span parent = Span.fromContext(parentContext);
+        Run free = null;
+        for (Run run : runs) {
+            Span runParent = run.parent();
+            if (runParent == parent && run.parentSpanContext != null) {
+                return run;
+            }
+            if (run.isOrphaned(runParent)) {
+                // Parent ended without a dynamic exit on this thread
+                run.flush();
+                run.clear();
+            }
+            if (free == null && run.parentSpanContext == null) {
+                free = run;
+            }
+        }
+        if (free == null) {
+            free = runs[nextEviction];
+            nextEviction = (nextEviction + 1) % SLOTS;
+            free.flush();
+            free.clear();
+        }
+        free.parentRef = new WeakReference<>(parent);
+        free.parentSpanContext = parent.getSpanContext();
+        free.startedNanos = now;
+        return free;
+    }
+
+    static final class Run {
+        WeakReference<Span> parentRef;
+        SpanContext parentSpanContext;
+        DynamicInstrumentationConfig.ResolvedMethod method;
+        int calls;
+        long startedNanos;
+
+        // Folded calls
+        long count;
+        long totalNanos;
+        long minNanos;
+        long maxNanos;
+        long errors;
+        long firstStartNanos;
+        long lastEndNanos;
+        long epochOffsetNanos;
+
+        void record(long startNanos, long endNanos, boolean failed) {
+            long duration = endNanos - startNanos;
+            if (count == 0) {
+                firstStartNanos = startNanos;
+                minNanos = duration;
+                maxNanos = duration;
+                epochOffsetNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+            } else {
+                minNanos = Math.min(minNanos, duration);
+                maxNanos = Math.max(maxNanos, duration);
+            }
+            count++;
+            totalNanos += duration;
+            lastEndNanos = endNanos;
+            if (failed) {
+                errors++;
+            }
+        }
+
+        /**
+         * Emit the summary span of the folded calls, if any, and start a new run.
+         */
+        void flush() {
+            if (count > 0) {
+                Span summary = method.startSpan(GlobalOpenTelemetry.getTracer("dynamic-instrumentation", "1.0.0")
+                        .spanBuilder(method.getSpanName())
+                        .setParent(Context.root().with(Span.wrap(parentSpanContext)))
+                        .setSpanKind(SpanKind.INTERNAL)
+                        .setStartTimestamp(epochOffsetNanos + firstStartNanos, TimeUnit.NANOSECONDS)
+                        .setAllAttributes(method.getSpanAttributes())
+                        .setAttribute(COUNT, count)
+                        .setAttribute(TOTAL_NS, totalNanos)
+                        .setAttribute(MIN_NS, minNanos)
+                        .setAttribute(MAX_NS, maxNanos)
+                        .setAttribute(ERRORS, errors));
+                summary.end(epochOffsetNanos + lastEndNanos, TimeUnit.NANOSECONDS);
+            }
+            method = null;
+            calls = 0;
+            count = 0;
+            totalNanos = 0;
+            errors = 0;
+        }
+
+        Span parent() {
+            return parentRef != null ? parentRef.get() : null;
+        }
+
+        /**
+         * True if the run's parent span was collected or has ended.
+         */
+        boolean isOrphaned(Span parent) {
+            if (parentSpanContext == null) {
+                return false;
+            }
+            return parent == null || (!parent.isRecording() && parentSpanContext.isValid());
+        }
+
+        void clear() {
+            parentRef = null;
+            parentSpanContext = null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextKey;
+
+/**
+ * Per-trace route marker for route-scoped rules.
+ *
+ * The root span name and {@code http.route} are read once from the span that is
+ * current when the trace first reaches dynamic instrumentation (normally the HTTP
+ * server span) and stored in the context. Nested advice calls then check their
+ * allowed routes with a single context lookup.
+ *
+ * Span name and attributes are read through {@link ReadableSpans}; spans that do
+ * not expose them (non-recording or propagated spans) yield an empty marker, which
+ * matches no route.
+ *
+ * Markers identify their root span by its span context only, so neither the
+ * context nor the thread's memoized marker keeps an ended span alive.
+ *
+ * Injected as a helper class; the key is therefore per application classloader.
+ */
+public final class RouteContext {
+
+    private static final ContextKey<RouteContext> KEY = ContextKey.named("otel-dynamic-route");
+    private static final AttributeKey<String> HTTP_ROUTE = AttributeKey.stringKey("http.route");
+    private static final RouteContext EMPTY = new RouteContext(null, null, null);
+
+    // Last marker computed on this thread, reused while the same root span is current
+    private static final ThreadLocal<RouteContext> lastComputed = new ThreadLocal<>();
+
+    private final SpanContext source;
+    private final String spanName;
+    private final String route;
+
+    private RouteContext(SpanContext source, String spanName, String route) {
+        this.source = source;
+        this.spanName = spanName;
+        this.route = route;
+    }
+
+    /**
+     * Get the marker of the trace, computing it from the current span if the
+     * context does not carry one yet.
+     */
+    public static RouteContext get(Context context) {
+        RouteContext marker = context.get(KEY);
+        if (marker != null) {
+            return marker;
+        }
+        Span span = Span.fromContext(context);
+        SpanContext spanContext = span.getSpanContext();
+        if (!spanContext.isValid()) {
+            return EMPTY;
+        }
+        RouteContext last = lastComputed.get();
+        if (last != null && (last.source == spanContext || last.source.equals(spanContext))) {
+            return last;
+        }
+        marker = compute(span);
+        // Only memoize once the route is known; it may be set after the server span starts
+        lastComputed.set(marker.route != null ? marker : null);
+        return marker;
+    }
+
+    /**
+     * Carry the marker into a child context, unless it is already there.
+     */
+    public static Context store(Context context, RouteContext marker) {
+        if (marker == EMPTY || context.get(KEY) == marker) {
+            return context;
+        }
+        return context.with(KEY, marker);
+    }
+
+    /**
+     * Check the root span name and http.route against the allowed routes.
+     */
+    public boolean matches(String[] allowedRoutes) {
+        for (String allowed : allowedRoutes) {
+            if (allowed.equals(route) || allowed.equals(spanName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getSpanName() {
+        return spanName;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    private static RouteContext compute(Span span) {
+        String name = ReadableSpans.getName(span);
+        if (name == null) {
+            return EMPTY;
+        }
+        return new RouteContext(span.getSpanContext(), name, ReadableSpans.getAttribute(span, HTTP_ROUTE));
+    }
+}
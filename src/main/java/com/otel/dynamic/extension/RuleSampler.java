@@ -0,0 +1,105 @@
+package com.otel.dynamic.extension;
+
+import com.google.auto.service.AutoService;
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import com.otel.dynamic.agent.SamplingRules;
+import com.otel.dynamic.util.Logger;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.autoconfigure.spi.AutoConfigurationCustomizer;
+import io.opentelemetry.sdk.autoconfigure.spi.AutoConfigurationCustomizerProvider;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+
+import java.util.List;
+
+/**
+ * Sampler applying the per-rule {@code sampleRate} and {@code maxSpansPerSecond}
+ * settings on top of the sampler configured for the agent.
+ *
+ * The rule is found through the rule key DynamicAdvice hands over on the thread
+ * starting the span ({@link DynamicInstrumentationConfig#getStartingRule()}, so
+ * the key is never exported), or else through the
+ * {@code code.namespace}/{@code code.function} attributes for method rules, so a
+ * decision costs at most two hash lookups in the current {@link SamplingRules}
+ * and never builds a string. Spans of a
+ * rule are dropped when their parent is not sampled, when the trace ID falls
+ * outside the rule's probability, or when the rule's rate is exhausted; all
+ * other spans, and every span when no rule samples, are decided by the agent's
+ * sampler (parent-based by default). Dropped spans are non-recording, so the
+ * advice skips their attribute extraction; a span dropped under a sampled
+ * parent is not made current, so its children and outgoing calls stay in the
+ * trace.
+ *
+ * Registered through the SDK autoconfiguration SPI unless
+ * {@code otel.dynamic.sampler.enabled} is false.
+ */
+public final class RuleSampler implements Sampler {
+
+    private static final AttributeKey<String> CODE_NAMESPACE = AttributeKey.stringKey("code.namespace");
+    private static final AttributeKey<String> CODE_FUNCTION = AttributeKey.stringKey("code.function");
+
+    private final Sampler delegate;
+
+    public RuleSampler(Sampler delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public SamplingResult shouldSample(Context parentContext, String traceId, String name, SpanKind spanKind,
+                                       Attributes attributes, List<LinkData> parentLinks) {
+        SamplingRules rules = SamplingRules.current();
+        if (!rules.isEmpty()) {
+            SamplingRules.Policy policy = policyFor(rules, attributes);
+            if (policy != null) {
+                SpanContext parent = Span.fromContext(parentContext).getSpanContext();
+                if ((parent.isValid() && !parent.isSampled()) || !policy.sample(traceId)) {
+                    return SamplingResult.drop();
+                }
+            }
+        }
+        return delegate.shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
+    }
+
+    private static SamplingRules.Policy policyFor(SamplingRules rules, Attributes attributes) {
+        String ruleKey = DynamicInstrumentationConfig.getStartingRule();
+        if (ruleKey != null) {
+            return rules.byRule(ruleKey);
+        }
+        String namespace = attributes.get(CODE_NAMESPACE);
+        return namespace != null ? rules.byMethod(namespace, attributes.get(CODE_FUNCTION)) : null;
+    }
+
+    @Override
+    public String getDescription() {
+        return "DynamicRuleSampler{" + delegate.getDescription() + "}";
+    }
+
+    @Override
+    public String toString() {
+        return getDescription();
+    }
+
+    /**
+     * Wraps the agent's configured sampler.
+     */
+    @AutoService(AutoConfigurationCustomizerProvider.class)
+    public static final class Customizer implements AutoConfigurationCustomizerProvider {
+
+        @Override
+        public void customize(AutoConfigurationCustomizer autoConfiguration) {
+            autoConfiguration.addSamplerCustomizer((sampler, config) -> {
+                if (!config.getBoolean("otel.dynamic.sampler.enabled", true)) {
+                    return sampler;
+                }
+                Logger.info("Dynamic rules sample through " + sampler.getDescription());
+                return new RuleSampler(sampler);
+            });
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextKey;
+
+/**
+ * Runtime detection of spans that another instrumentation just created for the
+ * same code location, e.g. a {@code @WithSpan} or controller span wrapping the
+ * very method a dynamic rule also matches. The advice then suppresses the call
+ * or enriches that span instead, according to the rule's {@code overlap}
+ * policy.
+ *
+ * Spans started by DynamicAdvice are tagged in the context, so nested dynamic
+ * calls are recognised with one context lookup. For a foreign current span the
+ * code attributes ({@code code.function.name}, or the older
+ * {@code code.namespace}/{@code code.function} pair) are read once per span and
+ * thread through {@link ReadableSpans} and compared without allocating. The
+ * thread's cache identifies the span by its span context, so it does not keep
+ * the span alive once it has ended.
+ *
+ * Injected as a helper class; the key is therefore per application classloader.
+ */
+public final class SpanOverlap {
+
+    private static final ContextKey<Span> OWN_SPAN_KEY = ContextKey.named("otel-dynamic-own-span");
+    private static final AttributeKey<String> CODE_FUNCTION_NAME = AttributeKey.stringKey("code.function.name");
+    private static final AttributeKey<String> CODE_NAMESPACE = AttributeKey.stringKey("code.namespace");
+    private static final AttributeKey<String> CODE_FUNCTION = AttributeKey.stringKey("code.function");
+
+    // Code location of the last foreign span inspected on this thread
+    private static final ThreadLocal<SpanOverlap> lastInspected = new ThreadLocal<>();
+
+    private final SpanContext spanContext;
+    private final String functionName;
+    private final String namespace;
+    private final String function;
+
+    private SpanOverlap(SpanContext spanContext, String functionName, String namespace, String function) {
+        this.spanContext = spanContext;
+        this.functionName = functionName;
+        this.namespace = namespace;
+        this.function = function;
+    }
+
+    /**
+     * Tag a context whose span was started by the dynamic advice.
+     */
+    public static Context markOwn(Context context, Span span) {
+        return context.with(OWN_SPAN_KEY, span);
+    }
+
+    /**
+     * Check whether the current span of the context was started by another
+     * instrumentation for the given class (or interface) and method.
+     *
+     * @param context         parent context of the intercepted call
+     * @param className       runtime class name
+     * @param interfaceName   interface the method is instrumented through, or null
+     * @param methodName      method name
+     */
+    public static boolean isDuplicate(Context context, String className, String interfaceName, String methodName) {
+        Span current = Span.fromContext(context);
+        SpanContext currentContext = current.getSpanContext();
+        if (!currentContext.isValid() || context.get(OWN_SPAN_KEY) == current) {
+            return false;
+        }
+        SpanOverlap location = lastInspected.get();
+        if (location == null
+                || (location.spanContext != currentContext && !location.spanContext.equals(currentContext))) {
+            location = new SpanOverlap(currentContext,
+                    ReadableSpans.getAttribute(current, CODE_FUNCTION_NAME),
+                    ReadableSpans.getAttribute(current, CODE_NAMESPACE),
+                    ReadableSpans.getAttribute(current, CODE_FUNCTION));
+            lastInspected.set(location);
+        }
+        return location.locatedAt(className, methodName)
+                || (interfaceName != null && location.locatedAt(interfaceName, methodName));
+    }
+
+    private boolean locatedAt(String className, String methodName) {
+        if (functionName != null) {
+            int classLength = className.length();
+            return functionName.length() == classLength + 1 + methodName.length()
+                    && functionName.startsWith(className)
+                    && functionName.charAt(classLength) == '.'
+                    && functionName.endsWith(methodName);
+        }
+        return methodName.equals(function) && className.equals(namespace);
+    }
+}
@@ -0,0 +1,345 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import com.otel.dynamic.agent.SamplingRules;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.data.SpanData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process tail sampling of dynamic spans, used by {@link DynamicSpanProcessor}.
+ *
+ * Ended dynamic spans are buffered per trace until the trace's local root span
+ * (a span without a parent or with a remote parent) ends in this JVM. The trace's
+ * dynamic spans are then kept if any of them or the root failed, if the root took
+ * at least the latency threshold, or if the trace ID falls into the baseline
+ * ratio (the same rule as the SDK's TraceIdRatioBased sampler, so the baseline
+ * agrees across services); otherwise they are dropped.
+ *
+ * Buckets live in {@value #STRIPES} lock-striped maps keyed by trace ID, so
+ * concurrent requests rarely contend. Every buffered span is charged an
+ * estimated size against a hard memory cap; when the cap is exceeded, the oldest
+ * buckets are evicted and decided on what they hold so far (kept only on error
+ * or latency). Buckets whose root never ends here, e.g. spans finishing on a
+ * background thread after the response, are decided the same way once they are
+ * older than the decision wait.
+ *
+ * Decisions are remembered per trace for the decision wait (at most
+ * {@value #MAX_DECISIONS} per stripe), so dynamic spans ending after their
+ * trace was decided, e.g. deferred async work, follow the trace's decision
+ * instead of opening a new bucket that splits the trace. Since every local
+ * root in the JVM ends here, a root is only decided when its trace has
+ * buffered spans or dynamic spans still open (counted from their start, at
+ * most {@value #MAX_OPEN_TRACES} traces per stripe); other roots return after
+ * one lookup, without reading their status or recording a decision.
+ *
+ * Methods return the spans to export; the caller queues them.
+ */
+public final class TailSampler {
+
+    private static final int STRIPES = 16;
+    private static final int MAX_DECISIONS = 1024;
+    private static final int MAX_OPEN_TRACES = 4096;
+
+    // Rough per-span footprint of an SDK SpanData and its collections
+    private static final int SPAN_BASE_BYTES = 320;
+    private static final int ATTRIBUTE_BYTES = 96;
+    private static final int EVENT_BYTES = 160;
+    private static final int LINK_BYTES = 120;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final long maxBufferedBytes;
+    private final long latencyThresholdNanos;
+    private final long decisionWaitNanos;
+    private final long baselineBound;
+    private final AtomicLong kept = DynamicCounters.counter(DynamicCounters.TAIL_KEPT);
+    private final AtomicLong dropped = DynamicCounters.counter(DynamicCounters.TAIL_DROPPED);
+    private final AtomicLong evicted = DynamicCounters.counter(DynamicCounters.TAIL_EVICTED);
+
+    /**
+     * @param latencyThresholdNanos traces whose root takes at least this long are kept
+     * @param baselineRatio         fraction of remaining traces kept, 0.0 to 1.0
+     * @param maxBufferedBytes      hard cap on the estimated size of buffered spans
+     * @param decisionWaitNanos     age after which a bucket without a local root is decided
+     */
+    public TailSampler(long latencyThresholdNanos, double baselineRatio, long maxBufferedBytes,
+                       long decisionWaitNanos) {
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.decisionWaitNanos = decisionWaitNanos;
+        this.baselineBound = SamplingRules.ratioBound(baselineRatio);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /** Estimated size of the spans currently buffered */
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * Count a started dynamic span as open, so its trace is decided when the
+     * local root ends before it.
+     */
+    public void onStart(ReadableSpan span) {
+        String traceId = span.getSpanContext().getTraceId();
+        Stripe stripe = stripes[stripeIndex(traceId)];
+        synchronized (stripe) {
+            int[] open = stripe.open.get(traceId);
+            if (open == null) {
+                stripe.open.put(traceId, new int[] {1});
+                // Insertion order is start order; spans that never end age out first
+                if (stripe.open.size() > MAX_OPEN_TRACES) {
+                    Iterator<int[]> it = stripe.open.values().iterator();
+                    it.next();
+                    it.remove();
+                }
+            } else {
+                open[0]++;
+            }
+        }
+    }
+
+    /**
+     * Buffer an ended dynamic span, or apply its trace's decision if the trace
+     * was already decided.
+     *
+     * @return the span if its trace was decided and kept, else spans of buckets
+     *         evicted to stay under the memory cap that are kept
+     */
+    public List<SpanData> add(SpanData span) {
+        String traceId = span.getSpanContext().getTraceId();
+        long size = estimateSize(span);
+        int index = stripeIndex(traceId);
+        Stripe stripe = stripes[index];
+        synchronized (stripe) {
+            int[] open = stripe.open.get(traceId);
+            if (open != null && --open[0] == 0) {
+                stripe.open.remove(traceId);
+            }
+            Decision decision = stripe.decisions.get(traceId);
+            if (decision != null) {
+                if (System.nanoTime() - decision.decidedNanos < decisionWaitNanos) {
+                    if (decision.keep) {
+                        kept.incrementAndGet();
+                        return Collections.singletonList(span);
+                    }
+                    dropped.incrementAndGet();
+                    return Collections.emptyList();
+                }
+                stripe.decisions.remove(traceId);
+            }
+            Bucket bucket = stripe.buckets.get(traceId);
+            if (bucket == null) {
+                bucket = new Bucket(System.nanoTime());
+                stripe.buckets.put(traceId, bucket);
+            }
+            bucket.add(span, size, latencyThresholdNanos);
+        }
+        if (bufferedBytes.addAndGet(size) <= maxBufferedBytes) {
+            return Collections.emptyList();
+        }
+        return evict(index);
+    }
+
+    /**
+     * Decide the trace of a local root span that has ended.
+     *
+     * @return the trace's buffered spans if it is kept, otherwise an empty list
+     */
+    public List<SpanData> onRootEnd(ReadableSpan root) {
+        String traceId = root.getSpanContext().getTraceId();
+        Stripe stripe = stripes[stripeIndex(traceId)];
+        Bucket bucket;
+        synchronized (stripe) {
+            bucket = stripe.buckets.remove(traceId);
+            if (bucket == null && (!stripe.open.containsKey(traceId) || stripe.decisions.containsKey(traceId))) {
+                // No dynamic span in this trace, or it was already decided
+                return Collections.emptyList();
+            }
+        }
+        if (bucket != null) {
+            bufferedBytes.addAndGet(-bucket.bytes);
+        }
+        boolean keep = (bucket != null && bucket.interesting)
+                || root.getLatencyNanos() >= latencyThresholdNanos
+                || SamplingRules.isWithinRatio(traceId, baselineBound)
+                || root.toSpanData().getStatus().getStatusCode() == StatusCode.ERROR;
+        remember(stripe, traceId, keep);
+        return bucket != null ? decide(bucket, keep) : Collections.<SpanData>emptyList();
+    }
+
+    /**
+     * Decide buckets whose local root has not ended within the decision wait.
+     *
+     * @return spans of the expired buckets that are kept
+     */
+    public List<SpanData> expire(long nowNanos) {
+        return expire(nowNanos, false);
+    }
+
+    /**
+     * Decide every buffered bucket, e.g. on flush or shutdown.
+     */
+    public List<SpanData> drain() {
+        return expire(System.nanoTime(), true);
+    }
+
+    private List<SpanData> expire(long nowNanos, boolean all) {
+        List<SpanData> result = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            List<Map.Entry<String, Bucket>> expired = null;
+            synchronized (stripe) {
+                // Insertion order is creation order, so the oldest buckets come first
+                Iterator<Map.Entry<String, Bucket>> it = stripe.buckets.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Bucket> entry = it.next();
+                    if (!all && nowNanos - entry.getValue().createdNanos < decisionWaitNanos) {
+                        break;
+                    }
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(entry);
+                    it.remove();
+                }
+            }
+            if (expired != null) {
+                for (Map.Entry<String, Bucket> entry : expired) {
+                    Bucket bucket = entry.getValue();
+                    bufferedBytes.addAndGet(-bucket.bytes);
+                    boolean keep = bucket.interesting || SamplingRules.isWithinRatio(entry.getKey(), baselineBound);
+                    remember(stripe, entry.getKey(), keep);
+                    result.addAll(decide(bucket, keep));
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<SpanData> evict(int startIndex) {
+        List<SpanData> result = new ArrayList<>();
+        for (int i = 0; i < STRIPES && bufferedBytes.get() > maxBufferedBytes; i++) {
+            Stripe stripe = stripes[(startIndex + i) % STRIPES];
+            while (bufferedBytes.get() > maxBufferedBytes) {
+                Bucket bucket;
+                synchronized (stripe) {
+                    Iterator<Map.Entry<String, Bucket>> it = stripe.buckets.entrySet().iterator();
+                    if (!it.hasNext()) {
+                        break;
+                    }
+                    Map.Entry<String, Bucket> entry = it.next();
+                    bucket = entry.getValue();
+                    it.remove();
+                    remember(stripe, entry.getKey(), bucket.interesting);
+                }
+                bufferedBytes.addAndGet(-bucket.bytes);
+                if (bucket.interesting) {
+                    result.addAll(decide(bucket, true));
+                } else {
+                    evicted.addAndGet(bucket.spans.size());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Record a trace's decision for its late spans, forgetting decisions older
+     * than the decision wait and the oldest ones beyond the per-stripe bound.
+     */
+    private void remember(Stripe stripe, String traceId, boolean keep) {
+        long now = System.nanoTime();
+        synchronized (stripe) {
+            stripe.decisions.remove(traceId);
+            stripe.decisions.put(traceId, new Decision(keep, now));
+            // Insertion order is decision order, so the oldest decisions come first
+            Iterator<Decision> it = stripe.decisions.values().iterator();
+            while (it.hasNext()) {
+                Decision oldest = it.next();
+                if (stripe.decisions.size() <= MAX_DECISIONS && now - oldest.decidedNanos < decisionWaitNanos) {
+                    break;
+                }
+                it.remove();
+            }
+        }
+    }
+
+    private List<SpanData> decide(Bucket bucket, boolean keep) {
+        if (keep) {
+            kept.addAndGet(bucket.spans.size());
+            return bucket.spans;
+        }
+        dropped.addAndGet(bucket.spans.size());
+        return Collections.emptyList();
+    }
+
+    private static int stripeIndex(String traceId) {
+        int h = traceId.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    static long estimateSize(SpanData span) {
+        return SPAN_BASE_BYTES + 2L * span.getName().length()
+                + (long) ATTRIBUTE_BYTES * span.getTotalAttributeCount()
+                + (long) EVENT_BYTES * span.getTotalRecordedEvents()
+                + (long) LINK_BYTES * span.getTotalRecordedLinks();
+    }
+
+    /**
+     * Check whether a span is the root of its trace in this JVM.
+     */
+    static boolean isLocalRoot(ReadableSpan span) {
+        SpanContext parent = span.getParentSpanContext();
+        return !parent.isValid() || parent.isRemote();
+    }
+
+    private static final class Stripe {
+        final LinkedHashMap<String, Bucket> buckets = new LinkedHashMap<>();
+        final LinkedHashMap<String, Decision> decisions = new LinkedHashMap<>();
+        // Started but not yet ended dynamic spans per trace
+        final LinkedHashMap<String, int[]> open = new LinkedHashMap<>();
+    }
+
+    private static final class Decision {
+        final boolean keep;
+        final long decidedNanos;
+
+        Decision(boolean keep, long decidedNanos) {
+            this.keep = keep;
+            this.decidedNanos = decidedNanos;
+        }
+    }
+
+    private static final class Bucket {
+        final long createdNanos;
+        final List<SpanData> spans = new ArrayList<>(8);
+        long bytes;
+        // A buffered span failed or took at least the latency threshold
+        boolean interesting;
+
+        Bucket(long createdNanos) {
+            this.createdNanos = createdNanos;
+        }
+
+        void add(SpanData span, long size, long latencyThresholdNanos) {
+            spans.add(span);
+            bytes += size;
+            if (!interesting) {
+                interesting = span.getStatus().getStatusCode() == StatusCode.ERROR
+                        || span.getEndEpochNanos() - span.getStartEpochNanos() >= latencyThresholdNanos;
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blocked and waited time of the current thread, for rules with
+ * {@code contentionMetrics}.
+ *
+ * The advice takes a {@link ThreadInfo} (without stack trace) when the method
+ * starts and compares it with a second one when it returns. The differences
+ * become {@code thread.blocked_count}, {@code thread.blocked_ms},
+ * {@code thread.waited_count} and {@code thread.waited_ms} span attributes and
+ * are added to per-method DynamicCounters, which JMX reports as
+ * {@code MethodContention}. Times need thread contention monitoring, which
+ * RuleRegistrar enables when such a rule is loaded; where the JVM does not
+ * support it only the counts are recorded. Threads without ThreadInfo, such as
+ * virtual threads, record nothing.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+public final class ThreadContention {
+
+    private static final AttributeKey<Long> BLOCKED_COUNT = AttributeKey.longKey("thread.blocked_count");
+    private static final AttributeKey<Long> BLOCKED_MS = AttributeKey.longKey("thread.blocked_ms");
+    private static final AttributeKey<Long> WAITED_COUNT = AttributeKey.longKey("thread.waited_count");
+    private static final AttributeKey<Long> WAITED_MS = AttributeKey.longKey("thread.waited_ms");
+
+    private static final int CALLS = 0;
+    private static final int BLOCKED_COUNT_TOTAL = 1;
+    private static final int BLOCKED_MS_TOTAL = 2;
+    private static final int WAITED_COUNT_TOTAL = 3;
+    private static final int WAITED_MS_TOTAL = 4;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    // Counters of each method, by contention key
+    private static final ConcurrentHashMap<String, AtomicLong[]> COUNTERS = new ConcurrentHashMap<>();
+
+    private ThreadContention() {
+    }
+
+    /**
+     * Contention counts and times of the current thread so far, or null if the
+     * JVM has none for it.
+     */
+    public static ThreadInfo sample() {
+        try {
+            return THREADS.getThreadInfo(Thread.currentThread().getId());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Report the contention since the start sample on the span and in the
+     * method's counters.
+     */
+    public static void record(Span span, DynamicInstrumentationConfig.ResolvedMethod method, ThreadInfo start) {
+        if (start == null) {
+            return;
+        }
+        ThreadInfo end = sample();
+        if (end == null) {
+            return;
+        }
+        long blockedCount = end.getBlockedCount() - start.getBlockedCount();
+        long waitedCount = end.getWaitedCount() - start.getWaitedCount();
+        // -1 while contention monitoring is off
+        long blockedMs = start.getBlockedTime() >= 0 && end.getBlockedTime() >= 0
+                ? end.getBlockedTime() - start.getBlockedTime() : -1L;
+        long waitedMs = start.getWaitedTime() >= 0 && end.getWaitedTime() >= 0
+                ? end.getWaitedTime() - start.getWaitedTime() : -1L;
+
+        span.setAttribute(BLOCKED_COUNT, blockedCount);
+        span.setAttribute(WAITED_COUNT, waitedCount);
+        if (blockedMs >= 0) {
+            span.setAttribute(BLOCKED_MS, blockedMs);
+        }
+        if (waitedMs >= 0) {
+            span.setAttribute(WAITED_MS, waitedMs);
+        }
+
+        AtomicLong[] counters = countersOf(method.getContentionKey());
+        counters[CALLS].incrementAndGet();
+        counters[BLOCKED_COUNT_TOTAL].addAndGet(blockedCount);
+        counters[WAITED_COUNT_TOTAL].addAndGet(waitedCount);
+        if (blockedMs > 0) {
+            counters[BLOCKED_MS_TOTAL].addAndGet(blockedMs);
+        }
+        if (waitedMs > 0) {
+            counters[WAITED_MS_TOTAL].addAndGet(waitedMs);
+        }
+    }
+
+    private static AtomicLong[] countersOf(String key) {
+        AtomicLong[] counters = COUNTERS.get(key);
+        if (counters == null) {
+            String prefix = DynamicCounters.CONTENTION_PREFIX + key + ".";
+            counters = new AtomicLong[]{
+                    DynamicCounters.counter(prefix + DynamicCounters.CONTENTION_CALLS),
+                    DynamicCounters.counter(prefix + DynamicCounters.CONTENTION_BLOCKED_COUNT),
+                    DynamicCounters.counter(prefix + DynamicCounters.CONTENTION_BLOCKED_MS),
+                    DynamicCounters.counter(prefix + DynamicCounters.CONTENTION_WAITED_COUNT),
+                    DynamicCounters.counter(prefix + DynamicCounters.CONTENTION_WAITED_MS)};
+            AtomicLong[] raced = COUNTERS.putIfAbsent(key, counters);
+            if (raced != null) {
+                counters = raced;
+            }
+        }
+        return counters;
+    }
+}
@@ -0,0 +1,178 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.trace.Span;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * CPU time and allocated bytes of the current thread, for rules with
+ * {@code resourceMetrics}.
+ *
+ * The advice samples both counters when the method starts and again when it
+ * returns; the deltas become the {@code thread.cpu_time_ms} and
+ * {@code thread.allocated_bytes} span attributes and are recorded in the
+ * {@value #CPU_HISTOGRAM} and {@value #ALLOCATED_HISTOGRAM} histograms, by
+ * {@code code.namespace} and {@code code.function}.
+ *
+ * Allocated bytes come from {@code com.sun.management.ThreadMXBean}, found
+ * reflectively ({@code getCurrentThreadAllocatedBytes} from JDK 14, else
+ * {@code getThreadAllocatedBytes(id)}). A counter that the JVM does not
+ * support, or that is disabled, is never sampled. A counter that reads -1, as
+ * both do on virtual threads, is left out for that call.
+ *
+ * Injected as a helper class into application classloaders.
+ */
+public final class ThreadResources {
+
+    static final String CPU_HISTOGRAM = "dynamic.method.cpu_time";
+    static final String ALLOCATED_HISTOGRAM = "dynamic.method.allocated";
+
+    private static final AttributeKey<Double> CPU_TIME_MS = AttributeKey.doubleKey("thread.cpu_time_ms");
+    private static final AttributeKey<Long> ALLOCATED_BYTES = AttributeKey.longKey("thread.allocated_bytes");
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    // ()long for the current thread (JDK 14+), or null
+    private static final MethodHandle CURRENT_ALLOCATED;
+    // (long threadId)long, or null
+    private static final MethodHandle THREAD_ALLOCATED;
+
+    private static volatile boolean cpuAvailable = cpuSupported();
+    private static volatile boolean allocatedAvailable;
+    private static volatile DoubleHistogram cpuHistogram;
+    private static volatile LongHistogram allocatedHistogram;
+
+    static {
+        MethodHandle current = null;
+        MethodHandle byId = null;
+        try {
+            Class<?> extended = Class.forName("com.sun.management.ThreadMXBean");
+            if (extended.isInstance(THREADS)
+                    && (boolean) extended.getMethod("isThreadAllocatedMemorySupported").invoke(THREADS)
+                    && (boolean) extended.getMethod("isThreadAllocatedMemoryEnabled").invoke(THREADS)) {
+                try {
+                    current = MethodHandles.publicLookup()
+                            .unreflect(extended.getMethod("getCurrentThreadAllocatedBytes"))
+                            .bindTo(THREADS)
+                            .asType(MethodType.methodType(long.class));
+                } catch (NoSuchMethodException e) {
+                    byId = MethodHandles.publicLookup()
+                            .unreflect(extended.getMethod("getThreadAllocatedBytes", long.class))
+                            .bindTo(THREADS)
+                            .asType(MethodType.methodType(long.class, long.class));
+                }
+            }
+        } catch (Throwable e) {
+            // Not a HotSpot-compatible JVM: allocated bytes are not reported
+        }
+        CURRENT_ALLOCATED = current;
+        THREAD_ALLOCATED = byId;
+        allocatedAvailable = current != null || byId != null;
+    }
+
+    private ThreadResources() {
+    }
+
+    /**
+     * CPU time of the current thread in nanoseconds, or -1 if unavailable.
+     */
+    public static long cpuNanos() {
+        if (!cpuAvailable) {
+            return -1L;
+        }
+        try {
+            return THREADS.getCurrentThreadCpuTime();
+        } catch (UnsupportedOperationException e) {
+            cpuAvailable = false;
+            return -1L;
+        }
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, or -1 if unavailable.
+     */
+    public static long allocatedBytes() {
+        if (!allocatedAvailable) {
+            return -1L;
+        }
+        try {
+            MethodHandle current = CURRENT_ALLOCATED;
+            return current != null
+                    ? (long) current.invokeExact()
+                    : (long) THREAD_ALLOCATED.invokeExact(Thread.currentThread().getId());
+        } catch (Throwable e) {
+            allocatedAvailable = false;
+            return -1L;
+        }
+    }
+
+    /**
+     * Report the CPU time and allocations since the start samples on the span
+     * and in the histograms.
+     */
+    public static void record(Span span, DynamicInstrumentationConfig.ResolvedMethod method,
+                              long cpuStartNanos, long allocatedStart) {
+        if (cpuStartNanos >= 0) {
+            long cpuEnd = cpuNanos();
+            if (cpuEnd >= cpuStartNanos) {
+                double cpuMs = (cpuEnd - cpuStartNanos) / 1_000_000.0;
+                span.setAttribute(CPU_TIME_MS, cpuMs);
+                cpuHistogram().record(cpuMs, method.getSpanAttributes());
+            }
+        }
+        if (allocatedStart >= 0) {
+            long allocatedEnd = allocatedBytes();
+            if (allocatedEnd >= allocatedStart) {
+                long allocated = allocatedEnd - allocatedStart;
+                span.setAttribute(ALLOCATED_BYTES, allocated);
+                allocatedHistogram().record(allocated, method.getSpanAttributes());
+            }
+        }
+    }
+
+    private static boolean cpuSupported() {
+        try {
+            return THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    private static DoubleHistogram cpuHistogram() {
+        DoubleHistogram local = cpuHistogram;
+        if (local == null) {
+            local = meter().histogramBuilder(CPU_HISTOGRAM)
+                    .setDescription("CPU time of the calling thread during instrumented calls")
+                    .setUnit("ms")
+                    .build();
+            cpuHistogram = local;
+        }
+        return local;
+    }
+
+    private static LongHistogram allocatedHistogram() {
+        LongHistogram local = allocatedHistogram;
+        if (local == null) {
+            local = meter().histogramBuilder(ALLOCATED_HISTOGRAM)
+                    .setDescription("Heap allocated by the calling thread during instrumented calls")
+                    .setUnit("By")
+                    .ofLongs()
+                    .build();
+            allocatedHistogram = local;
+        }
+        return local;
+    }
+
+    private static Meter meter() {
+        return GlobalOpenTelemetry.getMeter("dynamic-instrumentation");
+    }
+}
@@ -0,0 +1,126 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextKey;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-trace span budget and nesting depth for {@code maxSpansPerTrace} and
+ * {@code maxDepth} limits.
+ *
+ * The first dynamic span of a trace creates the shared counter; every dynamic
+ * span stores a {@link Frame} (counter plus its own depth) in its context, so a
+ * nested call checks both limits with one context lookup and one read. Once a
+ * limit is reached, refused calls only increment the dropped count.
+ *
+ * The dropped count is written to the trace's local root span, i.e. the span
+ * that was current at the first dynamic span (normally the server span) or that
+ * first dynamic span itself, as {@code otel.dynamic.spans.dropped}: when a
+ * top-level dynamic span ends, and when a top-level call is refused.
+ *
+ * Top-level dynamic calls under the same foreign parent share the counter through
+ * a per-thread memo of the last parent seen.
+ *
+ * Injected as a helper class; the key is therefore per application classloader.
+ */
+public final class TraceBudget {
+
+    private static final ContextKey<Frame> KEY = ContextKey.named("otel-dynamic-trace-budget");
+    private static final AttributeKey<Long> DROPPED_SPANS = AttributeKey.longKey("otel.dynamic.spans.dropped");
+
+    // Counter of the last trace that reached dynamic instrumentation on this thread
+    private static final ThreadLocal<TraceBudget> lastCreated = new ThreadLocal<>();
+
+    private final Span parent;
+    private final AtomicInteger spans = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private volatile Span root;
+    private int reported;
+
+    private TraceBudget(Span parent) {
+        this.parent = parent;
+        this.root = parent.getSpanContext().isValid() ? parent : null;
+    }
+
+    /**
+     * Count a span about to be created under the context, unless a limit is reached.
+     *
+     * @return the frame to store in the new span's context, or null if the span must not be created
+     */
+    public static Frame enter(Context parentContext, int maxSpansPerTrace, int maxDepth) {
+        Frame parentFrame = parentContext.get(KEY);
+        TraceBudget budget;
+        int depth;
+        if (parentFrame != null) {
+            budget = parentFrame.budget;
+            depth = parentFrame.depth + 1;
+        } else {
+            budget = topLevel(Span.fromContext(parentContext));
+            depth = 1;
+        }
+        if ((maxDepth > 0 && depth > maxDepth)
+                || (maxSpansPerTrace > 0 && budget.spans.get() >= maxSpansPerTrace)) {
+            budget.dropped.incrementAndGet();
+            if (depth == 1) {
+                budget.report();
+            }
+            return null;
+        }
+        budget.spans.incrementAndGet();
+        return new Frame(budget, depth);
+    }
+
+    /**
+     * Carry the frame of a newly started span into its context.
+     */
+    public static Context store(Context context, Frame frame, Span span) {
+        if (frame.budget.root == null) {
+            frame.budget.root = span;
+        }
+        return context.with(KEY, frame);
+    }
+
+    /**
+     * Called when a dynamic span with the given frame ends.
+     */
+    public static void exit(Frame frame) {
+        if (frame.depth == 1) {
+            frame.budget.report();
+        }
+    }
+
+    private static TraceBudget topLevel(Span parent) {
+        TraceBudget last = lastCreated.get();
+        if (last != null && last.parent == parent && parent.getSpanContext().isValid()) {
+            return last;
+        }
+        TraceBudget budget = new TraceBudget(parent);
+        lastCreated.set(budget);
+        return budget;
+    }
+
+    private void report() {
+        int count = dropped.get();
+        Span target = root;
+        if (count != reported && target != null) {
+            reported = count;
+            target.setAttribute(DROPPED_SPANS, (long) count);
+        }
+    }
+
+    /**
+     * A dynamic span's position in its trace's budget.
+     */
+    public static final class Frame {
+        private final TraceBudget budget;
+        private final int depth;
+
+        Frame(TraceBudget budget, int depth) {
+            this.budget = budget;
+            this.depth = depth;
+        }
+    }
+}
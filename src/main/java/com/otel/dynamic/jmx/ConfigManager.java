@@ -1,25 +1,27 @@
 package com.otel.dynamic.jmx;
 
-import com.otel.dynamic.agent.InstrumentationAccessor;
+import com.otel.dynamic.agent.ClassRetransformer;
+import com.otel.dynamic.agent.DrillDownController;
+import com.otel.dynamic.agent.DynamicCounters;
 import com.otel.dynamic.agent.InstrumentationDiff;
+import com.otel.dynamic.agent.RuleExpiryScheduler;
+import com.otel.dynamic.agent.RuleRegistrar;
 import com.otel.dynamic.config.ConfigurationManager;
-import com.otel.dynamic.config.model.AttributeDefinition;
 import com.otel.dynamic.config.model.InstrumentationConfig;
-import com.otel.dynamic.config.model.MethodConfig;
-import com.otel.dynamic.config.model.ReturnValueAttribute;
-import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import com.otel.dynamic.extension.DynamicSpanProcessor;
+import com.otel.dynamic.extension.DynamicSpanProcessorCustomizer;
+import com.otel.dynamic.extension.TailSampler;
 import com.otel.dynamic.util.Logger;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
-import java.lang.instrument.Instrumentation;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * JMX implementation for configuration management.
@@ -146,18 +148,16 @@ public class ConfigManager implements ConfigManagerMBean {
         try {
             Logger.info("Configuration reload requested via JMX");
 
-            // 1. Snapshot current checksums before clearing
-            Map<String, String> oldChecksums = DynamicInstrumentationConfig.getAllChecksums();
-            Logger.debug("Snapshot of " + oldChecksums.size() + " existing instrumentation entries");
-
-            // 2. Reload configuration from file
+            // 1. Reload configuration from file
             configManager.loadConfiguration();
 
-            // 3. Update DynamicInstrumentationConfig registry (populates new checksums)
-            updateDynamicRegistry();
+            // 2. Update DynamicInstrumentationConfig registry, diffing old and new checksums
+            InstrumentationDiff diff = updateDynamicRegistry();
 
-            // 4. Compute diff and trigger incremental retransformation
-            retransformClassesIncremental(oldChecksums);
+            // 3. Trigger incremental retransformation
+            if (diff != null) {
+                retransformClassesIncremental(diff);
+            }
 
             return true;
         } catch (Exception e) {
@@ -166,57 +166,24 @@ public class ConfigManager implements ConfigManagerMBean {
         }
     }
     
-    private void updateDynamicRegistry() {
+    private InstrumentationDiff updateDynamicRegistry() {
         try {
-            InstrumentationConfig config = configManager.getConfig();
-            if (config != null && config.getInstrumentations() != null) {
-                DynamicInstrumentationConfig.clear();
-                for (MethodConfig mc : config.getInstrumentations()) {
-                    // Convert AttributeDefinitions to simple AttributeRules
-                    List<DynamicInstrumentationConfig.AttributeRule> rules = new ArrayList<>();
-                    if (mc.getAttributes() != null) {
-                        for (AttributeDefinition attr : mc.getAttributes()) {
-                            rules.add(new DynamicInstrumentationConfig.AttributeRule(
-                                    attr.getArgIndex(), attr.getMethodCall(), attr.getAttributeName()));
-                        }
-                    }
-                    DynamicInstrumentationConfig.register(mc.getClassName(), mc.getMethodName(), rules);
-
-                    // Register return value attribute extraction rules
-                    if (mc.getReturnValueAttributes() != null && !mc.getReturnValueAttributes().isEmpty()) {
-                        List<DynamicInstrumentationConfig.ReturnValueRule> returnRules = new ArrayList<>();
-                        for (ReturnValueAttribute attr : mc.getReturnValueAttributes()) {
-                            returnRules.add(new DynamicInstrumentationConfig.ReturnValueRule(
-                                    attr.getMethodCall(), attr.getAttributeName()));
-                        }
-                        DynamicInstrumentationConfig.registerReturn(mc.getClassName(), mc.getMethodName(), returnRules);
-                    }
-                }
-                Logger.info("DynamicInstrumentationConfig registry updated");
-            }
+            InstrumentationDiff diff = RuleRegistrar.repopulate(configManager.getConfig());
+            Logger.info("DynamicInstrumentationConfig registry updated");
+            return diff;
         } catch (Exception e) {
             Logger.error("Failed to update DynamicInstrumentationConfig registry", e);
+            return null;
         }
     }
     
     /**
-     * Perform incremental retransformation by comparing old and new checksums.
+     * Perform incremental retransformation of the classes whose rules changed.
      * Only classes affected by configuration changes are retransformed.
      *
-     * @param oldChecksums checksum snapshot before configuration reload
+     * @param diff old and new checksums compared by the registry update
      */
-    private void retransformClassesIncremental(Map<String, String> oldChecksums) {
-        Instrumentation inst = InstrumentationAccessor.getInstrumentation();
-        if (inst == null) {
-            Logger.warn("Instrumentation instance not available - cannot retransform classes. " +
-                    "Make sure the agent is configured as a javaagent.");
-            return;
-        }
-
-        // Compute diff between old and new configurations
-        Map<String, String> newChecksums = DynamicInstrumentationConfig.getAllChecksums();
-        InstrumentationDiff diff = InstrumentationDiff.compute(oldChecksums, newChecksums);
-
+    private void retransformClassesIncremental(InstrumentationDiff diff) {
         Logger.info("Instrumentation diff: added/changed=" + diff.getAddedOrChanged().size() +
                 ", removed=" + diff.getRemoved().size() +
                 ", unchanged=" + diff.getUnchanged().size());
@@ -227,82 +194,10 @@ public class ConfigManager implements ConfigManagerMBean {
             return;
         }
 
-        // Get all affected class#method entries
-        Set<String> affected = diff.getAffected();
-        Logger.info("Retransforming classes affected by " + affected.size() + " configuration changes...");
-
-        try {
-            Class<?>[] loadedClasses = inst.getAllLoadedClasses();
-            Set<Class<?>> classesToRetransform = new HashSet<>();
-
-            // Build a set of affected class names (without method)
-            Set<String> affectedClassNames = new HashSet<>();
-            for (String classMethod : affected) {
-                int hashIndex = classMethod.indexOf('#');
-                if (hashIndex > 0) {
-                    affectedClassNames.add(classMethod.substring(0, hashIndex));
-                }
-            }
-
-            for (Class<?> clazz : loadedClasses) {
-                if (!inst.isModifiableClass(clazz)) {
-                    continue;
-                }
-
-                String className = clazz.getName();
-
-                // Check if this class is directly affected
-                if (affectedClassNames.contains(className)) {
-                    classesToRetransform.add(clazz);
-                    continue;
-                }
-
-                // Check if class implements an affected interface or extends an affected class
-                boolean isAffected = isClassAffectedByDiff(clazz, affectedClassNames);
-
-                if (isAffected) {
-                    classesToRetransform.add(clazz);
-                }
-            }
+        Logger.info("Retransforming classes affected by " + diff.getAffected().size() + " configuration changes...");
 
-            if (!classesToRetransform.isEmpty()) {
-                Logger.info("Retransforming " + classesToRetransform.size() + " classes (incremental)...");
-                inst.retransformClasses(classesToRetransform.toArray(new Class<?>[0]));
-                Logger.info("Incremental retransformation complete");
-            } else {
-                Logger.info("No matching loaded classes found for affected configurations");
-            }
-        } catch (Exception e) {
-            Logger.error("Failed to retransform classes incrementally", e);
-        }
-    }
-
-    /**
-     * Check if a class is affected by the diff through its hierarchy (interfaces/superclasses).
-     */
-    private boolean isClassAffectedByDiff(Class<?> clazz, Set<String> affectedClassNames) {
-        // Check direct interfaces
-        for (Class<?> iface : clazz.getInterfaces()) {
-            if (affectedClassNames.contains(iface.getName())) {
-                return true;
-            }
-        }
-
-        // Check superclass chain and their interfaces
-        Class<?> current = clazz.getSuperclass();
-        while (current != null && current != Object.class) {
-            if (affectedClassNames.contains(current.getName())) {
-                return true;
-            }
-            for (Class<?> iface : current.getInterfaces()) {
-                if (affectedClassNames.contains(iface.getName())) {
-                    return true;
-                }
-            }
-            current = current.getSuperclass();
-        }
-
-        return false;
+        // Directly affected classes plus implementors/subclasses of affected types
+        ClassRetransformer.retransformClasses(diff.getAffectedClassNames(), "incremental");
     }
 
     @Override
@@ -335,6 +230,171 @@ public class ConfigManager implements ConfigManagerMBean {
         return config != null ? config.size() : 0;
     }
 
+    @Override
+    public String[] getActiveDrillDowns() {
+        DrillDownController controller = DrillDownController.getInstance();
+        if (controller == null) {
+            return new String[0];
+        }
+        List<String> active = controller.describeActive();
+        return active.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getRuleExpiryEvents() {
+        RuleExpiryScheduler scheduler = RuleExpiryScheduler.getInstance();
+        if (scheduler == null) {
+            return new String[0];
+        }
+        return scheduler.getEvents().toArray(new String[0]);
+    }
+
+    @Override
+    public String getNextRuleExpiry() {
+        long next = configManager.getNextExpiryMillis();
+        return next < 0 ? "" : java.time.Instant.ofEpochMilli(next).toString();
+    }
+
+    @Override
+    public String[] validateConfiguration() {
+        List<String> errors = configManager.validateConfigurationFile();
+        Logger.info("Configuration validation requested via JMX: " + errors.size() + " error(s)");
+        return errors.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getValidationErrors() {
+        return configManager.getValidationErrors().toArray(new String[0]);
+    }
+
+    @Override
+    public long getDroppedSpanEvents() {
+        return DynamicCounters.get(DynamicCounters.EVENTS_DROPPED);
+    }
+
+    @Override
+    public long getDroppedDynamicSpans() {
+        return DynamicCounters.get(DynamicCounters.PROCESSOR_DROPPED);
+    }
+
+    @Override
+    public long getExportedDynamicSpans() {
+        return DynamicCounters.get(DynamicCounters.PROCESSOR_EXPORTED);
+    }
+
+    @Override
+    public long getFailedDynamicSpanExports() {
+        return DynamicCounters.get(DynamicCounters.PROCESSOR_EXPORT_FAILED);
+    }
+
+    @Override
+    public int getDynamicSpanQueueSize() {
+        DynamicSpanProcessor processor = DynamicSpanProcessorCustomizer.getProcessor();
+        return processor != null ? processor.getQueueSize() : 0;
+    }
+
+    @Override
+    public long getTailSampledOutSpans() {
+        return DynamicCounters.get(DynamicCounters.TAIL_DROPPED);
+    }
+
+    @Override
+    public long getTailEvictedSpans() {
+        return DynamicCounters.get(DynamicCounters.TAIL_EVICTED);
+    }
+
+    @Override
+    public long getTailBufferedBytes() {
+        DynamicSpanProcessor processor = DynamicSpanProcessorCustomizer.getProcessor();
+        TailSampler tailSampler = processor != null ? processor.getTailSampler() : null;
+        return tailSampler != null ? tailSampler.getBufferedBytes() : 0L;
+    }
+
+    @Override
+    public long getDisabledAttributeExtractions() {
+        return DynamicCounters.get(DynamicCounters.EXTRACTIONS_DISABLED);
+    }
+
+    @Override
+    public long getSkippedLazyAttributeValues() {
+        return DynamicCounters.get(DynamicCounters.EXTRACTIONS_SKIPPED_LAZY);
+    }
+
+    @Override
+    public long getTruncatedAttributeValues() {
+        return DynamicCounters.get(DynamicCounters.EXTRACTIONS_TRUNCATED);
+    }
+
+    @Override
+    public String[] getMethodContention() {
+        // Counter names are contention.<className#methodName>.<field>; method keys contain dots
+        Map<String, Map<String, Long>> byMethod = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : DynamicCounters.snapshot(DynamicCounters.CONTENTION_PREFIX).entrySet()) {
+            String name = entry.getKey();
+            int lastDot = name.lastIndexOf('.');
+            String method = name.substring(DynamicCounters.CONTENTION_PREFIX.length(), lastDot);
+            byMethod.computeIfAbsent(method, k -> new HashMap<>()).put(name.substring(lastDot + 1), entry.getValue());
+        }
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Long>> entry : byMethod.entrySet()) {
+            Map<String, Long> fields = entry.getValue();
+            result.add(entry.getKey()
+                    + " calls=" + fields.getOrDefault(DynamicCounters.CONTENTION_CALLS, 0L)
+                    + " blocked=" + fields.getOrDefault(DynamicCounters.CONTENTION_BLOCKED_COUNT, 0L)
+                    + " (" + fields.getOrDefault(DynamicCounters.CONTENTION_BLOCKED_MS, 0L) + " ms)"
+                    + " waited=" + fields.getOrDefault(DynamicCounters.CONTENTION_WAITED_COUNT, 0L)
+                    + " (" + fields.getOrDefault(DynamicCounters.CONTENTION_WAITED_MS, 0L) + " ms)");
+        }
+        return result.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getMethodPinning() {
+        // Counter names are pinning.<className#methodName>.<field>; method keys contain dots
+        Map<String, Map<String, Long>> byMethod = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : DynamicCounters.snapshot(DynamicCounters.PINNING_PREFIX).entrySet()) {
+            String name = entry.getKey();
+            int lastDot = name.lastIndexOf('.');
+            String method = name.substring(DynamicCounters.PINNING_PREFIX.length(), lastDot);
+            byMethod.computeIfAbsent(method, k -> new HashMap<>()).put(name.substring(lastDot + 1), entry.getValue());
+        }
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Long>> entry : byMethod.entrySet()) {
+            Map<String, Long> fields = entry.getValue();
+            result.add(entry.getKey()
+                    + " calls=" + fields.getOrDefault(DynamicCounters.PINNING_CALLS, 0L)
+                    + " pinned=" + fields.getOrDefault(DynamicCounters.PINNING_COUNT, 0L)
+                    + " (" + fields.getOrDefault(DynamicCounters.PINNING_MS, 0L) + " ms)");
+        }
+        return result.toArray(new String[0]);
+    }
+
+    @Override
+    public long getStackSamples() {
+        return DynamicCounters.get(DynamicCounters.STACK_SAMPLES);
+    }
+
+    @Override
+    public String[] getMethodGcImpact() {
+        // Counter names are gc.<className#methodName>.<field>; method keys contain dots
+        Map<String, Map<String, Long>> byMethod = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : DynamicCounters.snapshot(DynamicCounters.GC_PREFIX).entrySet()) {
+            String name = entry.getKey();
+            int lastDot = name.lastIndexOf('.');
+            String method = name.substring(DynamicCounters.GC_PREFIX.length(), lastDot);
+            byMethod.computeIfAbsent(method, k -> new HashMap<>()).put(name.substring(lastDot + 1), entry.getValue());
+        }
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Long>> entry : byMethod.entrySet()) {
+            Map<String, Long> fields = entry.getValue();
+            result.add(entry.getKey()
+                    + " calls=" + fields.getOrDefault(DynamicCounters.GC_CALLS, 0L)
+                    + " gcImpacted=" + fields.getOrDefault(DynamicCounters.GC_IMPACTED, 0L)
+                    + " (" + fields.getOrDefault(DynamicCounters.GC_PAUSE_MS, 0L) + " ms paused)");
+        }
+        return result.toArray(new String[0]);
+    }
+
     /**
      * Shutdown the ConfigManager and unregister the MBean.
      */
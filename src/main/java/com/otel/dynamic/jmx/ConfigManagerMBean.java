@@ -51,4 +51,157 @@ public interface ConfigManagerMBean {
      * @return the count of instrumented classes
      */
     int getInstrumentedClassCount();
+
+    /**
+     * Describe the currently active SLO-triggered drill-downs.
+     *
+     * @return one entry per active drill-down with its rule, expiry and packages
+     */
+    String[] getActiveDrillDowns();
+
+    /**
+     * Get the most recent rule expiry events (oldest first).
+     *
+     * @return one entry per expired rule with the time it was removed
+     */
+    String[] getRuleExpiryEvents();
+
+    /**
+     * Get the earliest upcoming rule expiry.
+     *
+     * @return ISO-8601 instant, or empty string if no rule expires
+     */
+    String getNextRuleExpiry();
+
+    /**
+     * Validate the configuration file without applying it.
+     *
+     * Compiles method conditions and reports errors, so a file can be checked
+     * before calling {@link #reloadConfiguration()}.
+     *
+     * @return one message per problem, empty if the file is valid
+     */
+    String[] validateConfiguration();
+
+    /**
+     * Get the validation errors of the loaded configuration.
+     * Rules with errors are disabled.
+     *
+     * @return one message per disabled rule
+     */
+    String[] getValidationErrors();
+
+    /**
+     * Get the number of span events event-mode rules did not record because
+     * their parent span had reached {@code maxEventsPerSpan}.
+     *
+     * @return dropped events since startup
+     */
+    long getDroppedSpanEvents();
+
+    /**
+     * Get the number of dynamic spans the dedicated span processor dropped
+     * because its queue was full (oldest spans are dropped first).
+     *
+     * @return dropped spans since startup
+     */
+    long getDroppedDynamicSpans();
+
+    /**
+     * Get the number of dynamic spans exported by the dedicated span processor.
+     *
+     * @return exported spans since startup
+     */
+    long getExportedDynamicSpans();
+
+    /**
+     * Get the number of dynamic spans whose export failed.
+     *
+     * @return spans in failed export batches since startup
+     */
+    long getFailedDynamicSpanExports();
+
+    /**
+     * Get the number of dynamic spans waiting in the dedicated span processor's queue.
+     *
+     * @return queued spans, or 0 if the processor is disabled
+     */
+    int getDynamicSpanQueueSize();
+
+    /**
+     * Get the number of dynamic spans dropped by the tail sampling decision.
+     *
+     * @return spans of traces that were not kept since startup
+     */
+    long getTailSampledOutSpans();
+
+    /**
+     * Get the number of dynamic spans evicted from the tail sampling buffer.
+     *
+     * @return spans dropped to stay under the buffer's memory cap since startup
+     */
+    long getTailEvictedSpans();
+
+    /**
+     * Get the estimated size of the spans held by the tail sampling buffer.
+     *
+     * @return buffered bytes, or 0 if tail sampling is off
+     */
+    long getTailBufferedBytes();
+
+    /**
+     * Get the number of attribute rules disabled because an extraction took
+     * longer than their {@code timeBudgetMicros}. Reloading the configuration
+     * enables them again.
+     *
+     * @return rules disabled since startup
+     */
+    long getDisabledAttributeExtractions();
+
+    /**
+     * Get the number of attribute values skipped because reading them could
+     * initialize a lazy JPA proxy or collection.
+     *
+     * @return skipped values since startup
+     */
+    long getSkippedLazyAttributeValues();
+
+    /**
+     * Get the number of string attribute values cut to {@code maxAttributeLength}.
+     *
+     * @return truncated values since startup
+     */
+    long getTruncatedAttributeValues();
+
+    /**
+     * Get the blocked and waited time of calls to methods with
+     * {@code contentionMetrics}, aggregated per method.
+     *
+     * @return one entry per method with its calls, blocked and waited counts and milliseconds since startup
+     */
+    String[] getMethodContention();
+
+    /**
+     * Get the virtual thread pinning of calls to methods with
+     * {@code pinningMetrics}, aggregated per method (Java 21+).
+     *
+     * @return one entry per method with its calls on virtual threads, pins and pinned milliseconds since startup
+     */
+    String[] getMethodPinning();
+
+    /**
+     * Get the calls to methods with {@code gcMetrics} that overlapped
+     * stop-the-world GC pauses, aggregated per method.
+     *
+     * @return one entry per method with its calls, GC-impacted calls and overlapping pause milliseconds since startup
+     */
+    String[] getMethodGcImpact();
+
+    /**
+     * Get the number of thread stacks taken for calls past their
+     * {@code stackSampleAfterMs}.
+     *
+     * @return stack samples since startup
+     */
+    long getStackSamples();
 }
@@ -0,0 +1,69 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.utils.TestTargetClass.BatchObject;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ArgumentCondition compilation and evaluation.
+ */
+public class ArgumentConditionTest {
+
+    private static final BatchObject BATCH = new BatchObject("B-1", "R-1", 25_000);
+
+    @Test
+    public void testNumericComparisonOnGetter() {
+        ArgumentCondition condition = ArgumentCondition.compile("args[0].itemCount > 10000");
+
+        assertTrue(condition.matches(new Object[] {BATCH}));
+        assertFalse(condition.matches(new Object[] {new BatchObject("B-2", "R-2", 10)}));
+    }
+
+    @Test
+    public void testExplicitGetterAndBoxedArgument() {
+        assertTrue(ArgumentCondition.compile("args[0].getItemCount() >= 25000 && args[1] < 5")
+                .matches(new Object[] {BATCH, 3L}));
+        assertFalse(ArgumentCondition.compile("args[1] < 5").matches(new Object[] {BATCH, 7}));
+    }
+
+    @Test
+    public void testStringEqualityAndWatchList() {
+        assertTrue(ArgumentCondition.compile("args[0].batchId == 'B-1'").matches(new Object[] {BATCH}));
+        assertTrue(ArgumentCondition.compile("args[0].rootId in ['R-9', \"R-1\"]").matches(new Object[] {BATCH}));
+        assertFalse(ArgumentCondition.compile("args[0].rootId in ['R-9']").matches(new Object[] {BATCH}));
+        assertTrue(ArgumentCondition.compile("args[1] == 'SECONDS'")
+                .matches(new Object[] {BATCH, TimeUnit.SECONDS}));
+    }
+
+    @Test
+    public void testLogicalOperatorsAndNull() {
+        ArgumentCondition condition = ArgumentCondition.compile("!(args[0] == null) || args[1] != null");
+
+        assertTrue(condition.matches(new Object[] {BATCH, null}));
+        assertFalse(condition.matches(new Object[] {null, null}));
+    }
+
+    @Test
+    public void testFailuresEvaluateToFalse() {
+        // Unknown getter, missing argument, null receiver
+        assertFalse(ArgumentCondition.compile("args[0].missing > 1").matches(new Object[] {BATCH}));
+        assertFalse(ArgumentCondition.compile("args[3] > 1").matches(new Object[] {BATCH}));
+        assertFalse(ArgumentCondition.compile("args[0].itemCount > 1").matches(new Object[] {null}));
+    }
+
+    @Test
+    public void testCompileErrors() {
+        String[] invalid = {"", "args[0] >", "args[0] > 'x'", "amount > 1", "args[0] in [1, 'a']", "args[0] == 1 )"};
+        for (String expression : invalid) {
+            try {
+                ArgumentCondition.compile(expression);
+                fail("Expected compile error for: " + expression);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+}
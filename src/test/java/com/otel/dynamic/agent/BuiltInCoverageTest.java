@@ -0,0 +1,90 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.ws.rs.GET;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the built-in coverage tables and the overlap policy they drive.
+ */
+public class BuiltInCoverageTest {
+
+    public static class Jobs {
+        @Scheduled
+        public void purge() {
+        }
+
+        public void report() {
+        }
+    }
+
+    public static class OrderResource {
+        @GET
+        public String list() {
+            return "[]";
+        }
+    }
+
+    @Before
+    @After
+    public void clearRegistry() {
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testAnnotatedMethodCovered() {
+        assertTrue(BuiltInCoverage.covers(Jobs.class, "purge", false));
+        assertFalse(BuiltInCoverage.covers(Jobs.class, "report", false));
+    }
+
+    @Test
+    public void testControllerCoveredOnlyWithControllerTelemetry() {
+        // Without controller spans the agent only names the server span after the route
+        assertFalse(BuiltInCoverage.covers(OrderResource.class, "list", false));
+        assertTrue(BuiltInCoverage.covers(OrderResource.class, "list", true));
+        assertFalse(BuiltInCoverage.isCoveringAnnotation("org.springframework.stereotype.Repository", true));
+    }
+
+    @Test
+    public void testMethodRuleKeepsItsSpanByDefault() {
+        RuleRegistrar.populate(config(new MethodConfig(Jobs.class.getName(), "purge")));
+
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.MODE_SPAN,
+                DynamicInstrumentationConfig.resolve(Jobs.class.getName(), "purge").getMode());
+    }
+
+    @Test
+    public void testOverlapPolicySwitchesCoveredMethodMode() {
+        MethodConfig suppressed = new MethodConfig(Jobs.class.getName(), "purge");
+        suppressed.setOverlap("suppress");
+        RuleRegistrar.populate(config(suppressed));
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.MODE_SUPPRESS,
+                DynamicInstrumentationConfig.resolve(Jobs.class.getName(), "purge").getMode());
+
+        MethodConfig enriched = new MethodConfig(Jobs.class.getName(), "purge");
+        enriched.setOverlap("enrich");
+        MethodConfig uncovered = new MethodConfig(Jobs.class.getName(), "report");
+        uncovered.setOverlap("enrich");
+        RuleRegistrar.populate(config(enriched, uncovered));
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.MODE_ENRICH,
+                DynamicInstrumentationConfig.resolve(Jobs.class.getName(), "purge").getMode());
+        // The policy only applies to covered methods
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.MODE_SPAN,
+                DynamicInstrumentationConfig.resolve(Jobs.class.getName(), "report").getMode());
+    }
+
+    private static InstrumentationConfig config(MethodConfig... methods) {
+        InstrumentationConfig config = new InstrumentationConfig();
+        config.setInstrumentations(new ArrayList<>(Arrays.asList(methods)));
+        return config;
+    }
+}
@@ -0,0 +1,123 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.config.ConfigurationManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DrillDownController activation and expiry.
+ */
+public class DrillDownControllerTest {
+
+    private static final String RULE_KEY = "com.example.OrderServiceImpl#createOrder";
+
+    private File tempConfigFile;
+    private ConfigurationManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        tempConfigFile = File.createTempFile("instrumentation-drilldown", ".json");
+        tempConfigFile.deleteOnExit();
+        ConfigurationManager.reset();
+        DynamicInstrumentationConfig.clear();
+        DynamicInstrumentationConfig.setDrillDownState(Collections.<String, Integer>emptyMap(), null);
+
+        String json = "{\n" +
+                "  \"instrumentations\": [\n" +
+                "    {\n" +
+                "      \"className\": \"com.example.OrderServiceImpl\",\n" +
+                "      \"methodName\": \"createOrder\",\n" +
+                "      \"drillDown\": {\n" +
+                "        \"latencyThresholdMs\": 500,\n" +
+                "        \"breachCount\": 3,\n" +
+                "        \"windowSeconds\": 60,\n" +
+                "        \"durationSeconds\": 120,\n" +
+                "        \"maxSpansPerTrace\": 50,\n" +
+                "        \"packages\": [ { \"packageName\": \"com.example.repository\", \"recursive\": true } ]\n" +
+                "      }\n" +
+                "    }\n" +
+                "  ]\n" +
+                "}";
+        try (FileWriter writer = new FileWriter(tempConfigFile)) {
+            writer.write(json);
+        }
+        manager = ConfigurationManager.initialize(tempConfigFile.getAbsolutePath());
+        RuleRegistrar.populate(manager.getConfig());
+    }
+
+    @After
+    public void tearDown() {
+        DynamicCounters.getAndReset(DynamicInstrumentationConfig.breachCounterName(RULE_KEY));
+        DynamicInstrumentationConfig.setDrillDownState(Collections.<String, Integer>emptyMap(), null);
+        DynamicInstrumentationConfig.clear();
+        ConfigurationManager.reset();
+        tempConfigFile.delete();
+    }
+
+    @Test
+    public void testThresholdRegisteredAsOption() {
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.OrderServiceImpl", "createOrder");
+        assertEquals(500_000_000L, resolved.getDrillDownThresholdNanos());
+        assertEquals(DynamicInstrumentationConfig.breachCounterName(RULE_KEY), resolved.getBreachCounterKey());
+        assertEquals(0, resolved.getDrillDownBudget());
+    }
+
+    @Test
+    public void testNotActivatedBelowBreachCount() {
+        DrillDownController controller = new DrillDownController(manager);
+        DynamicCounters.add(DynamicInstrumentationConfig.breachCounterName(RULE_KEY), 2);
+
+        controller.tick(1_000L);
+
+        assertTrue(controller.describeActive().isEmpty());
+        assertTrue(manager.getDrillDownPackages().isEmpty());
+    }
+
+    @Test
+    public void testActivatesAndExpires() {
+        DrillDownController controller = new DrillDownController(manager);
+        DynamicCounters.add(DynamicInstrumentationConfig.breachCounterName(RULE_KEY), 2);
+        controller.tick(1_000L);
+        DynamicCounters.add(DynamicInstrumentationConfig.breachCounterName(RULE_KEY), 1);
+        controller.tick(2_000L);
+
+        assertEquals(1, controller.describeActive().size());
+        assertEquals(1, manager.getDrillDownPackages().size());
+        assertNotNull(manager.getMatchingPackageConfig("com.example.repository.jpa.OrderRepository"));
+
+        // Parent rule now carries the per-trace budget, scoped classes are flagged
+        assertEquals(50, DynamicInstrumentationConfig.resolve("com.example.OrderServiceImpl", "createOrder")
+                .getDrillDownBudget());
+        assertTrue(DynamicInstrumentationConfig.resolve("com.example.repository.jpa.OrderRepository", "findById")
+                .isDrillDownScoped());
+
+        // Reverted after durationSeconds
+        controller.tick(2_000L + 120_000L);
+
+        assertTrue(controller.describeActive().isEmpty());
+        assertTrue(manager.getDrillDownPackages().isEmpty());
+        assertNull(manager.getMatchingPackageConfig("com.example.repository.jpa.OrderRepository"));
+        assertFalse(DynamicInstrumentationConfig.resolve("com.example.repository.jpa.OrderRepository", "findById")
+                .isDrillDownScoped());
+    }
+
+    @Test
+    public void testBreachesOutsideWindowDoNotAccumulate() {
+        DrillDownController controller = new DrillDownController(manager);
+        DynamicCounters.add(DynamicInstrumentationConfig.breachCounterName(RULE_KEY), 2);
+        controller.tick(1_000L);
+        DynamicCounters.add(DynamicInstrumentationConfig.breachCounterName(RULE_KEY), 1);
+        controller.tick(1_000L + 61_000L);
+
+        assertTrue(controller.describeActive().isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+package com.otel.dynamic.agent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for GC pause overlap of calls.
+ */
+public class GcPausesTest {
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @Before
+    @After
+    public void clearPauses() {
+        GcPauses.clear();
+    }
+
+    @Test
+    public void testOverlapClipsPausesToInterval() {
+        GcPauses.add(100L, 110L);
+        GcPauses.add(200L, 230L);
+        GcPauses.add(300L, 300L);
+
+        assertArrayEquals(new long[]{40L, 2L}, GcPauses.overlap(100L, 250L));
+        assertArrayEquals(new long[]{5L, 1L}, GcPauses.overlap(225L, 250L));
+        assertArrayEquals(new long[]{0L, 1L}, GcPauses.overlap(290L, 310L));
+        assertArrayEquals(new long[]{0L, 0L}, GcPauses.overlap(120L, 190L));
+    }
+
+    @Test
+    public void testRingKeepsNewestPauses() {
+        for (int i = 0; i < GcPauses.CAPACITY + 10; i++) {
+            GcPauses.add(i * 10L, i * 10L + 2);
+        }
+        // The first ten were overwritten
+        assertArrayEquals(new long[]{0L, 0L}, GcPauses.overlap(0L, 99L));
+        assertArrayEquals(new long[]{4L, 2L}, GcPauses.overlap(100L, 115L));
+    }
+
+    @Test
+    public void testPausesAddedOutOfOrderAreCounted() {
+        // A young pause reported after an old collection that ended later
+        GcPauses.add(200L, 230L);
+        GcPauses.add(100L, 110L);
+        assertArrayEquals(new long[]{40L, 2L}, GcPauses.overlap(100L, 250L));
+        assertArrayEquals(new long[]{10L, 1L}, GcPauses.overlap(100L, 150L));
+    }
+
+    @Test
+    public void testRecordMarksImpactedCalls() {
+        String key = "com.example.Report#render";
+        long impacted = DynamicCounters.get(DynamicCounters.GC_PREFIX + key + "." + DynamicCounters.GC_IMPACTED);
+        long calls = DynamicCounters.get(DynamicCounters.GC_PREFIX + key + "." + DynamicCounters.GC_CALLS);
+        long pauseMs = DynamicCounters.get(DynamicCounters.GC_PREFIX + key + "." + DynamicCounters.GC_PAUSE_MS);
+        long now = GcPauses.nowMillis();
+
+        // Nothing paused since the call started
+        GcPauses.add(now - 500, now - 400);
+        GcPauses.record(recordingSpan(), key, now - 100);
+        assertTrue(attributes.isEmpty());
+
+        GcPauses.add(now - 50, now - 20);
+        GcPauses.record(recordingSpan(), key, now - 100);
+        assertEquals(30L, attributes.get("gc.pause_ms"));
+        assertEquals(1L, attributes.get("gc.pause_count"));
+        assertEquals(impacted + 1,
+                DynamicCounters.get(DynamicCounters.GC_PREFIX + key + "." + DynamicCounters.GC_IMPACTED));
+        assertEquals(calls + 2, DynamicCounters.get(DynamicCounters.GC_PREFIX + key + "." + DynamicCounters.GC_CALLS));
+        assertEquals(pauseMs + 30,
+                DynamicCounters.get(DynamicCounters.GC_PREFIX + key + "." + DynamicCounters.GC_PAUSE_MS));
+    }
+
+    @Test
+    public void testCallReturningBeforeNotificationIsCountedLater() {
+        String key = "com.example.Report#export";
+        long impacted = DynamicCounters.get(DynamicCounters.GC_PREFIX + key + "." + DynamicCounters.GC_IMPACTED);
+        long now = GcPauses.nowMillis();
+
+        // The first collector finished a collection the monitor has not heard of
+        GcPauses.setMonitored(true);
+        GcPauses.notified(0, -1L);
+        assertTrue(GcPauses.isPending());
+        GcPauses.record(recordingSpan(), key, now - 100);
+        assertTrue(attributes.isEmpty());
+        assertEquals(impacted, DynamicCounters.get(DynamicCounters.GC_PREFIX + key + "." + DynamicCounters.GC_IMPACTED));
+
+        // Its notification arrives after the call returned
+        GcPauses.add(now - 50, now - 20);
+        GcPauses.notified(0, Long.MAX_VALUE);
+        GcPauses.resolveDeferred(GcPauses.nowMillis());
+        assertEquals(impacted + 1,
+                DynamicCounters.get(DynamicCounters.GC_PREFIX + key + "." + DynamicCounters.GC_IMPACTED));
+    }
+
+    @Test
+    public void testConcurrentCollectionsAreNotPauses() {
+        assertTrue(GcPauseMonitor.isPause("G1 Young Generation", "end of minor GC"));
+        assertTrue(GcPauseMonitor.isPause("G1 Old Generation", "end of major GC"));
+        assertTrue(GcPauseMonitor.isPause("ZGC Pauses", "end of GC pause"));
+        assertFalse(GcPauseMonitor.isPause("G1 Concurrent GC", "end of concurrent GC pause"));
+        assertFalse(GcPauseMonitor.isPause("ZGC Cycles", "end of GC cycle"));
+        assertFalse(GcPauseMonitor.isPause("ConcurrentMarkSweep", "end of major GC"));
+    }
+
+    private Span recordingSpan() {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("setAttribute")) {
+                        attributes.put(((AttributeKey<?>) args[0]).getKey(), args[1]);
+                        return proxy;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
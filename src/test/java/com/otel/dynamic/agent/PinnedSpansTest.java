@@ -0,0 +1,137 @@
+package com.otel.dynamic.agent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for attributing virtual thread pins to registered calls. Pins
+ * are fed directly, as the JFR event needs Java 21.
+ */
+public class PinnedSpansTest {
+
+    private static final long THREAD = 9_000_001L;
+    private static final long MS = 1_000_000L;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final List<String> events = new ArrayList<>();
+    private boolean recording = true;
+
+    @After
+    public void clearRegistry() {
+        PinnedSpans.clear();
+    }
+
+    @Test
+    public void testPinAttributedToInnermostOverlappingCall() {
+        Span outer = recordingSpan("outer");
+        Span inner = recordingSpan("inner");
+        long count = DynamicCounters.get(countKey("Inner#run"));
+        long calls = DynamicCounters.get(DynamicCounters.PINNING_PREFIX + "Outer#run." + DynamicCounters.PINNING_CALLS);
+
+        Object[] outerFrame = PinnedSpans.enter(outer, "Outer#run", THREAD, 1000L);
+        Object[] innerFrame = PinnedSpans.enter(inner, "Inner#run", THREAD, 1100L);
+        PinnedSpans.exit(innerFrame, 1200L);
+
+        assertTrue(PinnedSpans.pinned(THREAD, 1150L, 30 * MS));
+        assertTrue(PinnedSpans.pinned(THREAD, 1150L, 25 * MS));
+        assertEquals(2L, attributes.get("inner:thread.pinned_count"));
+        assertEquals(55L, attributes.get("inner:thread.pinned_ms"));
+        assertEquals(2, events.size());
+        assertEquals(count + 2, DynamicCounters.get(countKey("Inner#run")));
+
+        // After the inner call: the outer one gets it
+        assertTrue(PinnedSpans.pinned(THREAD, 1300L, 40 * MS));
+        assertEquals(1L, attributes.get("outer:thread.pinned_count"));
+        assertEquals(calls + 1,
+                DynamicCounters.get(DynamicCounters.PINNING_PREFIX + "Outer#run." + DynamicCounters.PINNING_CALLS));
+        PinnedSpans.exit(outerFrame, 1400L);
+    }
+
+    @Test
+    public void testLatePinOnlyCounted() {
+        Object[] frame = PinnedSpans.enter(recordingSpan("late"), "Late#run", THREAD, 1000L);
+        PinnedSpans.exit(frame, 1100L);
+        recording = false;
+        long pinnedMs = DynamicCounters.get(DynamicCounters.PINNING_PREFIX + "Late#run." + DynamicCounters.PINNING_MS);
+
+        assertTrue(PinnedSpans.pinned(THREAD, 1050L, 20 * MS));
+        assertTrue(attributes.isEmpty());
+        assertEquals(pinnedMs + 20,
+                DynamicCounters.get(DynamicCounters.PINNING_PREFIX + "Late#run." + DynamicCounters.PINNING_MS));
+
+        // Other threads and times do not match
+        assertFalse(PinnedSpans.pinned(THREAD + 1, 1050L, 20 * MS));
+        assertFalse(PinnedSpans.pinned(THREAD, 2000L, 20 * MS));
+    }
+
+    @Test
+    public void testEndedThreadsExpire() {
+        Object[] frame = PinnedSpans.enter(recordingSpan("a"), "A#run", THREAD, 1000L);
+        Object[] running = PinnedSpans.enter(recordingSpan("b"), "B#run", THREAD + 1, 1000L);
+        PinnedSpans.exit(frame, 1100L);
+
+        PinnedSpans.expire(1100L + PinnedSpans.RETENTION_MILLIS);
+        assertEquals(2, PinnedSpans.threadCount());
+        PinnedSpans.expire(1101L + PinnedSpans.RETENTION_MILLIS);
+        assertEquals(1, PinnedSpans.threadCount());
+        assertTrue(PinnedSpans.pinned(THREAD + 1, 9000L, 20 * MS));
+        PinnedSpans.exit(running, 9100L);
+    }
+
+    @Test
+    public void testRunningCallsNeverOverwritten() {
+        for (int i = 0; i < PinnedSpans.SLOTS_PER_THREAD; i++) {
+            assertNotNull(PinnedSpans.enter(recordingSpan("deep"), "Deep#run", THREAD, 1000L + i));
+        }
+        assertNull(PinnedSpans.enter(recordingSpan("deep"), "Deep#run", THREAD, 2000L));
+    }
+
+    @Test
+    public void testPlatformThreadsNotRegistered() {
+        assertNull(PinnedSpans.enter(recordingSpan("platform"), "Platform#run"));
+    }
+
+    @Test
+    public void testMonitorDormantBeforeJava21() {
+        assertEquals(8, PinningMonitor.featureVersion("1.8"));
+        assertEquals(17, PinningMonitor.featureVersion("17"));
+        assertEquals(21, PinningMonitor.featureVersion("21.0.2"));
+        assertEquals(0, PinningMonitor.featureVersion("unknown"));
+        if (PinningMonitor.featureVersion(System.getProperty("java.specification.version")) < 21) {
+            assertFalse(PinningMonitor.start());
+            assertFalse(PinningMonitor.isRunning());
+        }
+    }
+
+    private static String countKey(String method) {
+        return DynamicCounters.PINNING_PREFIX + method + "." + DynamicCounters.PINNING_COUNT;
+    }
+
+    private Span recordingSpan(String name) {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setAttribute":
+                            attributes.put(name + ":" + ((AttributeKey<?>) args[0]).getKey(), args[1]);
+                            return proxy;
+                        case "isRecording":
+                            return recording;
+                        case "addEvent":
+                            events.add(name + ":" + args[0]);
+                            return proxy;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
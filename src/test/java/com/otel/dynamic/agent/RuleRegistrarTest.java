@@ -0,0 +1,349 @@
+package com.otel.dynamic.agent;
+
+import com.otel.dynamic.config.model.AttributeDefinition;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import com.otel.dynamic.config.model.PackageConfig;
+import com.otel.dynamic.config.model.ReturnValueAttribute;
+import io.opentelemetry.api.common.AttributeKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for RuleRegistrar option registration and resolution.
+ */
+public class RuleRegistrarTest {
+
+    @Before
+    @After
+    public void clearRegistry() {
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testMethodRoutesResolved() {
+        MethodConfig mc = new MethodConfig("com.example.OrderServiceImpl", "createOrder");
+        mc.setRoutes(Arrays.asList("POST /orders", " /orders/{id} ", ""));
+        RuleRegistrar.populate(config(mc));
+
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.OrderServiceImpl", "createOrder");
+
+        assertTrue(resolved.isRouteTracking());
+        assertArrayEquals(new String[] {"POST /orders", "/orders/{id}"}, resolved.getAllowedRoutes());
+    }
+
+    @Test
+    public void testPackageRoutesApplyToMostSpecificPackage() {
+        PackageConfig outer = new PackageConfig("com.example", true, null);
+        outer.setRoutes(Collections.singletonList("GET /health"));
+        PackageConfig inner = new PackageConfig("com.example.orders", false, null);
+        inner.setRoutes(Collections.singletonList("POST /orders"));
+        InstrumentationConfig config = config();
+        config.setPackages(Arrays.asList(outer, inner));
+        RuleRegistrar.populate(config);
+
+        assertArrayEquals(new String[] {"POST /orders"}, DynamicInstrumentationConfig
+                .resolve("com.example.orders.OrderService", "create").getAllowedRoutes());
+        // Non-recursive package rule does not cover sub-packages
+        assertArrayEquals(new String[] {"GET /health"}, DynamicInstrumentationConfig
+                .resolve("com.example.orders.jpa.OrderRepository", "save").getAllowedRoutes());
+    }
+
+    @Test
+    public void testNoRoutesMeansNoTracking() {
+        RuleRegistrar.populate(config(new MethodConfig("com.example.OrderServiceImpl", "createOrder")));
+
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.OrderServiceImpl", "createOrder");
+
+        assertFalse(resolved.isRouteTracking());
+        assertNull(resolved.getAllowedRoutes());
+    }
+
+    @Test
+    public void testEnrichModeResolved() {
+        MethodConfig enrich = new MethodConfig("com.example.OrderController", "createOrder");
+        enrich.setMode("enrich");
+        MethodConfig span = new MethodConfig("com.example.OrderController", "listOrders");
+        span.setMode("span");
+        RuleRegistrar.populate(config(enrich, span));
+
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.MODE_ENRICH, DynamicInstrumentationConfig
+                .resolve("com.example.OrderController", "createOrder").getMode());
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.MODE_SPAN, DynamicInstrumentationConfig
+                .resolve("com.example.OrderController", "listOrders").getMode());
+        // Default mode registers no option
+        assertNull(DynamicInstrumentationConfig.getOptions("com.example.OrderController", "listOrders"));
+    }
+
+    @Test
+    public void testEventModeResolvedWithCap() {
+        MethodConfig mc = new MethodConfig("com.example.PriceCalculator", "round");
+        mc.setMode("event");
+        InstrumentationConfig config = config(mc);
+        config.setMaxEventsPerSpan(16);
+        RuleRegistrar.populate(config);
+
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.PriceCalculator", "round");
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.MODE_EVENT, resolved.getMode());
+        assertEquals(16, resolved.getMaxEvents());
+
+        RuleRegistrar.populate(config(mc));
+        assertEquals(DynamicInstrumentationConfig.DEFAULT_MAX_EVENTS_PER_SPAN, DynamicInstrumentationConfig
+                .resolve("com.example.PriceCalculator", "round").getMaxEvents());
+    }
+
+    @Test
+    public void testSpanLimitsResolved() {
+        MethodConfig unlimited = new MethodConfig("com.example.TreeWalker", "visit");
+        unlimited.setMaxSpansPerTrace(0);
+        MethodConfig shallow = new MethodConfig("com.example.TreeWalker", "descend");
+        shallow.setMaxDepth(3);
+        InstrumentationConfig config = config(unlimited, shallow);
+        PackageConfig pkg = new PackageConfig("com.example.dao", true, null);
+        pkg.setMaxSpansPerTrace(50);
+        config.setPackages(Collections.singletonList(pkg));
+        config.setMaxSpansPerTrace(200);
+        config.setMaxDepth(10);
+        RuleRegistrar.populate(config);
+
+        DynamicInstrumentationConfig.ResolvedMethod visit =
+                DynamicInstrumentationConfig.resolve("com.example.TreeWalker", "visit");
+        assertTrue(visit.isLimitTracking());
+        assertEquals(0, visit.getMaxSpansPerTrace());
+        assertEquals(10, visit.getMaxDepth());
+        DynamicInstrumentationConfig.ResolvedMethod descend =
+                DynamicInstrumentationConfig.resolve("com.example.TreeWalker", "descend");
+        assertEquals(200, descend.getMaxSpansPerTrace());
+        assertEquals(3, descend.getMaxDepth());
+        assertEquals(50, DynamicInstrumentationConfig
+                .resolve("com.example.dao.OrderDao", "find").getMaxSpansPerTrace());
+    }
+
+    @Test
+    public void testAttributeTypesResolved() {
+        MethodConfig mc = new MethodConfig("com.example.Billing", "charge");
+        AttributeDefinition amount = new AttributeDefinition(0, "getAmount", "app.order_amount");
+        amount.setType("double");
+        mc.setAttributes(new ArrayList<>(Arrays.asList(amount, new AttributeDefinition(1, null, "app.currency"))));
+        ReturnValueAttribute paid = new ReturnValueAttribute("isPaid", "app.paid");
+        paid.setType("boolean");
+        mc.addReturnValueAttribute(paid);
+        RuleRegistrar.populate(config(mc));
+
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.Billing", "charge");
+        assertEquals(DynamicInstrumentationConfig.AttributeRule.TYPE_DOUBLE, resolved.getRules().get(0).getType());
+        assertEquals(DynamicInstrumentationConfig.AttributeRule.TYPE_AUTO, resolved.getRules().get(1).getType());
+        assertEquals(DynamicInstrumentationConfig.AttributeRule.TYPE_BOOLEAN, resolved.getReturnRules().get(0).getType());
+    }
+
+    @Test
+    public void testContentionMonitoringRestored() {
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadContentionMonitoringSupported()) {
+            return;
+        }
+        boolean initial = threads.isThreadContentionMonitoringEnabled();
+        MethodConfig mc = new MethodConfig("com.example.Inventory", "reserve");
+        mc.setContentionMetrics(true);
+        try {
+            threads.setThreadContentionMonitoringEnabled(false);
+            RuleRegistrar.populate(config(mc));
+            assertTrue(threads.isThreadContentionMonitoringEnabled());
+            RuleRegistrar.populate(config(new MethodConfig("com.example.Inventory", "release")));
+            assertFalse(threads.isThreadContentionMonitoringEnabled());
+
+            // Turned on by someone else: left on
+            threads.setThreadContentionMonitoringEnabled(true);
+            RuleRegistrar.populate(config(mc));
+            RuleRegistrar.populate(null);
+            assertTrue(threads.isThreadContentionMonitoringEnabled());
+        } finally {
+            threads.setThreadContentionMonitoringEnabled(initial);
+        }
+    }
+
+    @Test
+    public void testDisabledRuleSurvivesGenerationBump() {
+        MethodConfig mc = new MethodConfig("com.example.Billing", "refund");
+        AttributeDefinition order = new AttributeDefinition(0, "getOrder.getCustomer", "app.customer");
+        order.setTimeBudgetMicros(250L);
+        mc.setAttributes(new ArrayList<>(Collections.singletonList(order)));
+        RuleRegistrar.populate(config(mc));
+
+        assertTrue(DynamicInstrumentationConfig.resolve("com.example.Billing", "refund").getRules().get(0).disable());
+
+        // A drill-down starting publishes a new generation; the rule stays disabled
+        DynamicInstrumentationConfig.setDrillDownState(Collections.singletonMap("com.example.slow", 10), null);
+        DynamicInstrumentationConfig.AttributeRule rebuilt =
+                DynamicInstrumentationConfig.resolve("com.example.Billing", "refund").getRules().get(0);
+        assertTrue(rebuilt.isDisabled());
+
+        // Loading the configuration again enables it
+        RuleRegistrar.populate(config(mc));
+        assertFalse(DynamicInstrumentationConfig.resolve("com.example.Billing", "refund").getRules().get(0).isDisabled());
+    }
+
+    @Test
+    public void testExtractionGuardsResolved() {
+        MethodConfig mc = new MethodConfig("com.example.Billing", "refund");
+        AttributeDefinition order = new AttributeDefinition(0, "getOrder.getCustomer", "app.customer");
+        order.setTimeBudgetMicros(250L);
+        mc.setAttributes(new ArrayList<>(Arrays.asList(order, new AttributeDefinition(1, null, "app.reason"))));
+        InstrumentationConfig config = config(mc);
+        config.setMaxAttributeLength(64);
+        RuleRegistrar.populate(config);
+
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.Billing", "refund");
+        DynamicInstrumentationConfig.AttributeRule budgeted = resolved.getRules().get(0);
+        assertEquals(250L, budgeted.getTimeBudgetMicros());
+        assertEquals(DynamicInstrumentationConfig.AttributeRule.TYPE_AUTO, budgeted.getType());
+        assertArrayEquals(new String[]{"getOrder", "getCustomer"}, budgeted.getMethodChain());
+        assertEquals(64, budgeted.getMaxLength());
+        assertEquals(0L, resolved.getRules().get(1).getTimeBudgetMicros());
+        assertNull(resolved.getRules().get(1).getMethodChain());
+    }
+
+    @Test
+    public void testStaticSpanAttributesPrebuilt() {
+        MethodConfig mc = new MethodConfig("com.example.Cache", "get");
+        mc.setSampleRate(0.5);
+        RuleRegistrar.populate(config(mc));
+
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.Cache", "get");
+        assertEquals("Cache.get", resolved.getSpanName());
+        assertEquals("com.example.Cache",
+                resolved.getSpanAttributes().get(AttributeKey.stringKey("code.namespace")));
+        assertEquals("get", resolved.getSpanAttributes().get(AttributeKey.stringKey("code.function")));
+        // The sampling rule key reaches the sampler without becoming an exported attribute
+        assertEquals("com.example.Cache#get", resolved.getSamplingRule());
+        assertEquals(2, resolved.getSpanAttributes().size());
+        assertSame(resolved.getSpanAttributes(),
+                DynamicInstrumentationConfig.resolve("com.example.Cache", "get").getSpanAttributes());
+    }
+
+    @Test
+    public void testSamplingRulesInstalled() {
+        MethodConfig sampled = new MethodConfig("com.example.Cache", "get");
+        sampled.setSampleRate(0.0);
+        MethodConfig plain = new MethodConfig("com.example.Cache", "put");
+        plain.setCondition("args[0] != null");
+        InstrumentationConfig config = config(sampled, plain);
+        PackageConfig pkg = new PackageConfig("com.example.dao", true, null);
+        pkg.setMaxSpansPerSecond(100);
+        config.setPackages(Collections.singletonList(pkg));
+        RuleRegistrar.populate(config);
+
+        SamplingRules rules = SamplingRules.current();
+        String getKey = DynamicInstrumentationConfig.resolve("com.example.Cache", "get").getSamplingRule();
+        assertEquals("com.example.Cache#get", getKey);
+        assertSame(rules.byRule(getKey), rules.byMethod("com.example.Cache", "get"));
+        assertFalse(rules.byRule(getKey).sample("0123456789abcdef0123456789abcdef"));
+        assertNull(DynamicInstrumentationConfig.resolve("com.example.Cache", "put").getSamplingRule());
+        String daoKey = DynamicInstrumentationConfig.resolve("com.example.dao.OrderDao", "find").getSamplingRule();
+        assertEquals("com.example.dao", daoKey);
+        assertTrue(rules.byRule(daoKey).sample("0123456789abcdef0123456789abcdef"));
+
+        // Keys stay valid when a reload adds rules before them
+        MethodConfig added = new MethodConfig("com.example.Audit", "log");
+        added.setSampleRate(1.0);
+        InstrumentationConfig reloaded = config(added, sampled, plain);
+        reloaded.setPackages(Collections.singletonList(pkg));
+        RuleRegistrar.populate(reloaded);
+        assertEquals(getKey, DynamicInstrumentationConfig.resolve("com.example.Cache", "get").getSamplingRule());
+        assertFalse(SamplingRules.current().byRule(getKey).sample("0123456789abcdef0123456789abcdef"));
+
+        RuleRegistrar.populate(config(plain));
+        assertTrue(SamplingRules.current().isEmpty());
+    }
+
+    @Test
+    public void testOverlapDefaults() {
+        InstrumentationConfig config = config(new MethodConfig("com.example.OrderController", "createOrder"));
+        config.setPackages(Collections.singletonList(new PackageConfig("com.example.web", true, null)));
+        RuleRegistrar.populate(config);
+
+        // Method rules keep their own span, package matches leave covered methods alone
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.OVERLAP_ALLOW, DynamicInstrumentationConfig
+                .resolve("com.example.OrderController", "createOrder").getOverlapPolicy());
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.OVERLAP_SUPPRESS, DynamicInstrumentationConfig
+                .resolve("com.example.web.HealthController", "health").getOverlapPolicy());
+    }
+
+    @Test
+    public void testOverlapOverrides() {
+        MethodConfig mc = new MethodConfig("com.example.OrderController", "createOrder");
+        mc.setOverlap("suppress");
+        InstrumentationConfig config = config(mc);
+        PackageConfig pkg = new PackageConfig("com.example.web", true, null);
+        config.setPackages(Collections.singletonList(pkg));
+        config.setOverlap("allow");
+        RuleRegistrar.populate(config);
+
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.OVERLAP_SUPPRESS, DynamicInstrumentationConfig
+                .resolve("com.example.OrderController", "createOrder").getOverlapPolicy());
+        // Global policy applies to packages without their own
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.OVERLAP_ALLOW, DynamicInstrumentationConfig
+                .resolve("com.example.web.HealthController", "health").getOverlapPolicy());
+    }
+
+    @Test
+    public void testRegistrySwappedAsAWhole() throws Exception {
+        RuleRegistrar.populate(config(new MethodConfig("com.example.Cache", "get")));
+        DynamicInstrumentationConfig.ResolvedMethod before =
+                DynamicInstrumentationConfig.resolve("com.example.Cache", "get");
+
+        DynamicInstrumentationConfig.beginUpdate();
+        try {
+            DynamicInstrumentationConfig.registerOptions("com.example.Cache", "put",
+                    Collections.singletonMap(DynamicInstrumentationConfig.MethodOptions.MODE, "event"));
+            // Other threads keep the previous registry, drill-downs written meanwhile are kept
+            DynamicInstrumentationConfig.ResolvedMethod[] seen = new DynamicInstrumentationConfig.ResolvedMethod[1];
+            Thread reader = new Thread(() -> {
+                seen[0] = DynamicInstrumentationConfig.resolve("com.example.Cache", "get");
+                DynamicInstrumentationConfig.setDrillDownState(
+                        Collections.singletonMap("com.example.Cache#put", 5), null);
+            });
+            reader.start();
+            reader.join();
+            assertSame(before, seen[0]);
+            DynamicInstrumentationConfig.publishUpdate();
+        } finally {
+            DynamicInstrumentationConfig.abortUpdate();
+        }
+
+        assertNull(DynamicInstrumentationConfig.getOptions("com.example.Cache", "get"));
+        DynamicInstrumentationConfig.ResolvedMethod put = DynamicInstrumentationConfig.resolve("com.example.Cache", "put");
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.MODE_EVENT, put.getMode());
+        assertEquals(5, put.getDrillDownBudget());
+        DynamicInstrumentationConfig.setDrillDownState(Collections.<String, Integer>emptyMap(), null);
+    }
+
+    @Test
+    public void testRepopulateReportsChangedRules() {
+        MethodConfig mc = new MethodConfig("com.example.Cache", "get");
+        mc.setAttributes(Collections.singletonList(new AttributeDefinition(0, null, "cache.key")));
+        RuleRegistrar.populate(config(mc));
+
+        InstrumentationDiff diff = RuleRegistrar.repopulate(config(new MethodConfig("com.example.Cache", "put")));
+        assertEquals(Collections.singleton("com.example.Cache#get"), diff.getRemoved());
+    }
+
+    private static InstrumentationConfig config(MethodConfig... methods) {
+        InstrumentationConfig config = new InstrumentationConfig();
+        config.setInstrumentations(new ArrayList<>(Arrays.asList(methods)));
+        return config;
+    }
+}
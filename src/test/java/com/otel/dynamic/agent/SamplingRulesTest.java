@@ -0,0 +1,51 @@
+package com.otel.dynamic.agent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for per-rule sampling policies.
+ */
+public class SamplingRulesTest {
+
+    @Test
+    public void testRatioMatchesTraceIdRandomPart() {
+        long half = SamplingRules.ratioBound(0.5);
+        assertTrue(SamplingRules.isWithinRatio("ffffffffffffffff0000000000000001", half));
+        assertFalse(SamplingRules.isWithinRatio("00000000000000007fffffffffffffff", half));
+        assertTrue(SamplingRules.isWithinRatio("00000000000000007fffffffffffffff", SamplingRules.ratioBound(1.0)));
+        assertFalse(SamplingRules.isWithinRatio("00000000000000000000000000000001", SamplingRules.ratioBound(0.0)));
+    }
+
+    @Test
+    public void testRateLimitAllowsOneSecondBurst() {
+        SamplingRules.Policy policy = new SamplingRules.Policy(null, 10);
+        long now = System.nanoTime();
+        int allowed = 0;
+        for (int i = 0; i < 50; i++) {
+            if (policy.tryAcquire(now)) {
+                allowed++;
+            }
+        }
+        assertEquals(10, allowed);
+        // Capacity returns at the configured rate
+        assertTrue(policy.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertFalse(policy.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+
+    @Test
+    public void testRulesWithoutSamplingAreNotRegistered() {
+        SamplingRules.Builder builder = SamplingRules.builder();
+        assertFalse(builder.add("com.example.A#run", "com.example.A", "run", null, null));
+        assertFalse(builder.add("com.example.A#run", "com.example.A", "run", null, 0));
+        assertTrue(builder.add("com.example.A#run", "com.example.A", "run", 0.25, null));
+        SamplingRules rules = builder.build();
+        assertNull(rules.byRule("com.example.A#stop"));
+        assertSame(rules.byRule("com.example.A#run"), rules.byMethod("com.example.A", "run"));
+        assertNull(rules.byMethod("com.example.A", "stop"));
+        assertNotNull(rules.byMethod("com.example.A", "run"));
+    }
+}
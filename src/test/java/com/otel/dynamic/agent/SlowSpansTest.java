@@ -0,0 +1,154 @@
+package com.otel.dynamic.agent;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for stack sampling of calls running past their threshold.
+ */
+public class SlowSpansTest {
+
+    private static final long LATER = TimeUnit.HOURS.toNanos(1);
+
+    /** A call blocked in application code until released */
+    private static final class BlockedCall extends Thread {
+        final CountDownLatch registered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Map<String, Object> event = new HashMap<>();
+        final long afterNanos;
+
+        BlockedCall(long afterNanos) {
+            this.afterNanos = afterNanos;
+        }
+
+        @Override
+        public void run() {
+            Object[] frame = SlowSpans.enter(afterNanos);
+            registered.countDown();
+            awaitRelease();
+            SlowSpans.exit(frame, recordingSpan(event));
+        }
+
+        void awaitRelease() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void finish() throws InterruptedException {
+            release.countDown();
+            join();
+        }
+    }
+
+    @Test
+    public void testHotFramesAttachedAtEnd() throws Exception {
+        BlockedCall call = start(1L);
+        long samples = DynamicCounters.get(DynamicCounters.STACK_SAMPLES);
+        for (int i = 0; i < 3; i++) {
+            SlowSpans.sample(System.nanoTime() + LATER, 16, i);
+        }
+        call.finish();
+
+        assertEquals(3L, call.event.get("stack.sample_count"));
+        String hotFrames = (String) call.event.get("stack.hot_frames");
+        assertTrue(hotFrames, hotFrames.startsWith("3x "));
+        assertTrue(hotFrames, hotFrames.contains(" in " + BlockedCall.class.getName() + ".awaitRelease("));
+        assertTrue(DynamicCounters.get(DynamicCounters.STACK_SAMPLES) >= samples + 3);
+        // The ring of an ended thread goes at the next sweep
+        assertTrue(SlowSpans.isRegistered(call));
+        SlowSpans.sample(System.nanoTime(), 16, 3);
+        assertFalse(SlowSpans.isRegistered(call));
+    }
+
+    @Test
+    public void testRingKeptBetweenCalls() {
+        Object[] first = SlowSpans.enter(LATER);
+        SlowSpans.exit(first, recordingSpan(new HashMap<>()));
+        assertTrue(SlowSpans.isRegistered(Thread.currentThread()));
+        Object[] second = SlowSpans.enter(LATER);
+        assertNotNull(second);
+        assertNotSame(first, second);
+        SlowSpans.exit(second, recordingSpan(new HashMap<>()));
+    }
+
+    @Test
+    public void testCallsUnderThresholdNotSampled() throws Exception {
+        BlockedCall call = start(LATER);
+        assertEquals(0, SlowSpans.sample(System.nanoTime(), 16, 0));
+        call.finish();
+        assertTrue(call.event.isEmpty());
+    }
+
+    @Test
+    public void testThreadsPerSweepBounded() throws Exception {
+        BlockedCall[] calls = {start(1L), start(1L), start(1L)};
+        assertEquals(1, SlowSpans.sample(System.nanoTime() + LATER, 1, 0));
+        assertEquals(1, SlowSpans.sample(System.nanoTime() + LATER, 1, 1));
+        assertEquals(1, SlowSpans.sample(System.nanoTime() + LATER, 1, 2));
+        long total = 0;
+        for (BlockedCall call : calls) {
+            call.finish();
+            // Each thread had its turn
+            assertEquals(1L, call.event.get("stack.sample_count"));
+            total += (Long) call.event.get("stack.sample_count");
+        }
+        assertEquals(3L, total);
+    }
+
+    @Test
+    public void testStackKeyAndSummary() {
+        StackTraceElement park = new StackTraceElement("jdk.internal.misc.Unsafe", "park", null, -2);
+        StackTraceElement app = new StackTraceElement("com.example.Dao", "query", "Dao.java", 42);
+        assertEquals("com.example.Dao.query(Dao.java:42)", SlowSpans.stackKey(new StackTraceElement[]{app}));
+        assertEquals("jdk.internal.misc.Unsafe.park(Native Method) in com.example.Dao.query(Dao.java:42)",
+                SlowSpans.stackKey(new StackTraceElement[]{park, app}));
+        assertNull(SlowSpans.stackKey(new StackTraceElement[0]));
+
+        Map<String, AtomicLong> stacks = new LinkedHashMap<>();
+        for (int i = 1; i <= 7; i++) {
+            stacks.put("f" + i, new AtomicLong(i));
+        }
+        assertEquals("7x f7\n6x f6\n5x f5\n4x f4\n3x f3", SlowSpans.summary(stacks));
+    }
+
+    private static BlockedCall start(long afterNanos) throws InterruptedException {
+        BlockedCall call = new BlockedCall(afterNanos);
+        call.setDaemon(true);
+        call.start();
+        call.registered.await();
+        while (call.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        return call;
+    }
+
+    private static Span recordingSpan(Map<String, Object> event) {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isRecording":
+                            return true;
+                        case "addEvent":
+                            ((Attributes) args[1]).forEach((key, value) -> event.put(((AttributeKey<?>) key).getKey(), value));
+                            return proxy;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -319,4 +319,130 @@ public class ConfigurationManagerTest {
         // No method-level setting, should use global=true
         assertTrue(manager.isConcreteOnly("com.example.IOtherService", "execute"));
     }
+
+    @Test
+    public void testExpiredRulesExcludedFromEffectiveConfig() throws IOException {
+        String json = "{\n" +
+                "  \"instrumentations\": [\n" +
+                "    { \"className\": \"com.example.Service\", \"methodName\": \"old\",\n" +
+                "      \"expiresAt\": \"2020-01-01T00:00:00Z\" },\n" +
+                "    { \"className\": \"com.example.Service\", \"methodName\": \"current\",\n" +
+                "      \"expiresAt\": \"2999-01-01T00:00:00Z\" }\n" +
+                "  ],\n" +
+                "  \"packages\": [\n" +
+                "    { \"packageName\": \"com.example.legacy\", \"expiresAt\": \"2020-01-01T00:00:00Z\" }\n" +
+                "  ]\n" +
+                "}";
+
+        try (FileWriter writer = new FileWriter(tempConfigFile)) {
+            writer.write(json);
+        }
+
+        manager = ConfigurationManager.initialize(tempConfigFile.getAbsolutePath());
+
+        // File config keeps everything, effective config drops expired rules
+        assertEquals(2, manager.getFileConfig().size());
+        assertEquals(1, manager.getConfig().size());
+        assertNull(manager.getConfigFor("com.example.Service", "old"));
+        assertNotNull(manager.getConfigFor("com.example.Service", "current"));
+        assertNull(manager.getMatchingPackageConfig("com.example.legacy.Foo"));
+        assertEquals(java.time.Instant.parse("2999-01-01T00:00:00Z").toEpochMilli(), manager.getNextExpiryMillis());
+    }
+
+    @Test
+    public void testTtlExpiryOnRefresh() throws IOException {
+        String json = "{\n" +
+                "  \"instrumentations\": [\n" +
+                "    { \"className\": \"com.example.Service\", \"methodName\": \"debug\", \"ttl\": \"PT1H\" },\n" +
+                "    { \"className\": \"com.example.Service\", \"methodName\": \"process\" }\n" +
+                "  ]\n" +
+                "}";
+
+        try (FileWriter writer = new FileWriter(tempConfigFile)) {
+            writer.write(json);
+        }
+
+        manager = ConfigurationManager.initialize(tempConfigFile.getAbsolutePath());
+        long now = System.currentTimeMillis();
+
+        assertTrue(manager.refreshExpiry(now).isEmpty());
+        assertEquals(2, manager.getConfig().size());
+
+        ConfigurationManager.ExpiredRules expired = manager.refreshExpiry(now + 2 * 3600_000L);
+        assertEquals(1, expired.getMethods().size());
+        assertEquals("debug", expired.getMethods().get(0).getMethodName());
+        assertNull(manager.getConfigFor("com.example.Service", "debug"));
+        assertNotNull(manager.getConfigFor("com.example.Service", "process"));
+
+        // Already removed, not reported twice
+        assertTrue(manager.refreshExpiry(now + 3 * 3600_000L).isEmpty());
+    }
+
+    @Test
+    public void testReloadDoesNotRestartTtl() throws IOException {
+        String json = "{ \"instrumentations\": [\n" +
+                "  { \"className\": \"com.example.Service\", \"methodName\": \"debug\", \"ttl\": \"PT1H\" }\n" +
+                "] }";
+
+        try (FileWriter writer = new FileWriter(tempConfigFile)) {
+            writer.write(json);
+        }
+
+        manager = ConfigurationManager.initialize(tempConfigFile.getAbsolutePath());
+        long expiry = manager.getNextExpiryMillis();
+        assertTrue(expiry > 0);
+
+        manager.loadConfiguration();
+        assertEquals(expiry, manager.getNextExpiryMillis());
+    }
+
+    @Test
+    public void testInvalidExpiryDisablesRule() throws IOException {
+        String json = "{\n" +
+                "  \"instrumentations\": [\n" +
+                "    { \"className\": \"com.example.Service\", \"methodName\": \"debug\", \"ttl\": \"4 hours\" },\n" +
+                "    { \"className\": \"com.example.Service\", \"methodName\": \"process\" }\n" +
+                "  ],\n" +
+                "  \"packages\": [\n" +
+                "    { \"packageName\": \"com.example.legacy\", \"expiresAt\": \"tomorrow\" }\n" +
+                "  ]\n" +
+                "}";
+
+        try (FileWriter writer = new FileWriter(tempConfigFile)) {
+            writer.write(json);
+        }
+
+        manager = ConfigurationManager.initialize(tempConfigFile.getAbsolutePath());
+
+        assertEquals(2, manager.getValidationErrors().size());
+        assertTrue(manager.getValidationErrors().get(0).contains("invalid ttl '4 hours'"));
+        assertTrue(manager.getValidationErrors().get(1).contains("invalid expiresAt 'tomorrow'"));
+        assertNull(manager.getConfigFor("com.example.Service", "debug"));
+        assertNotNull(manager.getConfigFor("com.example.Service", "process"));
+        assertNull(manager.getMatchingPackageConfig("com.example.legacy.Foo"));
+        assertEquals(-1, manager.getNextExpiryMillis());
+        assertTrue(manager.refreshExpiry(System.currentTimeMillis()).isEmpty());
+    }
+
+    @Test
+    public void testInvalidConditionDisablesRule() throws IOException {
+        String json = "{ \"instrumentations\": [\n" +
+                "  { \"className\": \"com.example.Payments\", \"methodName\": \"process\",\n" +
+                "    \"condition\": \"args[0].amount > 10000\" },\n" +
+                "  { \"className\": \"com.example.Payments\", \"methodName\": \"refund\",\n" +
+                "    \"condition\": \"args[0].amount >\" }\n" +
+                "] }";
+
+        try (FileWriter writer = new FileWriter(tempConfigFile)) {
+            writer.write(json);
+        }
+
+        manager = ConfigurationManager.initialize(tempConfigFile.getAbsolutePath());
+
+        assertNotNull(manager.getConfigFor("com.example.Payments", "process"));
+        assertNull(manager.getConfigFor("com.example.Payments", "refund"));
+        assertEquals(1, manager.getValidationErrors().size());
+        assertTrue(manager.getValidationErrors().get(0).startsWith("com.example.Payments#refund"));
+        assertEquals(manager.getValidationErrors(), manager.validateConfigurationFile());
+    }
 }
@@ -0,0 +1,145 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import com.otel.dynamic.agent.DynamicInstrumentationConfig.AttributeRule;
+import com.otel.dynamic.agent.DynamicInstrumentationConfig.ReturnValueRule;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for typed attribute extraction.
+ */
+public class AttributeExtractorTest {
+
+    public enum Status { OPEN, CLOSED { @Override public String toString() { return "closed!"; } } }
+
+    public static class Order {
+        public long getId() { return 42L; }
+        public int getItems() { return 3; }
+        public float getWeight() { return 1.5f; }
+        public boolean isPaid() { return true; }
+        public Status getStatus() { return Status.CLOSED; }
+        public BigDecimal getAmount() { return new BigDecimal("19.90"); }
+        public String getCode() { return "007"; }
+        public Order getSelf() { return this; }
+        public String getNote() { return "abcdefghij"; }
+        public String getSlow() throws InterruptedException { Thread.sleep(5); return "slow"; }
+        @Override public String toString() { return "Order#42"; }
+    }
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @Test
+    public void testAutoKeepsPrimitiveTypes() {
+        Span span = recordingSpan();
+        Order order = new Order();
+        extract(span, "id", "getId", AttributeRule.TYPE_AUTO, order);
+        extract(span, "items", "getItems", AttributeRule.TYPE_AUTO, order);
+        extract(span, "weight", "getWeight", AttributeRule.TYPE_AUTO, order);
+        extract(span, "paid", "isPaid", AttributeRule.TYPE_AUTO, order);
+        extract(span, "status", "getStatus", AttributeRule.TYPE_AUTO, order);
+        extract(span, "amount", "getAmount", AttributeRule.TYPE_AUTO, order);
+        assertEquals(42L, attributes.get("id"));
+        assertEquals(3L, attributes.get("items"));
+        assertEquals(1.5d, attributes.get("weight"));
+        assertEquals(true, attributes.get("paid"));
+        // Enum name, not its overridden toString
+        assertEquals("CLOSED", attributes.get("status"));
+        assertEquals("19.90", attributes.get("amount"));
+    }
+
+    @Test
+    public void testArgumentValueAndToString() {
+        Span span = recordingSpan();
+        extract(span, "count", null, AttributeRule.TYPE_AUTO, 7);
+        extract(span, "text", "toString", AttributeRule.TYPE_AUTO, 7);
+        extract(span, "order", null, AttributeRule.TYPE_AUTO, new Order());
+        assertEquals(7L, attributes.get("count"));
+        assertEquals("7", attributes.get("text"));
+        assertEquals("Order#42", attributes.get("order"));
+    }
+
+    @Test
+    public void testExplicitTypesConvert() {
+        Span span = recordingSpan();
+        Order order = new Order();
+        extract(span, "id", "getId", AttributeRule.TYPE_STRING, order);
+        extract(span, "code", "getCode", AttributeRule.TYPE_LONG, order);
+        extract(span, "amount", "getAmount", AttributeRule.TYPE_DOUBLE, order);
+        extract(span, "status", "getStatus", AttributeRule.TYPE_STRING, order);
+        extract(span, "bad", "toString", AttributeRule.TYPE_LONG, order);
+        assertEquals("42", attributes.get("id"));
+        assertEquals(7L, attributes.get("code"));
+        assertEquals(19.9d, attributes.get("amount"));
+        assertEquals("closed!", attributes.get("status"));
+        assertFalse(attributes.containsKey("bad"));
+    }
+
+    @Test
+    public void testMissingGetterSkipped() {
+        Span span = recordingSpan();
+        extract(span, "x", "getMissing", AttributeRule.TYPE_AUTO, new Order());
+        extract(span, "x", "getMissing", AttributeRule.TYPE_AUTO, new Order());
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    public void testGetterChain() {
+        Span span = recordingSpan();
+        extract(span, "id", "getSelf.getSelf.getId", AttributeRule.TYPE_AUTO, new Order());
+        extract(span, "missing", "getSelf.getMissing.getId", AttributeRule.TYPE_AUTO, new Order());
+        assertEquals(42L, attributes.get("id"));
+        assertFalse(attributes.containsKey("missing"));
+    }
+
+    @Test
+    public void testLongStringsTruncated() {
+        Span span = recordingSpan();
+        long truncated = DynamicCounters.get(DynamicCounters.EXTRACTIONS_TRUNCATED);
+        AttributeExtractor.extract(span, new ReturnValueRule("getNote", "note", AttributeRule.TYPE_AUTO, 0L, 4),
+                new Order());
+        AttributeExtractor.extract(span, new ReturnValueRule("getNote", "full", AttributeRule.TYPE_AUTO, 0L, 0),
+                new Order());
+        assertEquals("abcd", attributes.get("note"));
+        assertEquals("abcdefghij", attributes.get("full"));
+        assertEquals(truncated + 1, DynamicCounters.get(DynamicCounters.EXTRACTIONS_TRUNCATED));
+    }
+
+    @Test
+    public void testRuleDisabledAfterExceedingBudget() {
+        Span span = recordingSpan();
+        long disabled = DynamicCounters.get(DynamicCounters.EXTRACTIONS_DISABLED);
+        ReturnValueRule rule = new ReturnValueRule("getSlow", "slow", AttributeRule.TYPE_AUTO, 1000L, 0);
+        AttributeExtractor.extract(span, rule, new Order());
+        assertEquals("slow", attributes.remove("slow"));
+        assertTrue(rule.isDisabled());
+        AttributeExtractor.extract(span, rule, new Order());
+        assertFalse(attributes.containsKey("slow"));
+        assertEquals(disabled + 1, DynamicCounters.get(DynamicCounters.EXTRACTIONS_DISABLED));
+    }
+
+    private static void extract(Span span, String name, String methodCall, int type, Object target) {
+        AttributeExtractor.extract(span, new ReturnValueRule(methodCall, name, type), target);
+    }
+
+    private Span recordingSpan() {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("setAttribute")) {
+                        Object key = args[0];
+                        attributes.put(key instanceof AttributeKey ? ((AttributeKey<?>) key).getKey() : (String) key,
+                                args[1]);
+                        return proxy;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,93 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import com.otel.dynamic.agent.RuleRegistrar;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import io.opentelemetry.context.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for per-thread batch chunk aggregation and its duration histogram.
+ */
+public class ChunkAggregationTest {
+
+    private DynamicInstrumentationConfig.ResolvedMethod process;
+
+    @Before
+    public void setUp() {
+        MethodConfig processRule = new MethodConfig("com.example.TransactionProcessor", "process");
+        processRule.setMode("chunk");
+        processRule.setOutlierThresholdMs(50L);
+        RuleRegistrar.populate(new InstrumentationConfig(Collections.singletonList(processRule)));
+        process = DynamicInstrumentationConfig.resolve("com.example.TransactionProcessor", "process");
+    }
+
+    @After
+    public void tearDown() {
+        ChunkAggregation.end(null);
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testCallsAggregatedOnlyInsideChunk() {
+        assertEquals(DynamicInstrumentationConfig.ResolvedMethod.MODE_CHUNK, process.getMode());
+        assertTrue(process.isChunkTracking());
+        assertEquals(50_000_000L, process.getOutlierThresholdNanos());
+        assertFalse(ChunkAggregation.enter(Context.root(), process, null));
+
+        assertTrue(ChunkAggregation.begin());
+        // Nested chunk executions belong to the open chunk
+        assertFalse(ChunkAggregation.begin());
+        assertTrue(ChunkAggregation.enter(Context.root(), process, new Object[]{"tx-1"}));
+        assertTrue(ChunkAggregation.isAggregating());
+        assertTrue(ChunkAggregation.exit("com.example.Transaction", null, null) >= 0);
+        assertFalse(ChunkAggregation.isAggregating());
+        ChunkAggregation.end(null);
+
+        assertFalse(ChunkAggregation.enter(Context.root(), process, null));
+    }
+
+    @Test
+    public void testInactiveWithoutChunkRules() {
+        DynamicInstrumentationConfig.clear();
+        assertFalse(ChunkAggregation.begin());
+    }
+
+    @Test
+    public void testHistogramPercentilesWithinBucketPrecision() {
+        DurationHistogram histogram = new DurationHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000L, histogram.getCount());
+        assertEquals(1000L, histogram.getMin());
+        assertEquals(1_000_000L, histogram.getMax());
+        assertEquals(500_500_000L, histogram.getTotal());
+        long p99 = histogram.valueAt(0.99);
+        assertTrue(p99 >= 990_000L && p99 <= 990_000L * 9 / 8);
+        assertEquals(1_000_000L, histogram.valueAt(1.0));
+
+        histogram.reset();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.valueAt(0.99));
+        histogram.record(7L);
+        assertEquals(7L, histogram.valueAt(0.5));
+    }
+
+    @Test
+    public void testBucketBoundsCoverTheirValues() {
+        long[] values = {0L, 15L, 16L, 17L, 31L, 32L, 1_000_003L, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = DurationHistogram.indexOf(value);
+            assertTrue(DurationHistogram.upperBound(index) >= value);
+            assertTrue(index == 0 || DurationHistogram.upperBound(index - 1) < value);
+        }
+    }
+}
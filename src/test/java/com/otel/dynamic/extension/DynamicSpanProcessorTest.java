@@ -0,0 +1,181 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the dedicated processor of dynamic spans and its isolation
+ * from the agent's processors.
+ */
+public class DynamicSpanProcessorTest {
+
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    /** Records exported span names; exports after shutdown are a failure */
+    private static final class RecordingExporter implements SpanExporter {
+        final List<String> names = new CopyOnWriteArrayList<>();
+        volatile boolean closed;
+        volatile boolean exportedAfterClose;
+        volatile CountDownLatch exporting;
+        volatile CountDownLatch release;
+
+        @Override
+        public CompletableResultCode export(Collection<SpanData> spans) {
+            if (closed) {
+                exportedAfterClose = true;
+                return CompletableResultCode.ofFailure();
+            }
+            if (exporting != null) {
+                exporting.countDown();
+                await(release);
+            }
+            for (SpanData span : spans) {
+                names.add(span.getName());
+            }
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode flush() {
+            return CompletableResultCode.ofSuccess();
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            closed = true;
+            return CompletableResultCode.ofSuccess();
+        }
+    }
+
+    /** Records the names of the spans it sees end */
+    private static final class RecordingProcessor implements SpanProcessor {
+        final List<String> ended = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onStart(Context parentContext, ReadWriteSpan span) {
+        }
+
+        @Override
+        public boolean isStartRequired() {
+            return false;
+        }
+
+        @Override
+        public void onEnd(ReadableSpan span) {
+            ended.add(span.getName());
+        }
+
+        @Override
+        public boolean isEndRequired() {
+            return true;
+        }
+    }
+
+    private final RecordingExporter exporter = new RecordingExporter();
+    private final List<SpanExporter> exporters = new ArrayList<>(Collections.<SpanExporter>singletonList(exporter));
+    private SdkTracerProvider tracerProvider;
+
+    @After
+    public void close() {
+        if (tracerProvider != null) {
+            tracerProvider.shutdown().join(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testFullQueueDropsOldest() {
+        DynamicSpanProcessor processor = new DynamicSpanProcessor(exporters, 2, 512, HOUR_MS, HOUR_MS, null);
+        tracerProvider = SdkTracerProvider.builder().addSpanProcessor(processor).build();
+        long dropped = DynamicCounters.get(DynamicCounters.PROCESSOR_DROPPED);
+
+        for (int i = 1; i <= 3; i++) {
+            tracerProvider.get(DynamicSpanProcessor.TRACER_NAME).spanBuilder("call" + i).startSpan().end();
+        }
+        assertEquals(2, processor.getQueueSize());
+        assertEquals(dropped + 1, DynamicCounters.get(DynamicCounters.PROCESSOR_DROPPED));
+
+        assertTrue(processor.forceFlush().join(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals(Arrays.asList("call2", "call3"), exporter.names);
+    }
+
+    @Test
+    public void testAgentProcessorNeverSeesDynamicSpans() {
+        RecordingProcessor agent = new RecordingProcessor();
+        DynamicSpanProcessor processor = new DynamicSpanProcessor(exporters, 16, 512, HOUR_MS, HOUR_MS, null);
+        tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(new DynamicSpanProcessorCustomizer.BuiltInOnly(agent, () -> processor))
+                .addSpanProcessor(processor)
+                .build();
+
+        tracerProvider.get("io.opentelemetry.jdbc").spanBuilder("SELECT").startSpan().end();
+        tracerProvider.get(DynamicSpanProcessor.TRACER_NAME).spanBuilder("Dao.find").startSpan().end();
+
+        assertEquals(Collections.singletonList("SELECT"), agent.ended);
+        assertEquals(1, processor.getQueueSize());
+    }
+
+    @Test
+    public void testShutdownExportsBeforeAgentClosesExporters() {
+        DynamicSpanProcessor processor = new DynamicSpanProcessor(exporters, 16, 512, HOUR_MS, HOUR_MS, null);
+        // Registered like the agent does: its batch processor first, the dedicated one last
+        tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(new DynamicSpanProcessorCustomizer.BuiltInOnly(
+                        BatchSpanProcessor.builder(exporter).build(), () -> processor))
+                .addSpanProcessor(processor)
+                .build();
+        tracerProvider.get(DynamicSpanProcessor.TRACER_NAME).spanBuilder("Dao.find").startSpan().end();
+
+        assertTrue(tracerProvider.shutdown().join(10, TimeUnit.SECONDS).isSuccess());
+        tracerProvider = null;
+        assertTrue(exporter.closed);
+        assertFalse(exporter.exportedAfterClose);
+        assertEquals(Collections.singletonList("Dao.find"), exporter.names);
+    }
+
+    @Test
+    public void testForceFlushWaitsForBatchBeingExported() throws Exception {
+        exporter.exporting = new CountDownLatch(1);
+        exporter.release = new CountDownLatch(1);
+        // A full batch of one is exported by the worker right away
+        DynamicSpanProcessor processor = new DynamicSpanProcessor(exporters, 16, 1, HOUR_MS, HOUR_MS, null);
+        tracerProvider = SdkTracerProvider.builder().addSpanProcessor(processor).build();
+        tracerProvider.get(DynamicSpanProcessor.TRACER_NAME).spanBuilder("Dao.find").startSpan().end();
+        assertTrue(exporter.exporting.await(10, TimeUnit.SECONDS));
+
+        CompletableResultCode flush = processor.forceFlush();
+        Thread.sleep(50);
+        assertFalse(flush.isDone());
+        exporter.release.countDown();
+        assertTrue(flush.join(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals(Collections.singletonList("Dao.find"), exporter.names);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.EventData;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for event-mode invocations recorded on their parent span.
+ */
+public class EventSpanTest {
+
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder().build();
+
+    @After
+    public void close() {
+        tracerProvider.close();
+    }
+
+    @Test
+    public void testInvocationBecomesOneEvent() {
+        Span parent = parent();
+        Span ok = EventSpan.start(parent, "Cache.get", 10);
+        ok.setAttribute(AttributeKey.stringKey("cache.key"), "order:42");
+        ok.end();
+
+        Span failed = EventSpan.start(parent, "Cache.get", 10);
+        failed.setStatus(StatusCode.ERROR, "timeout");
+        failed.recordException(new IllegalStateException("timeout"), Attributes.empty());
+        failed.end();
+
+        List<EventData> events = events(parent);
+        assertEquals(2, events.size());
+        Attributes first = events.get(0).getAttributes();
+        assertEquals("Cache.get", events.get(0).getName());
+        assertEquals("order:42", first.get(AttributeKey.stringKey("cache.key")));
+        assertEquals("ok", first.get(AttributeKey.stringKey("outcome")));
+        assertTrue(first.get(AttributeKey.longKey("duration_ns")) >= 0);
+        assertNull(first.get(AttributeKey.stringKey("exception.type")));
+        Attributes second = events.get(1).getAttributes();
+        assertEquals("error", second.get(AttributeKey.stringKey("outcome")));
+        assertEquals(IllegalStateException.class.getName(), second.get(AttributeKey.stringKey("exception.type")));
+        // Nothing is recorded on the parent besides the events
+        assertTrue(((ReadableSpan) parent).toSpanData().getAttributes().isEmpty());
+        parent.end();
+    }
+
+    @Test
+    public void testEventsCappedPerParent() {
+        long droppedTotal = DynamicCounters.get(DynamicCounters.EVENTS_DROPPED);
+        Span parent = parent();
+        for (int i = 0; i < 5; i++) {
+            Span event = EventSpan.start(parent, "Cache.get", 3);
+            if (event != null) {
+                event.end();
+            }
+        }
+        assertEquals(3, events(parent).size());
+        assertEquals(Long.valueOf(2), ((ReadableSpan) parent).getAttribute(
+                AttributeKey.longKey("otel.dynamic.events.dropped")));
+        assertEquals(droppedTotal + 2, DynamicCounters.get(DynamicCounters.EVENTS_DROPPED));
+        parent.end();
+
+        // The next parent on the thread starts with a fresh budget
+        Span next = parent();
+        assertNotNull(EventSpan.start(next, "Cache.get", 3));
+        next.end();
+    }
+
+    @Test
+    public void testNonRecordingParentGetsNoEvent() {
+        assertNull(EventSpan.start(Span.getInvalid(), "Cache.get", 3));
+    }
+
+    private Span parent() {
+        return tracerProvider.get("test").spanBuilder("GET /orders").startSpan();
+    }
+
+    private static List<EventData> events(Span span) {
+        return ((ReadableSpan) span).toSpanData().getEvents();
+    }
+}
@@ -0,0 +1,116 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for spans ending on future completion.
+ */
+public class FutureSpansTest {
+
+    public static class Receipt {
+        public long getNumber() { return 17L; }
+    }
+
+    private final Map<String, Object> attributes = new HashMap<>();
+    private int ended;
+    private StatusCode status;
+    private Throwable recorded;
+
+    @Before
+    @After
+    public void clearRegistry() {
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testDeclaredReturnTypes() {
+        assertEquals(AsyncSpans.FUTURE, AsyncSpans.kindOf("java.util.concurrent.CompletableFuture"));
+        assertEquals(AsyncSpans.FUTURE, AsyncSpans.kindOf("org.springframework.util.concurrent.ListenableFuture"));
+        assertEquals(AsyncSpans.SYNC, AsyncSpans.kindOf("java.lang.String"));
+    }
+
+    @Test
+    public void testSpanEndsOnCompletionWithValue() {
+        CompletableFuture<Receipt> future = new CompletableFuture<>();
+        assertSame(future, AsyncSpans.trace("java.util.concurrent.CompletableFuture", future,
+                recordingSpan(), resolved(), 0L));
+        assertEquals(0, ended);
+
+        future.complete(new Receipt());
+        assertEquals(1, ended);
+        assertEquals(17L, attributes.get("app.receipt"));
+        assertNull(status);
+    }
+
+    @Test
+    public void testExceptionalCompletionRecordsCause() {
+        CompletableFuture<Receipt> future = new CompletableFuture<>();
+        FutureSpans.trace(future.thenApply(r -> r), recordingSpan(), resolved(), 0L);
+        IllegalStateException cause = new IllegalStateException("gateway timeout");
+        future.completeExceptionally(cause);
+        assertEquals(1, ended);
+        assertEquals(StatusCode.ERROR, status);
+        assertSame(cause, recorded);
+    }
+
+    @Test
+    public void testCancellationIsNotAnError() {
+        CompletableFuture<Receipt> future = new CompletableFuture<>();
+        FutureSpans.trace(future, recordingSpan(), resolved(), 0L);
+        future.cancel(false);
+        assertEquals(1, ended);
+        assertEquals(true, attributes.get("async.cancelled"));
+        assertNull(status);
+    }
+
+    @Test
+    public void testPlainFutureEndsOnReturn() {
+        assertNull(FutureSpans.trace(new FutureTask<>(Receipt::new), recordingSpan(), resolved(), 0L));
+        assertEquals(0, ended);
+    }
+
+    private DynamicInstrumentationConfig.ResolvedMethod resolved() {
+        DynamicInstrumentationConfig.registerReturn("com.example.Payments", "charge", Collections.singletonList(
+                new DynamicInstrumentationConfig.ReturnValueRule("getNumber", "app.receipt")));
+        return DynamicInstrumentationConfig.resolve("com.example.Payments", "charge");
+    }
+
+    private Span recordingSpan() {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setAttribute":
+                            attributes.put(((AttributeKey<?>) args[0]).getKey(), args[1]);
+                            return proxy;
+                        case "isRecording":
+                            return true;
+                        case "setStatus":
+                            status = (StatusCode) args[0];
+                            return proxy;
+                        case "recordException":
+                            recorded = (Throwable) args[0];
+                            return proxy;
+                        case "end":
+                            ended++;
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
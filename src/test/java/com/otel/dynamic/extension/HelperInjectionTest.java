@@ -0,0 +1,110 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.RuleRegistrar;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import com.otel.dynamic.config.model.QueueLagConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the helper class list against what the advice needs, by loading the
+ * helpers in a classloader that, like an application classloader, sees no
+ * other class of the extension.
+ */
+public class HelperInjectionTest {
+
+    /** Defines the listed helpers itself; other extension classes are not found */
+    private static final class InjectedLoader extends ClassLoader {
+        private final Set<String> helpers;
+
+        InjectedLoader(List<String> helpers) {
+            super(HelperInjectionTest.class.getClassLoader());
+            this.helpers = new HashSet<>(helpers);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                if (!name.startsWith("com.otel.dynamic.")) {
+                    return super.loadClass(name, resolve);
+                }
+                if (!helpers.contains(name)) {
+                    throw new ClassNotFoundException(name + " is not a helper class");
+                }
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    byte[] bytes = read(name.replace('.', '/') + ".class");
+                    loaded = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(loaded);
+                }
+                return loaded;
+            }
+        }
+
+        private byte[] read(String resource) throws ClassNotFoundException {
+            try (InputStream in = getParent().getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new ClassNotFoundException(resource);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(resource, e);
+            }
+        }
+    }
+
+    private final List<String> helpers = new ConfigDrivenInstrumentationModule().getAdditionalHelperClassNames();
+
+    @After
+    public void clearRules() {
+        RuleRegistrar.populate(null);
+    }
+
+    @Test
+    public void testHelpersLinkWithoutOtherExtensionClasses() throws Exception {
+        InjectedLoader loader = new InjectedLoader(helpers);
+        for (String helper : helpers) {
+            Class<?> loaded = Class.forName(helper, false, loader);
+            assertSame(loader, loaded.getClassLoader());
+            // Verification loads the classes the bytecode needs
+            loader.loadClass(helper, true).getDeclaredMethods();
+        }
+    }
+
+    @Test
+    public void testQueueLagRuleResolvesInApplicationClassloader() throws Exception {
+        MethodConfig rule = new MethodConfig("com.example.OrderMessageConsumer", "receiveOrder");
+        QueueLagConfig lag = new QueueLagConfig();
+        lag.setHeader("x-sent-at");
+        rule.setQueueLag(lag);
+        RuleRegistrar.populate(new InstrumentationConfig(Collections.singletonList(rule)));
+
+        Class<?> config = Class.forName("com.otel.dynamic.agent.DynamicInstrumentationConfig", true,
+                new InjectedLoader(helpers));
+        Object resolved = config.getMethod("resolve", String.class, String.class)
+                .invoke(null, "com.example.OrderMessageConsumer", "receiveOrder");
+        Method getQueueLag = resolved.getClass().getMethod("getQueueLag");
+        Object queueLag = getQueueLag.invoke(resolved);
+        assertNotNull(queueLag);
+        assertEquals("x-sent-at", queueLag.getClass().getMethod("getHeader").invoke(queueLag));
+    }
+}
@@ -0,0 +1,159 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import com.otel.dynamic.agent.RuleRegistrar;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import com.otel.dynamic.config.model.QueueLagConfig;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for message queue lag, against an in-memory broker delivering
+ * messages with Spring AMQP's accessor shape.
+ */
+public class QueueLagTest {
+
+    /** Same accessors as Spring AMQP's MessageProperties */
+    public static class Properties {
+        private final Map<String, Object> headers = new HashMap<>();
+        private Date timestamp;
+        private String consumerQueue;
+
+        public Map<String, Object> getHeaders() { return headers; }
+        public Date getTimestamp() { return timestamp; }
+        public String getConsumerQueue() { return consumerQueue; }
+    }
+
+    /** Same accessors as Spring AMQP's Message */
+    public static class Message {
+        private final Properties properties = new Properties();
+        private final Order body;
+
+        Message(Order body) { this.body = body; }
+
+        public Properties getMessageProperties() { return properties; }
+        public Order getBody() { return body; }
+    }
+
+    public static class Order {
+        private final Instant createdAt;
+
+        Order(Instant createdAt) { this.createdAt = createdAt; }
+
+        public Instant getCreatedAt() { return createdAt; }
+    }
+
+    /** Stands in for RabbitMQ: stamps messages on publish, hands them to a listener on delivery */
+    static class InMemoryBroker {
+        private final Queue<Message> queue = new ArrayDeque<>();
+
+        Message publish(String queueName, Order order, long publishedAtMillis) {
+            Message message = new Message(order);
+            message.properties.timestamp = new Date(publishedAtMillis);
+            message.properties.headers.put("x-published-at", publishedAtMillis);
+            message.properties.consumerQueue = queueName;
+            queue.add(message);
+            return message;
+        }
+
+        void deliver(Consumer<Message> listener) {
+            Message message;
+            while ((message = queue.poll()) != null) {
+                listener.accept(message);
+            }
+        }
+    }
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @After
+    public void clearRegistry() {
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testLagFromHeaderOfDeliveredMessage() {
+        DynamicInstrumentationConfig.ResolvedMethod resolved = resolve(lag("x-published-at", null));
+        InMemoryBroker broker = new InMemoryBroker();
+        broker.publish("orders.queue", new Order(Instant.now()), System.currentTimeMillis() - 250);
+
+        broker.deliver(message ->
+                QueueLag.record(recordingSpan(), resolved.getQueueLag(), new Object[]{message}, resolved.getSpanName()));
+
+        long lag = (Long) attributes.get("messaging.queue_lag_ms");
+        assertTrue(lag >= 250 && lag < 10_000);
+    }
+
+    @Test
+    public void testLagFromAmqpTimestampAndGetterChain() throws Throwable {
+        InMemoryBroker broker = new InMemoryBroker();
+        Message message = broker.publish("orders.queue", new Order(Instant.ofEpochMilli(1_000L)), 2_000L);
+
+        DynamicInstrumentationConfig.QueueLagRule timestamp = resolve(lag("timestamp", null)).getQueueLag();
+        assertEquals(new Date(2_000L), QueueLag.timestampOf(timestamp, message));
+        DynamicInstrumentationConfig.QueueLagRule chain = resolve(lag(null, "getBody.getCreatedAt")).getQueueLag();
+        assertEquals(Instant.ofEpochMilli(1_000L), QueueLag.timestampOf(chain, message));
+        assertEquals("orders.queue", QueueLag.queueOf(message));
+    }
+
+    @Test
+    public void testTimestampFormats() {
+        assertEquals(42L, QueueLag.epochMillis(42L));
+        assertEquals(42L, QueueLag.epochMillis("42"));
+        assertEquals(42L, QueueLag.epochMillis(new Date(42L)));
+        assertEquals(42L, QueueLag.epochMillis(Instant.ofEpochMilli(42L)));
+        assertEquals(42L, QueueLag.epochMillis("1970-01-01T00:00:00.042Z"));
+        assertTrue(QueueLag.epochMillis(LocalDateTime.now()) > 0);
+        assertEquals(-1L, QueueLag.epochMillis("soon"));
+        assertEquals(-1L, QueueLag.epochMillis(new Object()));
+    }
+
+    @Test
+    public void testMissingTimestampRecordsNothing() {
+        DynamicInstrumentationConfig.ResolvedMethod resolved = resolve(lag("x-missing", null));
+        QueueLag.record(recordingSpan(), resolved.getQueueLag(), new Object[]{new Message(null)}, "Consumer.receive");
+        QueueLag.record(recordingSpan(), resolved.getQueueLag(), new Object[0], "Consumer.receive");
+        assertTrue(attributes.isEmpty());
+    }
+
+    private static QueueLagConfig lag(String header, String methodCall) {
+        QueueLagConfig lag = new QueueLagConfig();
+        lag.setHeader(header);
+        lag.setMethodCall(methodCall);
+        return lag;
+    }
+
+    private static DynamicInstrumentationConfig.ResolvedMethod resolve(QueueLagConfig lag) {
+        MethodConfig rule = new MethodConfig("com.example.OrderMessageConsumer", "receiveOrder");
+        rule.setQueueLag(lag);
+        RuleRegistrar.populate(new InstrumentationConfig(Collections.singletonList(rule)));
+        return DynamicInstrumentationConfig.resolve("com.example.OrderMessageConsumer", "receiveOrder");
+    }
+
+    private Span recordingSpan() {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("setAttribute")) {
+                        attributes.put(((AttributeKey<?>) args[0]).getKey(), args[1]);
+                        return proxy;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,102 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for executor queue time.
+ */
+public class QueueTimeTest {
+
+    public static class PrefixedExecutor implements Executor {
+        public String getThreadNamePrefix() { return "orders-"; }
+        @Override public void execute(Runnable command) { command.run(); }
+    }
+
+    public static class PlainExecutor implements Executor {
+        @Override public void execute(Runnable command) { command.run(); }
+    }
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @Before
+    @After
+    public void clearRegistry() {
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testFirstSpanOfTaskClaimsQueueTime() throws Exception {
+        DynamicInstrumentationConfig.setQueueTracking(true);
+        Context submitted;
+        try (Scope scope = QueueTime.submit(new PrefixedExecutor())) {
+            assertNotNull(scope);
+            submitted = Context.current();
+        }
+        Thread.sleep(2);
+
+        QueueTime.onSpanStart(submitted, recordingSpan());
+        Object waitMs = attributes.remove("queue.wait_ms");
+        assertTrue(waitMs instanceof Double);
+        assertTrue((Double) waitMs >= 1.0);
+
+        // Nested spans of the same task do not report it again
+        QueueTime.onSpanStart(submitted, recordingSpan());
+        assertFalse(attributes.containsKey("queue.wait_ms"));
+    }
+
+    @Test
+    public void testInactiveWithoutSetting() {
+        assertNull(QueueTime.submit(new PlainExecutor()));
+        QueueTime.onSpanStart(Context.root(), recordingSpan());
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    public void testSettingAppliesWhenRegistryIsPublished() {
+        DynamicInstrumentationConfig.beginUpdate();
+        try {
+            DynamicInstrumentationConfig.setQueueTracking(true);
+            assertNull(QueueTime.submit(new PlainExecutor()));
+            DynamicInstrumentationConfig.publishUpdate();
+        } finally {
+            DynamicInstrumentationConfig.abortUpdate();
+        }
+        Scope scope = QueueTime.submit(new PlainExecutor());
+        assertNotNull(scope);
+        scope.close();
+
+        DynamicInstrumentationConfig.setQueueTracking(false);
+        assertNull(QueueTime.submit(new PlainExecutor()));
+    }
+
+    @Test
+    public void testExecutorNames() {
+        assertEquals("orders", QueueTime.nameOf(new PrefixedExecutor()));
+        assertEquals(PlainExecutor.class.getName(), QueueTime.nameOf(new PlainExecutor()));
+    }
+
+    private Span recordingSpan() {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("setAttribute")) {
+                        attributes.put(((AttributeKey<?>) args[0]).getKey(), args[1]);
+                        return proxy;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,163 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for spans ending on reactive completion, against a publisher with
+ * Reactor's operator signatures.
+ */
+public class ReactiveSpansTest {
+
+    /** Same shape as Reactor's Signal */
+    public interface Signal<T> {
+        boolean isOnNext();
+        boolean isOnError();
+        boolean isOnComplete();
+        T get();
+        Throwable getThrowable();
+    }
+
+    /** Same operator signatures as Reactor's Mono/Flux; records the callbacks */
+    public static class TestFlux<T> {
+        Consumer<Object> onSubscribe;
+        Consumer<? super Signal<T>> onEach;
+        Runnable onCancel;
+
+        public TestFlux<T> doOnSubscribe(Consumer<Object> callback) {
+            onSubscribe = callback;
+            return this;
+        }
+
+        public TestFlux<T> doOnEach(Consumer<? super Signal<T>> callback) {
+            onEach = callback;
+            return this;
+        }
+
+        public TestFlux<T> doOnCancel(Runnable callback) {
+            onCancel = callback;
+            return this;
+        }
+
+        void subscribe() {
+            onSubscribe.accept(new Object());
+        }
+
+        void emit(T value, Throwable error, boolean complete) {
+            onEach.accept(new Signal<T>() {
+                public boolean isOnNext() { return value != null; }
+                public boolean isOnError() { return error != null; }
+                public boolean isOnComplete() { return complete; }
+                public T get() { return value; }
+                public Throwable getThrowable() { return error; }
+            });
+        }
+    }
+
+    public static class Product {
+        public String getSku() { return "P-1"; }
+    }
+
+    private final Map<String, Object> attributes = new HashMap<>();
+    private int ended;
+    private StatusCode status;
+
+    @Before
+    @After
+    public void clearRegistry() {
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testDeclaredReturnTypes() {
+        assertEquals(AsyncSpans.REACTIVE, AsyncSpans.kindOf("reactor.core.publisher.Mono"));
+        assertEquals(AsyncSpans.REACTIVE, AsyncSpans.kindOf("org.reactivestreams.Publisher"));
+        assertEquals(AsyncSpans.SYNC, AsyncSpans.kindOf("java.lang.Object"));
+        assertEquals(AsyncSpans.SYNC, AsyncSpans.kindOf("void"));
+    }
+
+    @Test
+    public void testSpanEndsOnCompletionWithFirstElement() {
+        TestFlux<Product> flux = new TestFlux<>();
+        Object traced = ReactiveSpans.trace(flux, recordingSpan(), resolved(), 0L);
+        assertSame(flux, traced);
+        assertEquals(0, ended);
+
+        flux.subscribe();
+        flux.emit(new Product(), null, false);
+        flux.emit(new Product(), null, false);
+        assertEquals(0, ended);
+        flux.emit(null, null, true);
+        flux.onCancel.run();
+
+        assertEquals(1, ended);
+        assertEquals("P-1", attributes.get("app.sku"));
+        assertEquals(2L, attributes.get("reactive.elements"));
+        assertTrue(attributes.get("reactive.first_signal_ms") instanceof Double);
+        assertFalse(attributes.containsKey("reactive.cancelled"));
+    }
+
+    @Test
+    public void testErrorAndCancel() {
+        TestFlux<Product> failing = new TestFlux<>();
+        ReactiveSpans.trace(failing, recordingSpan(), resolved(), 0L);
+        failing.subscribe();
+        failing.emit(null, new IllegalStateException("db down"), false);
+        assertEquals(1, ended);
+        assertEquals(StatusCode.ERROR, status);
+
+        TestFlux<Product> cancelled = new TestFlux<>();
+        ReactiveSpans.trace(cancelled, recordingSpan(), resolved(), 0L);
+        cancelled.subscribe();
+        cancelled.onCancel.run();
+        assertEquals(2, ended);
+        assertEquals(true, attributes.get("reactive.cancelled"));
+    }
+
+    @Test
+    public void testOtherReturnValuesNotDeferred() {
+        assertNull(ReactiveSpans.trace("not a publisher", recordingSpan(), resolved(), 0L));
+    }
+
+    private DynamicInstrumentationConfig.ResolvedMethod resolved() {
+        DynamicInstrumentationConfig.registerReturn("com.example.Catalog", "find", Collections.singletonList(
+                new DynamicInstrumentationConfig.ReturnValueRule("getSku", "app.sku")));
+        return DynamicInstrumentationConfig.resolve("com.example.Catalog", "find");
+    }
+
+    private Span recordingSpan() {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setAttribute":
+                            attributes.put(((AttributeKey<?>) args[0]).getKey(), args[1]);
+                            return proxy;
+                        case "isRecording":
+                            return true;
+                        case "setStatus":
+                            status = (StatusCode) args[0];
+                            return proxy;
+                        case "recordException":
+                            return proxy;
+                        case "end":
+                            ended++;
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
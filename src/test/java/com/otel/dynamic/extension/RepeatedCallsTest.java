@@ -0,0 +1,183 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import com.otel.dynamic.agent.RuleRegistrar;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for per-thread repeated-call run tracking.
+ */
+public class RepeatedCallsTest {
+
+    private DynamicInstrumentationConfig.ResolvedMethod write;
+    private DynamicInstrumentationConfig.ResolvedMethod flush;
+
+    @Before
+    public void setUp() {
+        MethodConfig writeRule = new MethodConfig("com.example.TransactionWriter", "write");
+        writeRule.setCompressAfter(2);
+        InstrumentationConfig config = new InstrumentationConfig(Arrays.asList(
+                writeRule, new MethodConfig("com.example.TransactionWriter", "flush")));
+        RuleRegistrar.populate(config);
+        write = DynamicInstrumentationConfig.resolve("com.example.TransactionWriter", "write");
+        flush = DynamicInstrumentationConfig.resolve("com.example.TransactionWriter", "flush");
+        RepeatedCalls.flush(Span.getInvalid());
+    }
+
+    @After
+    public void tearDown() {
+        RepeatedCalls.flush(Span.getInvalid());
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testCallsBeyondThresholdAreFolded() {
+        assertTrue(write.isCompressionTracking());
+        assertFalse(call(write));
+        assertFalse(call(write));
+        assertTrue(RepeatedCalls.enter(Context.root(), write));
+        assertTrue(RepeatedCalls.isCompressing());
+        RepeatedCalls.exit(false);
+        assertFalse(RepeatedCalls.isCompressing());
+        assertTrue(call(write));
+    }
+
+    @Test
+    public void testSiblingCallEndsRun() {
+        call(write);
+        call(write);
+        assertTrue(call(write));
+        // Another method under the same parent starts a new run
+        assertFalse(call(flush));
+        assertFalse(call(write));
+        assertFalse(call(write));
+        assertTrue(call(write));
+    }
+
+    @Test
+    public void testEndingParentEndsRun() {
+        call(write);
+        call(write);
+        assertTrue(call(write));
+        RepeatedCalls.flush(Span.getInvalid());
+        assertFalse(RepeatedCalls.hasThreadState());
+        assertFalse(call(write));
+    }
+
+    @Test
+    public void testEndedForeignParentIsReleased() {
+        ForeignSpan foreign = new ForeignSpan();
+        Context parent = Context.root().with(foreign);
+        call(parent, write);
+        call(parent, write);
+        assertTrue(call(parent, write));
+
+        // The foreign parent ends without a dynamic exit; the next dynamic exit on the thread summarizes the run
+        foreign.end();
+        RepeatedCalls.flush(Span.getInvalid());
+        assertFalse(RepeatedCalls.hasThreadState());
+    }
+
+    @Test
+    public void testSummaryCarriesMethodSpanNameAndAttributes() {
+        List<SpanData> ended = new CopyOnWriteArrayList<>();
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(new SpanExporter() {
+                    @Override
+                    public CompletableResultCode export(Collection<SpanData> spans) {
+                        ended.addAll(spans);
+                        return CompletableResultCode.ofSuccess();
+                    }
+
+                    @Override
+                    public CompletableResultCode flush() {
+                        return CompletableResultCode.ofSuccess();
+                    }
+
+                    @Override
+                    public CompletableResultCode shutdown() {
+                        return CompletableResultCode.ofSuccess();
+                    }
+                }))
+                .build();
+        GlobalOpenTelemetry.resetForTest();
+        GlobalOpenTelemetry.set(OpenTelemetrySdk.builder().setTracerProvider(tracerProvider).build());
+        try {
+            Context parent = Context.root().with(new ForeignSpan());
+            for (int i = 0; i < 5; i++) {
+                call(parent, write);
+            }
+            // A sibling call under the still-recording parent ends the run
+            call(parent, flush);
+
+            assertEquals(1, ended.size());
+            SpanData summary = ended.get(0);
+            assertEquals(write.getSpanName(), summary.getName());
+            for (Map.Entry<AttributeKey<?>, Object> attribute : write.getSpanAttributes().asMap().entrySet()) {
+                assertEquals(attribute.getValue(), summary.getAttributes().get(attribute.getKey()));
+            }
+            assertEquals(Long.valueOf(3), summary.getAttributes().get(AttributeKey.longKey("compressed.count")));
+        } finally {
+            tracerProvider.close();
+            GlobalOpenTelemetry.resetForTest();
+        }
+    }
+
+    private static boolean call(DynamicInstrumentationConfig.ResolvedMethod method) {
+        return call(Context.root(), method);
+    }
+
+    private static boolean call(Context parent, DynamicInstrumentationConfig.ResolvedMethod method) {
+        boolean folded = RepeatedCalls.enter(parent, method);
+        if (folded) {
+            RepeatedCalls.exit(false);
+        }
+        return folded;
+    }
+
+    /** A span of another instrumentation, which ends without a dynamic exit */
+    private static final class ForeignSpan implements Span {
+        private final SpanContext spanContext = SpanContext.create("0123456789abcdef0123456789abcdef",
+                "0123456789abcdef", TraceFlags.getSampled(), TraceState.getDefault());
+        private boolean recording = true;
+
+        @Override public <T> Span setAttribute(AttributeKey<T> key, T value) { return this; }
+        @Override public Span addEvent(String name, Attributes attributes) { return this; }
+        @Override public Span addEvent(String name, Attributes attributes, long timestamp, TimeUnit unit) { return this; }
+        @Override public Span setStatus(StatusCode statusCode, String description) { return this; }
+        @Override public Span recordException(Throwable exception, Attributes additionalAttributes) { return this; }
+        @Override public Span updateName(String name) { return this; }
+        @Override public void end() { recording = false; }
+        @Override public void end(long timestamp, TimeUnit unit) { recording = false; }
+        @Override public SpanContext getSpanContext() { return spanContext; }
+        @Override public boolean isRecording() { return recording; }
+    }
+}
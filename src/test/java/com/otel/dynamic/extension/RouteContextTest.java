@@ -0,0 +1,80 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the per-trace route marker of route-scoped rules.
+ */
+public class RouteContextTest {
+
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder().build();
+    private final Tracer tracer = tracerProvider.get("io.opentelemetry.tomcat");
+
+    @After
+    public void close() {
+        tracerProvider.close();
+    }
+
+    @Test
+    public void testRouteOrRootSpanNameMatches() {
+        Span server = server("POST /orders");
+        server.setAttribute("http.route", "/orders");
+        RouteContext marker = RouteContext.get(Context.root().with(server));
+
+        assertTrue(marker.matches(new String[] {"/orders"}));
+        assertTrue(marker.matches(new String[] {"GET /health", "POST /orders"}));
+        assertFalse(marker.matches(new String[] {"/orders/{id}"}));
+        server.end();
+    }
+
+    @Test
+    public void testRouteSetLaterIsPickedUp() {
+        // The route is often only known once the framework has dispatched the request
+        Span server = server("POST");
+        Context context = Context.root().with(server);
+        assertFalse(RouteContext.get(context).matches(new String[] {"/orders"}));
+
+        server.setAttribute("http.route", "/orders");
+        assertEquals("/orders", RouteContext.get(context).getRoute());
+        assertTrue(RouteContext.get(context).matches(new String[] {"/orders"}));
+        server.end();
+    }
+
+    @Test
+    public void testMarkerPropagatesToNestedCalls() {
+        Span server = server("GET /orders/{id}");
+        Context serverContext = Context.root().with(server);
+        RouteContext marker = RouteContext.get(serverContext);
+
+        Span child = tracer.spanBuilder("OrderService.find").setParent(serverContext).startSpan();
+        Context childContext = RouteContext.store(serverContext.with(child), marker);
+        // Nested calls see the root's marker, not their parent's span name
+        assertSame(marker, RouteContext.get(childContext));
+        assertTrue(RouteContext.get(childContext).matches(new String[] {"GET /orders/{id}"}));
+        assertSame(childContext, RouteContext.store(childContext, marker));
+        child.end();
+        server.end();
+    }
+
+    @Test
+    public void testPropagatedParentMatchesNothing() {
+        assertFalse(RouteContext.get(Context.root()).matches(new String[] {"/orders"}));
+        // A span known only by its context (e.g. from another process) exposes no name
+        Span server = server("GET");
+        assertFalse(RouteContext.get(Context.root().with(Span.wrap(server.getSpanContext())))
+                .matches(new String[] {"GET"}));
+        server.end();
+    }
+
+    private Span server(String name) {
+        return tracer.spanBuilder(name).setSpanKind(SpanKind.SERVER).startSpan();
+    }
+}
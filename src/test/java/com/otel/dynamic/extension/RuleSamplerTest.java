@@ -0,0 +1,103 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import com.otel.dynamic.agent.RuleRegistrar;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for per-rule sampling as the advice applies it.
+ */
+public class RuleSamplerTest {
+
+    private SdkTracerProvider tracerProvider;
+    private Tracer tracer;
+
+    @Before
+    public void installSdk() {
+        GlobalOpenTelemetry.resetForTest();
+        tracerProvider = SdkTracerProvider.builder()
+                .setSampler(new RuleSampler(Sampler.parentBased(Sampler.alwaysOn())))
+                .build();
+        GlobalOpenTelemetry.set(OpenTelemetrySdk.builder().setTracerProvider(tracerProvider).build());
+        tracer = tracerProvider.get("test");
+
+        MethodConfig dropped = new MethodConfig("com.example.Cache", "get");
+        dropped.setSampleRate(0.0);
+        MethodConfig kept = new MethodConfig("com.example.Cache", "put");
+        kept.setSampleRate(1.0);
+        RuleRegistrar.populate(new InstrumentationConfig(Arrays.asList(dropped, kept)));
+    }
+
+    @After
+    public void reset() {
+        RuleRegistrar.populate(null);
+        tracerProvider.close();
+        GlobalOpenTelemetry.resetForTest();
+    }
+
+    @Test
+    public void testChildOfRuleDroppedCallStaysSampled() {
+        Span parent = tracer.spanBuilder("request").startSpan();
+        try (Scope ignored = parent.makeCurrent()) {
+            Scope scope = enter("get");
+            try {
+                // The dropped span is not current, so nested work joins the parent
+                assertSame(parent, Span.current());
+                Span jdbc = tracer.spanBuilder("SELECT").startSpan();
+                assertTrue(jdbc.getSpanContext().isSampled());
+                assertEquals(parent.getSpanContext().getSpanId(), parentSpanId(jdbc));
+                jdbc.end();
+            } finally {
+                if (scope != null) {
+                    scope.close();
+                }
+            }
+        } finally {
+            parent.end();
+        }
+    }
+
+    @Test
+    public void testSampledRuleSpanBecomesCurrent() {
+        Span parent = tracer.spanBuilder("request").startSpan();
+        try (Scope ignored = parent.makeCurrent()) {
+            try (Scope scope = enter("put")) {
+                assertNotNull(scope);
+                assertNotSame(parent, Span.current());
+                assertTrue(Span.current().isRecording());
+                // The rule key only lives on the thread while the span starts
+                assertNull(DynamicInstrumentationConfig.getStartingRule());
+                assertNull(((ReadableSpan) Span.current()).getAttribute(AttributeKey.stringKey("otel.dynamic.rule")));
+                Span.current().end();
+            }
+        } finally {
+            parent.end();
+        }
+    }
+
+    private static Scope enter(String methodName) {
+        return DynamicAdvice.onEnter("com/example/Cache", methodName, new Object[0], null, null, 0L, 0, null,
+                0L, 0L, null, null, 0L, null);
+    }
+
+    private static String parentSpanId(Span span) {
+        return ((ReadableSpan) span).getParentSpanContext().getSpanId();
+    }
+}
@@ -0,0 +1,67 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for runtime detection of spans another instrumentation started
+ * for the same method.
+ */
+public class SpanOverlapTest {
+
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder().build();
+    private final Tracer tracer = tracerProvider.get("io.opentelemetry.spring-data");
+
+    @After
+    public void close() {
+        tracerProvider.close();
+    }
+
+    @Test
+    public void testSpanForSameMethodIsDuplicate() {
+        Span span = tracer.spanBuilder("OrderRepository.save")
+                .setAttribute("code.function.name", "com.example.OrderRepository.save")
+                .startSpan();
+        Context context = Context.root().with(span);
+
+        assertTrue(SpanOverlap.isDuplicate(context, "com.example.OrderRepository", null, "save"));
+        assertFalse(SpanOverlap.isDuplicate(context, "com.example.OrderRepository", null, "saveAll"));
+        assertFalse(SpanOverlap.isDuplicate(context, "com.example.Order", null, "save"));
+        // Proxies and implementations match through the instrumented interface
+        assertTrue(SpanOverlap.isDuplicate(context, "com.example.JpaOrderRepository",
+                "com.example.OrderRepository", "save"));
+        span.end();
+    }
+
+    @Test
+    public void testOlderCodeAttributesMatch() {
+        Span span = tracer.spanBuilder("OrderRepository.save")
+                .setAttribute("code.namespace", "com.example.OrderRepository")
+                .setAttribute("code.function", "save")
+                .startSpan();
+        Context context = Context.root().with(span);
+
+        assertTrue(SpanOverlap.isDuplicate(context, "com.example.OrderRepository", null, "save"));
+        assertFalse(SpanOverlap.isDuplicate(context, "com.example.OrderRepository", null, "delete"));
+        span.end();
+    }
+
+    @Test
+    public void testOwnSpanIsNotDuplicate() {
+        Span span = tracer.spanBuilder("OrderRepository.save")
+                .setAttribute("code.function.name", "com.example.OrderRepository.save")
+                .startSpan();
+        Context context = SpanOverlap.markOwn(Context.root().with(span), span);
+
+        // A recursive call of a dynamically traced method nests its own span
+        assertFalse(SpanOverlap.isDuplicate(context, "com.example.OrderRepository", null, "save"));
+        assertFalse(SpanOverlap.isDuplicate(Context.root(), "com.example.OrderRepository", null, "save"));
+        span.end();
+    }
+}
@@ -0,0 +1,195 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.data.StatusData;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for tail sampling of dynamic spans.
+ */
+public class TailSamplerTest {
+
+    private static final long THRESHOLD = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final String ROOT_SPAN_ID = "00000000000000aa";
+
+    @Test
+    public void testFastTraceDropped() {
+        TailSampler sampler = new TailSampler(THRESHOLD, 0.0, 1 << 20, Long.MAX_VALUE);
+        String traceId = traceId(1);
+        assertTrue(sampler.add(span(traceId, StatusCode.UNSET, 1000)).isEmpty());
+        assertTrue(sampler.getBufferedBytes() > 0);
+        assertTrue(sampler.onRootEnd(root(traceId, StatusCode.UNSET, 1000)).isEmpty());
+        assertEquals(0, sampler.getBufferedBytes());
+    }
+
+    @Test
+    public void testErrorOrSlowTraceKept() {
+        TailSampler sampler = new TailSampler(THRESHOLD, 0.0, 1 << 20, Long.MAX_VALUE);
+        String failed = traceId(2);
+        sampler.add(span(failed, StatusCode.UNSET, 1000));
+        sampler.add(span(failed, StatusCode.ERROR, 1000));
+        assertEquals(2, sampler.onRootEnd(root(failed, StatusCode.UNSET, 1000)).size());
+
+        String slowRoot = traceId(3);
+        sampler.add(span(slowRoot, StatusCode.UNSET, 1000));
+        assertEquals(1, sampler.onRootEnd(root(slowRoot, StatusCode.UNSET, THRESHOLD)).size());
+
+        String failedRoot = traceId(4);
+        sampler.add(span(failedRoot, StatusCode.UNSET, 1000));
+        assertEquals(1, sampler.onRootEnd(root(failedRoot, StatusCode.ERROR, 1000)).size());
+    }
+
+    @Test
+    public void testBaselineFollowsTraceId() {
+        TailSampler sampler = new TailSampler(THRESHOLD, 0.5, 1 << 20, Long.MAX_VALUE);
+        // Low random part: within the ratio
+        String low = "0123456789abcdef0000000000000001";
+        sampler.add(span(low, StatusCode.UNSET, 1000));
+        assertEquals(1, sampler.onRootEnd(root(low, StatusCode.UNSET, 1000)).size());
+        String high = "0123456789abcdef7fffffffffffffff";
+        sampler.add(span(high, StatusCode.UNSET, 1000));
+        assertTrue(sampler.onRootEnd(root(high, StatusCode.UNSET, 1000)).isEmpty());
+    }
+
+    @Test
+    public void testChildEndingAfterRootFollowsDecision() {
+        TailSampler sampler = new TailSampler(THRESHOLD, 0.0, 1 << 20, TimeUnit.MINUTES.toNanos(1));
+        String failed = traceId(10);
+        sampler.add(span(failed, StatusCode.ERROR, 1000));
+        assertEquals(1, sampler.onRootEnd(root(failed, StatusCode.UNSET, 1000)).size());
+        // A deferred async span of the kept trace is exported right away
+        assertEquals(1, sampler.add(span(failed, StatusCode.UNSET, 1000)).size());
+
+        String fast = traceId(11);
+        sampler.add(span(fast, StatusCode.UNSET, 1000));
+        assertTrue(sampler.onRootEnd(root(fast, StatusCode.UNSET, 1000)).isEmpty());
+        assertTrue(sampler.add(span(fast, StatusCode.UNSET, 1000)).isEmpty());
+
+        // Neither opened a new bucket
+        assertEquals(0, sampler.getBufferedBytes());
+        assertTrue(sampler.drain().isEmpty());
+    }
+
+    @Test
+    public void testRootWithOpenDynamicSpanDecided() {
+        TailSampler sampler = new TailSampler(THRESHOLD, 0.0, 1 << 20, TimeUnit.MINUTES.toNanos(1));
+        String traceId = traceId(12);
+        sampler.onStart(root(traceId, StatusCode.UNSET, 0));
+        assertTrue(sampler.onRootEnd(root(traceId, StatusCode.ERROR, 1000)).isEmpty());
+        // The span still running at root end follows the failed root
+        assertEquals(1, sampler.add(span(traceId, StatusCode.UNSET, 1000)).size());
+    }
+
+    @Test
+    public void testRootWithoutDynamicSpansIgnored() {
+        TailSampler sampler = new TailSampler(THRESHOLD, 0.0, 1 << 20, TimeUnit.MINUTES.toNanos(1));
+        String traceId = traceId(13);
+        // Neither its status nor a decision is needed
+        Map<String, Object> values = new HashMap<>();
+        values.put("getSpanContext", context(traceId, ROOT_SPAN_ID));
+        assertTrue(sampler.onRootEnd(proxy(ReadableSpan.class, values)).isEmpty());
+
+        sampler.add(span(traceId, StatusCode.UNSET, 1000));
+        assertTrue(sampler.getBufferedBytes() > 0);
+    }
+
+    @Test
+    public void testMemoryCapEvictsOldestTraces() {
+        long spanSize = TailSampler.estimateSize(span(traceId(0), StatusCode.UNSET, 1000));
+        TailSampler sampler = new TailSampler(THRESHOLD, 0.0, spanSize * 3, Long.MAX_VALUE);
+        sampler.add(span(traceId(5), StatusCode.ERROR, 1000));
+        for (int i = 6; i < 40; i++) {
+            sampler.add(span(traceId(i), StatusCode.UNSET, 1000));
+            assertTrue(sampler.getBufferedBytes() <= spanSize * 3);
+        }
+        // The evicted failed trace was exported early, so its root finds nothing
+        assertTrue(sampler.onRootEnd(root(traceId(5), StatusCode.UNSET, 1000)).isEmpty());
+    }
+
+    @Test
+    public void testOrphanBucketsExpire() {
+        TailSampler sampler = new TailSampler(THRESHOLD, 0.0, 1 << 20, 0);
+        sampler.add(span(traceId(7), StatusCode.UNSET, THRESHOLD * 2));
+        sampler.add(span(traceId(8), StatusCode.UNSET, 1000));
+        List<SpanData> kept = sampler.expire(System.nanoTime());
+        assertEquals(1, kept.size());
+        assertEquals(traceId(7), kept.get(0).getSpanContext().getTraceId());
+        assertEquals(0, sampler.getBufferedBytes());
+    }
+
+    @Test
+    public void testLocalRoot() {
+        assertTrue(TailSampler.isLocalRoot(root(traceId(9), StatusCode.UNSET, 1000)));
+        SpanContext remote = SpanContext.createFromRemoteParent(traceId(9), ROOT_SPAN_ID,
+                TraceFlags.getSampled(), TraceState.getDefault());
+        assertTrue(TailSampler.isLocalRoot(readable(traceId(9), remote, StatusCode.UNSET, 1000)));
+        assertFalse(TailSampler.isLocalRoot(readable(traceId(9), context(traceId(9), ROOT_SPAN_ID),
+                StatusCode.UNSET, 1000)));
+    }
+
+    private static String traceId(int n) {
+        return String.format("%032x", 0x1000L + n);
+    }
+
+    private static SpanContext context(String traceId, String spanId) {
+        return SpanContext.create(traceId, spanId, TraceFlags.getSampled(), TraceState.getDefault());
+    }
+
+    private static SpanData span(String traceId, StatusCode status, long durationNanos) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getName", "OrderService.process");
+        values.put("getSpanContext", context(traceId, "00000000000000bb"));
+        values.put("getStatus", status(status));
+        values.put("getStartEpochNanos", 0L);
+        values.put("getEndEpochNanos", durationNanos);
+        values.put("getTotalAttributeCount", 4);
+        values.put("getTotalRecordedEvents", 0);
+        values.put("getTotalRecordedLinks", 0);
+        return proxy(SpanData.class, values);
+    }
+
+    private static ReadableSpan root(String traceId, StatusCode status, long latencyNanos) {
+        return readable(traceId, SpanContext.getInvalid(), status, latencyNanos);
+    }
+
+    private static ReadableSpan readable(String traceId, SpanContext parent, StatusCode status, long latencyNanos) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("getStatus", status(status));
+        Map<String, Object> values = new HashMap<>();
+        values.put("getSpanContext", context(traceId, ROOT_SPAN_ID));
+        values.put("getParentSpanContext", parent);
+        values.put("getLatencyNanos", latencyNanos);
+        values.put("toSpanData", proxy(SpanData.class, data));
+        return proxy(ReadableSpan.class, values);
+    }
+
+    private static StatusData status(StatusCode code) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getStatusCode", code);
+        values.put("getDescription", "");
+        return proxy(StatusData.class, values);
+    }
+
+    private static <T> T proxy(Class<T> type, Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (!values.containsKey(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    return values.get(method.getName());
+                }));
+    }
+}
@@ -0,0 +1,99 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicCounters;
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import com.otel.dynamic.agent.RuleRegistrar;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for per-call blocked and waited time.
+ */
+public class ThreadContentionTest {
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @After
+    public void clearRegistry() {
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testBlockedAndWaitedTimeOfCall() throws Exception {
+        MethodConfig rule = new MethodConfig("com.example.InventoryService", "reserve");
+        rule.setContentionMetrics(true);
+        RuleRegistrar.populate(new InstrumentationConfig(Collections.singletonList(rule)));
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.InventoryService", "reserve");
+        assertEquals("com.example.InventoryService#reserve", resolved.getContentionKey());
+        String calls = DynamicCounters.CONTENTION_PREFIX + resolved.getContentionKey() + "."
+                + DynamicCounters.CONTENTION_CALLS;
+        long callsBefore = DynamicCounters.get(calls);
+
+        Object lock = new Object();
+        CountDownLatch held = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (lock) {
+                held.countDown();
+                sleep(50);
+            }
+        });
+        holder.start();
+        held.await();
+
+        ThreadInfo start = ThreadContention.sample();
+        synchronized (lock) {
+            lock.wait(20);
+        }
+        ThreadContention.record(recordingSpan(), resolved, start);
+        holder.join();
+
+        assertTrue((Long) attributes.get("thread.blocked_count") >= 1);
+        assertTrue((Long) attributes.get("thread.waited_count") >= 1);
+        if (ManagementFactory.getThreadMXBean().isThreadContentionMonitoringEnabled()) {
+            assertTrue(attributes.containsKey("thread.blocked_ms"));
+            assertTrue((Long) attributes.get("thread.waited_ms") >= 10);
+        }
+        assertEquals(callsBefore + 1, DynamicCounters.get(calls));
+    }
+
+    @Test
+    public void testMethodsWithoutFlagHaveNoKey() {
+        RuleRegistrar.populate(new InstrumentationConfig(Collections.singletonList(
+                new MethodConfig("com.example.InventoryService", "reserve"))));
+        assertNull(DynamicInstrumentationConfig.resolve("com.example.InventoryService", "reserve").getContentionKey());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Span recordingSpan() {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("setAttribute")) {
+                        attributes.put(((AttributeKey<?>) args[0]).getKey(), args[1]);
+                        return proxy;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,58 @@
+package com.otel.dynamic.extension;
+
+/**
+ * Cost of the samples taken around a call with {@code resourceMetrics}:
+ * one CPU time and one allocated bytes read at enter and at exit.
+ *
+ * Not a unit test (surefire does not pick it up). Run it after the test
+ * classes are compiled:
+ *
+ * <pre>
+ * mvn -q test-compile
+ * java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     com.otel.dynamic.extension.ThreadResourcesBenchmark
+ * </pre>
+ */
+public final class ThreadResourcesBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+    private static final int CALLS = 1_000_000;
+
+    private static long sink;
+
+    private ThreadResourcesBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("CPU time available: " + (ThreadResources.cpuNanos() >= 0));
+        System.out.println("Allocated bytes available: " + (ThreadResources.allocatedBytes() >= 0));
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(false);
+        }
+        for (int i = 0; i < ROUNDS; i++) {
+            run(true);
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    private static void run(boolean report) {
+        long nanoTime = measure(() -> sink += System.nanoTime());
+        long cpu = measure(() -> sink += ThreadResources.cpuNanos());
+        long allocated = measure(() -> sink += ThreadResources.allocatedBytes());
+        if (report) {
+            // A call samples each counter twice
+            System.out.printf("per call: cpu %.0f ns, allocated %.0f ns, both %.0f ns (System.nanoTime %.0f ns)%n",
+                    2.0 * cpu / CALLS, 2.0 * allocated / CALLS, 2.0 * (cpu + allocated) / CALLS,
+                    (double) nanoTime / CALLS);
+        }
+    }
+
+    private static long measure(Runnable sample) {
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            sample.run();
+        }
+        return System.nanoTime() - start;
+    }
+}
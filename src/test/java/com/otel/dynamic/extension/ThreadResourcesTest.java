@@ -0,0 +1,76 @@
+package com.otel.dynamic.extension;
+
+import com.otel.dynamic.agent.DynamicInstrumentationConfig;
+import com.otel.dynamic.agent.RuleRegistrar;
+import com.otel.dynamic.config.model.InstrumentationConfig;
+import com.otel.dynamic.config.model.MethodConfig;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for per-call thread CPU time and allocated bytes.
+ */
+public class ThreadResourcesTest {
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @After
+    public void clearRegistry() {
+        DynamicInstrumentationConfig.clear();
+    }
+
+    @Test
+    public void testDeltasRecordedOnSpan() {
+        MethodConfig rule = new MethodConfig("com.example.OrderServiceImpl", "processOrder");
+        rule.setResourceMetrics(true);
+        RuleRegistrar.populate(new InstrumentationConfig(Collections.singletonList(rule)));
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.OrderServiceImpl", "processOrder");
+        assertTrue(resolved.isResourceMetrics());
+
+        long cpuStart = ThreadResources.cpuNanos();
+        long allocatedStart = ThreadResources.allocatedBytes();
+        byte[][] garbage = new byte[64][];
+        for (int i = 0; i < garbage.length; i++) {
+            garbage[i] = new byte[16 * 1024];
+        }
+        ThreadResources.record(recordingSpan(), resolved, cpuStart, allocatedStart);
+
+        // The counters this JVM does not offer are left out rather than reported as 0
+        assertEquals(cpuStart >= 0, attributes.containsKey("thread.cpu_time_ms"));
+        if (allocatedStart >= 0) {
+            assertTrue((Long) attributes.get("thread.allocated_bytes") >= garbage.length * 16 * 1024L);
+        }
+    }
+
+    @Test
+    public void testUnavailableStartSampleSkipsAttribute() {
+        MethodConfig rule = new MethodConfig("com.example.OrderServiceImpl", "processOrder");
+        RuleRegistrar.populate(new InstrumentationConfig(Collections.singletonList(rule)));
+        DynamicInstrumentationConfig.ResolvedMethod resolved =
+                DynamicInstrumentationConfig.resolve("com.example.OrderServiceImpl", "processOrder");
+        assertFalse(resolved.isResourceMetrics());
+        ThreadResources.record(recordingSpan(), resolved, -1L, -1L);
+        assertTrue(attributes.isEmpty());
+    }
+
+    private Span recordingSpan() {
+        return (Span) Proxy.newProxyInstance(Span.class.getClassLoader(), new Class<?>[]{Span.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("setAttribute")) {
+                        attributes.put(((AttributeKey<?>) args[0]).getKey(), args[1]);
+                        return proxy;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,37 @@
+package com.otel.dynamic.extension;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for per-trace span budget and depth limits.
+ */
+public class TraceBudgetTest {
+
+    @Test
+    public void testDepthLimit() {
+        Context context = Context.root();
+        for (int depth = 1; depth <= 3; depth++) {
+            TraceBudget.Frame frame = TraceBudget.enter(context, 0, 3);
+            assertNotNull("depth " + depth, frame);
+            context = TraceBudget.store(context, frame, Span.getInvalid());
+        }
+        assertNull(TraceBudget.enter(context, 0, 3));
+        // A rule with a deeper limit may still nest
+        assertNotNull(TraceBudget.enter(context, 0, 4));
+    }
+
+    @Test
+    public void testSpanBudgetSharedAcrossTrace() {
+        TraceBudget.Frame rootFrame = TraceBudget.enter(Context.root(), 3, 0);
+        Context root = TraceBudget.store(Context.root(), rootFrame, Span.getInvalid());
+        assertNotNull(TraceBudget.enter(root, 3, 0));
+        assertNotNull(TraceBudget.enter(root, 3, 0));
+        assertNull(TraceBudget.enter(root, 3, 0));
+        // Rules without a budget still count, but are not refused
+        assertNotNull(TraceBudget.enter(root, 0, 0));
+    }
+}